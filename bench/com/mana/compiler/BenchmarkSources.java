@@ -0,0 +1,181 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Writes the sources the benchmarks are run over, with the
+ * {@code CorpusGenerator}. The seed is fixed, so the same sizes always give
+ * the same sources and runs may be compared with each other.
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+public final class BenchmarkSources {
+    /**
+     * How the spaces of a source are laid out.
+     */
+    public enum Shape {
+        /** As the generator writes it. */
+        plain,
+        /** Every space and line break drawn out into long runs of spaces. */
+        spaced,
+        /** With no comments and only the spaces which keep words apart. */
+        minified
+    }
+    
+    /** The seed of every source. */
+    private static final long SEED = 0x4d616e61L;
+    /** What every space of a spaced source is drawn out into. */
+    private static final String SPACE = "        ";
+    /** What every line break of a spaced source is drawn out into. */
+    private static final String LINE = "   \n\n\t\t    ";
+    
+    /** Not to be made. */
+    private BenchmarkSources() { }
+    
+    /**
+     * Writes the sources of every unit into a directory.
+     * 
+     * @param directory The directory to write into.
+     * @param units The amount of units.
+     * @param bytes The size each unit grows to.
+     * @throws IOException if a source cannot be written.
+     * @return The names of the files written, in the order of their units.
+     */
+    public static List<String> write(Path directory, int units, int bytes) throws IOException {
+        return new CorpusGenerator(SEED).files(units).bytes(bytes).write(directory);
+    }
+    
+    /**
+     * Writes one source of a shape into a directory. The source is made
+     * again larger or smaller once if reshaping it took it away from the
+     * size asked, so that sources of every shape are about as large.
+     * 
+     * @param directory The directory to write into.
+     * @param bytes The size the source grows to.
+     * @param shape How the spaces of the source are laid out.
+     * @throws IOException if the source cannot be written.
+     * @return The name of the file written.
+     */
+    public static String write(Path directory, int bytes, Shape shape) throws IOException {
+        CorpusGenerator generator = new CorpusGenerator(SEED);
+        String source = reshape(generator.bytes(bytes).source(0), shape);
+        
+        if (shape != Shape.plain)
+            source = reshape(generator.bytes((int)((long)bytes * bytes / source.length())).source(0), shape);
+        
+        Path file = directory.resolve(CorpusGenerator.name(0));
+        Files.write(file, Collections.singletonList(source), StandardCharsets.US_ASCII);
+        
+        return file.toString();
+    }
+    
+    /**
+     * @param source A source written by the generator.
+     * @param shape How the spaces of the source are to be laid out.
+     * @return The source in the shape.
+     */
+    static String reshape(String source, Shape shape) {
+        if (shape == Shape.minified)
+            source = uncomment(source);
+        
+        StringBuilder result = new StringBuilder(source.length());
+        
+        for (int i = 0; i < source.length(); i++) {
+            char c = source.charAt(i);
+            
+            if (shape == Shape.spaced && (c == ' ' || c == '\n')) {
+                result.append(c == ' ' ? SPACE : LINE);
+            } else if (shape == Shape.minified && Character.isWhitespace(c)) {
+                // a space is only kept between two words.
+                int next = i + 1;
+                
+                while (next < source.length() && Character.isWhitespace(source.charAt(next)))
+                    next++;
+                
+                if (result.length() > 0 && next < source.length()
+                        && word(result.charAt(result.length() - 1)) && word(source.charAt(next)))
+                    result.append(' ');
+                
+                i = next - 1;
+            } else
+                result.append(c);
+        }
+        
+        return result.toString();
+    }
+    
+    /**
+     * @param source A source written by the generator.
+     * @return The source with a space in place of each comment. The generator
+     *      writes no slashes in strings, so every two slashes or slash and
+     *      star begin a comment.
+     */
+    private static String uncomment(String source) {
+        StringBuilder result = new StringBuilder(source.length());
+        
+        for (int i = 0; i < source.length(); i++) {
+            char c = source.charAt(i);
+            
+            if (c == '/' && i + 1 < source.length() && (source.charAt(i + 1) == '/' || source.charAt(i + 1) == '*')) {
+                i = source.charAt(i + 1) == '/' ? source.indexOf('\n', i) : source.indexOf("*/", i) + 1;
+                result.append(' ');
+            } else
+                result.append(c);
+        }
+        
+        return result.toString();
+    }
+    
+    /**
+     * Deletes a directory and everything in it.
+     * 
+     * @param directory The directory to delete.
+     * @throws IOException if something in it cannot be deleted.
+     */
+    public static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>)paths.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(path);
+        }
+    }
+    
+    /**
+     * @param c A character.
+     * @return {@code true} if the character may be part of a name, keyword or
+     *      number.
+     */
+    private static boolean word(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+}
@@ -0,0 +1,1082 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler;
+
+import com.mana.compiler.grammar.Token.Type;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * Writes made up Mana sources which are valid: they lex, parse and check
+ * without errors. The same seed and knobs always give the same sources, and
+ * each file depends only on its number, so files are written at once and
+ * any one of them may be made again on its own. The knobs are set on one
+ * thread before writing; only the files themselves are written at once.
+ * 
+ * <p>
+ * The sources follow the grammar of the {@code Parser}, built out of the
+ * words of {@code Token.Type}, and the rules of the {@code SemanticAnalyzer}:
+ * every name is declared before it is used, every expression has the type
+ * its place asks for and every call has the arguments of its function.
+ * Division and remainder are only ever by a literal other than zero. The
+ * code is not meant to be run; its loops need not end.
+ * </p>
+ * 
+ * <p>
+ * The knobs are:
+ * </p>
+ * <ul>
+ * <li>{@code files} and {@code bytes}, the amount of files and the size each
+ * grows to. A file stops at the first function past its size, so a file is
+ * always a little larger than asked and never smaller than its exports.</li>
+ * <li>{@code identifiers}, how many names locals and parameters are drawn
+ * from. Globals and functions have names of their own.</li>
+ * <li>{@code comments}, the chance of a comment before each statement and
+ * declaration.</li>
+ * <li>{@code depth}, the deepest an expression may go. Each expression takes
+ * a depth up to it, and one operand at each level goes all the way down.</li>
+ * <li>{@code nesting}, the deepest blocks may nest in a function. Each
+ * function takes a nesting up to it, and the first statement of each block
+ * nests on down to it.</li>
+ * <li>{@code imports} and {@code fanout}, which files each file imports. A
+ * file only uses the globals and exported functions of files it imports;
+ * a file only ever imports files before it.</li>
+ * </ul>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+public final class CorpusGenerator {
+    /**
+     * The files each file imports.
+     */
+    public enum Imports {
+        /** Files import nothing. */
+        none,
+        /** Each file imports the one before it. */
+        chain,
+        /** Each file imports its parent in a tree of {@code fanout} children to a file. */
+        tree,
+        /** Each file imports up to {@code fanout} files before it, at random. */
+        random
+    }
+    
+    /** The types of the language, as their indices into {@code TYPES}. */
+    private static final int INT = 0, BOOL = 1, VOID = 2;
+    /** The names of the types. */
+    private static final String[] TYPES = Type.type.keywords;
+    /** The precedence a unary operator binds its operand with. */
+    private static final int UNARY = 7;
+    /** The amount of functions of a file others may call. */
+    private static final int EXPORTS = 2;
+    /** The amount of globals of each file. */
+    private static final int GLOBALS = 2;
+    /** The most parameters a function takes. */
+    private static final int MAX_PARAMETERS = 4;
+    /** The most statements in a block at the top of a function. */
+    private static final int MAX_STATEMENTS = 8;
+    /** The most levels lines are indented, so deep nesting does not turn into spaces. */
+    private static final int MAX_INDENT = 32;
+    /** How many times a name of a given type is sought before giving up. */
+    private static final int TRIES = 4;
+    /** The words comments are made of. */
+    private static final String[] WORDS = {
+        "the", "value", "of", "each", "is", "kept", "until", "loop", "ends", "so", "that",
+        "we", "count", "from", "here", "check", "first", "then", "next", "returns", "sum"
+    };
+    
+    /** The seed every file is made from. */
+    private final long seed;
+    /** The amount of files. */
+    private int files = 1;
+    /** The size each file grows to. */
+    private int bytes = 1 << 14;
+    /** The amount of names of locals and parameters. */
+    private int identifiers = 64;
+    /** The chance of a comment before each statement and declaration. */
+    private double comments = 0.1;
+    /** The deepest an expression may go. */
+    private int depth = 4;
+    /** The deepest blocks may nest in a function. */
+    private int nesting = 4;
+    /** The files each file imports. */
+    private Imports imports = Imports.random;
+    /** The most files a file imports, or the children of a file in a tree. */
+    private int fanout = 4;
+    /** The names of locals and parameters, made on the first file written. */
+    private String[] names;
+    
+    /**
+     * @param seed The seed every file is made from.
+     */
+    public CorpusGenerator(long seed) {
+        this.seed = seed;
+    }
+    
+    /**
+     * @param files The amount of files, at least one.
+     * @return This generator.
+     */
+    public CorpusGenerator files(int files) {
+        this.files = atLeast(1, files, "files");
+        return this;
+    }
+    
+    /**
+     * @param bytes The size each file grows to.
+     * @return This generator.
+     */
+    public CorpusGenerator bytes(int bytes) {
+        this.bytes = atLeast(0, bytes, "bytes");
+        return this;
+    }
+    
+    /**
+     * @param identifiers The amount of names of locals and parameters, at
+     *      least one.
+     * @return This generator.
+     */
+    public CorpusGenerator identifiers(int identifiers) {
+        this.identifiers = atLeast(1, identifiers, "identifiers");
+        names = null;
+        return this;
+    }
+    
+    /**
+     * @param comments The chance of a comment before each statement and
+     *      declaration, from zero to one.
+     * @return This generator.
+     */
+    public CorpusGenerator comments(double comments) {
+        if (!(comments >= 0 && comments <= 1))
+            throw new IllegalArgumentException("Expected a chance of comments from 0 to 1, not " + comments + ".");
+        
+        this.comments = comments;
+        return this;
+    }
+    
+    /**
+     * @param depth The deepest an expression may go.
+     * @return This generator.
+     */
+    public CorpusGenerator depth(int depth) {
+        this.depth = atLeast(0, depth, "depth");
+        return this;
+    }
+    
+    /**
+     * @param nesting The deepest blocks may nest in a function.
+     * @return This generator.
+     */
+    public CorpusGenerator nesting(int nesting) {
+        this.nesting = atLeast(0, nesting, "nesting");
+        return this;
+    }
+    
+    /**
+     * @param imports The files each file imports.
+     * @param fanout The most files a file imports, or the children of a file
+     *      in a tree; at least one.
+     * @return This generator.
+     */
+    public CorpusGenerator imports(Imports imports, int fanout) {
+        this.imports = imports;
+        this.fanout = atLeast(1, fanout, "fanout");
+        return this;
+    }
+    
+    /**
+     * @param file The number of a file.
+     * @return The name of the file, as other files import it.
+     */
+    public static String name(int file) {
+        return "unit" + file + ".mana";
+    }
+    
+    /**
+     * Writes every file into a directory, at once.
+     * 
+     * @param directory The directory to write into, made if it does not exist.
+     * @throws IOException if a file cannot be written.
+     * @return The names of the files written, in the order of their numbers.
+     */
+    public List<String> write(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        names();
+        
+        String[] result = new String[files];
+        
+        try {
+            IntStream.range(0, files).parallel().forEach((file) -> {
+                Path path = directory.resolve(name(file));
+                
+                try (Writer out = Files.newBufferedWriter(path, StandardCharsets.US_ASCII)) {
+                    write(file, out);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                
+                result[file] = path.toString();
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        
+        return Arrays.asList(result);
+    }
+    
+    /**
+     * @param file The number of a file.
+     * @return The source of the file.
+     */
+    public String source(int file) {
+        StringWriter out = new StringWriter();
+        
+        try {
+            write(file, out);
+        } catch (IOException ex) {
+            // a string writer does not throw.
+            throw new UncheckedIOException(ex);
+        }
+        
+        return out.toString();
+    }
+    
+    /**
+     * @param file The number of a file.
+     * @param out Where to write the source of the file.
+     * @throws IOException if the source cannot be written.
+     */
+    public void write(int file, Writer out) throws IOException {
+        new Unit(file, out).write();
+    }
+    
+    /**
+     * @param file The number of a file.
+     * @return The files the file imports, in the order of their numbers.
+     */
+    int[] imported(int file) {
+        if (file == 0)
+            return new int[0];
+        
+        switch (imports) {
+            case chain:
+                return new int[] { file - 1 };
+            case tree:
+                return new int[] { (file - 1) / fanout };
+            case random:
+                Random random = new Random(mix(mix(seed, file), -1));
+                Set<Integer> chosen = new HashSet<>();
+                int count = 1 + random.nextInt(Math.min(file, fanout));
+                
+                while (chosen.size() < count)
+                    chosen.add(random.nextInt(file));
+                
+                return chosen.stream().mapToInt(Integer::intValue).sorted().toArray();
+            default:
+                return new int[0];
+        }
+    }
+    
+    /**
+     * @param file The number of a file.
+     * @param function The number of a function of the file.
+     * @return The return type of the function followed by the types of its
+     *      parameters.
+     */
+    int[] signature(int file, int function) {
+        Random random = new Random(mix(mix(seed, file), function));
+        int[] result = new int[1 + random.nextInt(Math.min(MAX_PARAMETERS, identifiers) + 1)];
+        result[0] = random.nextInt(3);
+        
+        for (int i = 1; i < result.length; i++)
+            result[i] = random.nextInt(2);
+        
+        return result;
+    }
+    
+    /**
+     * @param file The number of a file.
+     * @param global The number of a global of the file.
+     * @return The type of the global.
+     */
+    int global(int file, int global) {
+        return (int)(mix(mix(seed, file), -2 - global) >>> 63);
+    }
+    
+    /**
+     * Makes the names of locals and parameters if they are not made yet.
+     * They are short words of lower case letters, which no keyword is and no
+     * global or function name can be.
+     * 
+     * @return The names.
+     */
+    private synchronized String[] names() {
+        if (names != null)
+            return names;
+        
+        Set<String> reserved = new HashSet<>();
+        
+        for (Type type : Type.values())
+            reserved.addAll(Arrays.asList(type.keywords));
+        
+        Random random = new Random(seed);
+        Set<String> result = new LinkedHashSet<>();
+        int length = 1;
+        
+        while (result.size() < identifiers) {
+            char[] word = new char[1 + random.nextInt(length)];
+            
+            for (int i = 0; i < word.length; i++)
+                word[i] = (char)('a' + random.nextInt(26));
+            
+            String name = new String(word);
+            
+            if (!reserved.contains(name) && !result.add(name))
+                length++;
+        }
+        
+        return names = result.toArray(new String[0]);
+    }
+    
+    /**
+     * @param least The least value allowed.
+     * @param value The value given.
+     * @param knob The name of the knob.
+     * @throws IllegalArgumentException if the value is less than allowed.
+     * @return The value.
+     */
+    private static int atLeast(int least, int value, String knob) {
+        if (value < least)
+            throw new IllegalArgumentException("Expected " + knob + " of at least " + least + ", not " + value + ".");
+        
+        return value;
+    }
+    
+    /**
+     * Mixes two numbers into a seed, so that nearby numbers give unrelated
+     * seeds.
+     * 
+     * @param a A number.
+     * @param b Another number.
+     * @return The seed.
+     */
+    private static long mix(long a, long b) {
+        long z = a * 0x9e3779b97f4a7c15L + b;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        
+        return z ^ (z >>> 31);
+    }
+    
+    /**
+     * Writes a corpus. The options are the knobs, given as
+     * {@code --knob=value}, along with {@code --seed}; the imports are given
+     * by their name. The last argument is the directory to write into.
+     * 
+     * @param args The command line arguments.
+     * @throws IOException if a file cannot be written.
+     */
+    public static void main(String[] args) throws IOException {
+        long seed = 0;
+        List<String> knobs = new ArrayList<>();
+        Path directory = Paths.get("corpus");
+        
+        for (String arg : args) {
+            if (arg.startsWith("--seed="))
+                seed = Long.parseLong(arg.substring(7));
+            else if (arg.startsWith("--"))
+                knobs.add(arg);
+            else
+                directory = Paths.get(arg);
+        }
+        
+        CorpusGenerator generator = new CorpusGenerator(seed);
+        Imports imports = generator.imports;
+        int fanout = generator.fanout;
+        
+        for (String knob : knobs) {
+            int equals = knob.indexOf('=');
+            
+            if (equals < 0)
+                throw new IllegalArgumentException("Expected a value for " + knob + ".");
+            
+            String value = knob.substring(equals + 1);
+            
+            switch (knob.substring(2, equals)) {
+                case "files":
+                    generator.files(Integer.parseInt(value));
+                    break;
+                case "bytes":
+                    generator.bytes(Integer.parseInt(value));
+                    break;
+                case "identifiers":
+                    generator.identifiers(Integer.parseInt(value));
+                    break;
+                case "comments":
+                    generator.comments(Double.parseDouble(value));
+                    break;
+                case "depth":
+                    generator.depth(Integer.parseInt(value));
+                    break;
+                case "nesting":
+                    generator.nesting(Integer.parseInt(value));
+                    break;
+                case "imports":
+                    imports = Imports.valueOf(value);
+                    break;
+                case "fanout":
+                    fanout = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("There is no knob " + knob + ".");
+            }
+        }
+        
+        generator.imports(imports, fanout).write(directory);
+    }
+    
+    /**
+     * The writing of one file. It keeps the names in scope as it goes, so
+     * every name it writes is declared and has the type it is used as.
+     */
+    private final class Unit {
+        /** The number of the file. */
+        final int file;
+        /** Where the source is written. */
+        final Writer writer;
+        /** Makes every choice of the file. */
+        final Random random;
+        /** The names of locals and parameters. */
+        final String[] pool = names();
+        /** The declaration being written, sent to the writer once it is done. */
+        final StringBuilder out = new StringBuilder();
+        /** The amount of characters sent to the writer. */
+        long written;
+        /** The names of the functions which may be called. */
+        final List<String> callees = new ArrayList<>();
+        /** The signatures of the functions which may be called. */
+        final List<int[]> signatures = new ArrayList<>();
+        /** The names of the globals which may be used. */
+        final List<String> globals = new ArrayList<>();
+        /** The types of the globals which may be used. */
+        final List<Integer> globalTypes = new ArrayList<>();
+        /** The names of the locals in scope. */
+        String[] locals = new String[16];
+        /** The types of the locals in scope. */
+        int[] localTypes = new int[16];
+        /** The amount of locals in scope. */
+        int count;
+        /** The amount of locals in scope when each scope opened. */
+        int[] scopes = new int[16];
+        /** The amount of open scopes. */
+        int open;
+        /** The return type of the function being written. */
+        int returns;
+        
+        /**
+         * @param file The number of the file.
+         * @param writer Where to write the source.
+         */
+        Unit(int file, Writer writer) {
+            this.file = file;
+            this.writer = writer;
+            random = new Random(mix(seed, file));
+        }
+        
+        /**
+         * Writes the imports, globals and then functions until the file is
+         * as large as asked.
+         * 
+         * @throws IOException if the source cannot be written.
+         */
+        void write() throws IOException {
+            out.append("// ").append(name(file)).append(", made from seed ").append(seed).append(".\n");
+            
+            for (int imported : imported(file)) {
+                out.append("import \"").append(name(imported)).append("\";\n");
+                
+                for (int i = 0; i < EXPORTS; i++)
+                    callable(imported, i);
+                
+                for (int i = 0; i < GLOBALS; i++) {
+                    globals.add("g" + imported + "_" + i);
+                    globalTypes.add(global(imported, i));
+                }
+            }
+            
+            out.append('\n');
+            
+            for (int i = 0; i < GLOBALS; i++) {
+                int type = global(file, i);
+                
+                comment(0);
+                out.append("var g").append(file).append('_').append(i).append(": ").append(TYPES[type]);
+                out.append(" = ");
+                literal(type);
+                out.append(";\n");
+                globals.add("g" + file + "_" + i);
+                globalTypes.add(type);
+            }
+            
+            out.append('\n');
+            flush();
+            
+            for (int i = 0; i < EXPORTS || written < bytes; i++) {
+                function(i);
+                flush();
+            }
+        }
+        
+        /**
+         * Sends what is written so far to the writer.
+         * 
+         * @throws IOException if it cannot be written.
+         */
+        void flush() throws IOException {
+            writer.append(out);
+            written += out.length();
+            out.setLength(0);
+        }
+        
+        /**
+         * Adds a function to those which may be called.
+         * 
+         * @param owner The number of the file of the function.
+         * @param function The number of the function in its file.
+         */
+        void callable(int owner, int function) {
+            callees.add("f" + owner + "_" + function);
+            signatures.add(signature(owner, function));
+        }
+        
+        /**
+         * @param function The number of the function in the file.
+         */
+        void function(int function) {
+            int[] signature = signature(file, function);
+            
+            comment(0);
+            out.append("func f").append(file).append('_').append(function).append('(');
+            
+            // the parameters and the locals of the body share a scope.
+            openScope();
+            
+            for (int i = 1; i < signature.length; i++) {
+                String name;
+                
+                do {
+                    name = pool[random.nextInt(pool.length)];
+                } while (inScope(name));
+                
+                if (i > 1)
+                    out.append(", ");
+                
+                out.append(name).append(": ").append(TYPES[signature[i]]);
+                local(name, signature[i]);
+            }
+            
+            out.append(')');
+            
+            if (signature[0] != VOID)
+                out.append(": ").append(TYPES[signature[0]]);
+            
+            out.append(" {\n");
+            returns = signature[0];
+            statements(0, random.nextInt(nesting + 1));
+            
+            if (returns != VOID) {
+                indent(1);
+                out.append("return ");
+                expression(returns);
+                out.append(";\n");
+            }
+            
+            out.append("}\n\n");
+            closeScope();
+            
+            // calls only go to functions before, so the calls of a corpus never loop.
+            callable(file, function);
+        }
+        
+        /**
+         * @param level The amount of blocks the statements are nested in,
+         *      inside the body of their function.
+         * @param target The level the first statement nests on down to.
+         */
+        void statements(int level, int target) {
+            int statements = 1 + random.nextInt(Math.max(1, MAX_STATEMENTS >> Math.min(level, 3)));
+            
+            for (int i = 0; i < statements; i++)
+                statement(level, i == 0 && level < target ? target : -1);
+        }
+        
+        /**
+         * @param level The amount of blocks the statement is nested in.
+         * @param target The level the statement nests on down to, or -1 if it
+         *      need not nest.
+         */
+        void statement(int level, int target) {
+            comment(level + 1);
+            
+            int choice = target >= 0 ? 7 + random.nextInt(3)
+                    : random.nextInt(level < nesting ? 10 : 7);
+            
+            switch (choice) {
+                case 0:
+                case 1:
+                case 2:
+                    // when every name tried is taken in the scope, assign instead.
+                    if (!declaration(level))
+                        assignment(level);
+                    break;
+                case 3:
+                case 4:
+                case 5:
+                    assignment(level);
+                    break;
+                case 6:
+                    call(level);
+                    break;
+                case 7:
+                    indent(level + 1);
+                    conditional(level, target);
+                    break;
+                case 8:
+                    indent(level + 1);
+                    out.append("while (");
+                    expression(BOOL);
+                    out.append(") ");
+                    block(level, target);
+                    out.append('\n');
+                    break;
+                default:
+                    indent(level + 1);
+                    block(level, target);
+                    out.append('\n');
+                    break;
+            }
+        }
+        
+        /**
+         * @param level The amount of blocks the statement is nested in.
+         * @return {@code false} if every name is taken in the scope, in which
+         *      case nothing is written.
+         */
+        boolean declaration(int level) {
+            String name = null;
+            
+            for (int i = 0; i < TRIES && name == null; i++) {
+                name = pool[random.nextInt(pool.length)];
+                
+                if (inScope(name))
+                    name = null;
+            }
+            
+            if (name == null)
+                return false;
+            
+            int type = random.nextInt(2);
+            indent(level + 1);
+            out.append("var ").append(name).append(": ").append(TYPES[type]);
+            
+            if (random.nextInt(4) > 0) {
+                out.append(" = ");
+                expression(type);
+            }
+            
+            out.append(";\n");
+            
+            // the name is only in scope after its declaration.
+            local(name, type);
+            
+            return true;
+        }
+        
+        /**
+         * @param level The amount of blocks the statement is nested in.
+         */
+        void assignment(int level) {
+            int variable = random.nextInt(count + globals.size());
+            String name = variable < count ? locals[variable] : globals.get(variable - count);
+            int type = variable < count ? localTypes[variable] : globalTypes.get(variable - count);
+            
+            // an outer local hidden by an inner one of the same name is not
+            // what the name refers to.
+            if (variable < count)
+                type = typeOf(name);
+            
+            indent(level + 1);
+            out.append(name).append(" = ");
+            expression(type);
+            out.append(";\n");
+        }
+        
+        /**
+         * @param level The amount of blocks the statement is nested in.
+         */
+        void call(int level) {
+            if (callees.isEmpty()) {
+                assignment(level);
+                return;
+            }
+            
+            indent(level + 1);
+            call(random.nextInt(callees.size()), random.nextInt(depth + 1));
+            out.append(";\n");
+        }
+        
+        /**
+         * Writes an if statement, with any amount of else ifs and maybe an
+         * else.
+         * 
+         * @param level The amount of blocks the statement is nested in.
+         * @param target The level the statement nests on down to, or -1.
+         */
+        void conditional(int level, int target) {
+            out.append("if (");
+            expression(BOOL);
+            out.append(") ");
+            block(level, target);
+            
+            while (random.nextInt(4) == 0) {
+                out.append(" else if (");
+                expression(BOOL);
+                out.append(") ");
+                block(level, -1);
+            }
+            
+            if (random.nextBoolean()) {
+                out.append(" else ");
+                block(level, -1);
+            }
+            
+            out.append('\n');
+        }
+        
+        /**
+         * Writes a block, from its opening brace to its closing one.
+         * 
+         * @param level The amount of blocks the block is nested in.
+         * @param target The level the first statement of the block nests on
+         *      down to, or -1.
+         */
+        void block(int level, int target) {
+            out.append("{\n");
+            openScope();
+            statements(level + 1, target);
+            closeScope();
+            indent(level + 1);
+            out.append('}');
+        }
+        
+        /**
+         * Writes an expression of a depth up to the deepest allowed.
+         * 
+         * @param type The type of the expression.
+         */
+        void expression(int type) {
+            expression(type, random.nextInt(depth + 1), 0);
+        }
+        
+        /**
+         * @param type The type of the expression.
+         * @param depth The depth of the expression.
+         * @param context The precedence of the operator the expression is an
+         *      operand of, or 0 if it is none.
+         */
+        void expression(int type, int depth, int context) {
+            if (depth == 0) {
+                leaf(type);
+                return;
+            }
+            
+            if (random.nextInt(8) == 0 && callReturning(type, depth))
+                return;
+            
+            if (type == INT) {
+                switch (random.nextInt(6)) {
+                    case 0:
+                        unary("-", INT, depth, context);
+                        break;
+                    case 1:
+                        binary("+", 5, INT, depth, context);
+                        break;
+                    case 2:
+                        binary("-", 5, INT, depth, context);
+                        break;
+                    case 3:
+                        binary("*", 6, INT, depth, context);
+                        break;
+                    default:
+                        // never by zero, or folding it would fail.
+                        boolean wrap = 6 <= context;
+                        out.append(wrap ? "(" : "");
+                        expression(INT, depth - 1, 5);
+                        out.append(random.nextBoolean() ? " / " : " % ").append(1 + random.nextInt(99));
+                        out.append(wrap ? ")" : "");
+                        break;
+                }
+            } else {
+                switch (random.nextInt(6)) {
+                    case 0:
+                        unary("!", BOOL, depth, context);
+                        break;
+                    case 1:
+                        binary("&&", 2, BOOL, depth, context);
+                        break;
+                    case 2:
+                        binary("||", 1, BOOL, depth, context);
+                        break;
+                    case 3:
+                        binary(random.nextBoolean() ? "==" : "!=", 3, random.nextInt(2), depth, context);
+                        break;
+                    default:
+                        String[] relations = { "<", "<=", ">", ">=" };
+                        binary(relations[random.nextInt(4)], 4, INT, depth, context);
+                        break;
+                }
+            }
+        }
+        
+        /**
+         * @param operator The operator.
+         * @param type The type of the operand.
+         * @param depth The depth of the expression.
+         * @param context The precedence of the operator the expression is an
+         *      operand of, or 0.
+         */
+        void unary(String operator, int type, int depth, int context) {
+            // a unary operand of a unary operator is put in parentheses.
+            boolean wrap = context >= UNARY;
+            out.append(wrap ? "(" : "").append(operator);
+            expression(type, depth - 1, UNARY);
+            out.append(wrap ? ")" : "");
+        }
+        
+        /**
+         * Writes a binary expression. One operand goes all the way down, the
+         * other goes down any depth short of it.
+         * 
+         * @param operator The operator.
+         * @param precedence The precedence of the operator.
+         * @param type The type of the operands.
+         * @param depth The depth of the expression.
+         * @param context The precedence of the operator the expression is an
+         *      operand of, or 0.
+         */
+        void binary(String operator, int precedence, int type, int depth, int context) {
+            boolean wrap = precedence <= context;
+            boolean left = random.nextBoolean();
+            
+            // the operators are left associative, so only the right operand
+            // needs parentheses at the same precedence.
+            out.append(wrap ? "(" : "");
+            expression(type, left ? depth - 1 : random.nextInt(depth), precedence - 1);
+            out.append(' ').append(operator).append(' ');
+            expression(type, left ? random.nextInt(depth) : depth - 1, precedence);
+            out.append(wrap ? ")" : "");
+        }
+        
+        /**
+         * @param type The type of the literal or variable.
+         */
+        void leaf(int type) {
+            String name = random.nextBoolean() ? variable(type) : null;
+            
+            if (name != null)
+                out.append(name);
+            else
+                literal(type);
+        }
+        
+        /**
+         * @param type The type of the literal.
+         */
+        void literal(int type) {
+            if (type == INT)
+                out.append(random.nextInt(1000));
+            else
+                out.append(random.nextBoolean() ? "true" : "false");
+        }
+        
+        /**
+         * @param type The type of the variable sought.
+         * @return A local in scope or a global of the type, or {@code null} if
+         *      none was found.
+         */
+        String variable(int type) {
+            for (int i = 0; i < TRIES; i++) {
+                int variable = random.nextInt(count + globals.size());
+                
+                if (variable >= count) {
+                    if (globalTypes.get(variable - count) == type)
+                        return globals.get(variable - count);
+                } else if (typeOf(locals[variable]) == type)
+                    return locals[variable];
+            }
+            
+            return null;
+        }
+        
+        /**
+         * @param type The return type of the function sought.
+         * @param depth The depth of the call.
+         * @return {@code false} if no function was found, in which case
+         *      nothing is written.
+         */
+        boolean callReturning(int type, int depth) {
+            if (callees.isEmpty())
+                return false;
+            
+            for (int i = 0; i < TRIES; i++) {
+                int callee = random.nextInt(callees.size());
+                
+                if (signatures.get(callee)[0] == type) {
+                    call(callee, depth);
+                    return true;
+                }
+            }
+            
+            return false;
+        }
+        
+        /**
+         * @param callee The index of the function called.
+         * @param depth The depth of the call.
+         */
+        void call(int callee, int depth) {
+            int[] signature = signatures.get(callee);
+            out.append(callees.get(callee)).append('(');
+            
+            for (int i = 1; i < signature.length; i++) {
+                if (i > 1)
+                    out.append(", ");
+                
+                expression(signature[i], depth == 0 ? 0 : random.nextInt(depth), 0);
+            }
+            
+            out.append(')');
+        }
+        
+        /**
+         * Writes a comment, by chance.
+         * 
+         * @param level The amount of levels the comment is indented.
+         */
+        void comment(int level) {
+            if (random.nextDouble() >= comments)
+                return;
+            
+            boolean line = random.nextBoolean();
+            int words = 1 + random.nextInt(12);
+            
+            indent(level);
+            out.append(line ? "//" : "/*");
+            
+            for (int i = 0; i < words; i++) {
+                // a long block comment runs over a line.
+                if (!line && i == 8)
+                    out.append('\n').append(' ');
+                
+                out.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            
+            out.append(line ? "\n" : " */\n");
+        }
+        
+        /**
+         * @param level The amount of levels to indent.
+         */
+        void indent(int level) {
+            for (int i = Math.min(level, MAX_INDENT); i > 0; i--)
+                out.append("    ");
+        }
+        
+        /** Opens a scope for locals. */
+        void openScope() {
+            if (open == scopes.length)
+                scopes = Arrays.copyOf(scopes, open << 1);
+            
+            scopes[open++] = count;
+        }
+        
+        /** Closes the innermost scope, forgetting its locals. */
+        void closeScope() {
+            count = scopes[--open];
+        }
+        
+        /**
+         * Declares a local in the innermost scope.
+         * 
+         * @param name The name of the local.
+         * @param type The type of the local.
+         */
+        void local(String name, int type) {
+            if (count == locals.length) {
+                locals = Arrays.copyOf(locals, count << 1);
+                localTypes = Arrays.copyOf(localTypes, count << 1);
+            }
+            
+            locals[count] = name;
+            localTypes[count++] = type;
+        }
+        
+        /**
+         * @param name A name.
+         * @return {@code true} if a local of the name is in the innermost scope.
+         */
+        boolean inScope(String name) {
+            for (int i = count - 1; i >= scopes[open - 1]; i--)
+                if (locals[i].equals(name))
+                    return true;
+            
+            return false;
+        }
+        
+        /**
+         * @param name The name of a local in scope.
+         * @return The type of the innermost local of the name.
+         */
+        int typeOf(String name) {
+            for (int i = count - 1; ; i--)
+                if (locals[i].equals(name))
+                    return localTypes[i];
+        }
+    }
+}
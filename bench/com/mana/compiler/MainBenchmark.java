@@ -0,0 +1,93 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler;
+
+import com.mana.compiler.util.handler.FlagHandler;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The throughput of the whole pipeline, as {@code Main} runs it: from the
+ * names of the sources to the executable written.
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MainBenchmark {
+    /** The amount of units. */
+    @Param({"1", "16", "64"})
+    public int units;
+    /** The size of each unit. */
+    @Param({"16384", "262144"})
+    public int bytes;
+    /** The directory the sources and the executable are written to. */
+    private Path directory;
+    /** The names of the sources. */
+    private List<String> files;
+    /** The scheduler the sources are compiled on. */
+    private CompileScheduler scheduler;
+    
+    /** Writes the sources and prepares what the benchmarks start from. */
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("mana-bench");
+        files = BenchmarkSources.write(directory, units, bytes);
+        FlagHandler.raiseFlags(new String[] {
+            FlagHandler.RuntimeFlag.output.flagName() + "=" + directory.resolve(Main.DEFAULT_EXECUTABLE)
+        });
+        scheduler = new CompileScheduler(Runtime.getRuntime().availableProcessors(), null, false);
+    }
+    
+    /** Deletes the sources. */
+    @TearDown
+    public void tearDown() throws IOException {
+        scheduler.shutdown();
+        FlagHandler.lowerFlags();
+        BenchmarkSources.delete(directory);
+    }
+    
+    /**
+     * @return The executable written.
+     */
+    @Benchmark
+    public File build() {
+        return Main.build(scheduler, files);
+    }
+}
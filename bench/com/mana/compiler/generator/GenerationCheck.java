@@ -0,0 +1,341 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.generator;
+
+import com.mana.compiler.generator.Quadruples.Op;
+import com.mana.compiler.lexer.Lexer;
+import com.mana.compiler.optimizer.Optimizer;
+import com.mana.compiler.parser.Parser;
+import com.mana.compiler.parser.SemanticAnalyzer;
+import com.mana.compiler.util.structures.DeclarationTable;
+import com.mana.compiler.util.structures.ParseTree;
+import com.mana.compiler.util.structures.SymbolInterner;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Checks that the code generated for a few programs, which once went wrong,
+ * does what their sources mean at every level of optimization. Each program
+ * is checked and generated, its top level code is run and then its function
+ * {@code f}, whose value is compared with the value the source gives.
+ * 
+ * <p>
+ * The code is run as it is, with names kept apart as the code keeps them, so
+ * a local given the operand of a name at the top level shows up as a wrong
+ * value. The first wrong value is printed with its program, and the check
+ * exits with {@code 1}.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+public final class GenerationCheck {
+    /** The programs, and the value of {@code f} in each. */
+    private static final Object[][] CASES = {
+        // a block local is no longer in scope where the global is returned.
+        {"var x: int = 1;\nfunc f(): int {\n    {\n        var x: int = 5;\n    }\n    return x;\n}\n", 1},
+        // the global is stored before a local of its name is declared.
+        {"var x: int = 1;\nfunc g(): int {\n    return x;\n}\nfunc f(): int {\n    x = 2;\n    var x: int = 5;\n"
+                + "    return x * 10 + g();\n}\n", 52},
+        // a block local shadows a local of the function.
+        {"func f(): int {\n    var a: int = 1;\n    {\n        var a: int = 2;\n        a = a + 1;\n    }\n"
+                + "    return a;\n}\n", 1},
+        // a block local shadows a parameter.
+        {"func h(p: int): int {\n    {\n        var p: int = 3;\n    }\n    return p;\n}\n"
+                + "func f(): int {\n    return h(7);\n}\n", 7},
+        // two blocks declare the name of a global which is used after both.
+        {"var y: int = 4;\nfunc f(): int {\n    var s: int = 0;\n    {\n        var y: int = 1;\n"
+                + "        s = s + y;\n    }\n    {\n        var y: int = 2;\n        s = s + y;\n    }\n"
+                + "    y = y + 1;\n    return s * 10 + y;\n}\n", 35},
+        // a loop declares the name of a global it counts down.
+        {"var n: int = 3;\nfunc f(): int {\n    var t: int = 0;\n    while (n > 0) {\n        n = n - 1;\n"
+                + "        var n: int = 10;\n        t = t + n;\n    }\n    return t + n;\n}\n", 30},
+        // a block local takes the name of a function called after the block.
+        {"func g(): int {\n    return 4;\n}\nfunc f(): int {\n    var s: int = 0;\n    {\n        var g: int = 1;\n"
+                + "        s = g;\n    }\n    return s * 10 + g();\n}\n", 14}
+    };
+    /** The most instructions a program may run, so one which never ends is caught. */
+    private static final int STEPS = 1 << 20;
+    /** The logger of the compiler, kept so it stays quiet. */
+    private static final Logger COMPILER = Logger.getLogger("com.mana.compiler");
+    
+    /** The functions of the program being run, by their names. */
+    private final Map<Integer, Quadruples> functions = new HashMap<>();
+    /** The values of the names at the top level. */
+    private final Map<Integer, Integer> globals = new HashMap<>();
+    /** The instructions left to run. */
+    private int steps = STEPS;
+    
+    /**
+     * Runs the top level code of a program and then its function {@code f}.
+     * 
+     * @param units The code of the program.
+     * @return The value of {@code f}.
+     */
+    private int run(IntermediateGeneration units) {
+        List<Quadruples> runs = new ArrayList<>();
+        
+        for (ThreeAddressGeneration unit : units.code()) {
+            for (Quadruples function : unit.functions()) {
+                if (function.name() == Quadruples.NONE)
+                    runs.add(function);
+                else
+                    functions.put(function.name(), function);
+            }
+        }
+        
+        for (Quadruples code : runs)
+            call(code, new int[0]);
+        
+        return call(functions.get(SymbolInterner.SHARED.intern("f")), new int[0]);
+    }
+    
+    /**
+     * @param code The code of a function or run.
+     * @param arguments The values of its parameters.
+     * @return The value it returns, or {@code 0} if it returns none.
+     */
+    private int call(Quadruples code, int[] arguments) {
+        Map<Integer, Integer> names = new HashMap<>();
+        Set<Integer> locals = new HashSet<>();
+        Map<Integer, Integer> labels = new HashMap<>();
+        int[] temporaries = new int[code.temporaries()];
+        List<Integer> passed = new ArrayList<>();
+        
+        for (int i = 0; i < code.parameters().length; i++) {
+            names.put(code.parameters()[i], arguments[i]);
+            locals.add(code.parameters()[i]);
+        }
+        
+        for (int local : code.locals())
+            locals.add(local);
+        
+        for (int i = 0; i < code.size(); i++) {
+            if (code.op(i) == Op.label)
+                labels.put(code.first(i), i);
+        }
+        
+        for (int i = 0; i < code.size(); i++) {
+            if (--steps == 0)
+                throw new IllegalStateException("The program does not end.");
+            
+            Op op = code.op(i);
+            int first = op == Op.label || op == Op.jump || op == Op.call ? 0 : value(code, code.first(i), names, locals,
+                    temporaries);
+            int second = code.second(i) == Quadruples.NONE || op == Op.jumpIfFalse || op == Op.call ? 0
+                    : value(code, code.second(i), names, locals, temporaries);
+            int result;
+            
+            switch (op) {
+                case label:
+                    continue;
+                case jump:
+                    i = labels.get(code.first(i));
+                    continue;
+                case jumpIfFalse:
+                    if (first == 0)
+                        i = labels.get(code.second(i));
+                    continue;
+                case param:
+                    passed.add(first);
+                    continue;
+                case ret:
+                    return code.first(i) == Quadruples.NONE ? 0 : first;
+                case call:
+                    int count = Quadruples.value(code.second(i));
+                    List<Integer> given = passed.subList(passed.size() - count, passed.size());
+                    result = call(functions.get(Quadruples.value(code.first(i))),
+                            given.stream().mapToInt(Integer::intValue).toArray());
+                    given.clear();
+                    break;
+                case copy:
+                    result = first;
+                    break;
+                case negate:
+                    result = -first;
+                    break;
+                case not:
+                    result = first == 0 ? 1 : 0;
+                    break;
+                case add:
+                    result = first + second;
+                    break;
+                case subtract:
+                    result = first - second;
+                    break;
+                case multiply:
+                    result = first * second;
+                    break;
+                case divide:
+                    result = first / second;
+                    break;
+                case remainder:
+                    result = first % second;
+                    break;
+                case equal:
+                    result = first == second ? 1 : 0;
+                    break;
+                case notEqual:
+                    result = first != second ? 1 : 0;
+                    break;
+                case less:
+                    result = first < second ? 1 : 0;
+                    break;
+                case lessEqual:
+                    result = first <= second ? 1 : 0;
+                    break;
+                case greater:
+                    result = first > second ? 1 : 0;
+                    break;
+                case greaterEqual:
+                    result = first >= second ? 1 : 0;
+                    break;
+                case and:
+                    result = first != 0 && second != 0 ? 1 : 0;
+                    break;
+                default:
+                    result = first != 0 || second != 0 ? 1 : 0;
+                    break;
+            }
+            
+            int target = code.result(i);
+            
+            if (target == Quadruples.NONE)
+                continue;
+            
+            if (Quadruples.tag(target) == Quadruples.TEMPORARY)
+                temporaries[Quadruples.value(target)] = result;
+            else if (locals.contains(Quadruples.value(target)))
+                names.put(Quadruples.value(target), result);
+            else
+                globals.put(Quadruples.value(target), result);
+        }
+        
+        return 0;
+    }
+    
+    /**
+     * @param code The code being run.
+     * @param operand An operand of the code.
+     * @param names The values of the parameters and locals of the code.
+     * @param locals The symbols of the parameters and locals of the code.
+     * @param temporaries The values of the temporaries of the code.
+     * @return The value of the operand.
+     */
+    private int value(Quadruples code, int operand, Map<Integer, Integer> names, Set<Integer> locals,
+            int[] temporaries) {
+        switch (Quadruples.tag(operand)) {
+            case Quadruples.TEMPORARY:
+                return temporaries[Quadruples.value(operand)];
+            case Quadruples.NUMBER:
+                return Quadruples.value(operand);
+            case Quadruples.NAME:
+                int symbol = Quadruples.value(operand);
+                
+                return (locals.contains(symbol) ? names : globals).getOrDefault(symbol, 0);
+            default:
+                throw new IllegalStateException("Cannot run " + code.text(operand) + ".");
+        }
+    }
+    
+    /**
+     * @param directory The directory to write the program into.
+     * @param source The source of the program.
+     * @throws IOException if the program cannot be written.
+     * @return The code of the program, or {@code null} if it has errors.
+     */
+    private static IntermediateGeneration generate(Path directory, String source) throws IOException {
+        Path file = Files.createTempFile(directory, "program", ".mana");
+        
+        try {
+            Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+            
+            ParseTree tree = new Parser(file.toString()).parse(new Lexer(file.toFile()).lex());
+            DeclarationTable table = new DeclarationTable();
+            SemanticAnalyzer.declare(tree, table);
+            tree = SemanticAnalyzer.check(tree, table.snapshot());
+            
+            return tree.errors() > 0 ? null
+                    : IntermediateGeneration.of(Collections.singletonList(IntermediateGeneration.generate(tree)));
+        } finally {
+            Files.delete(file);
+        }
+    }
+    
+    /**
+     * Runs the check.
+     * 
+     * @param args Not used.
+     * @throws IOException if a program cannot be written.
+     */
+    public static void main(String[] args) throws IOException {
+        Path directory = Files.createTempDirectory("generation");
+        String difference = null;
+        
+        // the checks report nothing of their own.
+        COMPILER.setLevel(Level.OFF);
+        
+        try {
+            for (int i = 0; difference == null && i < CASES.length; i++) {
+                String source = (String)CASES[i][0];
+                IntermediateGeneration generated = generate(directory, source);
+                
+                if (generated == null) {
+                    difference = "The program has errors\n" + source;
+                    continue;
+                }
+                
+                for (Optimizer.Level level : Optimizer.Level.values()) {
+                    int value = new GenerationCheck().run(new Optimizer(level).optimize(generated));
+                    
+                    if (value != (Integer)CASES[i][1]) {
+                        difference = "The program gives " + value + " rather than " + CASES[i][1] + " at "
+                                + level + "\n" + source;
+                        break;
+                    }
+                }
+            }
+        } finally {
+            Files.delete(directory);
+        }
+        
+        if (difference != null) {
+            System.out.println(difference);
+            System.exit(1);
+        }
+        
+        System.out.println("The code of " + CASES.length + " programs did what their sources mean at every level.");
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.generator;
+
+import com.mana.compiler.BenchmarkSources;
+import com.mana.compiler.parser.Parser;
+import com.mana.compiler.parser.SemanticAnalyzer;
+import com.mana.compiler.util.structures.ParseTree;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The throughput of {@code ThreeAddressGeneration.generateFor} over trees
+ * parsed and checked beforehand.
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ThreeAddressGenerationBenchmark {
+    /** The size of the source. */
+    @Param({"16384", "262144", "4194304"})
+    public int bytes;
+    /** The directory the source is written to. */
+    private Path directory;
+    /** The checked tree of the source. */
+    private ParseTree tree;
+    
+    /** Writes the sources and prepares what the benchmarks start from. */
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("mana-bench");
+        tree = new Parser(BenchmarkSources.write(directory, 1, bytes).get(0)).parse();
+        
+        List<Future<ParseTree>> parsed = new ArrayList<>(1);
+        parsed.add(CompletableFuture.completedFuture(tree));
+        SemanticAnalyzer.check(parsed);
+    }
+    
+    /** Deletes the sources. */
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkSources.delete(directory);
+    }
+    
+    /**
+     * @return The code of the tree.
+     */
+    @Benchmark
+    public ThreeAddressGeneration generateFor() {
+        return new ThreeAddressGeneration().generateFor(tree);
+    }
+}
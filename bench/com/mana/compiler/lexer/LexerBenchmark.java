@@ -0,0 +1,82 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.lexer;
+
+import com.mana.compiler.BenchmarkSources;
+import com.mana.compiler.grammar.TokenStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The throughput of {@code Lexer.lex}, from opening the file to the last
+ * token of its stream.
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LexerBenchmark {
+    /** The size of the source. */
+    @Param({"16384", "262144", "4194304"})
+    public int bytes;
+    /** The directory the source is written to. */
+    private Path directory;
+    /** The lexer of the source. */
+    private Lexer lexer;
+    
+    /** Writes the sources and prepares what the benchmarks start from. */
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("mana-bench");
+        lexer = new Lexer(new File(BenchmarkSources.write(directory, 1, bytes).get(0)));
+    }
+    
+    /** Deletes the sources. */
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkSources.delete(directory);
+    }
+    
+    /**
+     * @return The tokens of the source.
+     */
+    @Benchmark
+    public TokenStream lex() {
+        return lexer.lex();
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.lexer;
+
+import com.mana.compiler.BenchmarkSources;
+import com.mana.compiler.grammar.Token.Type;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The throughput of {@code SourceReader.next} over a source which is already
+ * loaded, so that only the scanning is measured. The source is read as the
+ * generator writes it, drawn out with long runs of spaces and minified, as
+ * spaces and words are skipped a word at a time.
+ * 
+ * <p>
+ * The bytes of the source are also taken one at a time, through
+ * {@code SourceReader.read} over the loaded source and through
+ * {@code FileInputStream.read} as sources were read before they were loaded
+ * whole. Sources of 16KB are read in bulk and larger ones are mapped.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SourceReaderBenchmark {
+    /** The size of the source. */
+    @Param({"16384", "262144", "4194304"})
+    public int bytes;
+    /** How the spaces of the source are laid out. */
+    @Param({"plain", "spaced", "minified"})
+    public BenchmarkSources.Shape shape;
+    /** The directory the source is written to. */
+    private Path directory;
+    /** The source. */
+    private File file;
+    /** The reader which loaded the source. */
+    private SourceReader whole;
+    
+    /** Writes the sources and prepares what the benchmarks start from. */
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("mana-bench");
+        file = new File(BenchmarkSources.write(directory, bytes, shape));
+        whole = new SourceReader(file);
+    }
+    
+    /** Deletes the sources. */
+    @TearDown
+    public void tearDown() throws Exception {
+        whole.close();
+        BenchmarkSources.delete(directory);
+    }
+    
+    /**
+     * @throws IOException if the source cannot be read.
+     * @return The amount of lexemes in the source.
+     */
+    @Benchmark
+    public int next() throws IOException {
+        SourceReader reader = new SourceReader(whole, 0);
+        int result = 0;
+        
+        while (reader.next() != Type.eof)
+            result++;
+        
+        return result;
+    }
+    
+    /**
+     * @return The sum of the bytes of the source, taken from the loaded source.
+     */
+    @Benchmark
+    public int read() {
+        SourceReader reader = new SourceReader(whole, 0);
+        int result = 0;
+        
+        for (int input = reader.read(); input >= 0; input = reader.read())
+            result += input;
+        
+        return result;
+    }
+    
+    /**
+     * @throws IOException if the source cannot be read.
+     * @return The sum of the bytes of the source, taken from the file a byte
+     *      at a time.
+     */
+    @Benchmark
+    public int stream() throws IOException {
+        int result = 0;
+        
+        try (FileInputStream in = new FileInputStream(file)) {
+            for (int input = in.read(); input >= 0; input = in.read())
+                result += input;
+        }
+        
+        return result;
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.parser;
+
+import com.mana.compiler.CorpusGenerator;
+import com.mana.compiler.grammar.Damage;
+import com.mana.compiler.grammar.Edit;
+import com.mana.compiler.grammar.TokenStream;
+import com.mana.compiler.lexer.Lexer;
+import com.mana.compiler.util.structures.ParseTree;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Checks that relexing and reparsing a file after edits gives the same tokens,
+ * tree and errors as lexing and parsing the edited file anew. Each round makes
+ * a few random edits to a made up source, which is given syntax errors first
+ * so recovering from them is checked too, and edits near comments more often,
+ * as they may swallow or give back the rest of a file. A few edits which once
+ * went wrong are checked before the random ones.
+ * 
+ * <p>
+ * Run with the amount of seeds, rounds of edits and bytes of each source. The
+ * first difference found is printed with the source and edits which gave it,
+ * and the check exits with {@code 1}.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+public final class ReparseCheck {
+    /** The sources, and the edit made to each, which once went wrong. */
+    private static final Object[][] CASES = {
+        // the error of the first statement of the block is held back by the
+        // error of the function before it.
+        {"func f(a: int): {\n    a {\n    a = 1;\n    a = 2;\n}\nvar g: int = 1;\n", 34, 1, "3"},
+        // the inner block is no longer closed, so every block around it runs
+        // into the end of the file.
+        {"func f() {\n    {\n        {\n            a = 1;\n        }\n    }\n", 45, 0, " {"},
+        // the error of the function is held back through two blocks, as the
+        // first statement of each, up to the call in the innermost one.
+        {"func f(a:) {\n    {\n        {\n            g();\n        )\n        }\n        while (a)\n"
+            + "            /* x */\n        h();\n    }\n}\n", 99, 1, ""},
+        // the if swallows the brace of its block, so the last brace of the
+        // file closes a block which ran into the end of the file before.
+        {"func f() {\n    {\n        {\n            {\n                if (a) {\n                    y();\n"
+            + "                }\n            }\n            z();\n        }\n", 62, 2, ""}
+    };
+    /** What a syntax error is made by putting in. */
+    private static final String[] JUNK = {"}", ";", "(", "{", "+", "func", "if", "= =", "var", ":"};
+    /** What an edit may put in. */
+    private static final String[] SNIPPETS = {"x", "1", "+", "(", ")", "{", "}", ";", "/*", "*/", "//", "\n",
+        "\"", "var q: int = 3;", " ", "if (a) { }", "func", "return 1;", "0x1F", "//c\n"};
+    /** The logger of the compiler, kept so it stays quiet. */
+    private static final Logger COMPILER = Logger.getLogger("com.mana.compiler");
+    
+    /** The file edited. */
+    private final Path edited;
+    /** The file the edited source is lexed and parsed anew from. */
+    private final Path fresh;
+    
+    /**
+     * @param directory The directory to write the two files into.
+     * @throws IOException if they cannot be made.
+     */
+    private ReparseCheck(Path directory) throws IOException {
+        edited = Files.createTempFile(directory, "edited", ".mana");
+        fresh = Files.createTempFile(directory, "fresh", ".mana");
+    }
+    
+    /**
+     * Edits a source round after round, comparing the incremental tree with
+     * a fresh one after each.
+     * 
+     * @param source The source to start from.
+     * @param random Where the edits are drawn from, or {@code null} to make
+     *      only the given edits.
+     * @param rounds The amount of rounds.
+     * @param given The edits to make when none are drawn.
+     * @throws IOException if a file cannot be written.
+     * @return A description of the first difference, or {@code null} if there
+     *      was none.
+     */
+    private String check(byte[] source, Random random, int rounds, List<Edit> given) throws IOException {
+        Files.write(edited, source);
+        
+        Lexer lexer = new Lexer(edited.toFile());
+        Parser parser = new Parser(edited.toString());
+        TokenStream tokens = lexer.lex();
+        ParseTree tree = parser.parse(tokens);
+        
+        for (int round = 0; round < rounds; round++) {
+            byte[] before = source;
+            List<Edit> edits = random == null ? given : edits(source, random);
+            
+            for (Edit edit : edits)
+                source = edit.apply(source, source.length);
+            
+            Damage damage = lexer.relex(tokens, edits);
+            tree = parser.reparse(tokens, tree, damage);
+            
+            Files.write(fresh, source);
+            
+            TokenStream expected = new Lexer(fresh.toFile()).lex();
+            ParseTree parsed = new Parser(fresh.toString()).parse(expected);
+            String difference = !tokens(tokens).equals(tokens(expected)) ? "tokens"
+                    : !tree(tree).equals(tree(parsed)) ? "trees"
+                    : tree.errors() != parsed.errors() ? "errors, " + tree.errors() + " against " + parsed.errors()
+                    : null;
+            
+            if (difference != null) {
+                StringBuilder result = new StringBuilder("The ").append(difference).append(" differ after editing\n")
+                        .append(new String(before, StandardCharsets.UTF_8)).append("\nwith");
+                
+                for (Edit edit : edits)
+                    result.append(" (").append(edit.offset).append(", ").append(edit.removed).append(", ")
+                            .append(edit.inserted()).append(" bytes)");
+                
+                return result.toString();
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * @param source The source to edit.
+     * @param random Where the edits are drawn from.
+     * @return One to three edits, applied one after the other.
+     */
+    private static List<Edit> edits(byte[] source, Random random) {
+        List<Edit> result = new ArrayList<>();
+        int length = source.length;
+        String text = new String(source, StandardCharsets.UTF_8);
+        
+        for (int i = 1 + random.nextInt(3); i > 0; i--) {
+            int offset = random.nextInt(length + 1);
+            int comment = text.indexOf("/*", offset);
+            
+            // half of the edits are made at or just past the start of a comment.
+            if (comment >= 0 && random.nextBoolean())
+                offset = Math.min(comment + random.nextInt(12), length);
+            
+            int removed = Math.min(random.nextInt(6), length - offset);
+            String inserted = random.nextInt(3) == 0 ? "" : SNIPPETS[random.nextInt(SNIPPETS.length)];
+            
+            result.add(new Edit(offset, removed, inserted));
+            length += inserted.length() - removed;
+        }
+        
+        return result;
+    }
+    
+    /**
+     * @param tokens A stream of tokens.
+     * @return Every field of every token, one token to a line.
+     */
+    private static String tokens(TokenStream tokens) {
+        StringBuilder result = new StringBuilder();
+        
+        for (int i = 0; i < tokens.size(); i++)
+            result.append(tokens.type(i)).append(' ').append(tokens.offset(i)).append(' ').append(tokens.length(i))
+                    .append(' ').append(tokens.line(i)).append(' ').append(tokens.column(i)).append(' ')
+                    .append(tokens.symbol(i)).append('\n');
+        
+        return result.toString();
+    }
+    
+    /**
+     * @param tree A parse tree.
+     * @return The kind, span and token of every node, and the positions of the
+     *      syntax errors. Tokens are given by offset, as the incremental tree
+     *      keeps its relexed tokens past the old ones.
+     */
+    private static String tree(ParseTree tree) {
+        StringBuilder result = new StringBuilder();
+        TokenStream tokens = tree.tokens();
+        
+        tree.walk(ParseTree.ROOT, new ParseTree.Visitor() {
+            @Override
+            public boolean enter(ParseTree tree, int node) {
+                result.append('(').append(tree.kind(node)).append(' ').append(tree.start(node)).append(' ')
+                        .append(tree.end(node));
+                
+                if (tree.token(node) != ParseTree.NONE)
+                    result.append(' ').append(tokens.offset(tree.token(node)));
+                
+                return true;
+            }
+            
+            @Override
+            public void exit(ParseTree tree, int node) {
+                result.append(')');
+            }
+        });
+        
+        for (int i = 0; i <= tree.end(ParseTree.ROOT); i++) {
+            if (tree.faulted(i))
+                result.append(' ').append(i);
+        }
+        
+        return result.toString();
+    }
+    
+    /**
+     * @param source A source without errors.
+     * @param random Where the errors are drawn from.
+     * @return The source with a syntax error put in every few hundred bytes.
+     */
+    private static byte[] spoil(String source, Random random) {
+        StringBuilder result = new StringBuilder(source);
+        
+        for (int i = source.length() / 300; i >= 0; i--)
+            result.insert(random.nextInt(result.length()), ' ' + JUNK[random.nextInt(JUNK.length)] + ' ');
+        
+        return result.toString().getBytes(StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Runs the check.
+     * 
+     * @param args The amount of seeds, rounds and bytes, which are 50, 200
+     *      and 6000 if not given.
+     * @throws IOException if a file cannot be written.
+     */
+    public static void main(String[] args) throws IOException {
+        int seeds = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int bytes = args.length > 2 ? Integer.parseInt(args[2]) : 6000;
+        Path directory = Files.createTempDirectory("reparse");
+        ReparseCheck check = new ReparseCheck(directory);
+        String difference = null;
+        
+        // every syntax error is reported as it is found.
+        COMPILER.setLevel(Level.OFF);
+        
+        try {
+            for (int i = 0; difference == null && i < CASES.length; i++)
+                difference = check.check(((String)CASES[i][0]).getBytes(StandardCharsets.UTF_8), null, 1,
+                        Collections.singletonList(new Edit((Integer)CASES[i][1], (Integer)CASES[i][2],
+                        (String)CASES[i][3])));
+            
+            for (int seed = 0; difference == null && seed < seeds; seed++) {
+                Random random = new Random(seed);
+                String source = new CorpusGenerator(seed).bytes(bytes).comments(0.5).source(0);
+                
+                difference = check.check(seed % 2 == 0 ? spoil(source, random)
+                        : source.getBytes(StandardCharsets.UTF_8), random, rounds, null);
+            }
+        } finally {
+            Files.delete(check.edited);
+            Files.delete(check.fresh);
+            Files.delete(directory);
+        }
+        
+        if (difference != null) {
+            System.out.println(difference);
+            System.exit(1);
+        }
+        
+        System.out.println("Incremental and fresh parses agreed over " + seeds + " seeds of " + rounds + " rounds.");
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.parser;
+
+import com.mana.compiler.BenchmarkSources;
+import com.mana.compiler.generator.IntermediateGeneration;
+import com.mana.compiler.util.structures.DeclarationTable;
+import com.mana.compiler.util.structures.ParseTree;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The throughput of {@code SemanticAnalyzer.check} over trees parsed
+ * beforehand. Checking a whole compilation also generates its code, so the
+ * two phases of checking are measured on their own as well.
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SemanticAnalyzerBenchmark {
+    /** The amount of units. */
+    @Param({"1", "16"})
+    public int units;
+    /** The size of each unit. */
+    @Param({"16384", "262144"})
+    public int bytes;
+    /** The directory the sources are written to. */
+    private Path directory;
+    /** The trees of every unit. */
+    private List<ParseTree> trees;
+    /** The same trees, as the scheduler would hand them over. */
+    private List<Future<ParseTree>> parsed;
+    
+    /** Writes the sources and prepares what the benchmarks start from. */
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("mana-bench");
+        trees = new ArrayList<>(units);
+        parsed = new ArrayList<>(units);
+        
+        for (String file : BenchmarkSources.write(directory, units, bytes)) {
+            ParseTree tree = new Parser(file).parse();
+            trees.add(tree);
+            parsed.add(CompletableFuture.completedFuture(tree));
+        }
+    }
+    
+    /** Deletes the sources. */
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkSources.delete(directory);
+    }
+    
+    /**
+     * @return The code of the checked trees.
+     */
+    @Benchmark
+    public IntermediateGeneration check() {
+        return SemanticAnalyzer.check(parsed);
+    }
+    
+    /**
+     * @return The table of every declaration.
+     */
+    @Benchmark
+    public DeclarationTable declare() {
+        DeclarationTable result = new DeclarationTable();
+        
+        for (ParseTree tree : trees)
+            SemanticAnalyzer.declare(tree, result);
+        
+        return result;
+    }
+    
+    /**
+     * @return The number of errors found, which should be none.
+     */
+    @Benchmark
+    public int declareAndCheck() {
+        DeclarationTable table = new DeclarationTable();
+        
+        for (ParseTree tree : trees)
+            SemanticAnalyzer.declare(tree, table);
+        
+        DeclarationTable.Snapshot declarations = table.snapshot();
+        int result = 0;
+        
+        for (ParseTree tree : trees)
+            result += SemanticAnalyzer.check(tree, declarations).errors();
+        
+        return result;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.util.structures;
+
+import com.mana.compiler.grammar.Token.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Tells keywords from identifiers with the {@code KeywordRecognizer} the
+ * lexer uses, against the {@code Trie} it used before, over a mix of words
+ * as a source would hold them. The trie is asked both with words made into
+ * strings first, as the lexer once did, and with strings made beforehand.
+ * The trie also takes prefixes of keywords, so it finds more words.
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class KeywordRecognizerBenchmark {
+    /** The letters identifiers are made of. */
+    private static final String LETTERS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+    /** The amount of words looked up. */
+    private static final int WORDS = 200000;
+    /** How many of the words in a hundred are keywords. */
+    @Param({"0", "30", "100"})
+    public int keywords;
+    /** The words looked up. */
+    private String[] words;
+    /** The offset of each word in the source. */
+    private int[] offsets;
+    /** The words one after another, as in a source read onto the heap. */
+    private byte[] source;
+    /** The same source, as if it were mapped. */
+    private ByteBuffer direct;
+    /** The trie holding every keyword. */
+    private Trie trie;
+    /** The recognizer of every keyword. */
+    private KeywordRecognizer recognizer;
+    
+    /** Makes up the words and fills the trie and the recognizer. */
+    @Setup
+    public void setup() {
+        List<String> spellings = new ArrayList<>();
+        List<Integer> values = new ArrayList<>();
+        
+        for (Type type : Type.values()) {
+            for (String keyword : type.keywords) {
+                spellings.add(keyword);
+                values.add(type.index);
+            }
+        }
+        
+        trie = new Trie();
+        
+        for (String keyword : spellings)
+            trie.insert(keyword);
+        
+        recognizer = new KeywordRecognizer(spellings.toArray(new String[0]),
+                values.stream().mapToInt(Integer::intValue).toArray());
+        
+        Random random = new Random(keywords);
+        StringBuilder text = new StringBuilder();
+        words = new String[WORDS];
+        offsets = new int[WORDS + 1];
+        
+        for (int i = 0; i < WORDS; i++) {
+            words[i] = random.nextInt(100) < keywords ? spellings.get(random.nextInt(spellings.size()))
+                    : identifier(random);
+            offsets[i] = text.length();
+            text.append(words[i]);
+        }
+        
+        offsets[WORDS] = text.length();
+        source = text.toString().getBytes(StandardCharsets.US_ASCII);
+        direct = ByteBuffer.allocateDirect(source.length);
+        direct.put(source).clear();
+    }
+    
+    /**
+     * @return The amount of words the trie holds.
+     */
+    @Benchmark
+    public int trieOfBytes() {
+        int result = 0;
+        
+        for (int i = 0; i < WORDS; i++) {
+            if (trie.contains(new String(source, offsets[i], offsets[i + 1] - offsets[i], StandardCharsets.US_ASCII)))
+                result++;
+        }
+        
+        return result;
+    }
+    
+    /**
+     * @return The amount of words the trie holds.
+     */
+    @Benchmark
+    public int trieOfStrings() {
+        int result = 0;
+        
+        for (String word : words) {
+            if (trie.contains(word))
+                result++;
+        }
+        
+        return result;
+    }
+    
+    /**
+     * @return The amount of keywords among the words.
+     */
+    @Benchmark
+    public int recognizerOfHeap() {
+        int result = 0;
+        
+        for (int i = 0; i < WORDS; i++) {
+            if (recognizer.find(source, offsets[i], offsets[i + 1] - offsets[i]) >= 0)
+                result++;
+        }
+        
+        return result;
+    }
+    
+    /**
+     * @return The amount of keywords among the words.
+     */
+    @Benchmark
+    public int recognizerOfDirect() {
+        int result = 0;
+        
+        for (int i = 0; i < WORDS; i++) {
+            if (recognizer.find(direct, offsets[i], offsets[i + 1] - offsets[i]) >= 0)
+                result++;
+        }
+        
+        return result;
+    }
+    
+    /**
+     * @param random The source of the letters.
+     * @return An identifier of one to twelve letters.
+     */
+    private static String identifier(Random random) {
+        char[] result = new char[1 + random.nextInt(12)];
+        
+        for (int i = 0; i < result.length; i++)
+            result[i] = LETTERS.charAt(random.nextInt(LETTERS.length()));
+        
+        return new String(result);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.util.structures;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The throughput of filling a {@code Trie} and of looking words up in one.
+ * Half the words looked up are in the trie; the rest are made up.
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TrieBenchmark {
+    /** The letters the trie holds, upper case first. */
+    private static final String LETTERS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+    /** The amount of words inserted. */
+    @Param({"100", "10000", "1000000"})
+    public int words;
+    /** The words inserted. */
+    private String[] inserted;
+    /** The words looked up. */
+    private String[] sought;
+    /** The trie holding every inserted word. */
+    private Trie filled;
+    
+    /** Makes up the words and fills the trie with them. */
+    @Setup
+    public void setup() {
+        Random random = new Random(words);
+        inserted = new String[words];
+        sought = new String[words];
+        filled = new Trie();
+        
+        for (int i = 0; i < words; i++) {
+            inserted[i] = word(random);
+            filled.insert(inserted[i]);
+        }
+        
+        for (int i = 0; i < words; i++)
+            sought[i] = (i & 1) == 0 ? inserted[random.nextInt(words)] : word(random) + "Zz";
+    }
+    
+    /**
+     * @return The trie filled with every word.
+     */
+    @Benchmark
+    public Trie insert() {
+        Trie result = new Trie();
+        
+        for (String word : inserted)
+            result.insert(word);
+        
+        return result;
+    }
+    
+    /**
+     * @return The amount of words found.
+     */
+    @Benchmark
+    public int contains() {
+        int result = 0;
+        
+        for (String word : sought) {
+            if (filled.contains(word))
+                result++;
+        }
+        
+        return result;
+    }
+    
+    /**
+     * @param random The source of the letters.
+     * @return A word of two to twelve letters.
+     */
+    private static String word(Random random) {
+        char[] result = new char[2 + random.nextInt(11)];
+        
+        for (int i = 0; i < result.length; i++)
+            result[i] = LETTERS.charAt(random.nextInt(LETTERS.length()));
+        
+        return new String(result);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hands a build over to a {@code CompileDaemon} and reports what it sends back:
+ * the diagnostics of the build on the error stream, and the path of the file
+ * made by the {@code Assembler} on the output stream.
+ * 
+ * <p>
+ * The client loads none of the compiler itself, so a build sent to a warm
+ * daemon costs little more than starting the JVM of the client.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+final class CompileClient {
+    /** No instances, a build is sent in a single call. */
+    private CompileClient() {}
+    
+    /**
+     * @param port The loopback port of a daemon.
+     * @return The file the daemon on the port writes its token to.
+     */
+    static Path tokenFile(int port) {
+        return Paths.get(System.getProperty("user.home"), ".mana-daemon-" + port);
+    }
+    
+    /**
+     * Sends the flags and files of a build to the daemon, and waits for the
+     * daemon to finish it.
+     * 
+     * @param port The loopback port the daemon listens on.
+     * @param args The flags and files of the build.
+     * @return {@code 0} if the build had no errors, {@code 1} if it had, and
+     *      {@code 2} if the daemon could not be reached.
+     */
+    static int send(int port, List<String> args) {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            String token = new String(Files.readAllBytes(tokenFile(port)), StandardCharsets.UTF_8).trim();
+            PrintWriter out = new PrintWriter(new BufferedWriter(
+                    new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)));
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            
+            out.println(token);
+            out.println(new File("").getAbsolutePath());
+            
+            for (String arg : args)
+                out.println(arg);
+            
+            out.println();
+            out.flush();
+            
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                if (line.startsWith("diagnostic "))
+                    System.err.println(line.substring("diagnostic ".length()));
+                else if (line.startsWith("done ")) {
+                    String[] done = line.split(" ", 3);
+                    
+                    if (!done[2].equals("-"))
+                        System.out.println(done[2]);
+                    
+                    return Integer.parseInt(done[1]) > 0 ? 1 : 0;
+                }
+            }
+            
+            throw new IOException("The daemon closed the connection before the build was done.");
+        } catch (IOException | RuntimeException ex) {
+            Logger.getLogger(CompileClient.class.getName()).log(Level.SEVERE, null, ex);
+            
+            return 2;
+        }
+    }
+}
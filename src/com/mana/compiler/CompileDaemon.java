@@ -0,0 +1,369 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler;
+
+import com.mana.compiler.grammar.SourceTable;
+import com.mana.compiler.util.handler.FlagHandler;
+import com.mana.compiler.util.handler.FlagHandler.RuntimeFlag;
+import com.mana.compiler.util.structures.SymbolInterner;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * Keeps the compiler resident between builds, so that a build does not pay
+ * for starting the JVM, loading the classes and tables of the compiler and
+ * warming up the JIT again; and so that the files which did not change since
+ * the last build are taken from the memory of its {@code CompileScheduler}.
+ * 
+ * <p>
+ * The daemon listens on a loopback port and runs one build at a time. A
+ * client sends, as lines of UTF-8, the token of the daemon, the directory it
+ * runs in, then each of its flags and files, then an empty line. Files are
+ * taken relative to the directory of the client. The daemon answers with a line of the form
+ * {@code diagnostic TEXT} for each line of each diagnostic logged during the
+ * build, as soon as it is logged, and ends with a single line of the form
+ * {@code done ERRORS OUTPUT}, where {@code ERRORS} is the amount of severe
+ * diagnostics and {@code OUTPUT} is the path of the file made by the
+ * {@code Assembler}, or {@code -} if it made none.
+ * </p>
+ * 
+ * <p>
+ * The pool, the cache and the memory of the daemon are set up from the flags
+ * it was started with; the flags of a client only choose how its own build is
+ * run. A client sending the shutdown flag stops the daemon.
+ * </p>
+ * 
+ * <p>
+ * Builds never overlap. The flags of a client are raised in the
+ * {@code FlagHandler}, and the sources and names of its files go into the
+ * {@code SourceTable} and the shared {@code SymbolInterner}, all of which are
+ * held by the whole process; a second build running at the same time would
+ * change them under the first. After each build the daemon releases the
+ * sources of the files which were not part of it. The names it interned are
+ * never released, so once the interner is half full the daemon stops after
+ * the build, to be started afresh.
+ * </p>
+ * 
+ * <p>
+ * Any user of the machine may connect to a loopback port, so the daemon
+ * makes a new random token each time it starts and writes it to a file in
+ * the home directory which only its user may read. A client which does not
+ * send the token is answered with a diagnostic and nothing is built. A
+ * client which stops sending before its request is done is dropped after
+ * {@code READ_TIMEOUT}, so it cannot hold up the builds of the others.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+final class CompileDaemon {
+    /** The port the daemon listens on when not told otherwise. */
+    static final int DEFAULT_PORT = 7373;
+    /** The most milliseconds the daemon waits on a line of a request. */
+    static final int READ_TIMEOUT = 10000;
+    /** The amount of random bytes in a token. */
+    private static final int TOKEN_BYTES = 32;
+    /**
+     * The parent of the loggers of the compiler; held on to since loggers are
+     * only weakly kept by the log manager.
+     */
+    private static final Logger COMPILER = Logger.getLogger("com.mana.compiler");
+    
+    /** The scheduler every build is run on. */
+    private final CompileScheduler scheduler;
+    /** The socket clients connect to. */
+    private final ServerSocket server;
+    /** The file the token is written to. */
+    private final Path tokenFile;
+    /** The token every client has to send. */
+    private final byte[] token;
+    
+    /**
+     * Sends each diagnostic logged during a build to the client of the build.
+     */
+    private static final class Reporter extends Handler {
+        /** Formats the messages of the diagnostics. */
+        private final SimpleFormatter formatter = new SimpleFormatter();
+        /** Where the diagnostics are sent. */
+        private final PrintWriter out;
+        /** The amount of severe diagnostics sent so far. */
+        private int errors;
+        
+        /**
+         * @param out Where the diagnostics are sent.
+         */
+        Reporter(PrintWriter out) {
+            this.out = out;
+        }
+        
+        @Override
+        public synchronized void publish(LogRecord record) {
+            if (!isLoggable(record))
+                return;
+            
+            Throwable thrown = record.getThrown();
+            String message = formatter.formatMessage(record);
+            
+            if (thrown != null)
+                message = message == null ? thrown.toString() : message + ' ' + thrown;
+            
+            if (record.getLevel().intValue() >= Level.SEVERE.intValue())
+                errors++;
+            
+            for (String line : (record.getLevel() + ": " + message).split("\r?\n"))
+                out.println("diagnostic " + line);
+            
+            out.flush();
+        }
+        
+        @Override
+        public void flush() {
+            out.flush();
+        }
+        
+        @Override
+        public void close() {
+            // the client owns the stream.
+        }
+    }
+    
+    /**
+     * @param scheduler The scheduler every build is run on.
+     * @param port The loopback port to listen on.
+     * @throws IOException if the port cannot be listened on.
+     */
+    CompileDaemon(CompileScheduler scheduler, int port) throws IOException {
+        this.scheduler = scheduler;
+        server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        tokenFile = CompileClient.tokenFile(port);
+        
+        try {
+            token = writeToken(tokenFile);
+        } catch (IOException ex) {
+            server.close();
+            throw ex;
+        }
+    }
+    
+    /**
+     * Makes a new token and writes it to a file only the user may read or
+     * write. The token is written to a file of its own first and then moved
+     * over the file, so a client never reads half a token.
+     * 
+     * @param file The file to write the token to.
+     * @throws IOException if the token cannot be written.
+     * @return The token, as the hexadecimal text written.
+     */
+    private static byte[] writeToken(Path file) throws IOException {
+        byte[] random = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(random);
+        
+        StringBuilder text = new StringBuilder(TOKEN_BYTES * 2);
+        
+        for (byte b : random)
+            text.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        
+        byte[] result = text.toString().getBytes(StandardCharsets.UTF_8);
+        Path written = file.resolveSibling(file.getFileName() + ".new");
+        Files.deleteIfExists(written);
+        
+        // the file is made with its permissions, so it is never readable by others.
+        if (Files.getFileAttributeView(file.getParent(), PosixFileAttributeView.class) != null)
+            Files.createFile(written, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        else {
+            File created = Files.createFile(written).toFile();
+            created.setReadable(false, false);
+            created.setWritable(false, false);
+            created.setReadable(true, true);
+            created.setWritable(true, true);
+        }
+        
+        Files.write(written, result);
+        Files.move(written, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        
+        return result;
+    }
+    
+    /**
+     * Runs the build of each client that connects, one at a time, until one of
+     * them asks the daemon to stop. Every client is served on the calling
+     * thread, so a build never starts before the one before it is done.
+     */
+    void serve() {
+        boolean running = true;
+        
+        // the diagnostics of a build belong to its client, not to the console
+        // the daemon was started from.
+        COMPILER.setUseParentHandlers(false);
+        
+        try {
+            while (running) {
+                try (Socket client = server.accept()) {
+                    client.setSoTimeout(READ_TIMEOUT);
+                    running = build(client);
+                } catch (IOException | RuntimeException ex) {
+                    // one client going wrong must not stop the daemon for the others.
+                    Logger.getLogger(CompileDaemon.class.getName()).log(Level.WARNING, null, ex);
+                }
+            }
+        } finally {
+            COMPILER.setUseParentHandlers(true);
+            
+            try {
+                server.close();
+                Files.deleteIfExists(tokenFile);
+            } catch (IOException ex) {
+                Logger.getLogger(CompileDaemon.class.getName()).log(Level.WARNING, null, ex);
+            }
+        }
+    }
+    
+    /**
+     * Reads the request of a client, runs its build and sends back the
+     * diagnostics and output of the build.
+     * 
+     * @param client The connection to the client.
+     * @throws IOException if the connection is lost.
+     * @return {@code false} if the client asked the daemon to stop.
+     */
+    private boolean build(Socket client) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8)));
+        String sent = in.readLine();
+        
+        if (sent == null)
+            return true;
+        
+        Reporter reporter = new Reporter(out);
+        File output = null;
+        boolean running = true;
+        List<String> files = new ArrayList<>();
+        COMPILER.addHandler(reporter);
+        
+        try {
+            if (!MessageDigest.isEqual(token, sent.getBytes(StandardCharsets.UTF_8)))
+                throw new SecurityException("The client did not send the token of the daemon in " + tokenFile + '.');
+            
+            List<String> flags = new ArrayList<>();
+            files = request(in, flags);
+            
+            FlagHandler.lowerFlags();
+            FlagHandler.raiseFlags(flags.toArray(new String[0]));
+            
+            if (FlagHandler.raised(RuntimeFlag.shutdown))
+                running = false;
+            else
+                output = Main.build(scheduler, files);
+        } catch (RuntimeException ex) {
+            // a bad request, or a build which failed, is only the client's.
+            Logger.getLogger(CompileDaemon.class.getName()).log(Level.SEVERE, null, ex);
+        } finally {
+            SourceTable.retain(files);
+            
+            // logged before the handler goes, so the client is told why.
+            if (SymbolInterner.SHARED.size() > SymbolInterner.CAPACITY / 2) {
+                Logger.getLogger(CompileDaemon.class.getName()).log(Level.WARNING,
+                        "The daemon has interned {0} names and stops, so it can be started afresh.",
+                        SymbolInterner.SHARED.size());
+                running = false;
+            }
+            
+            COMPILER.removeHandler(reporter);
+        }
+        
+        out.println("done " + reporter.errors + ' ' + (output == null ? "-" : output.getPath()));
+        out.flush();
+        
+        return running;
+    }
+    
+    /**
+     * Reads the directory, flags and files of a request, resolving the files
+     * and the paths of the flags against the directory.
+     * 
+     * @param in The request.
+     * @param flags Where the flags are put.
+     * @throws IOException if the connection is lost.
+     * @throws java.nio.file.InvalidPathException if a path of the request
+     *      is not a path.
+     * @return The files of the request.
+     */
+    private static List<String> request(BufferedReader in, List<String> flags) throws IOException {
+        String directory = in.readLine();
+        List<String> files = new ArrayList<>();
+        
+        if (directory == null)
+            throw new IOException("The client closed the connection before its request was done.");
+        
+        Path base = Paths.get(directory);
+        String module = RuntimeFlag.ir.flagName() + '=';
+        String executable = RuntimeFlag.output.flagName() + '=';
+        boolean located = false;
+        
+        for (String arg = in.readLine(); arg != null && !arg.isEmpty(); arg = in.readLine()) {
+            // the module and executable are written where the client would have written them.
+            if (arg.startsWith(module))
+                flags.add(module + base.resolve(arg.substring(module.length())).normalize());
+            else if (arg.equals(RuntimeFlag.ir.flagName()))
+                flags.add(module + base.resolve(Main.DEFAULT_MODULE).normalize());
+            else if (arg.startsWith(executable)) {
+                flags.add(executable + base.resolve(arg.substring(executable.length())).normalize());
+                located = true;
+            } else if (arg.charAt(0) == '-')
+                flags.add(arg);
+            else
+                files.add(base.resolve(arg).normalize().toString());
+        }
+        
+        if (!located)
+            flags.add(executable + base.resolve(Main.DEFAULT_EXECUTABLE).normalize());
+        
+        return files;
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler;
+
+import com.mana.compiler.generator.IntermediateGeneration;
+import com.mana.compiler.generator.ThreeAddressGeneration;
+import com.mana.compiler.parser.Parser;
+import com.mana.compiler.parser.SemanticAnalyzer;
+import com.mana.compiler.util.handler.CacheHandler;
+import com.mana.compiler.util.handler.FlagHandler;
+import com.mana.compiler.util.handler.FlagHandler.RuntimeFlag;
+import com.mana.compiler.util.structures.Declaration;
+import com.mana.compiler.util.structures.DeclarationTable;
+import com.mana.compiler.util.structures.ParseTree;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the compilation of every file given to the compiler on a bounded, work
+ * stealing pool.
+ * 
+ * <p>
+ * The files are handed out largest first, so the file which takes longest is
+ * never the one left running on its own at the end. A file past
+ * {@code SPLIT_SIZE} is lexed in pieces of about {@code PIECE_SIZE}, which
+ * the idle workers of the pool steal.
+ * </p>
+ * 
+ * <p>
+ * Given a {@code CacheHandler}, a file which has not changed since an earlier
+ * run takes its declarations from the cache instead of being parsed, and its
+ * code too when the declarations of the compilation have not changed either.
+ * </p>
+ * 
+ * <p>
+ * A scheduler which retains its files keeps the tree, declarations and code of
+ * every file compiled without errors in memory, keyed by the name and the hash
+ * of the file, and reuses them in later compilations the same way it would an
+ * entry of the cache, only without reading anything but the source back.
+ * What it kept of a file is dropped once a compilation goes without the file.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+final class CompileScheduler {
+    /** The size past which a file is lexed in pieces. */
+    static final long SPLIT_SIZE = 8 << 20;
+    /** The size of each piece of a file lexed in pieces. */
+    static final long PIECE_SIZE = 2 << 20;
+    
+    /** The pool every file is parsed on. */
+    final ForkJoinPool pool;
+    /** The cache of earlier runs, or {@code null} if there is none. */
+    final CacheHandler cache;
+    /** The files kept from earlier compilations, or {@code null} if none are kept. */
+    final Map<String, Retained> retained;
+    
+    /**
+     * What an earlier compilation left of a file which had no errors.
+     */
+    private static final class Retained {
+        /** The hash of the source of the file. */
+        final long hash;
+        /** The tree of the file, or {@code null} if it was never read. */
+        final ParseTree tree;
+        /** The top level declarations of the file. */
+        final List<Declaration> declarations;
+        /** The signature of the declarations the code was generated against. */
+        final long signature;
+        /** The code generated for the file. */
+        final ThreeAddressGeneration code;
+        
+        /**
+         * @param hash The hash of the source of the file.
+         * @param tree The tree of the file.
+         * @param declarations The top level declarations of the file.
+         * @param signature The signature the code was generated against.
+         * @param code The code generated for the file.
+         */
+        Retained(long hash, ParseTree tree, List<Declaration> declarations, long signature,
+                ThreeAddressGeneration code) {
+            this.hash = hash;
+            this.tree = tree;
+            this.declarations = declarations;
+            this.signature = signature;
+            this.code = code;
+        }
+    }
+    
+    /**
+     * A file on its way through the pipeline.
+     */
+    private static final class Unit {
+        /** The name of the file. */
+        final String file;
+        /** The size of the file in bytes. */
+        final long size;
+        /** The hash of the source of the file, if it was read to be hashed. */
+        final long hash;
+        /** What the cache knew of the file, or {@code null}. */
+        CacheHandler.Entry entry;
+        /** What an earlier compilation left of the file, or {@code null}. */
+        Retained kept;
+        /** The tree of the file, or {@code null} if it is still in the cache. */
+        ParseTree tree;
+        /** The top level declarations of the file. */
+        List<Declaration> declarations;
+        
+        /**
+         * @param file The name of the file.
+         * @param size The size of the file in bytes.
+         * @param hash The hash of the source of the file.
+         */
+        Unit(String file, long size, long hash) {
+            this.file = file;
+            this.size = size;
+            this.hash = hash;
+        }
+    }
+    
+    /**
+     * @param parallelism The amount of threads to parse with.
+     * @param cache The cache of earlier runs, or {@code null} to use none.
+     * @param retain {@code true} to keep the files in memory for the later
+     *      compilations of this scheduler.
+     */
+    CompileScheduler(int parallelism, CacheHandler cache, boolean retain) {
+        pool = new ForkJoinPool(parallelism);
+        this.cache = cache;
+        this.retained = retain ? new ConcurrentHashMap<>() : null;
+    }
+    
+    /**
+     * Parses, checks and generates code for every file, largest first. Each
+     * file declares its names as soon as it is parsed, and is checked and
+     * generated as soon as every file has declared its names; the only other
+     * wait is for the last file to finish before the code is handed back.
+     * 
+     * @param files The names of the files to compile.
+     * @return The intermediate generation of the files, in the same order as
+     *      the files.
+     */
+    IntermediateGeneration compile(List<String> files) {
+        if (retained != null)
+            retained.keySet().retainAll(new HashSet<>(files));
+        
+        final long[] sizes = new long[files.size()];
+        Integer[] order = new Integer[files.size()];
+        
+        for (int i = 0; i < order.length; i++) {
+            sizes[i] = new File(files.get(i)).length();
+            order[i] = i;
+        }
+        
+        Arrays.sort(order, Comparator.comparingLong((Integer i) -> sizes[i]).reversed());
+        
+        DeclarationTable table = new DeclarationTable();
+        List<CompletableFuture<Unit>> declared = new ArrayList<>(files.size());
+        
+        for (int i = 0; i < order.length; i++)
+            declared.add(null);
+        
+        for (int i : order) {
+            declared.set(i, CompletableFuture
+                    .supplyAsync(() -> load(files.get(i), sizes[i]), pool)
+                    .thenApply((unit) -> {
+                        SemanticAnalyzer.declare(unit.declarations, table);
+                        
+                        return unit;
+                    }));
+        }
+        
+        // a file may use the names of any other file, so checking waits for
+        // every file to be declared, failed files included.
+        CompletableFuture<DeclarationTable.Snapshot> declarations = CompletableFuture
+                .allOf(declared.toArray(new CompletableFuture<?>[0]))
+                .handle((done, ex) -> table.snapshot());
+        List<CompletableFuture<ThreeAddressGeneration>> generated = new ArrayList<>(files.size());
+        
+        for (CompletableFuture<Unit> file : declared) {
+            // async, so the checks are spread over the pool rather than run by
+            // whichever thread declared the last file.
+            generated.add(file.thenCombineAsync(declarations, this::generate, pool));
+        }
+        
+        List<ThreeAddressGeneration> result = new ArrayList<>(files.size());
+        
+        for (CompletableFuture<ThreeAddressGeneration> file : generated) {
+            try {
+                result.add(file.join());
+            } catch (CompletionException ex) {
+                Logger.getLogger(CompileScheduler.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+        
+        if (cache != null)
+            cache.evict();
+        
+        return IntermediateGeneration.of(result);
+    }
+    
+    /**
+     * Takes the declarations of a file from memory or from the cache if the
+     * file has not changed, and parses it otherwise.
+     * 
+     * @param file The name of the file.
+     * @param size The size of the file in bytes.
+     * @return The file with its declarations.
+     */
+    private Unit load(String file, long size) {
+        ByteBuffer source = cache == null && retained == null ? null : CacheHandler.read(file);
+        Unit result = new Unit(file, size, source == null ? 0 : CacheHandler.hash(source));
+        
+        if (source != null && retained != null) {
+            Retained kept = retained.get(file);
+            
+            if (kept != null && kept.hash == result.hash) {
+                result.kept = kept;
+                result.tree = kept.tree;
+                result.declarations = kept.declarations;
+                
+                return result;
+            }
+        }
+        
+        if (source != null && cache != null)
+            result.entry = cache.load(file, source);
+        
+        if (result.entry != null && result.entry.hit())
+            result.declarations = result.entry.declarations;
+        else {
+            result.tree = parse(file, size);
+            result.declarations = SemanticAnalyzer.declarations(result.tree);
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Checks and generates a file, unless memory or the cache holds code
+     * generated for the same file against the same declarations.
+     * 
+     * @param unit The file.
+     * @param declarations The declarations of every file.
+     * @return The code generated for the file.
+     */
+    private ThreeAddressGeneration generate(Unit unit, DeclarationTable.Snapshot declarations) {
+        long signature = declarations.signature();
+        
+        if (unit.kept != null) {
+            if (unit.kept.signature == signature)
+                return new ThreeAddressGeneration(unit.kept.code.functions());
+            
+            if (unit.tree == null)
+                unit.tree = parse(unit.file, unit.size);
+        } else if (unit.tree == null) {
+            if (unit.entry.signature == signature) {
+                retain(unit, signature, unit.entry.code);
+                
+                return unit.entry.code;
+            }
+            
+            // the declarations changed, so the file is checked again.
+            unit.tree = unit.entry.tree();
+            
+            if (unit.tree == null)
+                unit.tree = parse(unit.file, unit.size);
+        }
+        
+        ThreeAddressGeneration result = IntermediateGeneration.generate(SemanticAnalyzer.check(unit.tree, declarations));
+        
+        if (unit.entry != null)
+            cache.store(unit.entry, unit.tree, unit.declarations, signature, result);
+        
+        retain(unit, signature, result);
+        
+        return result;
+    }
+    
+    /**
+     * Keeps a file in memory for the next compilation if this scheduler
+     * retains its files and the file has no errors, and forgets it otherwise.
+     * 
+     * @param unit The file.
+     * @param signature The signature the code was generated against.
+     * @param code The code generated for the file.
+     */
+    private void retain(Unit unit, long signature, ThreeAddressGeneration code) {
+        if (retained == null)
+            return;
+        
+        if (unit.tree == null || unit.tree.errors() == 0)
+            retained.put(unit.file, new Retained(unit.hash, unit.tree, unit.declarations, signature, code));
+        else
+            retained.remove(unit.file);
+    }
+    
+    /**
+     * @param file The name of the file to parse.
+     * @param size The size of the file in bytes.
+     * @return The parse tree equivalent to the file.
+     */
+    ParseTree parse(String file, long size) {
+        Parser parser = new Parser(file);
+        
+        // a streaming lexer blocks on the ring, so it gets its own thread
+        // rather than a worker the parser may be waiting on.
+        if (FlagHandler.raised(RuntimeFlag.stream))
+            return parser.parse(Main.factory);
+        
+        if (size > SPLIT_SIZE) {
+            long pieces = Math.min((size + PIECE_SIZE - 1) / PIECE_SIZE, 4L * pool.getParallelism());
+            
+            return parser.parse((int) pieces);
+        }
+        
+        return parser.parse();
+    }
+    
+    /**
+     * Stops the threads of this scheduler once its work is done.
+     */
+    void shutdown() {
+        pool.shutdown();
+    }
+}
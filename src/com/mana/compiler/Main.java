@@ -24,18 +24,25 @@
 package com.mana.compiler;
 
 import com.mana.compiler.assembly.Assembler;
+import com.mana.compiler.assembly.Executable;
 import com.mana.compiler.generator.IntermediateGeneration;
-import com.mana.compiler.parser.Parser;
-import com.mana.compiler.parser.SemanticAnalyzer;
+import com.mana.compiler.generator.ModuleFile;
+import com.mana.compiler.generator.ThreeAddressGeneration;
+import com.mana.compiler.optimizer.Optimizer;
+import com.mana.compiler.util.handler.CacheHandler;
 import com.mana.compiler.util.handler.FlagHandler;
-import com.mana.compiler.util.structures.ParseTree;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
 
 /**
  * The {@code Main} class is strictly responsible for starting up the compiler,
@@ -50,13 +57,42 @@ import java.util.concurrent.Future;
  * @version alpha 0.0.0.1
  */
 class Main {
-    /** The thread factory that will allow our program to run threads tasks. */
+    /** The thread factory for the lexers of files parsed while being lexed. */
     static ExecutorService factory = Executors.newCachedThreadPool();
+    /** The cache directory used when the cache flag is given no value. */
+    static final String DEFAULT_CACHE = ".mana-cache";
+    /** The most megabytes the cache may hold when not told otherwise. */
+    static final int DEFAULT_CACHE_SIZE = 256;
+    /** The module written when the module flag is given no value. */
+    static final String DEFAULT_MODULE = "out" + ModuleFile.ENDING;
+    /** The executable written when the output flag is not given. */
+    static final String DEFAULT_EXECUTABLE = "out" + Executable.ENDING;
+    
+    /**
+     * Counts the errors reported by any part of the compiler while it is
+     * installed, whichever thread they are reported on.
+     */
+    private static final class ErrorCounter extends Handler {
+        /** The amount of severe records published. */
+        private final AtomicInteger errors = new AtomicInteger();
+        
+        @Override
+        public void publish(LogRecord record) {
+            if (record.getLevel().intValue() >= Level.SEVERE.intValue())
+                errors.incrementAndGet();
+        }
+        
+        @Override
+        public void flush() {}
+        
+        @Override
+        public void close() {}
+    }
     
     /**
      * @param args The command line arguments.
      */
-    public static void main(String[] args) throws InterruptedException {
+    public static void main(String[] args) {
         // begin by gathering all flags and files.
         final List<String> files = new ArrayList<>();
         final List<String> flags = new ArrayList<>();
@@ -71,22 +107,155 @@ class Main {
         // once done send flags to be checked and raised.
         FlagHandler.raiseFlags(flags.toArray(new String[0]));
         
-        // once done raising the run time flags then send out threads to run
-        // the parsers.
-        Collection<Callable<ParseTree>> tasks = new ArrayList<>();
+        // a client hands the whole build over to a resident compiler.
+        if (FlagHandler.raised(FlagHandler.RuntimeFlag.client)) {
+            List<String> forwarded = new ArrayList<>();
+            
+            for (String arg : args) {
+                if (!arg.startsWith(FlagHandler.RuntimeFlag.client.flagName()))
+                    forwarded.add(arg);
+            }
+            
+            System.exit(CompileClient.send(FlagHandler.positiveValue(
+                    FlagHandler.RuntimeFlag.client, CompileDaemon.DEFAULT_PORT), forwarded));
+        }
         
-        files.forEach((file) -> {
-            tasks.add((Callable) () -> {
-                return new Parser(file).parse();
-            });
-        });
+        // once done raising the run time flags then schedule each file through
+        // parsing, checking and generation over as many threads as we were
+        // given, or one per core. A daemon keeps its files in memory.
+        boolean daemon = FlagHandler.raised(FlagHandler.RuntimeFlag.daemon);
+        CompileScheduler scheduler = new CompileScheduler(FlagHandler.positiveValue(
+                FlagHandler.RuntimeFlag.jobs, Runtime.getRuntime().availableProcessors()), cache(), daemon);
         
-        List<Future<ParseTree>> returns = factory.invokeAll(tasks);
-        IntermediateGeneration generation = SemanticAnalyzer.check(returns);
+        if (daemon)
+            try {
+                new CompileDaemon(scheduler, FlagHandler.positiveValue(
+                        FlagHandler.RuntimeFlag.daemon, CompileDaemon.DEFAULT_PORT)).serve();
+            } catch (IOException ex) {
+                Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        else if (build(scheduler, files) == null) {
+            scheduler.shutdown();
+            factory.shutdown();
+            System.exit(1);
+        }
         
-        // send data to be compiled by the Assembler.
-        Assembler.assemble(generation);
+        scheduler.shutdown();
+        factory.shutdown();
         
         // from here the compiler should therefore be finished!
     }
+    
+    /**
+     * Compiles the files, optimizes their code as the optimization flags ask
+     * and sends it to be assembled. Modules among the files are not compiled;
+     * their code is mapped and follows the code of the sources. Nothing is
+     * written if any error was reported while loading, parsing or checking.
+     * 
+     * @param scheduler The scheduler to compile on.
+     * @param files The names of the files to compile.
+     * @return The file made by the Assembler, or {@code null} if it made none.
+     */
+    static File build(CompileScheduler scheduler, List<String> files) {
+        List<String> sources = new ArrayList<>();
+        List<ThreeAddressGeneration> loaded = new ArrayList<>();
+        Logger compiler = Logger.getLogger("com.mana.compiler");
+        ErrorCounter counter = new ErrorCounter();
+        IntermediateGeneration generation;
+        
+        compiler.addHandler(counter);
+        
+        try {
+            for (String file : files) {
+                if (!file.endsWith(ModuleFile.ENDING)) {
+                    sources.add(file);
+                    continue;
+                }
+                
+                try {
+                    loaded.addAll(ModuleFile.open(Paths.get(file)).code());
+                } catch (IOException ex) {
+                    Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+                }
+            }
+            
+            generation = scheduler.compile(sources);
+        } finally {
+            compiler.removeHandler(counter);
+        }
+        
+        // code generated from a file with errors is incomplete, and a module or
+        // executable of it would only be passed off as a build.
+        if (counter.errors.get() > 0) {
+            Logger.getLogger(Main.class.getName()).log(Level.INFO, "Nothing was written, errors found: {0}.",
+                    counter.errors.get());
+            
+            return null;
+        }
+        
+        if (!loaded.isEmpty()) {
+            List<ThreeAddressGeneration> code = new ArrayList<>(generation.code());
+            code.addAll(loaded);
+            generation = IntermediateGeneration.of(code);
+        }
+        
+        generation = new Optimizer(optimization(), scheduler.pool).optimize(generation);
+        
+        if (FlagHandler.raised(FlagHandler.RuntimeFlag.ir)) {
+            String module = FlagHandler.value(FlagHandler.RuntimeFlag.ir);
+            
+            try {
+                ModuleFile.write(Paths.get(module == null ? DEFAULT_MODULE : module), generation);
+            } catch (IOException ex) {
+                Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+        
+        // send data to be compiled by the Assembler.
+        String output = FlagHandler.value(FlagHandler.RuntimeFlag.output);
+        
+        try {
+            return new Assembler(FlagHandler.positiveValue(FlagHandler.RuntimeFlag.registers,
+                    Assembler.DEFAULT_REGISTERS), FlagHandler.raised(FlagHandler.RuntimeFlag.spills),
+                    FlagHandler.raised(FlagHandler.RuntimeFlag.rewrites), scheduler.pool)
+                    .assemble(generation, Paths.get(output == null ? DEFAULT_EXECUTABLE : output));
+        } catch (IOException ex) {
+            Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        }
+    }
+    
+    /**
+     * @return The most optimization any of the optimization flags asks for,
+     *      or none if none was given.
+     */
+    static Optimizer.Level optimization() {
+        if (FlagHandler.raised(FlagHandler.RuntimeFlag.optimizeFully))
+            return Optimizer.Level.full;
+        
+        if (FlagHandler.raised(FlagHandler.RuntimeFlag.optimize))
+            return Optimizer.Level.basic;
+        
+        return Optimizer.Level.none;
+    }
+    
+    /**
+     * @return The cache named by the cache flag, or {@code null} if the flag
+     *      was not given or the cache cannot be made.
+     */
+    static CacheHandler cache() {
+        if (!FlagHandler.raised(FlagHandler.RuntimeFlag.cache))
+            return null;
+        
+        String directory = FlagHandler.value(FlagHandler.RuntimeFlag.cache);
+        long megabytes = FlagHandler.positiveValue(FlagHandler.RuntimeFlag.cacheSize, DEFAULT_CACHE_SIZE);
+        
+        try {
+            return new CacheHandler(Paths.get(directory == null ? DEFAULT_CACHE : directory), megabytes << 20);
+        } catch (IOException ex) {
+            Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+            
+            return null;
+        }
+    }
 }
@@ -24,20 +24,240 @@
 package com.mana.compiler.assembly;
 
 import com.mana.compiler.generator.IntermediateGeneration;
+import com.mana.compiler.generator.Quadruples;
+import com.mana.compiler.generator.ThreeAddressGeneration;
+import com.mana.compiler.optimizer.StaticSingleAssignment;
+import com.mana.compiler.util.structures.SymbolInterner;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
 
 /**
  * This class is responsible for starting up the Arcade Assembler and assembling
  * the code carried by the {@code IntermediateGeneration} class after semantic
  * analysis, and this should return a file of the type Executable.
  * 
+ * <p>
+ * Before anything is assembled, each function is put in static single
+ * assignment form and given registers by a {@code LinearScan}, every function
+ * at once over the pool the assembler is given. The values which do not fit in the registers
+ * are spilled to slots of the stack frame; how many each function spilled is
+ * reported if asked for.
+ * </p>
+ * 
+ * <p>
+ * The instructions of each function are then selected by an
+ * {@code InstructionSelection} and rewritten by a {@code Peephole} pass, in
+ * the same task as its registers. How many rewrites each rule of the pass
+ * made over a build is reported if asked for. The instructions of each unit
+ * are then encoded on their own, every unit at once, and linked into an
+ * {@code Executable}.
+ * </p>
+ * 
  * @author Mana Technologies
  * @version 0.0.0.1
  */
 public class Assembler {
+    /** The amount of registers allocated when not told otherwise. */
+    public static final int DEFAULT_REGISTERS = 16;
+    /**
+     * The most registers allocated, leaving two scratch registers for the
+     * instructions selected, which the peephole pass keeps one bit each.
+     */
+    public static final int MAX_REGISTERS = Long.SIZE - 2;
+    
+    /** The amount of registers to allocate. */
+    private final int registers;
+    /** Whether to report the spills of each function. */
+    private final boolean report;
+    /** Whether to report the rewrites of each peephole rule. */
+    private final boolean reportRewrites;
+    /** The pool functions are allocated and units encoded over. */
+    private final ForkJoinPool pool;
+    /** The amount of values spilled in every build this assembler assembled. */
+    private final AtomicLong spills = new AtomicLong();
+    /** The rewrites of each peephole rule in every build this assembler assembled. */
+    private final AtomicLongArray rewrites = new AtomicLongArray(Peephole.Rule.length);
+    
+    /**
+     * @param registers The amount of registers to allocate, at least one and
+     *      at most {@code MAX_REGISTERS}.
+     * @param report Whether to report the spills of each function.
+     * @param reportRewrites Whether to report the rewrites of each peephole
+     *      rule.
+     */
+    public Assembler(int registers, boolean report, boolean reportRewrites) {
+        this(registers, report, reportRewrites, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * @param registers The amount of registers to allocate, at least one and
+     *      at most {@code MAX_REGISTERS}.
+     * @param report Whether to report the spills of each function.
+     * @param reportRewrites Whether to report the rewrites of each peephole
+     *      rule.
+     * @param pool The pool to allocate functions and encode units over.
+     */
+    public Assembler(int registers, boolean report, boolean reportRewrites, ForkJoinPool pool) {
+        this.registers = Math.min(registers, MAX_REGISTERS);
+        this.report = report;
+        this.reportRewrites = reportRewrites;
+        this.pool = pool;
+    }
+    
+    /**
+     * Assembles a build and writes it as an {@code Executable}.
+     * 
+     * @param icg The code of the build, which is not changed.
+     * @param output The file to write the executable to.
+     * @throws IOException if the executable cannot be written.
+     * @return The executable.
+     */
+    public File assemble(IntermediateGeneration icg, Path output) throws IOException {
+        List<MachineCode> selected = select(icg);
+        List<List<MachineCode>> units = new ArrayList<>();
+        int start = 0;
+        
+        for (ThreeAddressGeneration unit : icg.code()) {
+            int end = start + unit.functions().size();
+            units.add(selected.subList(start, end));
+            start = end;
+        }
+        
+        return Executable.write(output, units, pool);
+    }
+    
+    /**
+     * Allocates the registers of every function of a build and selects its
+     * instructions, in parallel.
+     * 
+     * @param icg The code of the build, which is not changed.
+     * @return The instructions of each function, in the order of the build.
+     */
+    public List<MachineCode> select(IntermediateGeneration icg) {
+        List<Quadruples> functions = functions(icg);
+        LinearScan[] allocated = new LinearScan[functions.size()];
+        MachineCode[] selected = new MachineCode[allocated.length];
+        Peephole[] rewritten = new Peephole[allocated.length];
+        
+        // a parallel stream started from a task of a pool runs over that pool.
+        pool.submit(() -> IntStream.range(0, allocated.length).parallel().forEach(function -> {
+            allocated[function] = new LinearScan(new StaticSingleAssignment(functions.get(function)), registers);
+            selected[function] = new InstructionSelection(allocated[function], registers).code();
+            rewritten[function] = new Peephole(selected[function]);
+        })).join();
+        
+        long[] counts = new long[Peephole.Rule.length];
+        
+        for (int function = 0; function < allocated.length; function++) {
+            spilled(allocated[function]);
+            
+            for (Peephole.Rule rule : Peephole.Rule.values())
+                counts[rule.index] += rewritten[function].rewrites(rule);
+        }
+        
+        StringBuilder report = new StringBuilder();
+        
+        for (Peephole.Rule rule : Peephole.Rule.values()) {
+            rewrites.addAndGet(rule.index, counts[rule.index]);
+            report.append(report.length() == 0 ? "" : ", ").append(rule).append(' ').append(counts[rule.index]);
+        }
+        
+        if (reportRewrites)
+            Logger.getLogger(Assembler.class.getName()).log(Level.INFO, "peephole rewrites: {0}", report);
+        
+        return Arrays.asList(selected);
+    }
+    
+    /**
+     * Allocates the registers of every function of a build in parallel.
+     * 
+     * @param icg The code of the build, which is not changed.
+     * @return The code of each function with its registers, in the order of
+     *      the build.
+     */
+    public List<Quadruples> allocate(IntermediateGeneration icg) {
+        List<Quadruples> functions = functions(icg);
+        LinearScan[] allocated = new LinearScan[functions.size()];
+        
+        pool.submit(() -> IntStream.range(0, allocated.length).parallel().forEach(function -> allocated[function] =
+                new LinearScan(new StaticSingleAssignment(functions.get(function)), registers))).join();
+        
+        List<Quadruples> result = new ArrayList<>(allocated.length);
+        
+        for (LinearScan function : allocated) {
+            result.add(function.code);
+            spilled(function);
+        }
+        
+        return result;
+    }
+    
+    /**
+     * @param icg The code of a build.
+     * @return Every function of the build, in order.
+     */
+    private static List<Quadruples> functions(IntermediateGeneration icg) {
+        List<Quadruples> result = new ArrayList<>();
+        
+        for (ThreeAddressGeneration unit : icg.code())
+            result.addAll(unit.functions());
+        
+        return result;
+    }
+    
+    /**
+     * Counts the spills of a function, and reports them if asked for.
+     * 
+     * @param function The registers allocated to the function.
+     */
+    private void spilled(LinearScan function) {
+        spills.addAndGet(function.spills);
+        
+        if (report && function.spills > 0)
+            Logger.getLogger(Assembler.class.getName()).log(Level.INFO,
+                    "{0}: {1} spilled, {2} loads and stores, {3} slots",
+                    new Object[] {name(function.code), function.spills, function.spillMoves, function.slots});
+    }
+    
+    /**
+     * @param code The code of a function.
+     * @return The name of the function, or {@code <top>} for top level code.
+     */
+    private static String name(Quadruples code) {
+        return code.name() == Quadruples.NONE ? "<top>" : SymbolInterner.SHARED.name(code.name());
+    }
+    
+    /**
+     * @return The amount of values spilled in every build this assembler
+     *      assembled.
+     */
+    public long spills() {
+        return spills.get();
+    }
+    
+    /**
+     * @param rule A rule of the peephole pass.
+     * @return How many rewrites the rule made in every build this assembler
+     *      assembled.
+     */
+    long rewrites(Peephole.Rule rule) {
+        return rewrites.get(rule.index);
+    }
     
-    // PLACEHOLDER
-    public static File assemble(IntermediateGeneration icg) {
-        return null;
+    /**
+     * @return The amount of registers this assembler allocates.
+     */
+    public int registers() {
+        return registers;
     }
 }
@@ -0,0 +1,136 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.assembly;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Direct buffers of one size, handed out to the sections being encoded and
+ * given back once they are written, so the buffers of one section are reused
+ * by the next instead of being allocated again.
+ * 
+ * <p>
+ * The pool is shared by every thread and takes no lock. It keeps at most a
+ * bounded amount of buffers; a buffer given back past that is left to the
+ * garbage collector.
+ * </p>
+ * 
+ * <p>
+ * The direct buffers it hands out are bounded too. Past that, it hands out
+ * heap buffers, which it never keeps: a build larger than the bound then
+ * takes the rest of its memory from the heap, where it is limited and freed
+ * like any other object, and is copied once more when written.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+final class BufferPool {
+    /** The bytes of each buffer of the shared pool. */
+    static final int CHUNK = 1 << 16;
+    /** The most buffers the shared pool keeps. */
+    private static final int MAX_POOLED = 256;
+    /** The most direct buffers the shared pool hands out at once, 64 megabytes. */
+    private static final int MAX_DIRECT = 1024;
+    /** The pool shared by every assembler. */
+    static final BufferPool SHARED = new BufferPool(CHUNK, MAX_POOLED, MAX_DIRECT);
+    
+    /** The bytes of each buffer. */
+    private final int chunk;
+    /** The most buffers kept. */
+    private final int max;
+    /** The most direct buffers handed out or kept at once. */
+    private final int maxDirect;
+    /** The buffers kept. */
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    /** The amount of buffers kept. */
+    private final AtomicInteger pooled = new AtomicInteger();
+    /** The amount of direct buffers handed out or kept. */
+    private final AtomicInteger direct = new AtomicInteger();
+    
+    /**
+     * @param chunk The bytes of each buffer.
+     * @param max The most buffers to keep.
+     * @param maxDirect The most direct buffers to hand out or keep at once, at
+     *      least {@code max}.
+     */
+    BufferPool(int chunk, int max, int maxDirect) {
+        this.chunk = chunk;
+        this.max = max;
+        this.maxDirect = maxDirect;
+    }
+    
+    /**
+     * @return The bytes of each buffer.
+     */
+    int chunk() {
+        return chunk;
+    }
+    
+    /**
+     * @return An empty little endian buffer, kept or newly allocated; a heap
+     *      buffer once as many direct buffers as allowed are out.
+     */
+    ByteBuffer take() {
+        ByteBuffer result = free.poll();
+        
+        if (result != null) {
+            pooled.decrementAndGet();
+            
+            return result;
+        }
+        
+        if (direct.incrementAndGet() > maxDirect) {
+            direct.decrementAndGet();
+            
+            return ByteBuffer.allocate(chunk).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        
+        return ByteBuffer.allocateDirect(chunk).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    
+    /**
+     * Gives a buffer back, keeping it unless it is a heap buffer or the pool
+     * is full. Every buffer taken has to be given back, even if it was never
+     * written, or it keeps counting against the direct buffers.
+     * 
+     * @param buffer A buffer taken from this pool, no longer used.
+     */
+    void give(ByteBuffer buffer) {
+        if (!buffer.isDirect())
+            return;
+        
+        if (pooled.incrementAndGet() > max) {
+            pooled.decrementAndGet();
+            direct.decrementAndGet();
+            return;
+        }
+        
+        buffer.clear();
+        free.add(buffer);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.assembly;
+
+import com.mana.compiler.util.handler.FileHandler;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Writes the instructions of a build as an Arcade executable.
+ * 
+ * <p>
+ * Each unit of the build is first encoded into {@code ObjectCode} of its
+ * own, every unit at once, and the {@code Linker} then joins them. Each
+ * section is encoded straight into direct buffers from the shared
+ * {@code BufferPool}, and given back once written; the header goes last, to
+ * the room left for it at the start of the file.
+ * </p>
+ * 
+ * <pre>
+ * header      := MAGIC VERSION entry sectionCount
+ * sections    := (kind offset size)*
+ * data        := a zero word for each global
+ * constants   := (length bytes)*
+ * text        := the entry, then the instructions of each unit
+ * symbols     := (name address)* for each named function, then each global
+ * strings     := (length bytes)*
+ * externals   := (address name)* for each call out of the build
+ * </pre>
+ * 
+ * <p>
+ * Every number is a little endian {@code int} and every address an offset in
+ * the file. An instruction is its opcode as a byte, then each operand: a
+ * register as a byte, 255 for none, and anything else as an {@code int}. The
+ * entry calls the top level of each unit in order. Where two units define a
+ * function of the same name, the first one's is called. A call to a function
+ * not in the build is left zero and listed in the externals, by the offset in
+ * the strings of its name.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+public final class Executable {
+    /** The ending of the names of executables. */
+    public static final String ENDING = ".arx";
+    /** The layout of executables, raised whenever it changes. */
+    public static final int VERSION = 1;
+    /** The first bytes of every executable. */
+    static final int MAGIC = 0x41525800;
+    /** The bytes before the section index. */
+    static final int HEADER = 16;
+    /** The bytes of each section in the section index. */
+    static final int SECTION = 12;
+    
+    /** The section of the globals. */
+    static final int DATA = 0;
+    /** The section of the constants. */
+    static final int CONSTANTS = 1;
+    /** The section of the instructions. */
+    static final int TEXT = 2;
+    /** The section of the addresses of names. */
+    static final int SYMBOLS = 3;
+    /** The section of the names. */
+    static final int STRINGS = 4;
+    /** The section of the calls out of the build. */
+    static final int EXTERNALS = 5;
+    /** The amount of sections. */
+    static final int SECTIONS = 6;
+    
+    /**
+     * Writes the instructions of a build as an executable. The executable is
+     * written to a temporary file and then moved over its name, so a reader
+     * never sees half of one.
+     * 
+     * @param path The file to write to.
+     * @param units The instructions of each function of each unit, the top
+     *      level of a unit being a function without a name.
+     * @param workers The pool to encode and link the units over.
+     * @throws IOException if the executable cannot be written.
+     * @return The executable.
+     */
+    public static File write(Path path, List<List<MachineCode>> units, ForkJoinPool workers) throws IOException {
+        ObjectCode[] objects = new ObjectCode[units.size()];
+        Path temporary = null;
+        
+        try {
+            // a parallel stream started from a task of a pool runs over that pool.
+            workers.submit(() -> IntStream.range(0, objects.length).parallel().forEach(unit ->
+                    objects[unit] = new ObjectCode(units.get(unit), BufferPool.SHARED))).join();
+            
+            temporary = FileHandler.temporary(path, "executable");
+            
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                new Linker(Arrays.asList(objects), BufferPool.SHARED, workers).link(channel);
+            }
+            
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            // the linker gives back what it writes; this is what it never got to.
+            for (ObjectCode object : objects) {
+                if (object != null) {
+                    object.text.release();
+                    object.constants.release();
+                }
+            }
+            
+            if (temporary != null)
+                Files.deleteIfExists(temporary);
+        }
+        
+        return path.toFile();
+    }
+    
+    /** Not to be made. */
+    private Executable() {}
+}
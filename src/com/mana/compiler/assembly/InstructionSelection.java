@@ -0,0 +1,334 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.assembly;
+
+import com.mana.compiler.assembly.MachineCode.Opcode;
+import com.mana.compiler.generator.Quadruples;
+import com.mana.compiler.generator.Quadruples.Op;
+
+/**
+ * Selects the Arcade instructions of one function from its three address
+ * code, once its registers are allocated.
+ * 
+ * <p>
+ * Each instruction of the code is a tree: the operation at its root, the
+ * place its result goes to above it, and its operands as leaves. A leaf is
+ * a register, a slot, a global, an argument, a number held in an operation,
+ * a larger number or a constant. The tree is covered by the cheapest pattern
+ * matching it, each leaf not already in a register being loaded into a
+ * scratch register by a pattern of its own, and a result going to memory
+ * being stored from one. The two scratch registers follow those allocated.
+ * </p>
+ * 
+ * <pre>
+ * pattern                   cost
+ * reg                       0
+ * imm                       0 as an immediate, 1 by li
+ * number                    1 by li
+ * slot, global, argument    2 by ld, ldg or lda
+ * constant                  2 by lk
+ * op(reg, reg)              1
+ * op(reg, imm)              1 by the immediate form of op
+ * op(imm, reg)              1 by the immediate form of op, swapped or
+ *                           mirrored, if op has one
+ * store to slot or global   2 by st or stg
+ * </pre>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+final class InstructionSelection {
+    /** A leaf in a register. */
+    private static final int REGISTER = 0;
+    /** A leaf which is a number held in an operation. */
+    private static final int SMALL = 1;
+    /** A leaf which is a number too large to be held in an operation. */
+    private static final int LARGE = 2;
+    /** A leaf in a slot. */
+    private static final int SLOT = 3;
+    /** A leaf which is a global. */
+    private static final int GLOBAL = 4;
+    /** A leaf which is an argument of the function. */
+    private static final int ARGUMENT = 5;
+    /** A leaf which is a constant kept as text. */
+    private static final int CONSTANT = 6;
+    /** What it costs to bring each kind of leaf into a register. */
+    private static final int[] LOAD_COSTS = {0, 1, 1, 2, 2, 2, 2};
+    /** Marks a pattern which does not match. */
+    private static final int NO_MATCH = Integer.MAX_VALUE >> 1;
+    
+    /** The instruction of each operation of two registers. */
+    private static final Opcode[] REGISTERS = new Opcode[Op.length];
+    /** The instruction of each operation of a register and an immediate. */
+    private static final Opcode[] IMMEDIATES = new Opcode[Op.length];
+    /**
+     * The instruction of each operation of an immediate and a register, with
+     * its operands swapped, or {@code null} if it has none.
+     */
+    private static final Opcode[] SWAPPED = new Opcode[Op.length];
+    
+    static {
+        Op[] ops = {Op.add, Op.subtract, Op.multiply, Op.divide, Op.remainder, Op.equal, Op.notEqual,
+                Op.less, Op.lessEqual, Op.greater, Op.greaterEqual, Op.and, Op.or};
+        Opcode[] registers = {Opcode.add, Opcode.sub, Opcode.mul, Opcode.div, Opcode.rem, Opcode.seq,
+                Opcode.sne, Opcode.slt, Opcode.sle, Opcode.sgt, Opcode.sge, Opcode.and, Opcode.or};
+        Opcode[] immediates = {Opcode.addi, Opcode.subi, Opcode.muli, Opcode.divi, Opcode.remi, Opcode.seqi,
+                Opcode.snei, Opcode.slti, Opcode.slei, Opcode.sgti, Opcode.sgei, Opcode.andi, Opcode.ori};
+        Opcode[] swapped = {Opcode.addi, null, Opcode.muli, null, null, Opcode.seqi,
+                Opcode.snei, Opcode.sgti, Opcode.sgei, Opcode.slti, Opcode.slei, Opcode.andi, Opcode.ori};
+        
+        for (int i = 0; i < ops.length; i++) {
+            REGISTERS[ops[i].index] = registers[i];
+            IMMEDIATES[ops[i].index] = immediates[i];
+            SWAPPED[ops[i].index] = swapped[i];
+        }
+    }
+    
+    /** The code of the function, with its registers allocated. */
+    private final Quadruples source;
+    /** The instructions selected. */
+    private final MachineCode code;
+    /** The first scratch register. */
+    private final int scratch;
+    
+    /**
+     * @param allocation The registers allocated to the function.
+     * @param registers The amount of registers allocated, the first scratch
+     *      register being the next.
+     */
+    InstructionSelection(LinearScan allocation, int registers) {
+        source = allocation.code;
+        scratch = registers;
+        code = new MachineCode(source.name(), source.parameters().length, source.labels());
+        code.add(Opcode.enter, allocation.slots, MachineCode.NONE, MachineCode.NONE);
+        
+        for (int i = 0; i < source.size(); i++)
+            select(i);
+        
+        // the code may run off its end, which would be into the next function.
+        if (!code.opcode(code.size() - 1).ends())
+            code.add(Opcode.retv, MachineCode.NONE, MachineCode.NONE, MachineCode.NONE);
+    }
+    
+    /**
+     * @return The instructions selected.
+     */
+    MachineCode code() {
+        return code;
+    }
+    
+    /**
+     * Covers the tree of an instruction.
+     * 
+     * @param i The index of the instruction.
+     */
+    private void select(int i) {
+        Op op = source.op(i);
+        int first = source.first(i);
+        int second = source.second(i);
+        int result = source.result(i);
+        
+        switch (op) {
+            case label:
+                code.add(Opcode.label, Quadruples.value(first), MachineCode.NONE, MachineCode.NONE);
+                break;
+            case jump:
+                code.add(Opcode.jmp, Quadruples.value(first), MachineCode.NONE, MachineCode.NONE);
+                break;
+            case jumpIfFalse:
+                code.add(Opcode.bz, load(first, scratch), Quadruples.value(second), MachineCode.NONE);
+                break;
+            case param:
+                if (leaf(first) == SMALL)
+                    code.add(Opcode.argi, Quadruples.value(first), MachineCode.NONE, MachineCode.NONE);
+                else
+                    code.add(Opcode.arg, load(first, scratch), MachineCode.NONE, MachineCode.NONE);
+                break;
+            case call:
+                int target = result == Quadruples.NONE ? MachineCode.NONE : target(result);
+                code.add(Opcode.call, target, Quadruples.value(first), Quadruples.value(second));
+                store(result, target);
+                break;
+            case ret:
+                if (first == Quadruples.NONE)
+                    code.add(Opcode.retv, MachineCode.NONE, MachineCode.NONE, MachineCode.NONE);
+                else
+                    code.add(Opcode.ret, load(first, scratch), MachineCode.NONE, MachineCode.NONE);
+                break;
+            case copy:
+                if (leaf(result) != REGISTER)
+                    store(result, load(first, scratch));
+                else if (leaf(first) != REGISTER)
+                    load(first, Quadruples.value(result));
+                else if (first != result)
+                    code.add(Opcode.mov, Quadruples.value(result), Quadruples.value(first), MachineCode.NONE);
+                break;
+            case negate:
+            case not:
+                int operand = load(first, scratch);
+                int written = target(result);
+                code.add(op == Op.negate ? Opcode.neg : Opcode.not, written, operand, MachineCode.NONE);
+                store(result, written);
+                break;
+            default:
+                binary(op, first, second, result);
+                break;
+        }
+    }
+    
+    /**
+     * Covers the tree of an operation of two operands by the cheapest of the
+     * patterns of two registers, a register and an immediate, and an
+     * immediate and a register.
+     * 
+     * @param op The operation.
+     * @param first The first operand.
+     * @param second The second operand.
+     * @param result Where the result goes.
+     */
+    private void binary(Op op, int first, int second, int result) {
+        int a = leaf(first);
+        int b = leaf(second);
+        int registers = LOAD_COSTS[a] + LOAD_COSTS[b] + 1;
+        int immediate = b == SMALL ? LOAD_COSTS[a] + 1 : NO_MATCH;
+        int swapped = a == SMALL && SWAPPED[op.index] != null ? LOAD_COSTS[b] + 1 : NO_MATCH;
+        int written;
+        
+        if (immediate <= registers && immediate <= swapped) {
+            int left = load(first, scratch);
+            written = target(result);
+            code.add(IMMEDIATES[op.index], written, left, Quadruples.value(second));
+        } else if (swapped <= registers) {
+            int right = load(second, scratch);
+            written = target(result);
+            code.add(SWAPPED[op.index], written, right, Quadruples.value(first));
+        } else {
+            int left = load(first, scratch);
+            int right = load(second, scratch + 1);
+            written = target(result);
+            code.add(REGISTERS[op.index], written, left, right);
+        }
+        
+        store(result, written);
+    }
+    
+    /**
+     * @param operand An operand of the code.
+     * @return The kind of leaf the operand is.
+     */
+    private int leaf(int operand) {
+        switch (Quadruples.tag(operand)) {
+            case Quadruples.REGISTER:
+                return REGISTER;
+            case Quadruples.NUMBER:
+                return MachineCode.immediate(Quadruples.value(operand)) ? SMALL : LARGE;
+            case Quadruples.SLOT:
+                return SLOT;
+            case Quadruples.NAME:
+                return parameter(Quadruples.value(operand)) < 0 ? GLOBAL : ARGUMENT;
+            default:
+                return CONSTANT;
+        }
+    }
+    
+    /**
+     * @param symbol The symbol of a name.
+     * @return The index of the parameter of the name, or -1 if it is not one.
+     */
+    private int parameter(int symbol) {
+        int[] parameters = source.parameters();
+        
+        for (int i = 0; i < parameters.length; i++) {
+            if (parameters[i] == symbol)
+                return i;
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * Brings an operand into a register, by the pattern of its leaf.
+     * 
+     * @param operand An operand of the code.
+     * @param register The register to load it into if it is not in one.
+     * @return The register holding the operand.
+     */
+    private int load(int operand, int register) {
+        int value = Quadruples.value(operand);
+        
+        switch (leaf(operand)) {
+            case REGISTER:
+                return value;
+            case SMALL:
+            case LARGE:
+                code.add(Opcode.li, register, value, MachineCode.NONE);
+                break;
+            case SLOT:
+                code.add(Opcode.ld, register, value, MachineCode.NONE);
+                break;
+            case GLOBAL:
+                code.add(Opcode.ldg, register, value, MachineCode.NONE);
+                break;
+            case ARGUMENT:
+                code.add(Opcode.lda, register, parameter(value), MachineCode.NONE);
+                break;
+            default:
+                code.add(Opcode.lk, register, code.constant(source.literal(operand)), MachineCode.NONE);
+                break;
+        }
+        
+        return register;
+    }
+    
+    /**
+     * @param result Where the result of an instruction goes.
+     * @return The register to write the result to: its own, or the first
+     *      scratch register if it goes to memory.
+     */
+    private int target(int result) {
+        return leaf(result) == REGISTER ? Quadruples.value(result) : scratch;
+    }
+    
+    /**
+     * Stores a result which goes to memory.
+     * 
+     * @param result Where the result goes, or {@code NONE}.
+     * @param register The register holding the result.
+     */
+    private void store(int result, int register) {
+        if (result == Quadruples.NONE)
+            return;
+        
+        switch (leaf(result)) {
+            case SLOT:
+                code.add(Opcode.st, Quadruples.value(result), register, MachineCode.NONE);
+                break;
+            case GLOBAL:
+                code.add(Opcode.stg, Quadruples.value(result), register, MachineCode.NONE);
+                break;
+            default:
+                break;
+        }
+    }
+}
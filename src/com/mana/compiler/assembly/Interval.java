@@ -0,0 +1,274 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.assembly;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The positions at which one value of a function is live, as ranges from a
+ * position up to but not including another, along with the positions which
+ * read or write it.
+ * 
+ * <p>
+ * An interval is built from the last block of the function to the first, so
+ * its ranges are added latest first and put in order by {@code done}. Once
+ * built it may be split into pieces which each have their own place: the
+ * first piece of a value keeps the others in the order of their positions.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+final class Interval {
+    /** The value the interval is of. */
+    final int value;
+    /** The first piece of the value, which may be this one. */
+    final Interval first;
+    /** The pieces of the value in order, kept only by the first. */
+    final List<Interval> pieces;
+    /** The beginning and end of each range, one range after another. */
+    private int[] ranges = new int[4];
+    /** The amount of numbers used in {@code ranges}. */
+    private int rangesSize;
+    /** The positions which read or write the value, in order. */
+    private int[] uses = new int[4];
+    /** What it costs to read or write the value in memory at each use. */
+    private long[] weights = new long[4];
+    /** The amount of uses. */
+    private int usesSize;
+    /** The register of the interval, or -1 if it is in a slot or has none yet. */
+    int register = -1;
+    /** The slot of the value, kept only by the first piece, or -1. */
+    int slot = -1;
+    
+    /**
+     * @param value The value the interval is of.
+     */
+    Interval(int value) {
+        this.value = value;
+        first = this;
+        pieces = new ArrayList<>(1);
+        pieces.add(this);
+    }
+    
+    /**
+     * @param first The first piece of the value the interval is a piece of.
+     */
+    private Interval(Interval first) {
+        value = first.value;
+        this.first = first;
+        pieces = null;
+    }
+    
+    /**
+     * Adds a range while the interval is being built, joining it to the
+     * earliest range if they touch.
+     * 
+     * @param from The first position of the range.
+     * @param to The position after the last position of the range.
+     */
+    void addRange(int from, int to) {
+        if (rangesSize > 0 && to >= ranges[rangesSize - 2]) {
+            ranges[rangesSize - 2] = Math.min(ranges[rangesSize - 2], from);
+            ranges[rangesSize - 1] = Math.max(ranges[rangesSize - 1], to);
+            return;
+        }
+        
+        if (rangesSize == ranges.length)
+            ranges = Arrays.copyOf(ranges, rangesSize << 1);
+        
+        ranges[rangesSize++] = from;
+        ranges[rangesSize++] = to;
+    }
+    
+    /**
+     * Begins the interval where its value is written, while it is being
+     * built. A value which is never read is live only where it is written.
+     * 
+     * @param position The position which writes the value.
+     */
+    void define(int position) {
+        if (rangesSize == 0)
+            addRange(position, position + 1);
+        else
+            ranges[rangesSize - 2] = position;
+    }
+    
+    /**
+     * Adds a use while the interval is being built.
+     * 
+     * @param position The position which reads or writes the value.
+     * @param weight What it costs to read or write the value in memory there.
+     */
+    void addUse(int position, long weight) {
+        if (usesSize == uses.length) {
+            uses = Arrays.copyOf(uses, usesSize << 1);
+            weights = Arrays.copyOf(weights, usesSize << 1);
+        }
+        
+        uses[usesSize] = position;
+        weights[usesSize++] = weight;
+    }
+    
+    /**
+     * Puts the ranges and uses, added latest first, in order.
+     */
+    void done() {
+        for (int i = 0, j = rangesSize - 2; i < j; i += 2, j -= 2) {
+            int from = ranges[i];
+            int to = ranges[i + 1];
+            ranges[i] = ranges[j];
+            ranges[i + 1] = ranges[j + 1];
+            ranges[j] = from;
+            ranges[j + 1] = to;
+        }
+        
+        for (int i = 0, j = usesSize - 1; i < j; i++, j--) {
+            int use = uses[i];
+            long weight = weights[i];
+            uses[i] = uses[j];
+            weights[i] = weights[j];
+            uses[j] = use;
+            weights[j] = weight;
+        }
+    }
+    
+    /**
+     * @return The first position of the interval.
+     */
+    int start() {
+        return ranges[0];
+    }
+    
+    /**
+     * @return The position after the last position of the interval.
+     */
+    int end() {
+        return ranges[rangesSize - 1];
+    }
+    
+    /**
+     * @param position A position.
+     * @return {@code true} if the value is live at the position.
+     */
+    boolean covers(int position) {
+        for (int i = 0; i < rangesSize && ranges[i] <= position; i += 2) {
+            if (position < ranges[i + 1])
+                return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * @param other Another interval.
+     * @return The first position both intervals cover, or
+     *      {@code Integer.MAX_VALUE} if there is none.
+     */
+    int intersection(Interval other) {
+        int i = 0;
+        int j = 0;
+        
+        while (i < rangesSize && j < other.rangesSize) {
+            int from = Math.max(ranges[i], other.ranges[j]);
+            
+            if (from < Math.min(ranges[i + 1], other.ranges[j + 1]))
+                return from;
+            
+            if (ranges[i + 1] < other.ranges[j + 1])
+                i += 2;
+            else
+                j += 2;
+        }
+        
+        return Integer.MAX_VALUE;
+    }
+    
+    /**
+     * @param position A position.
+     * @return The first use at or after the position, or
+     *      {@code Integer.MAX_VALUE} if there is none.
+     */
+    int nextUse(int position) {
+        for (int i = 0; i < usesSize; i++) {
+            if (uses[i] >= position)
+                return uses[i];
+        }
+        
+        return Integer.MAX_VALUE;
+    }
+    
+    /**
+     * @param position A position.
+     * @return What it costs to keep the value in memory from the position on.
+     */
+    long weight(int position) {
+        long result = 0;
+        
+        for (int i = usesSize - 1; i >= 0 && uses[i] >= position; i--)
+            result += weights[i];
+        
+        return result;
+    }
+    
+    /**
+     * Splits the interval in two, keeping the positions before the split
+     * and giving the rest to a new piece of the same value.
+     * 
+     * @param position A position after the start and before the end of the
+     *      interval.
+     * @return The piece from the position on, which has no place yet.
+     */
+    Interval split(int position) {
+        Interval result = new Interval(first);
+        int range = 0;
+        int use = 0;
+        
+        while (ranges[range + 1] <= position)
+            range += 2;
+        
+        while (use < usesSize && uses[use] < position)
+            use++;
+        
+        result.ranges = Arrays.copyOfRange(ranges, range, Math.max(rangesSize, range + 4));
+        result.rangesSize = rangesSize - range;
+        result.uses = Arrays.copyOfRange(uses, use, Math.max(usesSize, use + 4));
+        result.weights = Arrays.copyOfRange(weights, use, Math.max(usesSize, use + 4));
+        result.usesSize = usesSize - use;
+        
+        if (ranges[range] < position) {
+            result.ranges[0] = position;
+            ranges[range + 1] = position;
+            range += 2;
+        }
+        
+        rangesSize = range;
+        usesSize = use;
+        first.pieces.add(first.pieces.indexOf(this) + 1, result);
+        
+        return result;
+    }
+}
@@ -0,0 +1,701 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.assembly;
+
+import com.mana.compiler.generator.Quadruples;
+import com.mana.compiler.generator.Quadruples.Op;
+import com.mana.compiler.optimizer.StaticSingleAssignment;
+import com.mana.compiler.util.structures.BitSets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Allocates the registers of one function by linear scan over the live
+ * intervals of its values in static single assignment form, and writes its
+ * code back out with each value replaced by its register or stack slot.
+ * 
+ * <p>
+ * Each block has a position for its phis, two for each instruction, one
+ * where it reads and one where it writes, and two for its end. The intervals
+ * are handed registers in the order they begin. An interval which finds a
+ * register free only for a while is split where it stops being free; one
+ * which finds none takes the register of the active interval cheapest to
+ * keep in memory, unless it is the cheapest itself. Each read or write of a
+ * value costs ten times as much for each loop it is in. An interval put in
+ * memory is split again before the next position reading it, so the value
+ * goes back into a register for its next use if there is one to be had. A
+ * value keeps one slot for all of its pieces in memory.
+ * </p>
+ * 
+ * <p>
+ * A value moved between pieces within a block is copied at the position of
+ * the split. Where the place of a value differs across an edge, and for each
+ * phi, the copies go at the end of the block the edge leaves if it has one
+ * successor, and otherwise at the beginning of the block it enters, which
+ * then has one predecessor. Registers are kept across calls, the callee
+ * saving those it uses.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+final class LinearScan {
+    /** The deepest loop nesting the weights of uses grow for. */
+    private static final int MAX_DEPTH = 9;
+    
+    /** The code with registers and slots in place of its temporaries. */
+    final Quadruples code;
+    /** The amount of values given a slot. */
+    final int spills;
+    /** The amount of copies added into or out of a slot. */
+    final int spillMoves;
+    /** The amount of slots, including the scratch slot if it is used. */
+    final int slots;
+    /** The amount of registers used. */
+    final int registersUsed;
+    
+    /** The form allocated. */
+    private final StaticSingleAssignment form;
+    /** The amount of registers to allocate. */
+    private final int registers;
+    /** The amount of blocks. */
+    private final int blocks;
+    /** The first position of each block, and the position after the last. */
+    private final int[] positions;
+    /** The values live at the beginning of each block. */
+    private final long[] in;
+    /** The words of a set of values. */
+    private final int words;
+    /** The interval of each value, or {@code null} if it has none. */
+    private final Interval[] intervals;
+    /** The intervals not yet allocated, by where they begin. */
+    private final PriorityQueue<Interval> unhandled = new PriorityQueue<>(
+            Comparator.comparingInt(Interval::start).thenComparingInt(interval -> interval.value));
+    /** The intervals in a register at the position being allocated. */
+    private final List<Interval> active = new ArrayList<>();
+    /** The intervals in a register which have a hole at the position. */
+    private final List<Interval> inactive = new ArrayList<>();
+    /** The amount of slots handed out. */
+    private int slotCount;
+    /** The amount of values given a slot. */
+    private int spilled;
+    /** The highest register handed out. */
+    private int highest = -1;
+    /** The amount of copies written into or out of a slot. */
+    private int moves;
+    /** Whether a cycle of copies needed the scratch slot. */
+    private boolean scratchUsed;
+    
+    /**
+     * @param form The code of one function in static single assignment form.
+     * @param registers The amount of registers to allocate, at least one.
+     */
+    LinearScan(StaticSingleAssignment form, int registers) {
+        this.form = form;
+        this.registers = registers;
+        blocks = form.blocks();
+        positions = new int[blocks + 1];
+        
+        for (int block = 0; block <= blocks; block++)
+            positions[block] = 2 * (block < blocks ? form.start(block) : form.size()) + 4 * block;
+        
+        words = BitSets.words(form.values());
+        in = new long[blocks * words];
+        intervals = new Interval[form.values()];
+        
+        long[] out = liveness();
+        build(out);
+        
+        for (Interval interval : intervals) {
+            if (interval != null) {
+                interval.done();
+                unhandled.add(interval);
+            }
+        }
+        
+        scan();
+        
+        spills = spilled;
+        registersUsed = highest + 1;
+        code = new Quadruples(form.code().name(), form.code().parameters());
+        code.locals(form.code().locals());
+        write();
+        spillMoves = moves;
+        slots = scratchUsed ? slotCount + 1 : slotCount;
+    }
+    
+    /**
+     * Finds the values live at the beginning and end of each block; a phi
+     * reads its argument at the end of the predecessor it comes from.
+     * 
+     * @return The values live at the end of each block.
+     */
+    private long[] liveness() {
+        long[] out = new long[blocks * words];
+        long[] uses = new long[blocks * words];
+        long[] defs = new long[blocks * words];
+        long[] arguments = new long[blocks * words];
+        
+        for (int block = 0; block < blocks; block++) {
+            int base = block * words;
+            
+            for (int phi = form.phiStart(block); phi < form.phiStart(block + 1); phi++) {
+                BitSets.set(defs, base, Quadruples.value(form.phiResult(phi)));
+                
+                for (int k = 0; k < form.predecessors(block); k++) {
+                    int argument = form.phiArgument(phi, k);
+                    
+                    if (Quadruples.tag(argument) == Quadruples.TEMPORARY)
+                        BitSets.set(arguments, form.predecessor(block, k) * words, Quadruples.value(argument));
+                }
+            }
+            
+            for (int i = form.start(block); i < form.start(block + 1); i++) {
+                read(uses, defs, base, form.first(i));
+                read(uses, defs, base, form.second(i));
+                
+                if (temporary(form.result(i)))
+                    BitSets.set(defs, base, Quadruples.value(form.result(i)));
+            }
+            
+            read(uses, defs, base, form.condition(block));
+            BitSets.copy(uses, base, in, base, words);
+        }
+        
+        boolean changed = true;
+        
+        while (changed) {
+            changed = false;
+            
+            for (int block = blocks - 1; block >= 0; block--) {
+                int base = block * words;
+                BitSets.copy(arguments, base, out, base, words);
+                
+                for (int k = 0; k < form.successors(block); k++)
+                    BitSets.union(out, base, in, form.successor(block, k) * words, words);
+                
+                // in = uses + (out - defs)
+                for (int w = 0; w < words; w++) {
+                    long next = uses[base + w] | out[base + w] & ~defs[base + w];
+                    changed |= next != in[base + w];
+                    in[base + w] = next;
+                }
+            }
+        }
+        
+        return out;
+    }
+    
+    /**
+     * @param uses The values each block reads before writing them.
+     * @param defs The values each block writes.
+     * @param base The row of the block.
+     * @param operand An operand the block reads.
+     */
+    private void read(long[] uses, long[] defs, int base, int operand) {
+        if (temporary(operand) && !BitSets.get(defs, base, Quadruples.value(operand)))
+            BitSets.set(uses, base, Quadruples.value(operand));
+    }
+    
+    /**
+     * Builds the interval of each value, from the last block to the first.
+     * 
+     * @param out The values live at the end of each block.
+     */
+    private void build(long[] out) {
+        for (int block = blocks - 1; block >= 0; block--) {
+            int from = positions[block];
+            int to = positions[block + 1];
+            long weight = weight(block);
+            
+            for (int value = BitSets.next(out, block * words, words, 0); value >= 0;
+                    value = BitSets.next(out, block * words, words, value + 1))
+                interval(value).addRange(from, to);
+            
+            use(form.condition(block), from, to - 2, weight);
+            
+            for (int i = form.start(block + 1) - 1; i >= form.start(block); i--) {
+                int position = position(block, i);
+                
+                if (temporary(form.result(i))) {
+                    Interval interval = interval(Quadruples.value(form.result(i)));
+                    interval.define(position + 1);
+                    interval.addUse(position + 1, weight);
+                }
+                
+                use(form.second(i), from, position, weight);
+                use(form.first(i), from, position, weight);
+            }
+            
+            for (int phi = form.phiStart(block + 1) - 1; phi >= form.phiStart(block); phi--) {
+                Interval interval = interval(Quadruples.value(form.phiResult(phi)));
+                interval.define(from);
+                interval.addUse(from, weight);
+            }
+        }
+    }
+    
+    /**
+     * @param operand An operand read at a position.
+     * @param from The first position of the block.
+     * @param position The position.
+     * @param weight What a use costs in the block.
+     */
+    private void use(int operand, int from, int position, long weight) {
+        if (!temporary(operand))
+            return;
+        
+        Interval interval = interval(Quadruples.value(operand));
+        interval.addRange(from, position + 1);
+        interval.addUse(position, weight);
+    }
+    
+    /**
+     * @param value A value.
+     * @return The interval of the value, made if it has none yet.
+     */
+    private Interval interval(int value) {
+        if (intervals[value] == null)
+            intervals[value] = new Interval(value);
+        
+        return intervals[value];
+    }
+    
+    /**
+     * @param block A block.
+     * @return What a read or write of a value costs in memory in the block.
+     */
+    private long weight(int block) {
+        long result = 1;
+        
+        for (int depth = Math.min(form.loopDepth(block), MAX_DEPTH); depth > 0; depth--)
+            result *= 10;
+        
+        return result;
+    }
+    
+    /**
+     * Hands each interval a register or a slot, in the order they begin.
+     */
+    private void scan() {
+        while (!unhandled.isEmpty()) {
+            Interval current = unhandled.poll();
+            int position = current.start();
+            
+            for (int i = active.size() - 1; i >= 0; i--) {
+                Interval interval = active.get(i);
+                
+                if (interval.end() <= position)
+                    active.remove(i);
+                else if (!interval.covers(position))
+                    inactive.add(active.remove(i));
+            }
+            
+            for (int i = inactive.size() - 1; i >= 0; i--) {
+                Interval interval = inactive.get(i);
+                
+                if (interval.end() <= position)
+                    inactive.remove(i);
+                else if (interval.covers(position))
+                    active.add(inactive.remove(i));
+            }
+            
+            if (!allocateFree(current, position))
+                allocateBlocked(current, position);
+            
+            if (current.register >= 0) {
+                active.add(current);
+                highest = Math.max(highest, current.register);
+            }
+        }
+    }
+    
+    /**
+     * Gives the interval the register free the longest, split where that
+     * register is next needed if it is not free for all of the interval.
+     * 
+     * @param current The interval.
+     * @param position Where the interval begins.
+     * @return {@code true} if the interval was given a register.
+     */
+    private boolean allocateFree(Interval current, int position) {
+        int[] freeUntil = freeUntil(current);
+        int best = 0;
+        
+        for (Interval interval : active)
+            freeUntil[interval.register] = 0;
+        
+        for (int register = 1; register < registers; register++) {
+            if (freeUntil[register] > freeUntil[best])
+                best = register;
+        }
+        
+        if (freeUntil[best] < current.end()) {
+            int split = even(freeUntil[best]);
+            
+            if (split <= position)
+                return false;
+            
+            unhandled.add(current.split(split));
+        }
+        
+        current.register = best;
+        
+        return true;
+    }
+    
+    /**
+     * Puts the interval, or the active interval cheapest to keep in memory,
+     * in a slot until its next use, and gives the other the register.
+     * 
+     * @param current The interval.
+     * @param position Where the interval begins.
+     */
+    private void allocateBlocked(Interval current, int position) {
+        int[] freeUntil = freeUntil(current);
+        Interval[] holders = new Interval[registers];
+        int best = -1;
+        long cheapest = current.weight(position);
+        
+        for (Interval interval : active)
+            holders[interval.register] = interval;
+        
+        for (int register = 0; register < registers; register++) {
+            Interval holder = holders[register];
+            
+            if (holder == null || even(freeUntil[register]) <= position)
+                continue;
+            
+            long cost = holder.weight(position);
+            
+            if (cost < cheapest) {
+                cheapest = cost;
+                best = register;
+            }
+        }
+        
+        if (best < 0) {
+            spill(current, position);
+            return;
+        }
+        
+        Interval holder = holders[best];
+        int split = position & ~1;
+        active.remove(holder);
+        
+        if (split <= holder.start()) {
+            holder.register = -1;
+            spill(holder, position);
+        } else
+            spill(holder.split(split), position);
+        
+        if (freeUntil[best] < current.end())
+            unhandled.add(current.split(even(freeUntil[best])));
+        
+        current.register = best;
+    }
+    
+    /**
+     * @param current An interval.
+     * @return The position until which each register is free of the inactive
+     *      intervals holding it, as far as the interval is concerned.
+     */
+    private int[] freeUntil(Interval current) {
+        int[] result = new int[registers];
+        Arrays.fill(result, Integer.MAX_VALUE);
+        
+        for (Interval interval : inactive)
+            result[interval.register] = Math.min(result[interval.register], interval.intersection(current));
+        
+        return result;
+    }
+    
+    /**
+     * Puts an interval in the slot of its value, split before its first use
+     * after the position so that piece can be given a register again.
+     * 
+     * @param interval The interval, which has no register.
+     * @param position The position being allocated.
+     */
+    private void spill(Interval interval, int position) {
+        int next = interval.nextUse(position + 1);
+        
+        if (next < interval.end() && even(next) > interval.start())
+            unhandled.add(interval.split(even(next)));
+        
+        if (interval.first.slot < 0) {
+            interval.first.slot = slotCount++;
+            spilled++;
+        }
+    }
+    
+    /**
+     * @param position A position.
+     * @return The position, or the one before it if it is a position where
+     *      an instruction writes.
+     */
+    private static int even(int position) {
+        return position & ~1;
+    }
+    
+    /**
+     * @param block A block.
+     * @param index The index of an instruction of the block.
+     * @return The position where the instruction reads.
+     */
+    private int position(int block, int index) {
+        return positions[block] + 2 * (index - form.start(block)) + 2;
+    }
+    
+    /**
+     * @param operand An operand.
+     * @return {@code true} if the operand is a value.
+     */
+    private static boolean temporary(int operand) {
+        return operand != Quadruples.NONE && Quadruples.tag(operand) == Quadruples.TEMPORARY;
+    }
+    
+    /**
+     * @param value A value.
+     * @param position A position where the value is live.
+     * @return The register or slot of the value at the position.
+     */
+    private int place(int value, int position) {
+        for (Interval piece : intervals[value].pieces) {
+            if (piece.covers(position))
+                return place(piece);
+        }
+        
+        throw new IllegalStateException("t" + value + " is not live at " + position);
+    }
+    
+    /**
+     * @param piece A piece of an interval.
+     * @return The register or slot of the piece.
+     */
+    private static int place(Interval piece) {
+        return piece.register >= 0 ? Quadruples.register(piece.register) : Quadruples.slot(piece.first.slot);
+    }
+    
+    /**
+     * Writes the code with each value in its place, the copies between the
+     * pieces of each value and the copies of the phis. Blocks are entered by
+     * labels, and left by jumps unless they fall through to the next block.
+     */
+    private void write() {
+        Quadruples source = form.code();
+        List<Interval> splits = splits();
+        int nextSplit = 0;
+        int[] labels = new int[blocks + 1];
+        int scratch = Quadruples.slot(slotCount);
+        ParallelMove parallel = new ParallelMove();
+        
+        Arrays.fill(labels, Quadruples.NONE);
+        
+        for (int block = 0; block < blocks; block++) {
+            int successors = form.successors(block);
+            
+            if (successors == 2)
+                label(labels, form.successor(block, 1));
+            
+            if (successors > 0 && form.successor(block, 0) != block + 1)
+                label(labels, form.successor(block, 0));
+            
+            int last = form.start(block + 1) - 1;
+            
+            if (successors == 0 && block + 1 < blocks && (last < form.start(block) || form.op(last) != Op.ret))
+                label(labels, blocks);
+        }
+        
+        for (int block = 0; block < blocks; block++) {
+            if (labels[block] != Quadruples.NONE)
+                code.add(Op.label, labels[block], Quadruples.NONE, Quadruples.NONE);
+            
+            if (form.predecessors(block) == 1 && form.successors(form.predecessor(block, 0)) == 2)
+                edge(parallel, form.predecessor(block, 0), block, 0, scratch);
+            
+            for (int i = form.start(block); i <= form.start(block + 1); i++) {
+                int position = i < form.start(block + 1) ? position(block, i) : positions[block + 1] - 2;
+                
+                while (nextSplit < splits.size() && splits.get(nextSplit).start() == position) {
+                    Interval piece = splits.get(nextSplit++);
+                    List<Interval> pieces = piece.first.pieces;
+                    parallel.add(place(piece), place(pieces.get(pieces.indexOf(piece) - 1)));
+                }
+                
+                copy(parallel, scratch);
+                
+                if (i == form.start(block + 1))
+                    break;
+                
+                Op op = form.op(i);
+                int first = operand(source, form.first(i), position);
+                int second = operand(source, form.second(i), position);
+                int result = operand(source, form.result(i), position + 1);
+                code.add(op, first, second, result);
+            }
+            
+            int successors = form.successors(block);
+            
+            if (successors == 1) {
+                edge(parallel, block, form.successor(block, 0), -1, scratch);
+                
+                if (form.successor(block, 0) != block + 1)
+                    code.add(Op.jump, labels[form.successor(block, 0)], Quadruples.NONE, Quadruples.NONE);
+            } else if (successors == 2) {
+                int condition = operand(source, form.condition(block), positions[block + 1] - 2);
+                code.add(Op.jumpIfFalse, condition, labels[form.successor(block, 1)], Quadruples.NONE);
+                
+                if (form.successor(block, 0) != block + 1)
+                    code.add(Op.jump, labels[form.successor(block, 0)], Quadruples.NONE, Quadruples.NONE);
+            } else if (block + 1 < blocks && labels[blocks] != Quadruples.NONE) {
+                int last = form.start(block + 1) - 1;
+                
+                if (last < form.start(block) || form.op(last) != Op.ret)
+                    code.add(Op.jump, labels[blocks], Quadruples.NONE, Quadruples.NONE);
+            }
+        }
+        
+        if (labels[blocks] != Quadruples.NONE)
+            code.add(Op.label, labels[blocks], Quadruples.NONE, Quadruples.NONE);
+        
+        code.trim();
+    }
+    
+    /**
+     * Writes the copies gathered, counting those into or out of a slot.
+     * 
+     * @param parallel The copies.
+     * @param scratch The scratch slot.
+     */
+    private void copy(ParallelMove parallel, int scratch) {
+        if (parallel.empty())
+            return;
+        
+        int from = code.size();
+        parallel.write(code, scratch);
+        
+        for (int i = from; i < code.size(); i++) {
+            if (code.first(i) == scratch || code.result(i) == scratch)
+                scratchUsed = true;
+            else if (Quadruples.tag(code.first(i)) == Quadruples.SLOT
+                    || Quadruples.tag(code.result(i)) == Quadruples.SLOT)
+                moves++;
+        }
+    }
+    
+    /**
+     * Writes the copies of an edge: those of the values whose place differs
+     * on either side of it, and those of the phis of the block it enters.
+     * 
+     * @param parallel The copies, empty.
+     * @param from The block the edge leaves.
+     * @param to The block the edge enters.
+     * @param k The index of the block left among the predecessors of the
+     *      block entered, or -1 if it is to be found.
+     * @param scratch The scratch slot.
+     */
+    private void edge(ParallelMove parallel, int from, int to, int k, int scratch) {
+        int end = positions[from + 1] - 1;
+        int start = positions[to];
+        
+        if (k < 0) {
+            k = 0;
+            
+            while (form.predecessor(to, k) != from)
+                k++;
+        }
+        
+        for (int value = BitSets.next(in, to * words, words, 0); value >= 0;
+                value = BitSets.next(in, to * words, words, value + 1))
+            parallel.add(place(value, start), place(value, end));
+        
+        for (int phi = form.phiStart(to); phi < form.phiStart(to + 1); phi++) {
+            int argument = form.phiArgument(phi, k);
+            int target = place(Quadruples.value(form.phiResult(phi)), start);
+            
+            parallel.add(target, operand(form.code(), argument, end));
+        }
+        
+        copy(parallel, scratch);
+    }
+    
+    /**
+     * @return Each piece of an interval which begins where the piece before
+     *      it ends, within a block, in the order they begin.
+     */
+    private List<Interval> splits() {
+        List<Interval> result = new ArrayList<>();
+        
+        for (Interval interval : intervals) {
+            if (interval == null)
+                continue;
+            
+            List<Interval> pieces = interval.pieces;
+            
+            for (int index = 1; index < pieces.size(); index++) {
+                int start = pieces.get(index).start();
+                
+                if (pieces.get(index - 1).end() == start && Arrays.binarySearch(positions, start) < 0)
+                    result.add(pieces.get(index));
+            }
+        }
+        
+        result.sort(Comparator.comparingInt(Interval::start));
+        
+        return result;
+    }
+    
+    /**
+     * @param labels The label of each block, and of the end last.
+     * @param block A block, or the amount of blocks for the end.
+     */
+    private void label(int[] labels, int block) {
+        if (labels[block] == Quadruples.NONE)
+            labels[block] = code.newLabel();
+    }
+    
+    /**
+     * @param source The code the operand is of.
+     * @param operand An operand of the code in its form.
+     * @param position The position it is read or written at.
+     * @return The operand in the code written.
+     */
+    private int operand(Quadruples source, int operand, int position) {
+        if (operand == Quadruples.NONE)
+            return operand;
+        
+        switch (Quadruples.tag(operand)) {
+            case Quadruples.TEMPORARY:
+                return place(Quadruples.value(operand), position);
+            case Quadruples.LITERAL:
+                return code.literal(source.literal(operand));
+            default:
+                return operand;
+        }
+    }
+}
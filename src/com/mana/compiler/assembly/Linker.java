@@ -0,0 +1,388 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.assembly;
+
+import com.mana.compiler.assembly.MachineCode.Opcode;
+import com.mana.compiler.util.structures.SymbolInterner;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Links the object code of every unit of a build into an {@code Executable}.
+ * 
+ * <p>
+ * Every unit puts its functions in a symbol map shared by all of them at
+ * once, the first unit to define a name winning. The globals are then given
+ * words in the order units first use them, and the sections laid out: the
+ * data, the constants of each unit, then the entry and the text of each
+ * unit. With every address known, the relocations of all units are split
+ * into chunks which are patched in parallel, each word in place in the
+ * buffer it was encoded into. The data, constants and text are then written
+ * by gathering writes, each section going back to the pool once written.
+ * </p>
+ * 
+ * <p>
+ * Where anything goes depends on the size of every unit before it, so the
+ * object code of every unit is held until all of it is linked: the memory of
+ * a build grows with its executable. It is bounded by the direct buffers of
+ * the {@code BufferPool} and past that by the heap. Writing units as they are
+ * encoded would need them encoded twice, once to be measured.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+final class Linker {
+    /** The most relocations patched by one task. */
+    private static final int CHUNK = 4096;
+    /** The bytes of a call in the entry. */
+    private static final int ENTRY_CALL = 10;
+    
+    /** The object code of each unit. */
+    private final List<ObjectCode> objects;
+    /** The pool the sections take their buffers from. */
+    private final BufferPool pool;
+    /** The pool the units are resolved and patched over. */
+    private final ForkJoinPool workers;
+    /**
+     * The function of each symbol, as the index of its unit in the high half
+     * and its offset in the text of the unit in the low half.
+     */
+    private final ConcurrentHashMap<Integer, Long> functions = new ConcurrentHashMap<>();
+    /** The index of each global by its symbol. */
+    private final ConcurrentHashMap<Integer, Integer> globals = new ConcurrentHashMap<>();
+    /** The symbol of each global by its index. */
+    private final List<Integer> globalSymbols = new ArrayList<>();
+    /** The address of the constants of each unit. */
+    private final int[] constants;
+    /** The address of the text of each unit. */
+    private final int[] texts;
+    /** The first chunk of relocations of each unit, then the amount of chunks. */
+    private final int[] chunks;
+    /** The offset of each section. */
+    private final int[] offsets = new int[Executable.SECTIONS];
+    /** The size of each section. */
+    private final int[] sizes = new int[Executable.SECTIONS];
+    /** The offset in the strings of each name written there. */
+    private final Map<Integer, Integer> names = new HashMap<>();
+    /** The sections made by the linker, given back once it is done. */
+    private final List<Section> made = new ArrayList<>();
+    /** The names. */
+    private final Section strings;
+    
+    /**
+     * @param objects The object code of each unit, in order.
+     * @param pool The pool to take buffers from.
+     * @param workers The pool to resolve and patch the units over.
+     */
+    Linker(List<ObjectCode> objects, BufferPool pool, ForkJoinPool workers) {
+        this.objects = objects;
+        this.pool = pool;
+        this.workers = workers;
+        constants = new int[objects.size()];
+        texts = new int[objects.size()];
+        chunks = new int[objects.size() + 1];
+        strings = section();
+    }
+    
+    /**
+     * Links the units and writes the executable.
+     * 
+     * @param channel The empty file to write to.
+     * @throws IOException if the executable cannot be written or is too large
+     *      to be addressed.
+     */
+    void link(FileChannel channel) throws IOException {
+        try {
+            resolve();
+            Section entry = layout();
+            for (int unit = 0; unit < objects.size(); unit++)
+                chunks[unit + 1] = chunks[unit] + (objects.get(unit).text.relocations() + CHUNK - 1) / CHUNK;
+            
+            // a parallel stream started from a task of a pool runs over that pool.
+            List<int[]> externals = workers.submit(() -> IntStream.range(0, chunks[objects.size()]).parallel()
+                    .mapToObj(this::relocate).collect(Collectors.toList())).join();
+            List<Section> image = new ArrayList<>();
+            Section data = section();
+            data.zeroes(sizes[Executable.DATA]);
+            image.add(data);
+            
+            for (ObjectCode object : objects)
+                image.add(object.constants);
+            
+            image.add(entry);
+            
+            for (ObjectCode object : objects)
+                image.add(object.text);
+            
+            channel.position(offsets[Executable.DATA]);
+            Section.write(channel, image);
+            write(channel, Executable.SYMBOLS, symbols());
+            Section list = section();
+            
+            for (int[] chunk : externals) {
+                for (int i = 0; i < chunk.length; i += 2)
+                    list.reserve(8).putInt(chunk[i]).putInt(string(chunk[i + 1]));
+            }
+            
+            write(channel, Executable.STRINGS, strings);
+            write(channel, Executable.EXTERNALS, list);
+            header(channel);
+        } finally {
+            // the sections of the objects are given back by their writer.
+            for (Section section : made)
+                section.release();
+        }
+    }
+    
+    /**
+     * Puts the functions of every unit in the symbol map, in parallel, and
+     * gives each global its word.
+     */
+    private void resolve() {
+        workers.submit(() -> IntStream.range(0, objects.size()).parallel().forEach(unit -> {
+            ObjectCode object = objects.get(unit);
+            
+            for (int i = 0; i < object.named; i++)
+                functions.merge(object.names[i], (long)unit << 32 | object.functions[i], Math::min);
+        })).join();
+        
+        for (ObjectCode object : objects) {
+            for (int symbol : object.globals) {
+                if (globals.putIfAbsent(symbol, globalSymbols.size()) == null)
+                    globalSymbols.add(symbol);
+            }
+        }
+    }
+    
+    /**
+     * Lays out the data, constants and text, and encodes the entry, which
+     * calls the top level of each unit in order.
+     * 
+     * @return The entry.
+     * @throws IOException if the executable is too large to be addressed.
+     */
+    private Section layout() throws IOException {
+        int tops = 0;
+        
+        for (ObjectCode object : objects)
+            tops += object.tops.size();
+        
+        long at = Executable.HEADER + Executable.SECTIONS * Executable.SECTION;
+        offsets[Executable.DATA] = (int)at;
+        sizes[Executable.DATA] = globalSymbols.size() * 4;
+        at += sizes[Executable.DATA];
+        offsets[Executable.CONSTANTS] = (int)at;
+        
+        for (int unit = 0; unit < objects.size(); unit++) {
+            constants[unit] = (int)at;
+            at += objects.get(unit).constants.size();
+        }
+        
+        sizes[Executable.CONSTANTS] = (int)(at - offsets[Executable.CONSTANTS]);
+        offsets[Executable.TEXT] = (int)at;
+        at += tops * ENTRY_CALL + 1;
+        
+        for (int unit = 0; unit < objects.size(); unit++) {
+            texts[unit] = (int)at;
+            at += objects.get(unit).text.size();
+        }
+        
+        if (at > Integer.MAX_VALUE)
+            throw new IOException("Executable of " + at + " bytes is too large to be addressed.");
+        
+        sizes[Executable.TEXT] = (int)(at - offsets[Executable.TEXT]);
+        Section entry = section();
+        
+        for (int unit = 0; unit < objects.size(); unit++) {
+            for (int top : objects.get(unit).tops)
+                entry.reserve(ENTRY_CALL).put((byte)Opcode.call.index).put(ObjectCode.NO_REGISTER)
+                        .putInt(texts[unit] + top).putInt(0);
+        }
+        
+        entry.reserve(1).put((byte)Opcode.retv.index);
+        
+        return entry;
+    }
+    
+    /**
+     * Patches one chunk of relocations.
+     * 
+     * @param chunk The index of the chunk.
+     * @return The address and symbol of each call out of the build in the
+     *      chunk, one after the other; the word of each is left zero.
+     */
+    private int[] relocate(int chunk) {
+        int unit = Arrays.binarySearch(chunks, chunk);
+        
+        if (unit < 0)
+            unit = -unit - 2;
+        
+        // units without relocations start at the same chunk as the next.
+        while (chunks[unit + 1] <= chunk)
+            unit++;
+        
+        Section text = objects.get(unit).text;
+        int from = (chunk - chunks[unit]) * CHUNK;
+        int to = Math.min(from + CHUNK, text.relocations());
+        int[] externals = new int[0];
+        int size = 0;
+        
+        for (int relocation = from; relocation < to; relocation++) {
+            int target = text.target(relocation);
+            
+            switch (text.kind(relocation)) {
+                case ObjectCode.LABEL:
+                    text.patch(relocation, texts[unit] + target);
+                    break;
+                case ObjectCode.CONSTANT:
+                    text.patch(relocation, constants[unit] + target);
+                    break;
+                case ObjectCode.GLOBAL:
+                    text.patch(relocation, offsets[Executable.DATA] + globals.get(target) * 4);
+                    break;
+                default:
+                    Long function = functions.get(target);
+                    
+                    if (function != null) {
+                        text.patch(relocation, texts[(int)(function >>> 32)] + (int)(long)function);
+                        break;
+                    }
+                    
+                    if (size == externals.length)
+                        externals = Arrays.copyOf(externals, Math.max(8, size << 1));
+                    
+                    externals[size++] = texts[unit] + text.offset(relocation);
+                    externals[size++] = target;
+                    break;
+            }
+        }
+        
+        return Arrays.copyOf(externals, size);
+    }
+    
+    /**
+     * @return The name and address of each function which won its name, in
+     *      order, then of each global.
+     */
+    private Section symbols() {
+        Section result = section();
+        
+        for (int unit = 0; unit < objects.size(); unit++) {
+            ObjectCode object = objects.get(unit);
+            
+            for (int i = 0; i < object.named; i++) {
+                if (functions.get(object.names[i]) == ((long)unit << 32 | object.functions[i]))
+                    result.reserve(8).putInt(string(object.names[i])).putInt(texts[unit] + object.functions[i]);
+            }
+        }
+        
+        for (int global = 0; global < globalSymbols.size(); global++)
+            result.reserve(8).putInt(string(globalSymbols.get(global)))
+                    .putInt(offsets[Executable.DATA] + global * 4);
+        
+        return result;
+    }
+    
+    /**
+     * @param symbol The symbol of a name.
+     * @return The offset of the name in the strings, written there the first
+     *      time it is asked for.
+     */
+    private int string(int symbol) {
+        Integer result = names.get(symbol);
+        
+        if (result != null)
+            return result;
+        
+        byte[] bytes = SymbolInterner.SHARED.bytes(symbol);
+        int offset = strings.size();
+        strings.reserve(4).putInt(bytes.length);
+        strings.put(bytes);
+        names.put(symbol, offset);
+        
+        return offset;
+    }
+    
+    /**
+     * @return A new section, given back once the linker is done.
+     */
+    private Section section() {
+        Section result = new Section(pool);
+        made.add(result);
+        
+        return result;
+    }
+    
+    /**
+     * Writes a section after the text, and notes where it went.
+     * 
+     * @param channel The file written to.
+     * @param kind The kind of the section.
+     * @param section The section.
+     * @throws IOException if the section cannot be written or the file grows
+     *      too large to be addressed.
+     */
+    private void write(FileChannel channel, int kind, Section section) throws IOException {
+        if (channel.position() + section.size() > Integer.MAX_VALUE)
+            throw new IOException("Executable of " + (channel.position() + section.size())
+                    + " bytes is too large to be addressed.");
+        
+        offsets[kind] = (int)channel.position();
+        sizes[kind] = section.size();
+        section.write(channel);
+    }
+    
+    /**
+     * Writes the header to the room left for it.
+     * 
+     * @param channel The file written to.
+     * @throws IOException if the header cannot be written.
+     */
+    private void header(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(Executable.HEADER + Executable.SECTIONS * Executable.SECTION)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(Executable.MAGIC).putInt(Executable.VERSION).putInt(offsets[Executable.TEXT])
+                .putInt(Executable.SECTIONS);
+        
+        for (int kind = 0; kind < Executable.SECTIONS; kind++)
+            header.putInt(kind).putInt(offsets[kind]).putInt(sizes[kind]);
+        
+        header.flip();
+        
+        while (header.hasRemaining())
+            channel.write(header, header.position());
+    }
+}
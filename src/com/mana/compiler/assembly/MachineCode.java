@@ -0,0 +1,461 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.assembly;
+
+import com.mana.compiler.util.structures.BitSets;
+import com.mana.compiler.util.structures.SymbolInterner;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The instructions of the Arcade machine for one function, or one run of top
+ * level code, as selected from its three address code.
+ * 
+ * <p>
+ * Arcade is a machine of registers, with a frame of slots for each call, the
+ * arguments of the call below the frame and the globals named by symbols.
+ * Only {@code ld}, {@code st}, {@code ldg}, {@code stg} and {@code lda} reach
+ * memory; everything else works on registers and immediates. An immediate of
+ * an operation is a number of {@code IMMEDIATE_BITS} bits at most; {@code li}
+ * takes any {@code int}, and {@code lk} loads a constant kept as text, such as
+ * a string, a fraction or a number too large for an {@code int}.
+ * </p>
+ * 
+ * <p>
+ * Each instruction is an opcode and up to three operands, kept in parallel
+ * arrays as {@code Quadruples} keeps its own. What each operand is, a
+ * register, an immediate, a label, a slot, a symbol or a constant, is given
+ * by the {@code Kind}s of its opcode. The first operand of an opcode which
+ * {@code writes} is the register it writes.
+ * </p>
+ * 
+ * <pre>
+ * label L          L:
+ * enter n          makes a frame of n slots
+ * mov d, s         d = s
+ * li d, n          d = n
+ * lk d, k          d = constant k
+ * ld d, [s]        d = slot s
+ * st [s], r        slot s = r
+ * ldg d, x         d = global x
+ * stg x, r         global x = r
+ * lda d, n         d = argument n
+ * add d, s, t      d = s + t, and so on to sge
+ * addi d, s, n     d = s + n, and so on to sgei
+ * jmp L            goto L
+ * bz r, L          if r == 0 goto L, bnz if it is not
+ * beq s, t, L      if s == t goto L, and so on to bge
+ * beqi s, n, L     if s == n goto L, and so on to bgei
+ * arg r, argi n    passes the next argument of a call
+ * call d, f, n     d = f of the last n arguments, d may be missing
+ * ret r, retv      returns, with or without a value
+ * </pre>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+public final class MachineCode {
+    /** What an operand of an instruction is. */
+    public enum Kind {
+        /** There is no operand. */
+        none,
+        /** The index of a register. */
+        register,
+        /** A number held in the instruction. */
+        immediate,
+        /** The index of a label of the function. */
+        label,
+        /** The index of a slot of the frame. */
+        slot,
+        /** The symbol of a global or a function. */
+        symbol,
+        /** The index of a constant of the function. */
+        constant;
+    }
+    
+    /** The instructions of Arcade. */
+    public enum Opcode {
+        label(Kind.label),
+        enter(Kind.immediate),
+        mov(true, Kind.register, Kind.register),
+        li(true, Kind.register, Kind.immediate),
+        lk(true, Kind.register, Kind.constant),
+        ld(true, Kind.register, Kind.slot),
+        st(Kind.slot, Kind.register),
+        ldg(true, Kind.register, Kind.symbol),
+        stg(Kind.symbol, Kind.register),
+        lda(true, Kind.register, Kind.immediate),
+        neg(true, Kind.register, Kind.register),
+        not(true, Kind.register, Kind.register),
+        add(true, Kind.register, Kind.register, Kind.register),
+        sub(true, Kind.register, Kind.register, Kind.register),
+        mul(true, Kind.register, Kind.register, Kind.register),
+        div(true, Kind.register, Kind.register, Kind.register),
+        rem(true, Kind.register, Kind.register, Kind.register),
+        seq(true, Kind.register, Kind.register, Kind.register),
+        sne(true, Kind.register, Kind.register, Kind.register),
+        slt(true, Kind.register, Kind.register, Kind.register),
+        sle(true, Kind.register, Kind.register, Kind.register),
+        sgt(true, Kind.register, Kind.register, Kind.register),
+        sge(true, Kind.register, Kind.register, Kind.register),
+        and(true, Kind.register, Kind.register, Kind.register),
+        or(true, Kind.register, Kind.register, Kind.register),
+        addi(true, Kind.register, Kind.register, Kind.immediate),
+        subi(true, Kind.register, Kind.register, Kind.immediate),
+        muli(true, Kind.register, Kind.register, Kind.immediate),
+        divi(true, Kind.register, Kind.register, Kind.immediate),
+        remi(true, Kind.register, Kind.register, Kind.immediate),
+        seqi(true, Kind.register, Kind.register, Kind.immediate),
+        snei(true, Kind.register, Kind.register, Kind.immediate),
+        slti(true, Kind.register, Kind.register, Kind.immediate),
+        slei(true, Kind.register, Kind.register, Kind.immediate),
+        sgti(true, Kind.register, Kind.register, Kind.immediate),
+        sgei(true, Kind.register, Kind.register, Kind.immediate),
+        andi(true, Kind.register, Kind.register, Kind.immediate),
+        ori(true, Kind.register, Kind.register, Kind.immediate),
+        jmp(Kind.label),
+        bz(Kind.register, Kind.label),
+        bnz(Kind.register, Kind.label),
+        beq(Kind.register, Kind.register, Kind.label),
+        bne(Kind.register, Kind.register, Kind.label),
+        blt(Kind.register, Kind.register, Kind.label),
+        ble(Kind.register, Kind.register, Kind.label),
+        bgt(Kind.register, Kind.register, Kind.label),
+        bge(Kind.register, Kind.register, Kind.label),
+        beqi(Kind.register, Kind.immediate, Kind.label),
+        bnei(Kind.register, Kind.immediate, Kind.label),
+        blti(Kind.register, Kind.immediate, Kind.label),
+        blei(Kind.register, Kind.immediate, Kind.label),
+        bgti(Kind.register, Kind.immediate, Kind.label),
+        bgei(Kind.register, Kind.immediate, Kind.label),
+        arg(Kind.register),
+        argi(Kind.immediate),
+        call(true, Kind.register, Kind.symbol, Kind.immediate),
+        ret(Kind.register),
+        retv;
+        
+        public static final int length = values().length;
+        public final int index = ordinal();
+        /** Whether the first operand is a register written, if it is given. */
+        public final boolean writes;
+        /** What each of the three operands is. */
+        private final Kind[] kinds;
+        
+        /**
+         * @param kinds What each operand is, those not given being none.
+         */
+        Opcode(Kind... kinds) {
+            this(false, kinds);
+        }
+        
+        /**
+         * @param writes Whether the first operand is a register written.
+         * @param kinds What each operand is, those not given being none.
+         */
+        Opcode(boolean writes, Kind... kinds) {
+            this.writes = writes;
+            this.kinds = Arrays.copyOf(kinds, 3);
+            
+            for (int i = kinds.length; i < 3; i++)
+                this.kinds[i] = Kind.none;
+        }
+        
+        /**
+         * @param operand 0, 1 or 2.
+         * @return What the operand is.
+         */
+        public Kind kind(int operand) {
+            return kinds[operand];
+        }
+        
+        /**
+         * @return The operand holding the label the instruction may go to,
+         *      or -1 if it only goes to the next one.
+         */
+        public int target() {
+            for (int k = 0; this != label && k < 3; k++) {
+                if (kinds[k] == Kind.label)
+                    return k;
+            }
+            
+            return -1;
+        }
+        
+        /**
+         * @return {@code true} if the instruction never goes to the next one.
+         */
+        public boolean ends() {
+            return this == jmp || this == ret || this == retv;
+        }
+    }
+    
+    /** Marks a missing operand. */
+    public static final int NONE = -1;
+    /** The most bits a number held in an operation takes. */
+    public static final int IMMEDIATE_BITS = 16;
+    /** The largest number held in an operation. */
+    public static final int MAX_IMMEDIATE = (1 << IMMEDIATE_BITS - 1) - 1;
+    /** The smallest number held in an operation. */
+    public static final int MIN_IMMEDIATE = -(1 << IMMEDIATE_BITS - 1);
+    /** The opcodes, indexed by their ordinals. */
+    private static final Opcode[] OPCODES = Opcode.values();
+    /** The amount of instructions of new code. */
+    private static final int DEFAULT_CAPACITY = 16;
+    
+    /** The symbol of the name of the function, {@code NONE} at the top level. */
+    private final int name;
+    /** The amount of parameters. */
+    private final int parameters;
+    /** The opcodes of the instructions. */
+    private byte[] opcodes;
+    /** The first operands of the instructions. */
+    private int[] as;
+    /** The second operands of the instructions. */
+    private int[] bs;
+    /** The third operands of the instructions. */
+    private int[] cs;
+    /** The amount of instructions. */
+    private int size;
+    /** The amount of labels used. */
+    private int labels;
+    /** The constants, or {@code null} while there are none. */
+    private List<String> constants;
+    
+    /**
+     * @param name The symbol of the name of the function, {@code NONE} for
+     *      code at the top level.
+     * @param parameters The amount of parameters.
+     * @param labels The amount of labels already used.
+     */
+    public MachineCode(int name, int parameters, int labels) {
+        this.name = name;
+        this.parameters = parameters;
+        this.labels = labels;
+        opcodes = new byte[DEFAULT_CAPACITY];
+        as = new int[DEFAULT_CAPACITY];
+        bs = new int[DEFAULT_CAPACITY];
+        cs = new int[DEFAULT_CAPACITY];
+    }
+    
+    /**
+     * @param value A number.
+     * @return {@code true} if the number can be held in an operation.
+     */
+    public static boolean immediate(int value) {
+        return value >= MIN_IMMEDIATE && value <= MAX_IMMEDIATE;
+    }
+    
+    /**
+     * Adds an instruction at the end of the code.
+     * 
+     * @param opcode The opcode.
+     * @param a The first operand, or {@code NONE}.
+     * @param b The second operand, or {@code NONE}.
+     * @param c The third operand, or {@code NONE}.
+     * @return The index of the instruction.
+     */
+    public int add(Opcode opcode, int a, int b, int c) {
+        if (size == opcodes.length) {
+            int capacity = size << 1;
+            opcodes = Arrays.copyOf(opcodes, capacity);
+            as = Arrays.copyOf(as, capacity);
+            bs = Arrays.copyOf(bs, capacity);
+            cs = Arrays.copyOf(cs, capacity);
+        }
+        
+        opcodes[size] = (byte)opcode.index;
+        as[size] = a;
+        bs[size] = b;
+        cs[size] = c;
+        
+        return size++;
+    }
+    
+    /**
+     * Replaces an instruction.
+     * 
+     * @param index The index of the instruction.
+     * @param opcode The opcode.
+     * @param a The first operand, or {@code NONE}.
+     * @param b The second operand, or {@code NONE}.
+     * @param c The third operand, or {@code NONE}.
+     */
+    public void set(int index, Opcode opcode, int a, int b, int c) {
+        opcodes[index] = (byte)opcode.index;
+        as[index] = a;
+        bs[index] = b;
+        cs[index] = c;
+    }
+    
+    /**
+     * Removes instructions, keeping the others in their order.
+     * 
+     * @param removed The bits of the instructions to remove, as laid out by
+     *      {@code BitSets}.
+     * @return The amount of instructions removed.
+     */
+    public int remove(long[] removed) {
+        int kept = 0;
+        
+        for (int i = 0; i < size; i++) {
+            if (BitSets.get(removed, 0, i))
+                continue;
+            
+            opcodes[kept] = opcodes[i];
+            as[kept] = as[i];
+            bs[kept] = bs[i];
+            cs[kept++] = cs[i];
+        }
+        
+        int count = size - kept;
+        size = kept;
+        
+        return count;
+    }
+    
+    /**
+     * @return The index of a label no instruction has used yet.
+     */
+    public int newLabel() {
+        return labels++;
+    }
+    
+    /**
+     * @param text The text of a constant, kept as it is.
+     * @return The index of the constant.
+     */
+    public int constant(String text) {
+        if (constants == null)
+            constants = new ArrayList<>(1);
+        
+        constants.add(text);
+        
+        return constants.size() - 1;
+    }
+    
+    /**
+     * @return The symbol of the name of the function, {@code NONE} for code at
+     *      the top level.
+     */
+    public int name() { return name; }
+    
+    /**
+     * @return The amount of parameters.
+     */
+    public int parameters() { return parameters; }
+    
+    /**
+     * @return The amount of instructions.
+     */
+    public int size() { return size; }
+    
+    /**
+     * @param index The index of an instruction.
+     * @return The opcode of the instruction.
+     */
+    public Opcode opcode(int index) { return OPCODES[opcodes[index]]; }
+    
+    /**
+     * @param index The index of an instruction.
+     * @param operand 0, 1 or 2.
+     * @return The operand of the instruction, or {@code NONE}.
+     */
+    public int operand(int index, int operand) {
+        return operand == 0 ? as[index] : operand == 1 ? bs[index] : cs[index];
+    }
+    
+    /**
+     * @return The amount of labels used.
+     */
+    public int labels() { return labels; }
+    
+    /**
+     * @return The amount of constants.
+     */
+    public int constants() { return constants == null ? 0 : constants.size(); }
+    
+    /**
+     * @param index The index of a constant.
+     * @return The text of the constant.
+     */
+    public String constant(int index) { return constants.get(index); }
+    
+    /**
+     * Writes the code as text, one line per instruction, opening and closing
+     * a function with its name.
+     * 
+     * @param out The text to write to.
+     */
+    public void asm(StringBuilder out) {
+        if (name != NONE)
+            out.append(SymbolInterner.SHARED.name(name)).append(":\n");
+        
+        for (int i = 0; i < size; i++) {
+            Opcode opcode = opcode(i);
+            
+            if (opcode == Opcode.label) {
+                out.append('L').append(as[i]).append(":\n");
+                continue;
+            }
+            
+            out.append("    ").append(opcode);
+            
+            for (int k = 0; k < 3 && opcode.kind(k) != Kind.none; k++) {
+                out.append(k == 0 ? " " : ", ");
+                text(out, opcode.kind(k), operand(i, k));
+            }
+            
+            out.append('\n');
+        }
+    }
+    
+    /**
+     * @param out The text to write to.
+     * @param kind What the operand is.
+     * @param operand The operand.
+     */
+    private void text(StringBuilder out, Kind kind, int operand) {
+        switch (kind) {
+            case register:
+                out.append(operand == NONE ? "_" : "r" + operand);
+                break;
+            case label:
+                out.append('L').append(operand);
+                break;
+            case slot:
+                out.append("[s").append(operand).append(']');
+                break;
+            case symbol:
+                out.append(SymbolInterner.SHARED.name(operand));
+                break;
+            case constant:
+                out.append(constants.get(operand));
+                break;
+            default:
+                out.append(operand);
+                break;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.assembly;
+
+import com.mana.compiler.assembly.MachineCode.Opcode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The relocatable object code of one unit: its instructions and constants
+ * encoded as in an {@code Executable}, with every word referring to anything
+ * outside the function it is in left to the {@code Linker}.
+ * 
+ * <p>
+ * The object knows nothing of the other units, so any number of them are
+ * encoded at once. Its labels are resolved once their function is encoded,
+ * to their offsets in its text, which the linker moves by where the text
+ * goes. Its constants are referred to by their offsets in its constants, and
+ * globals and calls by their symbols.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+final class ObjectCode {
+    /** A relocation to an offset in the text of the object. */
+    static final int LABEL = 0;
+    /** A relocation to an offset in the constants of the object. */
+    static final int CONSTANT = 1;
+    /** A relocation to a global, by its symbol. */
+    static final int GLOBAL = 2;
+    /** A relocation to a function, by its symbol. */
+    static final int CALL = 3;
+    
+    /** The most bytes of one instruction. */
+    static final int MAX_INSTRUCTION = 13;
+    /** The byte of an operand which is no register. */
+    static final byte NO_REGISTER = (byte)0xff;
+    
+    /** The instructions. */
+    final Section text;
+    /** The constants, each its length and bytes. */
+    final Section constants;
+    /** The symbol of each named function, in order. */
+    int[] names = new int[4];
+    /** The offset in the text of each named function. */
+    int[] functions = new int[4];
+    /** The amount of named functions. */
+    int named;
+    /** The offset in the text of the top level of the unit, if it has one. */
+    final List<Integer> tops = new ArrayList<>(1);
+    /** The symbols of the globals, in the order they are first used. */
+    final List<Integer> globals = new ArrayList<>();
+    
+    /**
+     * Encodes the functions of a unit.
+     * 
+     * @param code The instructions of each function of the unit.
+     * @param pool The pool to take buffers from.
+     */
+    ObjectCode(List<MachineCode> code, BufferPool pool) {
+        text = new Section(pool);
+        constants = new Section(pool);
+        Set<Integer> used = new HashSet<>();
+        
+        for (MachineCode function : code) {
+            if (function.name() == MachineCode.NONE)
+                tops.add(text.size());
+            else {
+                if (named == names.length) {
+                    names = Arrays.copyOf(names, named << 1);
+                    functions = Arrays.copyOf(functions, named << 1);
+                }
+                
+                names[named] = function.name();
+                functions[named++] = text.size();
+            }
+            
+            encode(function, used);
+        }
+    }
+    
+    /**
+     * Encodes a function, and patches its labels.
+     * 
+     * @param code The instructions of the function.
+     * @param used The globals already used.
+     */
+    private void encode(MachineCode code, Set<Integer> used) {
+        int[] labels = new int[code.labels()];
+        int[] offsets = new int[code.constants()];
+        int first = text.relocations();
+        
+        for (int constant = 0; constant < offsets.length; constant++) {
+            byte[] bytes = code.constant(constant).getBytes(StandardCharsets.UTF_8);
+            offsets[constant] = constants.size();
+            constants.reserve(4).putInt(bytes.length);
+            constants.put(bytes);
+        }
+        
+        for (int i = 0; i < code.size(); i++) {
+            Opcode opcode = code.opcode(i);
+            
+            if (opcode == Opcode.label) {
+                labels[code.operand(i, 0)] = text.size();
+                continue;
+            }
+            
+            ByteBuffer out = text.reserve(MAX_INSTRUCTION);
+            out.put((byte)opcode.index);
+            
+            for (int k = 0; k < 3; k++) {
+                int operand = code.operand(i, k);
+                
+                switch (opcode.kind(k)) {
+                    case none:
+                        break;
+                    case register:
+                        out.put(operand == MachineCode.NONE ? NO_REGISTER : (byte)operand);
+                        break;
+                    case label:
+                        text.relocate(LABEL, operand);
+                        break;
+                    case symbol:
+                        if (opcode == Opcode.call)
+                            text.relocate(CALL, operand);
+                        else {
+                            text.relocate(GLOBAL, operand);
+                            
+                            if (used.add(operand))
+                                globals.add(operand);
+                        }
+                        break;
+                    case constant:
+                        text.relocate(CONSTANT, offsets[operand]);
+                        break;
+                    default:
+                        out.putInt(operand);
+                        break;
+                }
+            }
+        }
+        
+        for (int relocation = first; relocation < text.relocations(); relocation++) {
+            if (text.kind(relocation) == LABEL)
+                text.retarget(relocation, labels[text.target(relocation)]);
+        }
+    }
+}
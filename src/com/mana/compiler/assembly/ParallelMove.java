@@ -0,0 +1,117 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.assembly;
+
+import com.mana.compiler.generator.Quadruples;
+import com.mana.compiler.generator.Quadruples.Op;
+import java.util.Arrays;
+
+/**
+ * Copies which all read their sources before any writes its target, as on
+ * an edge into the phis of a block, written out as copies one after another.
+ * 
+ * <p>
+ * A copy is written once no copy left reads its target. When every copy
+ * left does, they form cycles, and one source is first saved to a scratch
+ * slot which the copies reading it then read instead.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+final class ParallelMove {
+    /** The target of each copy. */
+    private int[] targets = new int[8];
+    /** The source of each copy. */
+    private int[] sources = new int[8];
+    /** The amount of copies. */
+    private int size;
+    
+    /**
+     * Adds a copy, unless its source is its target.
+     * 
+     * @param target The register or slot written.
+     * @param source The register, slot or constant read.
+     */
+    void add(int target, int source) {
+        if (target == source)
+            return;
+        
+        if (size == targets.length) {
+            targets = Arrays.copyOf(targets, size << 1);
+            sources = Arrays.copyOf(sources, size << 1);
+        }
+        
+        targets[size] = target;
+        sources[size++] = source;
+    }
+    
+    /**
+     * @return {@code true} if there are no copies.
+     */
+    boolean empty() {
+        return size == 0;
+    }
+    
+    /**
+     * Writes the copies and forgets them.
+     * 
+     * @param out The code to write them to.
+     * @param scratch The slot to save a source to if the copies form a cycle.
+     */
+    void write(Quadruples out, int scratch) {
+        while (size > 0) {
+            int ready = -1;
+            
+            for (int i = 0; i < size && ready < 0; i++) {
+                ready = i;
+                
+                for (int j = 0; j < size; j++) {
+                    if (j != i && sources[j] == targets[i]) {
+                        ready = -1;
+                        break;
+                    }
+                }
+            }
+            
+            if (ready < 0) {
+                // every target is still to be read: break the cycle.
+                int saved = sources[0];
+                out.add(Op.copy, saved, Quadruples.NONE, scratch);
+                
+                for (int i = 0; i < size; i++) {
+                    if (sources[i] == saved)
+                        sources[i] = scratch;
+                }
+                
+                continue;
+            }
+            
+            out.add(Op.copy, sources[ready], Quadruples.NONE, targets[ready]);
+            size--;
+            targets[ready] = targets[size];
+            sources[ready] = sources[size];
+        }
+    }
+}
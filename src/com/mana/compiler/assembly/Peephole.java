@@ -0,0 +1,571 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.assembly;
+
+import com.mana.compiler.assembly.MachineCode.Kind;
+import com.mana.compiler.assembly.MachineCode.Opcode;
+import com.mana.compiler.util.structures.BitSets;
+import java.util.Arrays;
+
+/**
+ * Rewrites the instructions of one function through a window sliding over
+ * them, an instruction and the ones right after it at a time.
+ * 
+ * <p>
+ * Before each round the registers live after every instruction are found,
+ * so a rule may drop a register whose value is read by nothing else. An
+ * instruction a rule removes is only marked, and the code is compacted once
+ * the round is over. Rounds are repeated until one rewrites nothing, and
+ * how many rewrites each rule made is kept.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+final class Peephole {
+    /**
+     * The rules of the pass.
+     */
+    enum Rule {
+        /**
+         * Moves to the same register, moves back, and moves of a register
+         * written or read right before or after.
+         */
+        moves,
+        /** Loads of a slot or global a register was just stored to. */
+        loads,
+        /**
+         * Stores of a register to the slot or global it was just loaded from
+         * or which is stored to again right after.
+         */
+        stores,
+        /** Comparisons only branched on, fused with the branch. */
+        branches,
+        /**
+         * Small numbers loaded into a register read once, folded into the
+         * instruction reading them.
+         */
+        immediates,
+        /**
+         * Jumps to the next instruction or to a jump, branches around a jump,
+         * and code after a jump which is never reached.
+         */
+        jumps;
+        
+        /** The amount of rules. */
+        static final int length = values().length;
+        /** The index of the rule. */
+        final int index = ordinal();
+    }
+    
+    /** The most rounds the pass makes over one function. */
+    private static final int MAX_ROUNDS = 8;
+    /** The most jumps followed to find where a jump really goes. */
+    private static final int MAX_JUMPS = 8;
+    
+    /**
+     * The form of each instruction of two registers with an immediate for
+     * its last, or {@code null} if it has none.
+     */
+    private static final Opcode[] IMMEDIATES = new Opcode[Opcode.length];
+    /**
+     * The form of each instruction of two registers with its operands swapped
+     * and an immediate for the first, or {@code null} if it has none.
+     */
+    private static final Opcode[] SWAPPED = new Opcode[Opcode.length];
+    /** The branch of each comparison, or {@code null} if it is not one. */
+    private static final Opcode[] BRANCHES = new Opcode[Opcode.length];
+    /** The branch taken when each branch is not, or {@code null}. */
+    private static final Opcode[] INVERSES = new Opcode[Opcode.length];
+    
+    static {
+        Opcode[] registers = {Opcode.add, Opcode.sub, Opcode.mul, Opcode.div, Opcode.rem, Opcode.seq,
+                Opcode.sne, Opcode.slt, Opcode.sle, Opcode.sgt, Opcode.sge, Opcode.and, Opcode.or};
+        Opcode[] immediates = {Opcode.addi, Opcode.subi, Opcode.muli, Opcode.divi, Opcode.remi, Opcode.seqi,
+                Opcode.snei, Opcode.slti, Opcode.slei, Opcode.sgti, Opcode.sgei, Opcode.andi, Opcode.ori};
+        Opcode[] swapped = {Opcode.addi, null, Opcode.muli, null, null, Opcode.seqi,
+                Opcode.snei, Opcode.sgti, Opcode.sgei, Opcode.slti, Opcode.slei, Opcode.andi, Opcode.ori};
+        
+        for (int i = 0; i < registers.length; i++) {
+            IMMEDIATES[registers[i].index] = immediates[i];
+            SWAPPED[registers[i].index] = swapped[i];
+        }
+        
+        Opcode[] compares = {Opcode.seq, Opcode.sne, Opcode.slt, Opcode.sle, Opcode.sgt, Opcode.sge,
+                Opcode.seqi, Opcode.snei, Opcode.slti, Opcode.slei, Opcode.sgti, Opcode.sgei};
+        Opcode[] branches = {Opcode.beq, Opcode.bne, Opcode.blt, Opcode.ble, Opcode.bgt, Opcode.bge,
+                Opcode.beqi, Opcode.bnei, Opcode.blti, Opcode.blei, Opcode.bgti, Opcode.bgei};
+        Opcode[] inverses = {Opcode.bne, Opcode.beq, Opcode.bge, Opcode.bgt, Opcode.ble, Opcode.blt,
+                Opcode.bnei, Opcode.beqi, Opcode.bgei, Opcode.bgti, Opcode.blei, Opcode.blti};
+        
+        for (int i = 0; i < compares.length; i++) {
+            BRANCHES[compares[i].index] = branches[i];
+            INVERSES[branches[i].index] = inverses[i];
+        }
+        
+        for (int i = 0; i < 6; i++) {
+            IMMEDIATES[branches[i].index] = branches[i + 6];
+            SWAPPED[branches[i].index] = BRANCHES[SWAPPED[compares[i].index].index];
+        }
+        
+        INVERSES[Opcode.bz.index] = Opcode.bnz;
+        INVERSES[Opcode.bnz.index] = Opcode.bz;
+    }
+    
+    /** The instructions rewritten. */
+    private final MachineCode code;
+    /** How many rewrites each rule made. */
+    private final int[] rewrites = new int[Rule.length];
+    /** The registers live after each instruction, one bit each. */
+    private long[] live;
+    /** The index of the instruction of each label. */
+    private int[] labels;
+    /** The instructions removed in this round. */
+    private long[] removed;
+    
+    /**
+     * Rewrites the instructions of a function in place.
+     * 
+     * @param code The instructions, of at most 64 registers.
+     */
+    Peephole(MachineCode code) {
+        this.code = code;
+        
+        for (int round = 0; round < MAX_ROUNDS && round(); round++);
+    }
+    
+    /**
+     * @param rule A rule.
+     * @return How many rewrites the rule made.
+     */
+    int rewrites(Rule rule) {
+        return rewrites[rule.index];
+    }
+    
+    /**
+     * Slides the window over every instruction once, looking at an
+     * instruction again as long as a rule rewrites it.
+     * 
+     * @return {@code true} if anything was rewritten.
+     */
+    private boolean round() {
+        liveness();
+        removed = BitSets.create(1, code.size());
+        boolean changed = false;
+        int i = next(-1);
+        
+        while (i >= 0) {
+            if (rewrite(i)) {
+                changed = true;
+                
+                if (!BitSets.get(removed, 0, i))
+                    continue;
+            }
+            
+            i = next(i);
+        }
+        
+        code.remove(removed);
+        
+        return changed;
+    }
+    
+    /**
+     * Finds the registers live after each instruction, and where each label
+     * is.
+     */
+    private void liveness() {
+        int size = code.size();
+        long[] in = new long[size];
+        live = new long[size];
+        labels = new int[code.labels()];
+        Arrays.fill(labels, -1);
+        
+        for (int i = 0; i < size; i++) {
+            if (code.opcode(i) == Opcode.label)
+                labels[code.operand(i, 0)] = i;
+        }
+        
+        boolean changed = true;
+        
+        while (changed) {
+            changed = false;
+            
+            for (int i = size - 1; i >= 0; i--) {
+                Opcode opcode = code.opcode(i);
+                int target = opcode.target();
+                long out = 0;
+                
+                if (!opcode.ends() && i + 1 < size)
+                    out |= in[i + 1];
+                
+                if (target >= 0)
+                    out |= in[labels[code.operand(i, target)]];
+                
+                long before = reads(i) | out & ~writes(i);
+                
+                if (out != live[i] || before != in[i]) {
+                    live[i] = out;
+                    in[i] = before;
+                    changed = true;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Tries every rule on the window starting at an instruction.
+     * 
+     * @param i The index of the first instruction of the window.
+     * @return {@code true} if a rule rewrote anything.
+     */
+    private boolean rewrite(int i) {
+        Opcode first = code.opcode(i);
+        int target = first.target();
+        
+        if (first == Opcode.mov && operand(i, 0) == operand(i, 1))
+            return remove(i, Rule.moves);
+        
+        if (target >= 0 && thread(i, target))
+            return count(Rule.jumps);
+        
+        int j = next(i);
+        
+        if (j < 0)
+            return false;
+        
+        if (first.ends() && code.opcode(j) != Opcode.label)
+            return remove(j, Rule.jumps);
+        
+        if (target >= 0 && label(j, operand(i, target)))
+            return remove(i, Rule.jumps);
+        
+        return moves(i, j) || memory(i, j) || branch(i, j) || immediate(i, j) || invert(i, j);
+    }
+    
+    /**
+     * Drops a move back to the register just moved from, and folds a move
+     * into the instruction writing the register it moves from, or into the
+     * instruction reading the register it moves to.
+     * 
+     * @param i The index of an instruction.
+     * @param j The index of the instruction after it.
+     * @return {@code true} if a move was dropped.
+     */
+    private boolean moves(int i, int j) {
+        Opcode first = code.opcode(i);
+        Opcode second = code.opcode(j);
+        int written = first.writes ? operand(i, 0) : MachineCode.NONE;
+        
+        if (written == MachineCode.NONE)
+            return false;
+        
+        if (second == Opcode.mov && operand(j, 1) == written) {
+            if (first == Opcode.mov && operand(i, 1) == operand(j, 0))
+                return remove(j, Rule.moves);
+            
+            if (free(written, j)) {
+                code.set(i, first, operand(j, 0), operand(i, 1), operand(i, 2));
+                return remove(j, Rule.moves);
+            }
+        }
+        
+        if (first == Opcode.mov && (reads(j) & 1L << written) != 0 && free(written, j)) {
+            int[] operands = operands(j);
+            
+            for (int k = second.writes ? 1 : 0; k < 3; k++) {
+                if (second.kind(k) == Kind.register && operands[k] == written)
+                    operands[k] = operand(i, 1);
+            }
+            
+            code.set(j, second, operands[0], operands[1], operands[2]);
+            return remove(i, Rule.moves);
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Turns a load of what was just stored into a move, and drops a store of
+     * what was just loaded or of what is stored over right after.
+     * 
+     * @param i The index of an instruction.
+     * @param j The index of the instruction after it.
+     * @return {@code true} if a load or store was dropped.
+     */
+    private boolean memory(int i, int j) {
+        Opcode first = code.opcode(i);
+        Opcode second = code.opcode(j);
+        boolean slot = first == Opcode.st || first == Opcode.ld;
+        Opcode load = slot ? Opcode.ld : Opcode.ldg;
+        Opcode store = slot ? Opcode.st : Opcode.stg;
+        
+        if (first == store && second == load && operand(i, 0) == operand(j, 1)) {
+            if (operand(j, 0) == operand(i, 1))
+                return remove(j, Rule.loads);
+            
+            code.set(j, Opcode.mov, operand(j, 0), operand(i, 1), MachineCode.NONE);
+            return count(Rule.loads);
+        }
+        
+        if (first == load && second == store && operand(i, 1) == operand(j, 0) && operand(i, 0) == operand(j, 1))
+            return remove(j, Rule.stores);
+        
+        if (first == store && second == store && operand(i, 0) == operand(j, 0))
+            return remove(i, Rule.stores);
+        
+        return false;
+    }
+    
+    /**
+     * Fuses a comparison only branched on with the branch.
+     * 
+     * @param i The index of an instruction.
+     * @param j The index of the instruction after it.
+     * @return {@code true} if they were fused.
+     */
+    private boolean branch(int i, int j) {
+        Opcode compare = BRANCHES[code.opcode(i).index];
+        Opcode second = code.opcode(j);
+        
+        if (compare == null || (second != Opcode.bz && second != Opcode.bnz) || operand(j, 0) != operand(i, 0)
+                || !free(operand(i, 0), j))
+            return false;
+        
+        Opcode fused = second == Opcode.bz ? INVERSES[compare.index] : compare;
+        code.set(j, fused, operand(i, 1), operand(i, 2), operand(j, 1));
+        
+        return remove(i, Rule.branches);
+    }
+    
+    /**
+     * Folds a small number loaded into a register into the one instruction
+     * reading the register, as its immediate.
+     * 
+     * @param i The index of an instruction.
+     * @param j The index of the instruction after it.
+     * @return {@code true} if the number was folded.
+     */
+    private boolean immediate(int i, int j) {
+        if (code.opcode(i) != Opcode.li || !MachineCode.immediate(operand(i, 1)))
+            return false;
+        
+        Opcode second = code.opcode(j);
+        int register = operand(i, 0);
+        int value = operand(i, 1);
+        
+        if (!free(register, j))
+            return false;
+        
+        if (second == Opcode.arg && operand(j, 0) == register) {
+            code.set(j, Opcode.argi, value, MachineCode.NONE, MachineCode.NONE);
+            return remove(i, Rule.immediates);
+        }
+        
+        if (IMMEDIATES[second.index] == null)
+            return false;
+        
+        int[] operands = operands(j);
+        int left = second.writes ? 1 : 0;
+        
+        if (operands[left] != register && operands[left + 1] == register) {
+            operands[left + 1] = value;
+            code.set(j, IMMEDIATES[second.index], operands[0], operands[1], operands[2]);
+            return remove(i, Rule.immediates);
+        }
+        
+        if (operands[left] == register && operands[left + 1] != register && SWAPPED[second.index] != null) {
+            operands[left] = operands[left + 1];
+            operands[left + 1] = value;
+            code.set(j, SWAPPED[second.index], operands[0], operands[1], operands[2]);
+            return remove(i, Rule.immediates);
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Turns a branch around a jump into the inverse branch to where the jump
+     * goes.
+     * 
+     * @param i The index of an instruction.
+     * @param j The index of the instruction after it.
+     * @return {@code true} if the jump was dropped.
+     */
+    private boolean invert(int i, int j) {
+        Opcode first = code.opcode(i);
+        Opcode inverse = INVERSES[first.index];
+        int k = next(j);
+        
+        if (inverse == null || code.opcode(j) != Opcode.jmp || k < 0 || !label(k, operand(i, first.target())))
+            return false;
+        
+        int[] operands = operands(i);
+        operands[first.target()] = operand(j, 0);
+        code.set(i, inverse, operands[0], operands[1], operands[2]);
+        
+        return remove(j, Rule.jumps);
+    }
+    
+    /**
+     * Points a jump or branch to a label of a jump straight to where that
+     * jump goes, following a few jumps.
+     * 
+     * @param i The index of a jump or branch.
+     * @param target The operand of its label.
+     * @return {@code true} if it was pointed elsewhere.
+     */
+    private boolean thread(int i, int target) {
+        int label = operand(i, target);
+        
+        for (int jumps = 0; ; jumps++) {
+            int next = next(labels[label] - 1);
+            
+            while (next >= 0 && code.opcode(next) == Opcode.label)
+                next = next(next);
+            
+            if (next < 0 || code.opcode(next) != Opcode.jmp)
+                break;
+            
+            if (jumps == MAX_JUMPS)
+                return false;
+            
+            label = operand(next, 0);
+        }
+        
+        if (label == operand(i, target))
+            return false;
+        
+        int[] operands = operands(i);
+        operands[target] = label;
+        code.set(i, code.opcode(i), operands[0], operands[1], operands[2]);
+        
+        return true;
+    }
+    
+    /**
+     * @param i The index of an instruction.
+     * @param label A label.
+     * @return {@code true} if the label is at the instruction or at one of
+     *      the labels right after it.
+     */
+    private boolean label(int i, int label) {
+        for (; i >= 0 && code.opcode(i) == Opcode.label; i = next(i)) {
+            if (operand(i, 0) == label)
+                return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * @param register A register.
+     * @param i The index of an instruction reading the register.
+     * @return {@code true} if nothing after the instruction reads the value
+     *      the register held before it.
+     */
+    private boolean free(int register, int i) {
+        return (live[i] & 1L << register) == 0 || (writes(i) & 1L << register) != 0;
+    }
+    
+    /**
+     * @param i The index of an instruction.
+     * @return The registers the instruction reads.
+     */
+    private long reads(int i) {
+        Opcode opcode = code.opcode(i);
+        long result = 0;
+        
+        for (int k = opcode.writes ? 1 : 0; k < 3; k++) {
+            if (opcode.kind(k) == Kind.register)
+                result |= 1L << code.operand(i, k);
+        }
+        
+        return result;
+    }
+    
+    /**
+     * @param i The index of an instruction.
+     * @return The register the instruction writes, if any.
+     */
+    private long writes(int i) {
+        int register = code.operand(i, 0);
+        
+        return code.opcode(i).writes && register != MachineCode.NONE ? 1L << register : 0;
+    }
+    
+    /**
+     * @param i The index of an instruction, or -1.
+     * @return The index of the next instruction not removed, or -1 if there
+     *      is none.
+     */
+    private int next(int i) {
+        for (i++; i < code.size(); i++) {
+            if (!BitSets.get(removed, 0, i))
+                return i;
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * @param i The index of an instruction.
+     * @param k The index of an operand.
+     * @return The operand of the instruction.
+     */
+    private int operand(int i, int k) {
+        return code.operand(i, k);
+    }
+    
+    /**
+     * @param i The index of an instruction.
+     * @return A copy of the operands of the instruction.
+     */
+    private int[] operands(int i) {
+        return new int[] {code.operand(i, 0), code.operand(i, 1), code.operand(i, 2)};
+    }
+    
+    /**
+     * Marks an instruction removed by a rule.
+     * 
+     * @param i The index of the instruction.
+     * @param rule The rule.
+     * @return {@code true}.
+     */
+    private boolean remove(int i, Rule rule) {
+        BitSets.set(removed, 0, i);
+        
+        return count(rule);
+    }
+    
+    /**
+     * @param rule The rule which rewrote something.
+     * @return {@code true}.
+     */
+    private boolean count(Rule rule) {
+        rewrites[rule.index]++;
+        
+        return true;
+    }
+}
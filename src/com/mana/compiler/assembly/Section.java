@@ -0,0 +1,289 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.assembly;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The bytes of one section of an executable, encoded straight into buffers
+ * taken from a {@code BufferPool}, along with the places in it which are
+ * patched once what they refer to is known.
+ * 
+ * <p>
+ * Whatever is reserved at once is kept in one buffer, so an instruction and
+ * the places in it never cross from one buffer to the next; the unused end of
+ * a buffer is not part of the section. A place is kept as the index of its
+ * buffer and its offset there, and is patched in place. Sections written one
+ * after another are written by gathering writes of up to {@code BATCH}
+ * buffers, and each section goes back to the pool as soon as the last of its
+ * buffers is written, or once the write fails.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+final class Section {
+    /** The most buffers written by one gathering write. */
+    private static final int BATCH = 1024;
+    
+    /** The pool the buffers come from. */
+    private final BufferPool pool;
+    /** The buffers of the section, the last being written to. */
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    /** The offset in the section of each buffer. */
+    private int[] starts = new int[4];
+    /** The buffer being written to, or {@code null} if there is none yet. */
+    private ByteBuffer current;
+    /** The place of each relocation, as the index of its buffer and offset. */
+    private long[] sites = new long[16];
+    /** What each relocation refers to, by a kind its writer gives. */
+    private byte[] kinds = new byte[16];
+    /** What each relocation refers to, given its kind. */
+    private int[] targets = new int[16];
+    /** The amount of relocations. */
+    private int relocations;
+    
+    /**
+     * @param pool The pool to take buffers from.
+     */
+    Section(BufferPool pool) {
+        this.pool = pool;
+    }
+    
+    /**
+     * @return The amount of bytes in the section.
+     */
+    int size() {
+        return current == null ? 0 : starts[chunks.size() - 1] + current.position();
+    }
+    
+    /**
+     * Makes room for bytes written next, all in one buffer.
+     * 
+     * @param bytes The amount of bytes, at most the size of a buffer.
+     * @return The buffer to put them in.
+     */
+    ByteBuffer reserve(int bytes) {
+        if (current == null || current.remaining() < bytes) {
+            int start = size();
+            current = pool.take();
+            
+            if (chunks.size() == starts.length)
+                starts = Arrays.copyOf(starts, starts.length << 1);
+            
+            starts[chunks.size()] = start;
+            chunks.add(current);
+        }
+        
+        return current;
+    }
+    
+    /**
+     * Puts bytes which are never patched, across as many buffers as they
+     * need.
+     * 
+     * @param bytes The bytes.
+     */
+    void put(byte[] bytes) {
+        for (int offset = 0; offset < bytes.length; ) {
+            ByteBuffer out = reserve(1);
+            int length = Math.min(bytes.length - offset, out.remaining());
+            out.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+    
+    /**
+     * Puts zeroes.
+     * 
+     * @param bytes The amount of zeroes.
+     */
+    void zeroes(int bytes) {
+        while (bytes > 0) {
+            ByteBuffer out = reserve(1);
+            int length = Math.min(bytes, out.remaining());
+            
+            for (int i = 0; i < length; i++)
+                out.put((byte)0);
+            
+            bytes -= length;
+        }
+    }
+    
+    /**
+     * Puts a word to be patched later, in room already reserved.
+     * 
+     * @param kind The kind of what the word refers to.
+     * @param target What the word refers to.
+     */
+    void relocate(int kind, int target) {
+        if (relocations == sites.length) {
+            sites = Arrays.copyOf(sites, relocations << 1);
+            kinds = Arrays.copyOf(kinds, relocations << 1);
+            targets = Arrays.copyOf(targets, relocations << 1);
+        }
+        
+        sites[relocations] = (long)(chunks.size() - 1) << 32 | current.position();
+        kinds[relocations] = (byte)kind;
+        targets[relocations++] = target;
+        current.putInt(0);
+    }
+    
+    /**
+     * @return The amount of relocations.
+     */
+    int relocations() {
+        return relocations;
+    }
+    
+    /**
+     * @param relocation The index of a relocation.
+     * @return The kind of what it refers to.
+     */
+    int kind(int relocation) {
+        return kinds[relocation];
+    }
+    
+    /**
+     * @param relocation The index of a relocation.
+     * @return What it refers to.
+     */
+    int target(int relocation) {
+        return targets[relocation];
+    }
+    
+    /**
+     * @param relocation The index of a relocation.
+     * @param target What it refers to from now on.
+     */
+    void retarget(int relocation, int target) {
+        targets[relocation] = target;
+    }
+    
+    /**
+     * @param relocation The index of a relocation.
+     * @return The offset of its word in the section.
+     */
+    int offset(int relocation) {
+        return starts[(int)(sites[relocation] >>> 32)] + (int)sites[relocation];
+    }
+    
+    /**
+     * Patches the word of a relocation in place. Words of different
+     * relocations may be patched at once from different threads.
+     * 
+     * @param relocation The index of a relocation.
+     * @param value The value of the word.
+     */
+    void patch(int relocation, int value) {
+        chunks.get((int)(sites[relocation] >>> 32)).putInt((int)sites[relocation], value);
+    }
+    
+    /**
+     * Writes the section at the position of a channel, and gives its buffers
+     * back to the pool, written or not.
+     * 
+     * @param channel The channel to write to.
+     * @throws IOException if the section cannot be written.
+     */
+    void write(FileChannel channel) throws IOException {
+        write(channel, Collections.singletonList(this));
+    }
+    
+    /**
+     * Writes sections one after another at the position of a channel, and
+     * gives each back to its pool once it is written. Every section is given
+     * back, written or not, if the write fails.
+     * 
+     * @param channel The channel to write to.
+     * @param sections The sections.
+     * @throws IOException if the sections cannot be written.
+     */
+    static void write(FileChannel channel, List<Section> sections) throws IOException {
+        ByteBuffer[] batch = new ByteBuffer[BATCH];
+        int size = 0;
+        long remaining = 0;
+        int released = 0;
+        
+        try {
+            for (int i = 0; i < sections.size(); i++) {
+                for (ByteBuffer buffer : sections.get(i).chunks) {
+                    if (size == BATCH) {
+                        write(channel, batch, size, remaining);
+                        size = 0;
+                        remaining = 0;
+                        
+                        // every section before this one is written.
+                        while (released < i)
+                            sections.get(released++).release();
+                    }
+                    
+                    buffer.flip();
+                    batch[size++] = buffer;
+                    remaining += buffer.remaining();
+                }
+            }
+            
+            write(channel, batch, size, remaining);
+        } finally {
+            while (released < sections.size())
+                sections.get(released++).release();
+        }
+    }
+    
+    /**
+     * Writes buffers at the position of a channel.
+     * 
+     * @param channel The channel to write to.
+     * @param buffers The buffers, the first {@code size} of which are written.
+     * @param size The amount of buffers.
+     * @param remaining The amount of bytes in them.
+     * @throws IOException if the buffers cannot be written.
+     */
+    private static void write(FileChannel channel, ByteBuffer[] buffers, int size, long remaining)
+            throws IOException {
+        // a channel writes at most as many buffers as the system lets it at once.
+        while (remaining > 0)
+            remaining -= channel.write(buffers, 0, size);
+    }
+    
+    /**
+     * Gives the buffers of the section back to the pool and empties it. A
+     * section given back is empty, so it may be given back again.
+     */
+    void release() {
+        for (ByteBuffer buffer : chunks)
+            pool.give(buffer);
+        
+        chunks.clear();
+        current = null;
+        relocations = 0;
+    }
+}
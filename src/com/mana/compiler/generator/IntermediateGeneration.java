@@ -25,7 +25,10 @@ package com.mana.compiler.generator;
 
 import com.mana.compiler.util.structures.ParseTree;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * Represents the intermediate representation of the source code as deemed by
@@ -42,29 +45,68 @@ import java.util.List;
  * @version alpha 0.0.0.1
  */
 
-// NOTE: The process of generation can be Threaded, please make use of it.
 public class IntermediateGeneration {
-    /** The output of the generate() method. */
-    private static final List<ThreeAddressGeneration> TAC = new ArrayList<>();
+    /** The code generated for each tree, in the order of the trees. */
+    private final List<ThreeAddressGeneration> tac;
     
     /**
+     * @param tac The code generated for each tree, in the order of the trees.
+     */
+    private IntermediateGeneration(List<ThreeAddressGeneration> tac) {
+        this.tac = Collections.unmodifiableList(tac);
+    }
+    
+    /**
+     * Generates code for every tree at once. The code is kept in the order of
+     * the trees, whichever finishes first, so the same trees always give the
+     * same output.
+     * 
      * @param trees The trees to generate code for.
      */
-    public IntermediateGeneration(List<ParseTree> trees) {
-        // NOTE: in the future run this in threads.
-        trees.forEach((tree) -> {
-            TAC.add(generate(tree));
-        });
+    public IntermediateGeneration(Collection<ParseTree> trees) {
+        this(trees.parallelStream()
+                .map(IntermediateGeneration::generate)
+                .collect(Collectors.toList()));
+    }
+    
+    /**
+     * Collects code which was already generated tree by tree.
+     * 
+     * @param generated The code generated for each tree, in order.
+     * @return The intermediate generation holding the code.
+     */
+    public static IntermediateGeneration of(List<ThreeAddressGeneration> generated) {
+        return new IntermediateGeneration(new ArrayList<>(generated));
     }
     
     /**
      * @param tree The tree that will have code generated for.
+     * @return The code generated for the tree.
      */
-    private static ThreeAddressGeneration generate(ParseTree tree) {
+    public static ThreeAddressGeneration generate(ParseTree tree) {
         // using the data of the parse tree and the listed data that the
         // ThreeAddressGeneration class has for the tree data, generate the
         // equivalent ThreeAddressGeneration of that class and return it.
         
         return new ThreeAddressGeneration().generateFor(tree);
     }
+    
+    /**
+     * @return The code generated for each tree, in the order of the trees.
+     */
+    public List<ThreeAddressGeneration> code() {
+        return tac;
+    }
+    
+    /**
+     * @return The code of every tree joined in the order of the trees.
+     */
+    public String asm() {
+        StringBuilder result = new StringBuilder();
+        
+        for (ThreeAddressGeneration generated : tac)
+            result.append(generated.asm());
+        
+        return result.toString();
+    }
 }
@@ -0,0 +1,463 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.generator;
+
+import com.mana.compiler.grammar.SourceTable;
+import com.mana.compiler.util.handler.FileHandler;
+import com.mana.compiler.util.structures.ParseTree;
+import com.mana.compiler.util.structures.SymbolInterner;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The code of a build saved to a file between generation and assembly, so it
+ * can be cached, shipped to another machine, or assembled later without
+ * compiling its sources again.
+ * 
+ * <p>
+ * A module holds units, one for each {@code ThreeAddressGeneration} it was
+ * written from, and the functions of their code. Each unit keeps the name of
+ * its file, and its source and parse tree when the code had one. Every name
+ * the code uses is written once to a string table, and each function is its
+ * quadruples as varints, written by {@code Quadruples.write} with names given
+ * by their ids in the table. The code at the top level of a unit, outside of
+ * any function, is kept as a function with an empty name.
+ * </p>
+ * 
+ * <pre>
+ * header      := MAGIC VERSION stringCount unitCount functionCount
+ * strings     := (end of each string in the string data)*
+ * units       := (name sourceOffset sourceLength treeOffset treeLength)*
+ * functions   := (name unit codeOffset codeLength)*
+ * data        := string data, sources, trees, code
+ * </pre>
+ * 
+ * <p>
+ * Everything up to the data is a fixed width {@code int}, so any string,
+ * unit or function is found in one step. {@code open} maps the file and reads
+ * only the header; a function is decoded the first time its code is asked
+ * for, and a tree the first time it is asked for, straight out of the
+ * mapping. A source is registered as a view of the mapping, never copied.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+public final class ModuleFile {
+    /** The ending of the names of modules. */
+    public static final String ENDING = ".mir";
+    /** The layout of modules, raised whenever it changes. */
+    public static final int VERSION = 3;
+    /** The first bytes of every module. */
+    private static final int MAGIC = 0x4d495200;
+    /** The bytes before the string index. */
+    private static final int HEADER = 20;
+    /** The bytes of each unit in the unit index. */
+    private static final int UNIT = 20;
+    /** The bytes of each function in the function index. */
+    private static final int FUNCTION = 16;
+    
+    /** The whole file. */
+    private final ByteBuffer mapped;
+    /** The amount of strings in the string table. */
+    private final int stringCount;
+    /** The amount of units. */
+    private final int unitCount;
+    /** The amount of functions. */
+    private final int functionCount;
+    /** The offset of the unit index. */
+    private final int units;
+    /** The offset of the function index. */
+    private final int functions;
+    /** The offset of the string data. */
+    private final int data;
+    /** The strings decoded so far; a race only decodes one twice. */
+    private final String[] strings;
+    /** The symbols of the strings interned so far, -1 for the others. */
+    private final int[] symbols;
+    /** The code of the functions decoded so far. */
+    private final Quadruples[] code;
+    
+    /**
+     * @param mapped The whole file.
+     * @throws IllegalArgumentException if the file is not a module of this
+     *      version.
+     */
+    private ModuleFile(ByteBuffer mapped) {
+        if (mapped.limit() < HEADER || mapped.getInt(0) != MAGIC)
+            throw new IllegalArgumentException("Not a module.");
+        
+        if (mapped.getInt(4) != VERSION)
+            throw new IllegalArgumentException("A module of version " + mapped.getInt(4)
+                    + " cannot be read by version " + VERSION + ".");
+        
+        this.mapped = mapped;
+        stringCount = mapped.getInt(8);
+        unitCount = mapped.getInt(12);
+        functionCount = mapped.getInt(16);
+        units = HEADER + stringCount * 4;
+        functions = units + unitCount * UNIT;
+        data = functions + functionCount * FUNCTION;
+        strings = new String[stringCount];
+        symbols = new int[stringCount];
+        code = new Quadruples[functionCount];
+        Arrays.fill(symbols, -1);
+        
+        if (data > mapped.limit())
+            throw new IllegalArgumentException("The module is cut short.");
+    }
+    
+    /**
+     * Maps a module into memory. Nothing past its header is read.
+     * 
+     * @param path The module.
+     * @throws IOException if the module cannot be read, or is not one.
+     * @return The module.
+     */
+    public static ModuleFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Module of " + channel.size() + " bytes is too large to be read.");
+            
+            return new ModuleFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IllegalArgumentException ex) {
+            throw new IOException(path + ": " + ex.getMessage(), ex);
+        }
+    }
+    
+    /**
+     * @return The amount of units in this module.
+     */
+    public int units() {
+        return unitCount;
+    }
+    
+    /**
+     * @param unit The index of a unit.
+     * @return The name of the file of the unit.
+     */
+    public String unitName(int unit) {
+        return string(mapped.getInt(units + unit * UNIT));
+    }
+    
+    /**
+     * Registers the source of a unit under the name of its file and reads its
+     * tree, both straight out of the mapping.
+     * 
+     * @param unit The index of a unit.
+     * @return The tree of the unit, or {@code null} if it was written without
+     *      one.
+     */
+    public ParseTree tree(int unit) {
+        int at = units + unit * UNIT;
+        int treeLength = mapped.getInt(at + 16);
+        
+        if (treeLength == 0)
+            return null;
+        
+        ByteBuffer source = slice(mapped.getInt(at + 4), mapped.getInt(at + 8)).order(ByteOrder.LITTLE_ENDIAN);
+        short file = SourceTable.register(unitName(unit), source);
+        
+        return ParseTree.read(slice(mapped.getInt(at + 12), treeLength), file, source);
+    }
+    
+    /**
+     * @return The amount of functions in this module.
+     */
+    public int functions() {
+        return functionCount;
+    }
+    
+    /**
+     * @param function The index of a function.
+     * @return The name of the function, empty for the top level of a unit.
+     */
+    public String name(int function) {
+        return string(mapped.getInt(functions + function * FUNCTION));
+    }
+    
+    /**
+     * @param function The index of a function.
+     * @return The index of the unit the function is in.
+     */
+    public int unit(int function) {
+        return mapped.getInt(functions + function * FUNCTION + 4);
+    }
+    
+    /**
+     * Decodes the code of a function, the first time it is asked for.
+     * 
+     * @param function The index of a function.
+     * @return The code of the function.
+     */
+    public Quadruples code(int function) {
+        Quadruples result = code[function];
+        
+        if (result != null)
+            return result;
+        
+        int at = functions + function * FUNCTION;
+        
+        return code[function] = Quadruples.read(slice(mapped.getInt(at + 8), mapped.getInt(at + 12)), this::symbol);
+    }
+    
+    /**
+     * Gives the code of every function in order, each only decoded once its
+     * quadruples are asked for; joined, they are the code the module was
+     * written from.
+     * 
+     * @return The code of the functions.
+     */
+    public List<ThreeAddressGeneration> code() {
+        return new AbstractList<ThreeAddressGeneration>() {
+            @Override
+            public ThreeAddressGeneration get(int function) {
+                if (function < 0 || function >= functionCount)
+                    throw new IndexOutOfBoundsException("No function " + function + " in a module of "
+                            + functionCount + ".");
+                
+                return new Stored(ModuleFile.this, function);
+            }
+            
+            @Override
+            public int size() {
+                return functionCount;
+            }
+        };
+    }
+    
+    /**
+     * @param id The id of a string in the table.
+     * @return The string.
+     */
+    private String string(int id) {
+        String result = strings[id];
+        
+        if (result != null)
+            return result;
+        
+        int start = id == 0 ? 0 : mapped.getInt(HEADER + (id - 1) * 4);
+        int end = mapped.getInt(HEADER + id * 4);
+        byte[] bytes = new byte[end - start];
+        ByteBuffer in = mapped.duplicate();
+        in.position(data + start);
+        in.get(bytes);
+        
+        return strings[id] = new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * @param id The id of a string in the table.
+     * @return The symbol of the string.
+     */
+    private int symbol(int id) {
+        int result = symbols[id];
+        
+        return result >= 0 ? result : (symbols[id] = SymbolInterner.SHARED.intern(string(id)));
+    }
+    
+    /**
+     * @param offset The offset of a part of the file.
+     * @param length The amount of bytes in the part.
+     * @return A view of the part.
+     */
+    private ByteBuffer slice(int offset, int length) {
+        ByteBuffer result = mapped.duplicate();
+        result.position(offset).limit(offset + length);
+        
+        return result.slice();
+    }
+    
+    /**
+     * Writes the code of a build as a module, along with the source and tree
+     * of each part of it which still has them. The module is written to a
+     * temporary file and then moved over its name, so a reader never sees
+     * half a module.
+     * 
+     * @param path The file to write to.
+     * @param generation The code of the build.
+     * @throws IOException if the module cannot be written.
+     */
+    public static void write(Path path, IntermediateGeneration generation) throws IOException {
+        Map<String, Integer> ids = new HashMap<>();
+        ByteArrayOutputStream stringData = new ByteArrayOutputStream();
+        ByteArrayOutputStream treeData = new ByteArrayOutputStream();
+        ByteArrayOutputStream codeData = new ByteArrayOutputStream();
+        DataOutputStream trees = new DataOutputStream(new BufferedOutputStream(treeData));
+        DataOutputStream code = new DataOutputStream(new BufferedOutputStream(codeData));
+        List<Integer> stringEnds = new ArrayList<>();
+        List<ByteBuffer> sources = new ArrayList<>();
+        List<int[]> unitIndex = new ArrayList<>();
+        List<int[]> functionIndex = new ArrayList<>();
+        int sourceBytes = 0;
+        
+        for (ThreeAddressGeneration generated : generation.code()) {
+            ParseTree tree = generated.tree();
+            int unit = unitIndex.size();
+            int[] entry = new int[5];
+            
+            if (tree != null) {
+                ByteBuffer source = SourceTable.source(tree.file());
+                entry[0] = intern(SourceTable.fileName(tree.file()), ids, stringData, stringEnds);
+                entry[1] = sourceBytes;
+                entry[2] = source.remaining();
+                entry[3] = trees.size();
+                tree.write(trees);
+                entry[4] = trees.size() - entry[3];
+                sources.add(source);
+                sourceBytes += entry[2];
+            } else
+                entry[0] = intern("", ids, stringData, stringEnds);
+            
+            unitIndex.add(entry);
+            
+            for (Quadruples function : generated.functions()) {
+                String name = function.name() == Quadruples.NONE ? "" : SymbolInterner.SHARED.name(function.name());
+                int start = code.size();
+                
+                function.write(code, symbol -> intern(SymbolInterner.SHARED.name(symbol), ids, stringData, stringEnds));
+                functionIndex.add(new int[] {intern(name, ids, stringData, stringEnds), unit, start, code.size() - start});
+            }
+        }
+        
+        trees.flush();
+        code.flush();
+        
+        // the data follows the indexes, the sources the strings, and so on.
+        int data = HEADER + stringEnds.size() * 4 + unitIndex.size() * UNIT + functionIndex.size() * FUNCTION;
+        int sourceStart = data + stringData.size();
+        int treeStart = sourceStart + sourceBytes;
+        int codeStart = treeStart + trees.size();
+        Path temporary = FileHandler.temporary(path, "module");
+        
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(stringEnds.size());
+                out.writeInt(unitIndex.size());
+                out.writeInt(functionIndex.size());
+                
+                for (int end : stringEnds)
+                    out.writeInt(end);
+                
+                // a unit without a tree has no source either.
+                for (int[] unit : unitIndex) {
+                    out.writeInt(unit[0]);
+                    out.writeInt(unit[4] == 0 ? 0 : sourceStart + unit[1]);
+                    out.writeInt(unit[2]);
+                    out.writeInt(unit[4] == 0 ? 0 : treeStart + unit[3]);
+                    out.writeInt(unit[4]);
+                }
+                
+                for (int[] function : functionIndex) {
+                    out.writeInt(function[0]);
+                    out.writeInt(function[1]);
+                    out.writeInt(codeStart + function[2]);
+                    out.writeInt(function[3]);
+                }
+                
+                stringData.writeTo(out);
+                out.flush();
+                
+                // the sources go straight from their buffers to the file.
+                for (ByteBuffer source : sources)
+                    while (source.hasRemaining())
+                        channel.write(source);
+                
+                treeData.writeTo(out);
+                codeData.writeTo(out);
+            }
+            
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+    
+    /**
+     * @param string A string to put in the table.
+     * @param ids The ids of the strings already in the table.
+     * @param stringData The bytes of the strings already in the table.
+     * @param stringEnds The end of each string in {@code stringData}.
+     * @return The id of the string.
+     */
+    private static int intern(String string, Map<String, Integer> ids, ByteArrayOutputStream stringData,
+            List<Integer> stringEnds) {
+        Integer known = ids.get(string);
+        
+        if (known != null)
+            return known;
+        
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        stringData.write(bytes, 0, bytes.length);
+        stringEnds.add(stringData.size());
+        ids.put(string, stringEnds.size() - 1);
+        
+        return stringEnds.size() - 1;
+    }
+    
+    /**
+     * The code of one function of a module, decoded when first asked for.
+     */
+    private static final class Stored extends ThreeAddressGeneration {
+        /** The module the function is in. */
+        private final ModuleFile module;
+        /** The index of the function. */
+        private final int function;
+        
+        /**
+         * @param module The module the function is in.
+         * @param function The index of the function.
+         */
+        Stored(ModuleFile module, int function) {
+            this.module = module;
+            this.function = function;
+        }
+        
+        @Override
+        public List<Quadruples> functions() {
+            return Collections.singletonList(module.code(function));
+        }
+    }
+}
@@ -0,0 +1,710 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.generator;
+
+import com.mana.compiler.util.structures.BitSets;
+import com.mana.compiler.util.structures.SymbolInterner;
+import com.mana.compiler.util.structures.Varint;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * The three address code of one function, or of a run of code at the top
+ * level of a file, as quadruples.
+ * 
+ * <p>
+ * Each instruction is an operation and three operands, kept in parallel
+ * arrays the way a {@code ParseTree} keeps its nodes, so an instruction is
+ * thirteen bytes and no object. An operand is a tagged {@code int}: its low
+ * {@code TAG_BITS} say whether it is a temporary, a name, a number, a literal
+ * or a label, and the rest of its bits hold the index of the temporary, the
+ * symbol of the name, the value of the number, the place of the literal in
+ * the pool of this function, or the index of the label. Numbers too large for
+ * those bits, and strings, are kept in the pool as their text. Temporaries
+ * and labels are numbered from zero in each function. Once the back end has
+ * allocated registers, temporaries are replaced by registers and slots of the
+ * stack frame, numbered from zero in each function as well.
+ * </p>
+ * 
+ * <p>
+ * A name is a variable of the function if it is a parameter or one of its
+ * {@code locals}; any other name may be a variable at the top level, which a
+ * call can read or change.
+ * </p>
+ * 
+ * <pre>
+ * copy          result = first
+ * negate, not   result = op first
+ * add .. or     result = first op second
+ * label         first:
+ * jump          goto first
+ * jumpIfFalse   ifFalse first goto second
+ * param         param first
+ * call          result = call first, second
+ * ret           return first
+ * </pre>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+public final class Quadruples {
+    /** The operations of three address code. */
+    public enum Op {
+        /** Copies one operand into the result. */
+        copy(null),
+        /** Negates a number. */
+        negate("-"),
+        /** Negates a boolean. */
+        not("!"),
+        add("+"),
+        subtract("-"),
+        multiply("*"),
+        divide("/"),
+        remainder("%"),
+        equal("=="),
+        notEqual("!="),
+        less("<"),
+        lessEqual("<="),
+        greater(">"),
+        greaterEqual(">="),
+        and("&&"),
+        or("||"),
+        /** Marks the place a label stands for. */
+        label(null),
+        /** Goes to a label. */
+        jump(null),
+        /** Goes to a label if a condition does not hold. */
+        jumpIfFalse(null),
+        /** Passes the next argument of a call. */
+        param(null),
+        /** Calls a function with the arguments passed before it. */
+        call(null),
+        /** Returns from the function, with a value if it has one. */
+        ret(null);
+        
+        public static final int length = values().length;
+        public final int index = ordinal();
+        /** How the operation is written in code, if it is an operator. */
+        public final String symbol;
+        
+        /**
+         * @param symbol How the operation is written in code.
+         */
+        Op(String symbol) {
+            this.symbol = symbol;
+        }
+    }
+    
+    /** Marks a missing operand. */
+    public static final int NONE = -1;
+    /** The tag of a temporary. */
+    public static final int TEMPORARY = 0;
+    /** The tag of a name, held as its symbol. */
+    public static final int NAME = 1;
+    /** The tag of a number small enough to be held in the operand. */
+    public static final int NUMBER = 2;
+    /** The tag of a literal held as text in the pool. */
+    public static final int LITERAL = 3;
+    /** The tag of a label. */
+    public static final int LABEL = 4;
+    /** The tag of a register, given only by the back end. */
+    public static final int REGISTER = 5;
+    /** The tag of a slot of the stack frame, given only by the back end. */
+    public static final int SLOT = 6;
+    /** The amount of low bits of an operand which hold its tag. */
+    public static final int TAG_BITS = 3;
+    /** The largest number an operand holds. */
+    public static final int MAX_NUMBER = Integer.MAX_VALUE >> TAG_BITS;
+    /** The smallest number an operand holds. */
+    public static final int MIN_NUMBER = Integer.MIN_VALUE >> TAG_BITS;
+    /** The operations, indexed by their ordinals. */
+    private static final Op[] OPS = Op.values();
+    /** The amount of instructions of new code. */
+    private static final int DEFAULT_CAPACITY = 16;
+    /** The parameters of code which has none. */
+    private static final int[] NO_PARAMETERS = new int[0];
+    
+    /** The symbol of the name of the function, {@code NONE} at the top level. */
+    private final int name;
+    /** The symbols of the names of the parameters. */
+    private final int[] parameters;
+    /** The symbols of the other names which are only variables of this code. */
+    private int[] locals = NO_PARAMETERS;
+    /** The operations of the instructions. */
+    private byte[] ops;
+    /** The first operands of the instructions. */
+    private int[] firsts;
+    /** The second operands of the instructions. */
+    private int[] seconds;
+    /** The results of the instructions. */
+    private int[] results;
+    /** The amount of instructions. */
+    private int size;
+    /** The amount of temporaries used. */
+    private int temporaries;
+    /** The amount of labels used. */
+    private int labels;
+    /**
+     * The literals too large or too long to be held in an operand, or
+     * {@code null} while there are none.
+     */
+    private List<String> literals;
+    
+    /**
+     * @param name The symbol of the name of the function, {@code NONE} for
+     *      code at the top level.
+     * @param parameters The symbols of the names of the parameters.
+     */
+    public Quadruples(int name, int[] parameters) {
+        this(name, parameters, DEFAULT_CAPACITY);
+    }
+    
+    /**
+     * Starts a run of code at the top level, outside of any function.
+     */
+    public Quadruples() {
+        this(NONE, NO_PARAMETERS, DEFAULT_CAPACITY);
+    }
+    
+    /**
+     * @param name The symbol of the name of the function.
+     * @param parameters The symbols of the names of the parameters.
+     * @param capacity The amount of instructions to make room for.
+     */
+    private Quadruples(int name, int[] parameters, int capacity) {
+        this.name = name;
+        this.parameters = parameters.length == 0 ? NO_PARAMETERS : parameters;
+        ops = new byte[capacity];
+        firsts = new int[capacity];
+        seconds = new int[capacity];
+        results = new int[capacity];
+    }
+    
+    /**
+     * @param index The index of a temporary.
+     * @return The operand of the temporary.
+     */
+    public static int temporary(int index) {
+        return index << TAG_BITS | TEMPORARY;
+    }
+    
+    /**
+     * @param symbol The symbol of a name.
+     * @return The operand of the name.
+     */
+    public static int name(int symbol) {
+        return symbol << TAG_BITS | NAME;
+    }
+    
+    /**
+     * @param value A number from {@code MIN_NUMBER} to {@code MAX_NUMBER}.
+     * @return The operand of the number.
+     */
+    public static int number(int value) {
+        return value << TAG_BITS | NUMBER;
+    }
+    
+    /**
+     * @param index The index of a label.
+     * @return The operand of the label.
+     */
+    public static int label(int index) {
+        return index << TAG_BITS | LABEL;
+    }
+    
+    /**
+     * @param index The index of a register.
+     * @return The operand of the register.
+     */
+    public static int register(int index) {
+        return index << TAG_BITS | REGISTER;
+    }
+    
+    /**
+     * @param index The index of a slot of the stack frame.
+     * @return The operand of the slot.
+     */
+    public static int slot(int index) {
+        return index << TAG_BITS | SLOT;
+    }
+    
+    /**
+     * @param operand An operand other than {@code NONE}.
+     * @return The tag of the operand.
+     */
+    public static int tag(int operand) {
+        return operand & (1 << TAG_BITS) - 1;
+    }
+    
+    /**
+     * @param operand An operand other than {@code NONE}.
+     * @return The index, symbol or value the operand holds.
+     */
+    public static int value(int operand) {
+        return operand >> TAG_BITS;
+    }
+    
+    /**
+     * @return The operand of a temporary no instruction has used yet.
+     */
+    public int newTemporary() {
+        return temporary(temporaries++);
+    }
+    
+    /**
+     * @return The operand of a label no instruction has used yet.
+     */
+    public int newLabel() {
+        return label(labels++);
+    }
+    
+    /**
+     * @param text The text of a literal, kept as it is.
+     * @return The operand of the literal.
+     */
+    public int literal(String text) {
+        if (literals == null)
+            literals = new ArrayList<>(1);
+        
+        literals.add(text);
+        
+        return (literals.size() - 1) << TAG_BITS | LITERAL;
+    }
+    
+    /**
+     * Makes an operand of a numeric literal, held in the operand itself if it
+     * is a whole decimal, hexadecimal or binary number small enough. The
+     * prefixes and suffixes are read as the {@code ScannerTable} reads them,
+     * in either case, with the suffixes {@code u}, {@code L} and {@code uL}.
+     * 
+     * @param text The lexeme of the literal.
+     * @return The operand of the literal.
+     */
+    public int number(String text) {
+        int radix = 10;
+        int start = 0;
+        int end = text.length();
+        
+        if (end > 1 && (text.charAt(end - 1) == 'l' || text.charAt(end - 1) == 'L'))
+            end--;
+        
+        if (end > 1 && (text.charAt(end - 1) == 'u' || text.charAt(end - 1) == 'U'))
+            end--;
+        
+        if (end > 2 && text.charAt(0) == '0' && "xXbB".indexOf(text.charAt(1)) >= 0) {
+            radix = text.charAt(1) == 'x' || text.charAt(1) == 'X' ? 16 : 2;
+            start = 2;
+        }
+        
+        try {
+            long value = Long.parseLong(text.substring(start, end), radix);
+            
+            if (value <= MAX_NUMBER)
+                return number((int)value);
+        } catch (NumberFormatException ex) {
+            // fractions are kept as they are written.
+        }
+        
+        return literal(text);
+    }
+    
+    /**
+     * Adds an instruction at the end of the code.
+     * 
+     * @param op The operation.
+     * @param first The first operand, or {@code NONE}.
+     * @param second The second operand, or {@code NONE}.
+     * @param result The operand the result goes to, or {@code NONE}.
+     * @return The index of the instruction.
+     */
+    public int add(Op op, int first, int second, int result) {
+        if (size == ops.length) {
+            int capacity = Math.max(size << 1, DEFAULT_CAPACITY);
+            ops = Arrays.copyOf(ops, capacity);
+            firsts = Arrays.copyOf(firsts, capacity);
+            seconds = Arrays.copyOf(seconds, capacity);
+            results = Arrays.copyOf(results, capacity);
+        }
+        
+        ops[size] = (byte)op.index;
+        firsts[size] = first;
+        seconds[size] = second;
+        results[size] = result;
+        
+        return size++;
+    }
+    
+    /**
+     * Replaces an instruction.
+     * 
+     * @param index The index of the instruction.
+     * @param op The operation.
+     * @param first The first operand, or {@code NONE}.
+     * @param second The second operand, or {@code NONE}.
+     * @param result The operand the result goes to, or {@code NONE}.
+     */
+    public void set(int index, Op op, int first, int second, int result) {
+        ops[index] = (byte)op.index;
+        firsts[index] = first;
+        seconds[index] = second;
+        results[index] = result;
+    }
+    
+    /**
+     * Removes instructions, keeping the others in their order.
+     * 
+     * @param removed The bits of the instructions to remove, as laid out by
+     *      {@code BitSets}.
+     * @return The amount of instructions removed.
+     */
+    public int remove(long[] removed) {
+        int kept = 0;
+        
+        for (int i = 0; i < size; i++) {
+            if (BitSets.get(removed, 0, i))
+                continue;
+            
+            ops[kept] = ops[i];
+            firsts[kept] = firsts[i];
+            seconds[kept] = seconds[i];
+            results[kept++] = results[i];
+        }
+        
+        int count = size - kept;
+        size = kept;
+        
+        return count;
+    }
+    
+    /**
+     * @return A copy of this code which can be changed without changing it.
+     */
+    public Quadruples copy() {
+        Quadruples result = new Quadruples(name, parameters, size);
+        
+        System.arraycopy(ops, 0, result.ops, 0, size);
+        System.arraycopy(firsts, 0, result.firsts, 0, size);
+        System.arraycopy(seconds, 0, result.seconds, 0, size);
+        System.arraycopy(results, 0, result.results, 0, size);
+        result.size = size;
+        result.temporaries = temporaries;
+        result.labels = labels;
+        result.locals = locals;
+        result.literals = literals == null ? null : new ArrayList<>(literals);
+        
+        return result;
+    }
+    
+    /**
+     * Gives back the room made for instructions which were never added, for
+     * code which is done being generated and is to be kept.
+     */
+    public void trim() {
+        if (ops.length == size)
+            return;
+        
+        ops = Arrays.copyOf(ops, size);
+        firsts = Arrays.copyOf(firsts, size);
+        seconds = Arrays.copyOf(seconds, size);
+        results = Arrays.copyOf(results, size);
+    }
+    
+    /**
+     * @return The symbol of the name of the function, {@code NONE} for code at
+     *      the top level.
+     */
+    public int name() { return name; }
+    
+    /**
+     * @return The symbols of the names of the parameters, not to be changed.
+     */
+    public int[] parameters() { return parameters; }
+    
+    /**
+     * @return The symbols of the names other than the parameters which are
+     *      only variables of this code, not to be changed.
+     */
+    public int[] locals() { return locals; }
+    
+    /**
+     * @param locals The symbols of the names other than the parameters which
+     *      are only variables of this code.
+     */
+    public void locals(int[] locals) {
+        this.locals = locals.length == 0 ? NO_PARAMETERS : locals;
+    }
+    
+    /**
+     * @return The amount of instructions.
+     */
+    public int size() { return size; }
+    
+    /**
+     * @param index The index of an instruction.
+     * @return The operation of the instruction.
+     */
+    public Op op(int index) { return OPS[ops[index]]; }
+    
+    /**
+     * @param index The index of an instruction.
+     * @return The first operand of the instruction, or {@code NONE}.
+     */
+    public int first(int index) { return firsts[index]; }
+    
+    /**
+     * @param index The index of an instruction.
+     * @return The second operand of the instruction, or {@code NONE}.
+     */
+    public int second(int index) { return seconds[index]; }
+    
+    /**
+     * @param index The index of an instruction.
+     * @return The operand the result of the instruction goes to, or
+     *      {@code NONE}.
+     */
+    public int result(int index) { return results[index]; }
+    
+    /**
+     * @return The amount of temporaries used.
+     */
+    public int temporaries() { return temporaries; }
+    
+    /**
+     * @return The amount of labels used.
+     */
+    public int labels() { return labels; }
+    
+    /**
+     * @param operand An operand tagged {@code LITERAL}.
+     * @return The text of the literal.
+     */
+    public String literal(int operand) { return literals.get(value(operand)); }
+    
+    /**
+     * @param operand An operand.
+     * @return How the operand is written in code.
+     */
+    public String text(int operand) {
+        switch (tag(operand)) {
+            case TEMPORARY:
+                return "t" + value(operand);
+            case NAME:
+                return SymbolInterner.SHARED.name(value(operand));
+            case NUMBER:
+                return Integer.toString(value(operand));
+            case LITERAL:
+                return literal(operand);
+            case REGISTER:
+                return "r" + value(operand);
+            case SLOT:
+                return "s" + value(operand);
+            default:
+                return "L" + value(operand);
+        }
+    }
+    
+    /**
+     * Writes the code as text, one line per instruction, opening and closing
+     * a function with its name.
+     * 
+     * @param out The text to write to.
+     */
+    public void asm(StringBuilder out) {
+        if (name != NONE) {
+            out.append("func ").append(SymbolInterner.SHARED.name(name)).append('(');
+            
+            for (int i = 0; i < parameters.length; i++)
+                out.append(i == 0 ? "" : ", ").append(SymbolInterner.SHARED.name(parameters[i]));
+            
+            out.append("):\n");
+        }
+        
+        for (int i = 0; i < size; i++) {
+            Op op = OPS[ops[i]];
+            
+            switch (op) {
+                case copy:
+                    out.append(text(results[i])).append(" = ").append(text(firsts[i]));
+                    break;
+                case negate:
+                case not:
+                    out.append(text(results[i])).append(" = ").append(op.symbol).append(text(firsts[i]));
+                    break;
+                case label:
+                    out.append(text(firsts[i])).append(':');
+                    break;
+                case jump:
+                    out.append("goto ").append(text(firsts[i]));
+                    break;
+                case jumpIfFalse:
+                    out.append("ifFalse ").append(text(firsts[i])).append(" goto ").append(text(seconds[i]));
+                    break;
+                case param:
+                    out.append("param ").append(text(firsts[i]));
+                    break;
+                case call:
+                    out.append(text(results[i])).append(" = call ").append(text(firsts[i])).append(", ")
+                            .append(text(seconds[i]));
+                    break;
+                case ret:
+                    out.append(firsts[i] == NONE ? "return" : "return " + text(firsts[i]));
+                    break;
+                default:
+                    out.append(text(results[i])).append(" = ").append(text(firsts[i])).append(' ')
+                            .append(op.symbol).append(' ').append(text(seconds[i]));
+                    break;
+            }
+            
+            out.append('\n');
+        }
+        
+        if (name != NONE)
+            out.append("end ").append(SymbolInterner.SHARED.name(name)).append('\n');
+    }
+    
+    /**
+     * Writes the code as varints. Names are written by the ids a table of the
+     * caller gives them, as symbols only hold for this run of the compiler.
+     * 
+     * @param out The output to write to.
+     * @param names Gives the id of the name of each symbol.
+     * @throws IOException if the output cannot be written.
+     */
+    public void write(DataOutput out, IntUnaryOperator names) throws IOException {
+        Varint.write(out, name == NONE ? 0 : names.applyAsInt(name) + 1);
+        Varint.write(out, parameters.length);
+        
+        for (int parameter : parameters)
+            Varint.write(out, names.applyAsInt(parameter));
+        
+        Varint.write(out, locals.length);
+        
+        for (int local : locals)
+            Varint.write(out, names.applyAsInt(local));
+        
+        Varint.write(out, temporaries);
+        Varint.write(out, labels);
+        Varint.write(out, literals == null ? 0 : literals.size());
+        
+        for (String literal : literals == null ? Collections.<String>emptyList() : literals) {
+            byte[] bytes = literal.getBytes(StandardCharsets.UTF_8);
+            Varint.write(out, bytes.length);
+            out.write(bytes);
+        }
+        
+        Varint.write(out, size);
+        
+        for (int i = 0; i < size; i++) {
+            out.writeByte(ops[i]);
+            writeOperand(out, firsts[i], names);
+            writeOperand(out, seconds[i], names);
+            writeOperand(out, results[i], names);
+        }
+    }
+    
+    /**
+     * Reads code written by {@code write}.
+     * 
+     * @param in The buffer to read from, moved past the code.
+     * @param symbols Gives the symbol of the name of each id.
+     * @return The code.
+     */
+    public static Quadruples read(ByteBuffer in, IntUnaryOperator symbols) {
+        int name = Varint.read(in);
+        int[] parameters = new int[Varint.read(in)];
+        
+        for (int i = 0; i < parameters.length; i++)
+            parameters[i] = symbols.applyAsInt(Varint.read(in));
+        
+        int[] locals = new int[Varint.read(in)];
+        
+        for (int i = 0; i < locals.length; i++)
+            locals[i] = symbols.applyAsInt(Varint.read(in));
+        
+        int temporaries = Varint.read(in);
+        int labels = Varint.read(in);
+        int literals = Varint.read(in);
+        List<String> pool = literals == 0 ? null : new ArrayList<>(literals);
+        
+        for (int i = 0; i < literals; i++) {
+            byte[] bytes = new byte[Varint.read(in)];
+            in.get(bytes);
+            pool.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        
+        int size = Varint.read(in);
+        Quadruples result = new Quadruples(name == 0 ? NONE : symbols.applyAsInt(name - 1), parameters, size);
+        
+        for (int i = 0; i < size; i++) {
+            result.ops[i] = in.get();
+            result.firsts[i] = readOperand(in, symbols);
+            result.seconds[i] = readOperand(in, symbols);
+            result.results[i] = readOperand(in, symbols);
+        }
+        
+        result.size = size;
+        result.temporaries = temporaries;
+        result.labels = labels;
+        result.literals = pool;
+        result.locals(locals);
+        
+        return result;
+    }
+    
+    /**
+     * @param out The output to write to.
+     * @param operand The operand to write.
+     * @param names Gives the id of the name of each symbol.
+     * @throws IOException if the output cannot be written.
+     */
+    private static void writeOperand(DataOutput out, int operand, IntUnaryOperator names) throws IOException {
+        if (operand != NONE && tag(operand) == NAME)
+            operand = name(names.applyAsInt(value(operand)));
+        
+        // zigzag, so missing operands and negative numbers take few bytes.
+        Varint.write(out, operand << 1 ^ operand >> 31);
+    }
+    
+    /**
+     * @param in The buffer to read from.
+     * @param symbols Gives the symbol of the name of each id.
+     * @return The operand written by {@code writeOperand}.
+     */
+    private static int readOperand(ByteBuffer in, IntUnaryOperator symbols) {
+        int zigzag = Varint.read(in);
+        int operand = zigzag >>> 1 ^ -(zigzag & 1);
+        
+        if (operand != NONE && tag(operand) == NAME)
+            operand = name(symbols.applyAsInt(value(operand)));
+        
+        return operand;
+    }
+}
@@ -23,10 +23,27 @@
  */
 package com.mana.compiler.generator;
 
+import com.mana.compiler.generator.Quadruples.Op;
+import com.mana.compiler.grammar.SourceTable;
+import com.mana.compiler.grammar.Token;
+import com.mana.compiler.grammar.TokenStream;
 import com.mana.compiler.parser.Parser;
 import com.mana.compiler.util.structures.ParseTree;
+import com.mana.compiler.util.structures.SymbolInterner;
+import com.mana.compiler.util.structures.Varint;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * This class contains an enum {@code GenerationType}; this enum is meant to be
@@ -41,27 +58,87 @@ import java.util.List;
  * @version alpha 0.0.0.1
  */
 public class ThreeAddressGeneration {
-    /***/
+    /** The kind of code each node of a parse tree generates. */
     enum GenerationType {
-        placeholder, finished;
-        // insert types here.
+        /** Generates nothing of its own. */
+        nothing,
+        /** Opens and closes a function. */
+        function,
+        /** Stores the value of a declared variable. */
+        variable,
+        /** Jumps over the blocks of an if which are not taken. */
+        branch,
+        /** Jumps back to the condition of a while. */
+        loop,
+        /** Copies a value into a variable. */
+        copy,
+        /** Returns from a function. */
+        jump,
+        /** Drops a value which is not used. */
+        discard,
+        /** Computes a value from its operands into a temporary. */
+        operation,
+        /** Calls a function into a temporary. */
+        call,
+        /** Is a value of its own, with no code to compute it. */
+        value,
+        /** The end of generation. */
+        finished;
         
         public static final int length = values().length;
         public final int index = ordinal();
     }
     
-    /** The string of assembly code generated by this class. */
-    private String asm;
+    /** The code generated, one function or run of top level code each. */
+    private List<Quadruples> functions = Collections.emptyList();
+    /** The tree the code was generated from, if it was generated in this run. */
+    private ParseTree tree;
     /** The table used by the Generator to generate data. */
-    private static final GenerationType[][] GENTABLE;
+    private static final GenerationType[] GENTABLE;
+    /** The operation of each token type which is a binary operator. */
+    private static final Op[] BINARY = new Op[Token.Type.length];
+    /** The operation of each token type which is a unary operator. */
+    private static final Op[] UNARY = new Op[Token.Type.length];
     
     static {
         GENTABLE = generationTable();
+        BINARY[Token.Type.plus.index] = Op.add;
+        BINARY[Token.Type.minus.index] = Op.subtract;
+        BINARY[Token.Type.star.index] = Op.multiply;
+        BINARY[Token.Type.slash.index] = Op.divide;
+        BINARY[Token.Type.percent.index] = Op.remainder;
+        BINARY[Token.Type.equal.index] = Op.equal;
+        BINARY[Token.Type.notEqual.index] = Op.notEqual;
+        BINARY[Token.Type.less.index] = Op.less;
+        BINARY[Token.Type.lessEqual.index] = Op.lessEqual;
+        BINARY[Token.Type.greater.index] = Op.greater;
+        BINARY[Token.Type.greaterEqual.index] = Op.greaterEqual;
+        BINARY[Token.Type.and.index] = Op.and;
+        BINARY[Token.Type.or.index] = Op.or;
+        UNARY[Token.Type.minus.index] = Op.negate;
+        UNARY[Token.Type.not.index] = Op.not;
     }
     
     /** Default constructor. */
     public ThreeAddressGeneration() {}
     
+    /**
+     * @param functions Code generated before, such as by an earlier run.
+     */
+    public ThreeAddressGeneration(List<Quadruples> functions) {
+        this.functions = functions;
+    }
+    
+    /**
+     * @param functions Code made from the code of a tree, such as by an
+     *      optimizer.
+     * @param tree The tree the code was first generated from, or {@code null}.
+     */
+    public ThreeAddressGeneration(List<Quadruples> functions, ParseTree tree) {
+        this.functions = functions;
+        this.tree = tree;
+    }
+    
     /**
      * Each parser state represents the possible node on the parse tree since
      * the nodes of the parse tree are equivalent to the non-terminals, and the
@@ -70,48 +147,528 @@ public class ThreeAddressGeneration {
      * 
      * @return The filled generation table.
      */
-    private static GenerationType[][] generationTable() {
-        GenerationType[][] result = new GenerationType[GenerationType.length][Parser.State.length];
+    private static GenerationType[] generationTable() {
+        GenerationType[] result = new GenerationType[Parser.State.length];
         
-        // TODO: fill table.
+        Arrays.fill(result, GenerationType.nothing);
+        result[Parser.State.functionDeclaration.index] = GenerationType.function;
+        result[Parser.State.variableDeclaration.index] = GenerationType.variable;
+        result[Parser.State.ifStatement.index] = GenerationType.branch;
+        result[Parser.State.whileStatement.index] = GenerationType.loop;
+        result[Parser.State.assignment.index] = GenerationType.copy;
+        result[Parser.State.returnStatement.index] = GenerationType.jump;
+        result[Parser.State.expressionStatement.index] = GenerationType.discard;
+        result[Parser.State.binary.index] = GenerationType.operation;
+        result[Parser.State.unary.index] = GenerationType.operation;
+        result[Parser.State.call.index] = GenerationType.call;
+        result[Parser.State.name.index] = GenerationType.value;
+        result[Parser.State.literal.index] = GenerationType.value;
+        result[Parser.State.finished.index] = GenerationType.finished;
         
         return result;
     }
     
     /**
+     * Generates the three address code of a tree. A tree with errors
+     * generates nothing.
+     * 
      * @param tree The tree being generated for.
      * @return The {@code ThreeAddressGeneration} for the type.
      */
     public ThreeAddressGeneration generateFor(ParseTree tree) {
-        GenerationType type = GenerationType.placeholder;
-        List<String> generatedASM = new ArrayList<>();
-        
-        while (type != GenerationType.finished) {
-            switch (type) {
-                case placeholder:
-                    generatedASM.add(placeHolder(tree));
-                    // DEFAULT FOR NOW.
-                    type = GenerationType.finished;
-                    break;
-                default:
-                    // throw error.
-                    break;
-            }
+        List<Quadruples> generated = new ArrayList<>();
+        
+        if (tree.errors() == 0) {
+            Generator generator = new Generator(tree, generated);
+            
+            tree.walk(ParseTree.ROOT, generator);
+            generator.close();
+        }
+        
+        for (Quadruples function : generated)
+            function.trim();
+        
+        functions = generated;
+        this.tree = tree;
+        
+        return this;
+    }
+    
+    /**
+     * @return The code generated, one function or run of top level code each,
+     *      in the order of the source.
+     */
+    public List<Quadruples> functions() {
+        return functions;
+    }
+    
+    /**
+     * @return The assembly code generated by this class, one line per
+     *      instruction.
+     */
+    public String asm() {
+        StringBuilder result = new StringBuilder();
+        
+        for (Quadruples function : functions())
+            function.asm(result);
+        
+        return result.toString();
+    }
+    
+    /**
+     * @return The tree the code was generated from, or {@code null} if the
+     *      code was generated by an earlier run.
+     */
+    public ParseTree tree() {
+        return tree;
+    }
+    
+    /**
+     * Writes the code with a table of the names it uses, so it can be read by
+     * a later run whose symbols differ.
+     * 
+     * @param out The output to write to.
+     * @throws IOException if the output cannot be written.
+     */
+    public void write(DataOutput out) throws IOException {
+        Map<Integer, Integer> ids = new HashMap<>();
+        List<Integer> names = new ArrayList<>();
+        
+        for (Quadruples function : functions()) {
+            if (function.name() != Quadruples.NONE)
+                ids.computeIfAbsent(function.name(), symbol -> { names.add(symbol); return names.size() - 1; });
+            
+            for (int parameter : function.parameters())
+                ids.computeIfAbsent(parameter, symbol -> { names.add(symbol); return names.size() - 1; });
             
-            // pick next generation state.
-            // type = GENTABLE[type.index][tree.get(0).index];
+            for (int local : function.locals())
+                ids.computeIfAbsent(local, symbol -> { names.add(symbol); return names.size() - 1; });
+            
+            for (int i = 0; i < function.size(); i++) {
+                for (int operand : new int[] {function.first(i), function.second(i), function.result(i)}) {
+                    if (operand != Quadruples.NONE && Quadruples.tag(operand) == Quadruples.NAME)
+                        ids.computeIfAbsent(Quadruples.value(operand),
+                                symbol -> { names.add(symbol); return names.size() - 1; });
+                }
+            }
+        }
+        
+        Varint.write(out, names.size());
+        
+        for (int symbol : names) {
+            byte[] bytes = SymbolInterner.SHARED.bytes(symbol);
+            Varint.write(out, bytes.length);
+            out.write(bytes);
         }
         
-        return null;
+        Varint.write(out, functions().size());
+        
+        for (Quadruples function : functions())
+            function.write(out, ids::get);
     }
     
     /**
-     * Place holder method. Would naturally take the tree and generate all
-     * three address code before returning the singular three address generation.
+     * Reads code written by {@code write}.
      * 
-     * @return nothing.
+     * @param in The buffer to read from, moved past the code.
+     * @return The code.
      */
-    private String placeHolder(ParseTree tree) {
-        return null;
+    public static ThreeAddressGeneration read(ByteBuffer in) {
+        int[] symbols = new int[Varint.read(in)];
+        
+        for (int i = 0; i < symbols.length; i++) {
+            byte[] bytes = new byte[Varint.read(in)];
+            in.get(bytes);
+            symbols[i] = SymbolInterner.SHARED.intern(new String(bytes, StandardCharsets.UTF_8));
+        }
+        
+        List<Quadruples> functions = new ArrayList<>();
+        
+        for (int i = Varint.read(in); i > 0; i--)
+            functions.add(Quadruples.read(in, id -> symbols[id]));
+        
+        return new ThreeAddressGeneration(functions);
+    }
+    
+    /**
+     * Generates the code of one tree, walking it once. Operands are kept on a
+     * stack, so each node of an expression takes the operands of its children
+     * off the stack and puts the temporary holding its own value back on. The
+     * jumps of an if or while are placed as each of its children is entered.
+     * Code at the top level between functions goes into a run of its own.
+     * 
+     * <p>
+     * The names declared in each scope are kept as the semantic analyzer
+     * keeps them, and each declared name is given to the code as a local. A
+     * name which is in scope, or which the code uses at the top level, is
+     * declared under a new name of a dot and a number after it, which no name
+     * in a source can have, so names of scopes which overlap never share an
+     * operand. A local whose name is used at the top level only after its
+     * scope closed is given a new name then.
+     * </p>
+     */
+    private static final class Generator implements ParseTree.Visitor {
+        /** The tree being generated. */
+        final ParseTree tree;
+        /** The tokens of the tree. */
+        final TokenStream tokens;
+        /** The code of each function and run generated so far. */
+        final List<Quadruples> functions;
+        /** The code being generated, or {@code null} between runs. */
+        Quadruples code;
+        /** The operands of the expression being generated. */
+        int[] values = new int[16];
+        /** The amount of operands on the stack. */
+        int depth;
+        /** The labels of each if and while being generated. */
+        int[] labels = new int[16];
+        /** The amount of labels on the stack. */
+        int open;
+        /** The names declared in the scopes being generated, innermost last. */
+        int[] declared = new int[16];
+        /** The symbol the operand of each declared name is made of. */
+        int[] operands = new int[16];
+        /** The amount of names declared. */
+        int count;
+        /** Where the names of each open scope begin in {@code declared}. */
+        int[] scopes = new int[16];
+        /** The amount of open scopes. */
+        int scoped;
+        /** The symbols of the locals of the code being generated, in order. */
+        Set<Integer> locals = new LinkedHashSet<>();
+        /** The names used in the code for variables and functions at the top level. */
+        final Set<Integer> globals = new HashSet<>();
+        /** The amount of names given to locals of the code being generated. */
+        int renamed;
+        
+        /**
+         * @param tree The tree to generate.
+         * @param functions The list to add the code of each function to.
+         */
+        Generator(ParseTree tree, List<Quadruples> functions) {
+            this.tree = tree;
+            this.tokens = tree.tokens();
+            this.functions = functions;
+        }
+        
+        @Override
+        public boolean enter(ParseTree tree, int node) {
+            int parent = tree.parent(node);
+            
+            // the condition of an if or while has been generated by the time
+            // its first block is entered.
+            if (parent != ParseTree.NONE && tree.first(parent) != node) {
+                GenerationType around = GENTABLE[tree.kind(parent)];
+                
+                if (around == GenerationType.branch && tree.next(tree.first(parent)) == node)
+                    code.add(Op.jumpIfFalse, pop(), labels[open - 2], Quadruples.NONE);
+                else if (around == GenerationType.branch) {
+                    code.add(Op.jump, labels[open - 1], Quadruples.NONE, Quadruples.NONE);
+                    code.add(Op.label, labels[open - 2], Quadruples.NONE, Quadruples.NONE);
+                } else if (around == GenerationType.loop)
+                    code.add(Op.jumpIfFalse, pop(), labels[open - 1], Quadruples.NONE);
+            }
+            
+            switch (GENTABLE[tree.kind(node)]) {
+                case function:
+                    int parameters = 0;
+                    
+                    for (int child = tree.first(node); child != ParseTree.NONE; child = tree.next(child)) {
+                        if (tree.kind(child) == Parser.State.parameter.index)
+                            parameters++;
+                    }
+                    
+                    int[] symbols = new int[parameters];
+                    parameters = 0;
+                    
+                    for (int child = tree.first(node); child != ParseTree.NONE; child = tree.next(child)) {
+                        if (tree.kind(child) == Parser.State.parameter.index)
+                            symbols[parameters++] = symbol(child);
+                    }
+                    
+                    close();
+                    code = new Quadruples(symbol(node), symbols);
+                    functions.add(code);
+                    openScope();
+                    
+                    for (int symbol : symbols)
+                        scope(symbol, symbol);
+                    
+                    return true;
+                case nothing:
+                    // types and parameters generate nothing, but blocks and
+                    // the root hold statements.
+                    if (tree.kind(node) == Parser.State.block.index) {
+                        openScope();
+                        return true;
+                    }
+                    
+                    return node == ParseTree.ROOT;
+                default:
+                    if (code == null) {
+                        code = new Quadruples();
+                        functions.add(code);
+                    }
+                    
+                    if (GENTABLE[tree.kind(node)] == GenerationType.branch)
+                        openLabels();
+                    else if (GENTABLE[tree.kind(node)] == GenerationType.loop) {
+                        openLabels();
+                        code.add(Op.label, labels[open - 2], Quadruples.NONE, Quadruples.NONE);
+                    }
+                    
+                    return true;
+            }
+        }
+        
+        @Override
+        public void exit(ParseTree tree, int node) {
+            int value;
+            
+            switch (GENTABLE[tree.kind(node)]) {
+                case function:
+                    close();
+                    break;
+                case variable:
+                    // declared after its value, which may use the name outside.
+                    int variable = tree.parent(node) == ParseTree.ROOT ? global(symbol(node)) : declare(symbol(node));
+                    
+                    if (tree.next(tree.first(node)) != ParseTree.NONE)
+                        code.add(Op.copy, pop(), Quadruples.NONE, Quadruples.name(variable));
+                    else if (tree.parent(node) == ParseTree.ROOT)
+                        code.add(Op.copy, Quadruples.number(0), Quadruples.NONE, Quadruples.name(variable));
+                    break;
+                case nothing:
+                    if (tree.kind(node) == Parser.State.block.index)
+                        count = scopes[--scoped];
+                    break;
+                case branch:
+                    // without an else the end of the if is where else begins.
+                    code.add(Op.label, labels[open - (tree.children(node) == 3 ? 1 : 2)], Quadruples.NONE,
+                            Quadruples.NONE);
+                    open -= 2;
+                    break;
+                case loop:
+                    code.add(Op.jump, labels[open - 2], Quadruples.NONE, Quadruples.NONE);
+                    code.add(Op.label, labels[open - 1], Quadruples.NONE, Quadruples.NONE);
+                    open -= 2;
+                    break;
+                case copy:
+                    value = pop();
+                    code.add(Op.copy, value, Quadruples.NONE, pop());
+                    break;
+                case jump:
+                    code.add(Op.ret, tree.first(node) == ParseTree.NONE ? Quadruples.NONE : pop(), Quadruples.NONE,
+                            Quadruples.NONE);
+                    break;
+                case discard:
+                    pop();
+                    break;
+                case operation:
+                    int type = tokens.type(tree.token(node)).index;
+                    int result = code.newTemporary();
+                    
+                    if (tree.kind(node) == Parser.State.binary.index) {
+                        value = pop();
+                        code.add(BINARY[type], pop(), value, result);
+                    } else
+                        code.add(UNARY[type], pop(), Quadruples.NONE, result);
+                    
+                    push(result);
+                    break;
+                case call:
+                    int arguments = tree.children(node);
+                    
+                    // the arguments were put on the stack first to last.
+                    for (int i = depth - arguments; i < depth; i++)
+                        code.add(Op.param, values[i], Quadruples.NONE, Quadruples.NONE);
+                    
+                    depth -= arguments;
+                    result = code.newTemporary();
+                    code.add(Op.call, Quadruples.name(global(symbol(node))), Quadruples.number(arguments), result);
+                    push(result);
+                    break;
+                case value:
+                    push(operand(node));
+                    break;
+                default:
+                    break;
+            }
+        }
+        
+        /**
+         * @param node A name or literal node.
+         * @return The operand of its value.
+         */
+        int operand(int node) {
+            int token = tree.token(node);
+            
+            switch (tokens.type(token)) {
+                case identifier:
+                    int symbol = symbol(node);
+                    
+                    for (int i = count - 1; i >= 0; i--) {
+                        if (declared[i] == symbol)
+                            return Quadruples.name(operands[i]);
+                    }
+                    
+                    return Quadruples.name(global(symbol));
+                case number:
+                    return code.number(tokens.lexeme(token));
+                case trueKeyword:
+                    return Quadruples.number(1);
+                case falseKeyword:
+                    return Quadruples.number(0);
+                default:
+                    return code.literal(tokens.lexeme(token));
+            }
+        }
+        
+        /**
+         * @param node A node whose token is a name.
+         * @return The symbol of the name.
+         */
+        int symbol(int node) {
+            int token = tree.token(node);
+            int symbol = tokens.symbol(token);
+            
+            return symbol >= 0 ? symbol
+                    : SymbolInterner.SHARED.intern(SourceTable.source(tree.file()), tokens.offset(token),
+                            tokens.length(token));
+        }
+        
+        /** Opens a scope for the names declared in a function or block. */
+        void openScope() {
+            if (scoped == scopes.length)
+                scopes = Arrays.copyOf(scopes, scoped << 1);
+            
+            scopes[scoped++] = count;
+        }
+        
+        /**
+         * Declares a local in the innermost scope, under a new name if its own
+         * is in scope or used at the top level.
+         * 
+         * @param symbol The name of the local.
+         * @return The symbol its operand is made of.
+         */
+        int declare(int symbol) {
+            boolean used = globals.contains(symbol);
+            
+            for (int i = count - 1; i >= 0 && !used; i--)
+                used = declared[i] == symbol;
+            
+            int operand = used ? rename(symbol) : symbol;
+            scope(symbol, operand);
+            locals.add(operand);
+            
+            return operand;
+        }
+        
+        /**
+         * @param symbol A name declared in the innermost scope.
+         * @param operand The symbol its operand is made of.
+         */
+        void scope(int symbol, int operand) {
+            if (count == declared.length) {
+                declared = Arrays.copyOf(declared, count << 1);
+                operands = Arrays.copyOf(operands, count << 1);
+            }
+            
+            declared[count] = symbol;
+            operands[count++] = operand;
+        }
+        
+        /**
+         * Uses a name at the top level. A local of the same name is given a new
+         * name in the code generated so far.
+         * 
+         * @param symbol The name.
+         * @return The symbol its operand is made of.
+         */
+        int global(int symbol) {
+            if (locals.contains(symbol)) {
+                int operand = Quadruples.name(symbol);
+                int local = rename(symbol);
+                int replaced = Quadruples.name(local);
+                
+                for (int i = 0; i < code.size(); i++) {
+                    int first = code.first(i);
+                    int second = code.second(i);
+                    int result = code.result(i);
+                    
+                    if (first == operand || second == operand || result == operand)
+                        code.set(i, code.op(i), first == operand ? replaced : first,
+                                second == operand ? replaced : second, result == operand ? replaced : result);
+                }
+                
+                Set<Integer> kept = new LinkedHashSet<>();
+                
+                for (int each : locals)
+                    kept.add(each == symbol ? local : each);
+                
+                locals = kept;
+                
+                for (int i = 0; i < count; i++) {
+                    if (operands[i] == symbol)
+                        operands[i] = local;
+                }
+            }
+            
+            globals.add(symbol);
+            
+            return symbol;
+        }
+        
+        /**
+         * @param symbol The name of a local.
+         * @return A symbol of the name with a dot and a number after it, which
+         *      the code does not use yet.
+         */
+        int rename(int symbol) {
+            return SymbolInterner.SHARED.intern(SymbolInterner.SHARED.name(symbol) + '.' + ++renamed);
+        }
+        
+        /**
+         * Gives the code being generated the names it declared, and ends it.
+         */
+        void close() {
+            if (code == null)
+                return;
+            
+            code.locals(locals.stream().mapToInt(Integer::intValue).toArray());
+            locals.clear();
+            globals.clear();
+            renamed = 0;
+            count = 0;
+            scoped = 0;
+            code = null;
+        }
+        
+        /** Puts the next two labels on the stack. */
+        void openLabels() {
+            if (open + 2 > labels.length)
+                labels = Arrays.copyOf(labels, labels.length << 1);
+            
+            labels[open++] = code.newLabel();
+            labels[open++] = code.newLabel();
+        }
+        
+        /**
+         * @param value The operand to put on the stack.
+         */
+        void push(int value) {
+            if (depth == values.length)
+                values = Arrays.copyOf(values, depth << 1);
+            
+            values[depth++] = value;
+        }
+        
+        /**
+         * @return The operand taken off the stack.
+         */
+        int pop() {
+            return values[--depth];
+        }
     }
 }
@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.grammar;
+
+/**
+ * What relexing a source after some edits changed in its token stream: one
+ * window of tokens was lexed again, and every token after it was only moved.
+ * 
+ * <p>
+ * The window starts at {@code from} both before and after the edits; it ended
+ * at {@code oldTo} before them and ends at {@code newTo} after them. The
+ * tokens past the window moved by {@code newTo - oldTo} places in the stream,
+ * and by a fixed amount of bytes and lines in the source. Those on the line
+ * the window ends on also moved by a fixed amount of columns.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+public final class Damage {
+    /** The index of the first token lexed again. */
+    public final int from;
+    /** The index past the window before the edits. */
+    public final int oldTo;
+    /** The index past the window after the edits. */
+    public final int newTo;
+    /** The offset, before the edits, of the first token which was moved. */
+    private final int offset;
+    /** The amount of bytes the moved tokens moved by. */
+    private final int offsetDelta;
+    /** The line, before the edits, the first token which was moved is on. */
+    private final int line;
+    /** The amount of lines the moved tokens moved by. */
+    private final int lineDelta;
+    /** The amount of columns the moved tokens on {@code line} moved by. */
+    private final int columnDelta;
+    
+    /**
+     * @param from The index of the first token lexed again.
+     * @param oldTo The index past the window before the edits.
+     * @param newTo The index past the window after the edits.
+     * @param offset The offset, before the edits, of the first token moved.
+     * @param offsetDelta The amount of bytes the moved tokens moved by.
+     * @param line The line, before the edits, of the first token moved.
+     * @param lineDelta The amount of lines the moved tokens moved by.
+     * @param columnDelta The amount of columns the moved tokens on the same
+     *      line as the first moved by.
+     */
+    public Damage(int from, int oldTo, int newTo, int offset, int offsetDelta, int line, int lineDelta, int columnDelta) {
+        this.from = from;
+        this.oldTo = oldTo;
+        this.newTo = newTo;
+        this.offset = offset;
+        this.offsetDelta = offsetDelta;
+        this.line = line;
+        this.lineDelta = lineDelta;
+        this.columnDelta = columnDelta;
+    }
+    
+    /**
+     * @return {@code true} if any token was lexed differently, rather than
+     *      only moved.
+     */
+    public boolean changed() {
+        return from != oldTo || from != newTo;
+    }
+    
+    /**
+     * @return The amount of places the tokens past the window moved by.
+     */
+    public int delta() {
+        return newTo - oldTo;
+    }
+    
+    /**
+     * Moves the copies of tokens held elsewhere, such as by a parse tree, the
+     * same as the tokens past the window were moved.
+     * 
+     * @param tokens The copies to move; those which start before the first
+     *      moved token are left alone.
+     */
+    public void shift(TokenStream tokens) {
+        tokens.shift(0, offset, offsetDelta, line, lineDelta, columnDelta);
+    }
+}
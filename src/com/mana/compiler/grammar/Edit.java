@@ -0,0 +1,88 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.grammar;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A change made to the text of a source, as an editor would send it: a run of
+ * bytes removed at an offset, and text inserted in their place.
+ * 
+ * <p>
+ * Offsets and lengths count the bytes of the UTF-8 source, the same as the
+ * offsets of tokens do. In a list of edits each edit is given against the
+ * text left by the edits before it.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+public final class Edit {
+    /** The offset of the first byte removed, or of the insertion. */
+    public final int offset;
+    /** The amount of bytes removed. */
+    public final int removed;
+    /** The bytes inserted in place of those removed. */
+    final byte[] inserted;
+    
+    /**
+     * @param offset The offset of the first byte removed, or of the insertion.
+     * @param removed The amount of bytes removed.
+     * @param inserted The text inserted in place of the bytes removed.
+     */
+    public Edit(int offset, int removed, String inserted) {
+        this.offset = offset;
+        this.removed = removed;
+        this.inserted = inserted.getBytes(StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * @return The amount of bytes inserted.
+     */
+    public int inserted() {
+        return inserted.length;
+    }
+    
+    /**
+     * Makes the text left by this edit.
+     * 
+     * @param source The text before this edit, with {@code length} bytes used.
+     * @param length The amount of bytes of the text.
+     * @throws IllegalArgumentException if the edit does not fall within the
+     *      text.
+     * @return The text after this edit, with no room left over.
+     */
+    public byte[] apply(byte[] source, int length) {
+        if (offset < 0 || removed < 0 || offset > length || removed > length - offset)
+            throw new IllegalArgumentException("Cannot remove " + removed + " bytes at " + offset
+                    + " from a source of " + length + " bytes.");
+        
+        byte[] result = new byte[length - removed + inserted.length];
+        System.arraycopy(source, 0, result, 0, offset);
+        System.arraycopy(inserted, 0, result, offset, inserted.length);
+        System.arraycopy(source, offset + removed, result, offset + inserted.length, length - offset - removed);
+        
+        return result;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.grammar;
+
+import com.mana.compiler.util.structures.SymbolInterner;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps every source that has been read during compilation so that tokens can
+ * refer back into them instead of carrying copies of their own text.
+ * 
+ * <p>
+ * Each source is given a compact id when it is registered; a {@code Token}
+ * holds that id together with the offset and length of its lexeme, and only
+ * builds a {@code String} out of the source bytes when one is asked for.
+ * Registering takes a lock, looking a source up does not. File names are kept
+ * as symbols of the shared {@code SymbolInterner}, so a file compiled many
+ * times over keeps a single copy of its name.
+ * </p>
+ * 
+ * <p>
+ * A file registered again keeps its id and only has its source replaced, so a
+ * compiler which stays resident between builds does not run out of ids. The
+ * trees of the old source must not be used once it has been replaced.
+ * Such a compiler releases the sources of the files which are no longer part
+ * of its builds; a released file keeps its id, and its trees must not be used
+ * either until it is registered again.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+public final class SourceTable {
+    /** The largest number of sources that can be told apart by a short id. */
+    private static final int CAPACITY = Short.MAX_VALUE + 1;
+    /** The symbols of the names of the registered sources, by their ids. */
+    private static volatile int[] names = new int[16];
+    /** The contents of the registered sources, indexed by their ids. */
+    private static volatile ByteBuffer[] sources = new ByteBuffer[16];
+    /** The amount of sources registered so far. */
+    private static int count;
+    /** The ids of the registered sources, by the symbols of their names. */
+    private static final Map<Integer, Short> ids = new HashMap<>();
+    
+    /** No instances, the table is shared by every thread. */
+    private SourceTable() {}
+    
+    /**
+     * Registers a source and hands back the id its tokens should carry.
+     * 
+     * @param fileName The name of the file the source was read from.
+     * @param source The full contents of the file, positioned at its start.
+     * @throws IllegalStateException if there is no id left to hand out.
+     * @return The id of the registered source.
+     */
+    public static synchronized short register(String fileName, ByteBuffer source) {
+        int name = SymbolInterner.SHARED.intern(fileName);
+        Short known = ids.get(name);
+        
+        if (known != null) {
+            // the elements of the array are not volatile, so a reader which
+            // takes no lock only sees the new source in a new array.
+            ByteBuffer[] replaced = sources.clone();
+            replaced[known] = source.duplicate();
+            sources = replaced;
+            
+            return known;
+        }
+        
+        if (count == CAPACITY)
+            throw new IllegalStateException("Cannot register more than " + CAPACITY + " sources.");
+        
+        // a new id is stored in copies of the arrays for the same reason, grown
+        // if they are full.
+        int length = count == names.length ? count << 1 : names.length;
+        int[] addedNames = Arrays.copyOf(names, length);
+        ByteBuffer[] addedSources = Arrays.copyOf(sources, length);
+        addedSources[count] = source.duplicate();
+        addedNames[count] = name;
+        
+        // publish the contents before the names, a reader that sees the new
+        // names array must also see the new sources array.
+        sources = addedSources;
+        names = addedNames;
+        ids.put(name, (short)count);
+        
+        return (short)count++;
+    }
+    
+    /**
+     * Releases the source of every file but the given ones, so that its
+     * contents may be collected. The ids of the released files are kept.
+     * 
+     * @param fileNames The names of the files whose sources are kept.
+     */
+    public static synchronized void retain(Collection<String> fileNames) {
+        Set<Integer> kept = new HashSet<>();
+        
+        for (String fileName : fileNames)
+            kept.add(SymbolInterner.SHARED.lookup(fileName));
+        
+        ByteBuffer[] released = sources.clone();
+        
+        for (int i = 0; i < count; i++) {
+            if (!kept.contains(names[i]))
+                released[i] = null;
+        }
+        
+        sources = released;
+    }
+    
+    /**
+     * @param file The id of the source.
+     * @return The name of the file the source was read from.
+     */
+    public static String fileName(short file) {
+        return SymbolInterner.SHARED.name(names[file]);
+    }
+    
+    /**
+     * @param file The id of the source.
+     * @return The symbol of the name of the file the source was read from.
+     */
+    public static int fileSymbol(short file) {
+        return names[file];
+    }
+    
+    /**
+     * @param file The id of the source.
+     * @return A read only view of the whole source.
+     */
+    public static ByteBuffer source(short file) {
+        return sources[file].asReadOnlyBuffer();
+    }
+    
+    /**
+     * Builds the text of a lexeme out of the bytes of its source.
+     * 
+     * @param file The id of the source the lexeme is in.
+     * @param offset The offset of the first byte of the lexeme.
+     * @param length The amount of bytes in the lexeme.
+     * @return The lexeme decoded as UTF-8.
+     */
+    public static String lexeme(short file, int offset, int length) {
+        ByteBuffer source = sources[file];
+        
+        if (source.hasArray())
+            return new String(source.array(), source.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+        
+        byte[] bytes = new byte[length];
+        ByteBuffer view = source.duplicate();
+        view.position(offset);
+        view.get(bytes);
+        
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
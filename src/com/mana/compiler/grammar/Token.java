@@ -26,6 +26,14 @@ package com.mana.compiler.grammar;
 /**
  * A singular piece of the input, made into machine understandable data.
  * 
+ * <p>
+ * A token does not hold its own text. It records where its lexeme lies in the
+ * source it was read from, and the compact id of that source in the
+ * {@code SourceTable}; the lexeme and file name are only built when asked for.
+ * Identifiers also carry the id they were interned under by the shared
+ * {@code SymbolInterner}.
+ * </p>
+ * 
  * @author Mana Technologies
  * @version alpha 0.0.0.1
  */
@@ -34,18 +42,74 @@ public class Token {
      * Represents the types of possible tokens.
      */
     public enum Type {
-        type;
+        /** The name of a built in type. */
+        type("int", "bool"),
+        /** A name given by the programmer. */
+        identifier,
+        /** A numeric literal. */
+        number,
+        /** A string literal, quotes included. */
+        string,
+        /** A byte which does not begin any token. */
+        symbol,
+        leftParen,
+        rightParen,
+        leftBrace,
+        rightBrace,
+        comma,
+        semicolon,
+        colon,
+        assign,
+        plus,
+        minus,
+        star,
+        slash,
+        percent,
+        equal,
+        notEqual,
+        less,
+        lessEqual,
+        greater,
+        greaterEqual,
+        and,
+        or,
+        not,
+        importKeyword("import"),
+        funcKeyword("func"),
+        varKeyword("var"),
+        returnKeyword("return"),
+        ifKeyword("if"),
+        elseKeyword("else"),
+        whileKeyword("while"),
+        trueKeyword("true"),
+        falseKeyword("false"),
+        /** The end of the source. */
+        eof;
         
         public static int length = values().length;
         public int index = ordinal();
+        /** The words in the source which are lexed as this type, if any. */
+        public final String[] keywords;
+        
+        /**
+         * @param keywords The words in the source which are lexed as this
+         *      type.
+         */
+        Type(String... keywords) {
+            this.keywords = keywords;
+        }
     }
     
     /** The type of this token. */
     final Type type;
-    /** The value of this token. */
-    final String lexeme,
-    /** The name of the file this token comes from. */             
-                 fileName;
+    /** The offset of the first byte of this token in its source. */
+    final int offset,
+    /** The amount of bytes in this token. */
+              length;
+    /** The id of the source this token comes from. */
+    final short file;
+    /** The interned id of an identifier, or -1 for any other token. */
+    final int symbol;
     /** The line in the file of which this token was found. */
     final int line,
     /** The column in the line of which this tokens was found. */
@@ -53,15 +117,19 @@ public class Token {
     
     /**
      * @param type The type of this token.
-     * @param lexeme The value of this token.
-     * @param fileName The name of the file this token was found in.
+     * @param offset The offset of the first byte of this token in its source.
+     * @param length The amount of bytes in this token.
+     * @param file The id of the source this token was found in.
+     * @param symbol The interned id of an identifier, or -1.
      * @param line The line of the file in which this token was found.
      * @param column The column of the line in which this token was found.
      */
-    public Token (Type type, String lexeme, String fileName, int line, int column) {
+    public Token (Type type, int offset, int length, short file, int symbol, int line, int column) {
         this.type = type;
-        this.lexeme = lexeme;
-        this.fileName = fileName;
+        this.offset = offset;
+        this.length = length;
+        this.file = file;
+        this.symbol = symbol;
         this.line = line;
         this.column = column;
     }
@@ -72,14 +140,40 @@ public class Token {
     public Type type() { return type; }
     
     /**
+     * Builds the value of this token out of its source, each call makes a new
+     * {@code String}.
+     * 
      * @return The lexeme of this token.
      */
-    public String lexeme() { return lexeme; }
+    public String lexeme() { return SourceTable.lexeme(file, offset, length); }
+    
+    /**
+     * @return The offset of this token in its source.
+     */
+    public int offset() { return offset; }
+    
+    /**
+     * @return The amount of bytes in this token.
+     */
+    public int length() { return length; }
+    
+    /**
+     * @return The id of the source this token was found in.
+     */
+    public short file() { return file; }
+    
+    /**
+     * Identifiers are interned as they are lexed; two identifiers have the
+     * same name exactly when they have the same symbol.
+     * 
+     * @return The interned id of this identifier, or -1 if it is not one.
+     */
+    public int symbol() { return symbol; }
     
     /**
      * @return The name of the file this token was found in.
      */
-    public String fileName() { return fileName; }
+    public String fileName() { return SourceTable.fileName(file); }
     
     /**
      * @return The line in which this token was found.
@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.grammar;
+
+import com.mana.compiler.grammar.Token.Type;
+
+/**
+ * The view the {@code Parser} and its combinators have of the tokens they are
+ * parsing; a cursor that sits on one token at a time and can look a few tokens
+ * ahead of itself.
+ * 
+ * <p>
+ * It is implemented by the {@code TokenStream}, which holds every token of a
+ * source at once, and by the {@code TokenRing}, which only holds a window of
+ * tokens while the {@code Lexer} is still producing the rest.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+public interface TokenCursor {
+    /**
+     * @return The id of the source the tokens come from.
+     */
+    short file();
+    
+    /**
+     * @return The index of the current token, counted from the first token of
+     *      the source.
+     */
+    int position();
+    
+    /**
+     * @return The type ordinal of the current token, for table lookups.
+     */
+    int typeIndex();
+    
+    /**
+     * @return The type of the current token.
+     */
+    Type type();
+    
+    /**
+     * @param ahead How many tokens past the current one to look.
+     * @return The type of that token, {@code Type.eof} if it is past the end.
+     */
+    Type peek(int ahead);
+    
+    /**
+     * @return The offset of the current token.
+     */
+    int offset();
+    
+    /**
+     * @return The length of the current token.
+     */
+    int length();
+    
+    /**
+     * @return The interned id of the current token if it is an identifier,
+     *      otherwise -1.
+     */
+    int symbol();
+    
+    /**
+     * @return The line of the current token.
+     */
+    int line();
+    
+    /**
+     * @return The column of the current token.
+     */
+    int column();
+    
+    /**
+     * Moves the cursor on to the next token.
+     */
+    void advance();
+    
+    /**
+     * Moves the cursor on only if the current token is of the given type.
+     * 
+     * @param type The type that is expected.
+     * @return {@code true} if the token was of that type and was taken.
+     */
+    boolean accept(Type type);
+}
@@ -0,0 +1,284 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.grammar;
+
+import com.mana.compiler.grammar.Token.Type;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded ring of tokens passed from one {@code Lexer} thread to one
+ * {@code Parser} thread, so that a source can be parsed while it is still
+ * being lexed.
+ * 
+ * <p>
+ * Like the {@code TokenStream} the ring stores each attribute of a token in
+ * its own primitive array, but only ever holds {@code capacity} tokens at
+ * once. The lexer waits whenever the ring is full and the parser waits
+ * whenever it has caught up with the lexer, so the memory taken by the
+ * tokens stays the same however large the source is.
+ * </p>
+ * 
+ * <p>
+ * There must be exactly one producer calling {@code put} and one consumer
+ * using the cursor. Each side owns its own index into the ring and only
+ * publishes it to the other through a volatile write; no locks are taken.
+ * The consumer hands slots back in batches rather than on every token, and
+ * always before it waits.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+public final class TokenRing implements TokenCursor {
+    /** The token types, indexed by their ordinals. */
+    private static final Type[] TYPES = Type.values();
+    /** How many times a side spins before it starts to park. */
+    private static final int SPINS = 64;
+    /** How long a waiting side parks for at a time; 10 microseconds. */
+    private static final long PARK_NANOS = 10_000L;
+    
+    /** The mask taking a sequence number to its slot; capacity - 1. */
+    private final int mask;
+    /** How many tokens the consumer takes before handing their slots back. */
+    private final int batch;
+    /** The ordinals of the token types. */
+    private final short[] types;
+    /** The offsets of the tokens in their source. */
+    private final int[] offsets;
+    /** The interned ids of the identifiers, -1 for any other token. */
+    private final int[] symbols;
+    /** The amount of bytes in each token. */
+    private final int[] lengths;
+    /** The lines the tokens were found on. */
+    private final int[] lines;
+    /** The columns the tokens were found at. */
+    private final int[] columns;
+    
+    /** The id of the source, set by the producer before its first token. */
+    private short file;
+    /** The sequence number of the next token the producer will write. */
+    private volatile long tail;
+    /** The sequence number of the first slot the consumer still holds. */
+    private volatile long head;
+    /** The sequence number of the {@code Type.eof} token, -1 until it is put. */
+    private volatile long end = -1;
+    /** Set by the consumer when it wants no more tokens. */
+    private volatile boolean closed;
+    /** The sequence number of the current token of the cursor. */
+    private long position;
+    
+    /**
+     * @param capacity The amount of tokens the ring holds; rounded up to a
+     *      power of two.
+     */
+    public TokenRing(int capacity) {
+        capacity = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        
+        mask = capacity - 1;
+        batch = Math.max(capacity >> 3, 1);
+        types = new short[capacity];
+        offsets = new int[capacity];
+        lengths = new int[capacity];
+        symbols = new int[capacity];
+        lines = new int[capacity];
+        columns = new int[capacity];
+    }
+    
+    /**
+     * Tells the consumer which source the tokens come from; must be called by
+     * the producer before it puts its first token.
+     * 
+     * @param file The id of the source.
+     */
+    public void source(short file) {
+        this.file = file;
+    }
+    
+    /**
+     * Puts a token at the end of the ring, waiting for the consumer if the
+     * ring is full.
+     * 
+     * @param type The type of the token.
+     * @param offset The offset of the token in its source.
+     * @param length The amount of bytes in the token.
+     * @param symbol The interned id of the token if it is an identifier,
+     *      otherwise -1.
+     * @param line The line the token was found on.
+     * @param column The column the token was found at.
+     * @return {@code false} if the consumer has closed the ring, in which case
+     *      the producer should stop.
+     */
+    public boolean put(Type type, int offset, int length, int symbol, int line, int column) {
+        long sequence = tail;
+        
+        for (int spins = 0; sequence - head > mask; spins++) {
+            if (closed)
+                return false;
+            
+            backOff(spins);
+        }
+        
+        int slot = (int)sequence & mask;
+        types[slot] = (short)type.index;
+        offsets[slot] = offset;
+        lengths[slot] = length;
+        symbols[slot] = symbol;
+        lines[slot] = line;
+        columns[slot] = column;
+        
+        if (type == Type.eof)
+            end = sequence;
+        
+        // publishes the slot to the consumer.
+        tail = sequence + 1;
+        
+        return !closed;
+    }
+    
+    /**
+     * Tells the producer that no more tokens are wanted, so that it does not
+     * wait on a consumer that has stopped reading.
+     */
+    public void close() {
+        closed = true;
+    }
+    
+    /**
+     * Waits until the token with the given sequence number has been put.
+     * 
+     * @param sequence The sequence number of the token.
+     * @return The slot the token is in.
+     */
+    private int await(long sequence) {
+        if (sequence >= tail) {
+            // hand back everything before the cursor so a full ring cannot
+            // leave both sides waiting on each other.
+            head = position;
+            
+            for (int spins = 0; sequence >= tail; spins++)
+                backOff(spins);
+        }
+        
+        return (int)sequence & mask;
+    }
+    
+    /**
+     * Waits for the current token of the cursor. A cursor that has been moved
+     * past the end of the source stays on its {@code Type.eof} token.
+     * 
+     * @return The slot the current token is in.
+     */
+    private int current() {
+        long last = end;
+        return await(last >= 0 && position > last ? last : position);
+    }
+    
+    /**
+     * Spins for a while, then yields, then parks for short periods.
+     * 
+     * @param spins How many times this side has already waited.
+     */
+    private static void backOff(int spins) {
+        if (spins < SPINS)
+            return;
+        
+        if (spins < SPINS << 1)
+            Thread.yield();
+        else
+            LockSupport.parkNanos(PARK_NANOS);
+    }
+    
+    @Override
+    public short file() {
+        // the first token publishes the id along with it.
+        await(0);
+        return file;
+    }
+    
+    @Override
+    public int position() { return (int)position; }
+    
+    @Override
+    public int typeIndex() { return types[current()]; }
+    
+    @Override
+    public Type type() { return TYPES[types[current()]]; }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * The ring can only be looked into as far as its capacity allows.
+     * </p>
+     * 
+     * @throws IllegalArgumentException if {@code ahead} is not less than the
+     *      capacity of the ring.
+     */
+    @Override
+    public Type peek(int ahead) {
+        if (ahead > mask)
+            throw new IllegalArgumentException("Cannot look " + ahead + " tokens ahead in a ring of " + (mask + 1) + ".");
+        
+        long sequence = position + ahead;
+        long last = end;
+        
+        if (last >= 0 && sequence > last)
+            return Type.eof;
+        
+        return TYPES[types[await(sequence)]];
+    }
+    
+    @Override
+    public int offset() { return offsets[current()]; }
+    
+    @Override
+    public int length() { return lengths[current()]; }
+    
+    @Override
+    public int symbol() { return symbols[current()]; }
+    
+    @Override
+    public int line() { return lines[current()]; }
+    
+    @Override
+    public int column() { return columns[current()]; }
+    
+    @Override
+    public void advance() {
+        position++;
+        
+        if ((position & (batch - 1)) == 0)
+            head = position;
+    }
+    
+    @Override
+    public boolean accept(Type type) {
+        if (types[current()] == type.index) {
+            advance();
+            return true;
+        }
+        
+        return false;
+    }
+}
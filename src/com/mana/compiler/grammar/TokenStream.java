@@ -0,0 +1,392 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.grammar;
+
+import com.mana.compiler.grammar.Token.Type;
+import java.util.Arrays;
+
+/**
+ * The tokens of one source, stored column by column instead of one object per
+ * token.
+ * 
+ * <p>
+ * Each attribute of a token lives in its own primitive array, and a token is
+ * nothing more than an index into those arrays. The arrays grow as tokens are
+ * added by the {@code Lexer}. The stream also carries a cursor that the
+ * {@code Parser} and its combinators move through the tokens, reading the
+ * attributes of the current token straight out of the arrays. A {@code Token}
+ * object is only made when one is asked for with {@code token(int)}.
+ * </p>
+ * 
+ * <p>
+ * Since every token is kept, the cursor of a stream can be {@code reset} to
+ * any position it has already been at.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+public final class TokenStream implements TokenCursor {
+    /** The capacity of a new stream when none is given. */
+    private static final int DEFAULT_CAPACITY = 256;
+    /** The token types, indexed by their ordinals. */
+    private static final Type[] TYPES = Type.values();
+    
+    /** The id of the source these tokens come from. */
+    short file;
+    /** The ordinals of the token types. */
+    private short[] types;
+    /** The offsets of the tokens in their source. */
+    private int[] offsets;
+    /** The interned ids of the identifiers, -1 for any other token. */
+    private int[] symbols;
+    /** The amount of bytes in each token. */
+    private int[] lengths;
+    /** The lines the tokens were found on. */
+    private int[] lines;
+    /** The columns the tokens were found at. */
+    private int[] columns;
+    /** The amount of tokens in this stream. */
+    private int size;
+    /** The index of the current token of the cursor. */
+    private int position;
+    
+    /**
+     * @param file The id of the source these tokens come from.
+     */
+    public TokenStream(short file) {
+        this(file, DEFAULT_CAPACITY);
+    }
+    
+    /**
+     * @param file The id of the source these tokens come from.
+     * @param capacity The amount of tokens to make room for up front.
+     */
+    public TokenStream(short file, int capacity) {
+        this.file = file;
+        capacity = Math.max(capacity, 1);
+        types = new short[capacity];
+        offsets = new int[capacity];
+        lengths = new int[capacity];
+        symbols = new int[capacity];
+        lines = new int[capacity];
+        columns = new int[capacity];
+    }
+    
+    /**
+     * Appends a token to the end of this stream.
+     * 
+     * @param type The type of the token.
+     * @param offset The offset of the token in its source.
+     * @param length The amount of bytes in the token.
+     * @param symbol The interned id of the token if it is an identifier,
+     *      otherwise -1.
+     * @param line The line the token was found on.
+     * @param column The column the token was found at.
+     */
+    public void add(Type type, int offset, int length, int symbol, int line, int column) {
+        if (size == types.length)
+            grow();
+        
+        types[size] = (short)type.index;
+        offsets[size] = offset;
+        lengths[size] = length;
+        symbols[size] = symbol;
+        lines[size] = line;
+        columns[size] = column;
+        size++;
+    }
+    
+    /**
+     * Appends every token of another stream of the same source to the end of
+     * this one.
+     * 
+     * @param other The stream to take the tokens of.
+     * @param lineOffset The amount to add to the line of each token, for
+     *      streams whose lines were counted from part way into the source.
+     */
+    public void append(TokenStream other, int lineOffset) {
+        int count = other.size;
+        
+        while (size + count > types.length)
+            grow();
+        
+        System.arraycopy(other.types, 0, types, size, count);
+        System.arraycopy(other.offsets, 0, offsets, size, count);
+        System.arraycopy(other.lengths, 0, lengths, size, count);
+        System.arraycopy(other.symbols, 0, symbols, size, count);
+        System.arraycopy(other.columns, 0, columns, size, count);
+        
+        for (int i = 0; i < count; i++)
+            lines[size + i] = other.lines[i] + lineOffset;
+        
+        size += count;
+    }
+    
+    /**
+     * Replaces a run of tokens with every token of another stream of the same
+     * source, moving the tokens after the run along.
+     * 
+     * @param from The index of the first token to replace.
+     * @param to The index past the last token to replace.
+     * @param other The stream to take the tokens of.
+     */
+    public void replace(int from, int to, TokenStream other) {
+        int count = other.size;
+        int tail = size - to;
+        
+        while (from + count + tail > types.length)
+            grow();
+        
+        System.arraycopy(types, to, types, from + count, tail);
+        System.arraycopy(offsets, to, offsets, from + count, tail);
+        System.arraycopy(lengths, to, lengths, from + count, tail);
+        System.arraycopy(symbols, to, symbols, from + count, tail);
+        System.arraycopy(lines, to, lines, from + count, tail);
+        System.arraycopy(columns, to, columns, from + count, tail);
+        System.arraycopy(other.types, 0, types, from, count);
+        System.arraycopy(other.offsets, 0, offsets, from, count);
+        System.arraycopy(other.lengths, 0, lengths, from, count);
+        System.arraycopy(other.symbols, 0, symbols, from, count);
+        System.arraycopy(other.lines, 0, lines, from, count);
+        System.arraycopy(other.columns, 0, columns, from, count);
+        size = from + count + tail;
+    }
+    
+    /**
+     * Moves the tokens which start at or past an offset of the source, after
+     * an edit of the source before them.
+     * 
+     * @param index The index of the first token which may be moved.
+     * @param offset The offset before the edit of the first byte moved.
+     * @param offsetDelta The amount of bytes to move by.
+     * @param line The line before the edit of the first byte moved.
+     * @param lineDelta The amount of lines to move by.
+     * @param columnDelta The amount of columns to move the tokens on
+     *      {@code line} by.
+     */
+    public void shift(int index, int offset, int offsetDelta, int line, int lineDelta, int columnDelta) {
+        for (int i = index; i < size; i++) {
+            if (offsets[i] < offset)
+                continue;
+            
+            if (lines[i] == line)
+                columns[i] += columnDelta;
+            
+            offsets[i] += offsetDelta;
+            lines[i] += lineDelta;
+        }
+    }
+    
+    /**
+     * Drops the tokens from an index on.
+     * 
+     * @param size The amount of tokens to keep.
+     */
+    public void truncate(int size) {
+        this.size = Math.min(this.size, size);
+        position = Math.min(position, this.size);
+    }
+    
+    /**
+     * Drops every token while keeping the room they took, so the stream can be
+     * filled again with the tokens of another source.
+     * 
+     * @param file The id of the source the next tokens come from.
+     */
+    public void clear(short file) {
+        this.file = file;
+        size = 0;
+        position = 0;
+    }
+    
+    /** Doubles the room in each of the arrays. */
+    private void grow() {
+        int capacity = types.length << 1;
+        
+        types = Arrays.copyOf(types, capacity);
+        offsets = Arrays.copyOf(offsets, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        symbols = Arrays.copyOf(symbols, capacity);
+        lines = Arrays.copyOf(lines, capacity);
+        columns = Arrays.copyOf(columns, capacity);
+    }
+    
+    /**
+     * @return The id of the source these tokens come from.
+     */
+    @Override
+    public short file() { return file; }
+    
+    /**
+     * @return The amount of tokens in this stream.
+     */
+    public int size() { return size; }
+    
+    /**
+     * @param index The index of the token.
+     * @return The type of the token at that index.
+     */
+    public Type type(int index) { return TYPES[types[index]]; }
+    
+    /**
+     * @param index The index of the token.
+     * @return The offset in its source of the token at that index.
+     */
+    public int offset(int index) { return offsets[index]; }
+    
+    /**
+     * @param index The index of the token.
+     * @return The amount of bytes in the token at that index.
+     */
+    public int length(int index) { return lengths[index]; }
+    
+    /**
+     * @param index The index of the token.
+     * @return The interned id of the token at that index, or -1 if it is not
+     *      an identifier.
+     */
+    public int symbol(int index) { return symbols[index]; }
+    
+    /**
+     * @param index The index of the token.
+     * @return The line of the token at that index.
+     */
+    public int line(int index) { return lines[index]; }
+    
+    /**
+     * @param index The index of the token.
+     * @return The column of the token at that index.
+     */
+    public int column(int index) { return columns[index]; }
+    
+    /**
+     * @param index The index of the token.
+     * @return The lexeme of the token at that index, built from its source.
+     */
+    public String lexeme(int index) {
+        return SourceTable.lexeme(file, offsets[index], lengths[index]);
+    }
+    
+    /**
+     * Makes an object out of a single token, for when one has to outlive the
+     * stream or be handed to code that wants a {@code Token}.
+     * 
+     * @param index The index of the token.
+     * @return The token at that index.
+     */
+    public Token token(int index) {
+        return new Token(type(index), offsets[index], lengths[index], file, symbols[index], lines[index], columns[index]);
+    }
+    
+    /**
+     * @return The index of the current token of the cursor.
+     */
+    @Override
+    public int position() { return position; }
+    
+    /**
+     * Moves the cursor back or forward to a position it has been given by
+     * {@code position()}, so that a combinator may backtrack.
+     * 
+     * @param position The index to move the cursor to.
+     */
+    public void reset(int position) { this.position = position; }
+    
+    /**
+     * @return {@code true} if the cursor has moved past the last token.
+     */
+    public boolean done() { return position >= size; }
+    
+    /**
+     * @return The type ordinal of the current token, for table lookups.
+     */
+    @Override
+    public int typeIndex() { return types[position]; }
+    
+    /**
+     * @return The type of the current token.
+     */
+    @Override
+    public Type type() { return TYPES[types[position]]; }
+    
+    /**
+     * @param ahead How many tokens past the current one to look.
+     * @return The type of that token, {@code Type.eof} if it is past the end.
+     */
+    @Override
+    public Type peek(int ahead) {
+        int index = position + ahead;
+        return index < size ? TYPES[types[index]] : Type.eof;
+    }
+    
+    /**
+     * @return The offset of the current token.
+     */
+    @Override
+    public int offset() { return offsets[position]; }
+    
+    /**
+     * @return The length of the current token.
+     */
+    @Override
+    public int length() { return lengths[position]; }
+    
+    @Override
+    public int symbol() { return symbols[position]; }
+    
+    /**
+     * @return The line of the current token.
+     */
+    @Override
+    public int line() { return lines[position]; }
+    
+    /**
+     * @return The column of the current token.
+     */
+    @Override
+    public int column() { return columns[position]; }
+    
+    /**
+     * Moves the cursor on to the next token.
+     */
+    @Override
+    public void advance() { position++; }
+    
+    /**
+     * Moves the cursor on only if the current token is of the given type.
+     * 
+     * @param type The type that is expected.
+     * @return {@code true} if the token was of that type and was taken.
+     */
+    @Override
+    public boolean accept(Type type) {
+        if (position < size && types[position] == type.index) {
+            position++;
+            return true;
+        }
+        
+        return false;
+    }
+}
@@ -23,11 +23,24 @@
  */
 package com.mana.compiler.lexer;
 
-import com.mana.compiler.grammar.Token;
-import com.mana.compiler.util.structures.Trie;
+import com.mana.compiler.grammar.Damage;
+import com.mana.compiler.grammar.Edit;
+import com.mana.compiler.grammar.SourceTable;
+import com.mana.compiler.grammar.Token.Type;
+import com.mana.compiler.grammar.TokenRing;
+import com.mana.compiler.grammar.TokenStream;
+import com.mana.compiler.util.structures.KeywordRecognizer;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  *
@@ -38,7 +51,7 @@ public final class Lexer {
     /** The file to lex. */
     final File file;
     /** A keyword table for the lexer to use. */
-    static final Trie KEYWORDTABLE = keywordTable();
+    static final KeywordRecognizer KEYWORDTABLE = keywordTable();
     
     /**
      * @param file The file that this lexer will lex.
@@ -48,22 +61,391 @@ public final class Lexer {
     }
     
     /**
-     * @return The filled keyword table.
+     * @return The filled keyword table, giving each keyword the index of its
+     *      token type.
      */
-    static final Trie keywordTable() {
-        Trie result = new Trie();
+    static final KeywordRecognizer keywordTable() {
+        List<String> keywords = new ArrayList<>();
+        List<Integer> indices = new ArrayList<>();
         
         // fill with all Token keywords.
+        for (Type type : Type.values()) {
+            for (String keyword : type.keywords) {
+                keywords.add(keyword);
+                indices.add(type.index);
+            }
+        }
         
-        return result;
+        int[] values = new int[indices.size()];
+        
+        for (int i = 0; i < values.length; i++)
+            values[i] = indices.get(i);
+        
+        return new KeywordRecognizer(keywords.toArray(new String[0]), values);
     }
     
     /**
-     * @return The list of tokens found during lexing.
+     * Reads every lexeme of the file into a token stream. The stream always
+     * ends with a token of {@code Type.eof}; a file that could not be read is
+     * lexed as if it were empty.
+     * 
+     * @return The stream of tokens found during lexing.
      */
-    public final List<Token> lex() {
-        List<Token> result = new ArrayList<>();
+    public final TokenStream lex() {
+        TokenStream result;
+        
+        try (SourceReader reader = new SourceReader(file)) {
+            // roughly one token for every four bytes of source.
+            result = new TokenStream(reader.file, (int)Math.min(file.length() >> 2, Integer.MAX_VALUE - 8));
+            Type type;
+            
+            do {
+                type = reader.next();
+                result.add(type, reader.offset, reader.length, reader.symbol, reader.lexemeLine, reader.lexemeColumn);
+            } while (type != Type.eof);
+        } catch (Exception ex) {
+            Logger.getLogger(Lexer.class.getName()).log(Level.SEVERE, null, ex);
+            
+            result = new TokenStream(SourceTable.register(file.getPath(), ByteBuffer.allocate(0)), 1);
+            result.add(Type.eof, 0, 0, -1, 0, 0);
+        }
         
         return result;
     }
+    
+    /**
+     * Lexes the file in pieces at once, for files large enough that one thread
+     * lexing them would hold up the rest of the compilation. The pieces are
+     * run as fork join tasks, so inside a {@code ForkJoinPool} idle workers
+     * take them.
+     * 
+     * <p>
+     * The file is cut at the starts of lines, and each piece is lexed as if
+     * nothing before it were open. Only a block comment may run over a line,
+     * so when the pieces are joined each one is checked against the piece
+     * before it: they must agree on where the first lexeme past the cut
+     * begins. Once two readers agree on the start of a lexeme they agree on
+     * every lexeme after it. A piece which does not agree was cut inside a
+     * comment and is lexed again from where the piece before it stopped.
+     * </p>
+     * 
+     * @param pieces The amount of pieces to lex the file in.
+     * @return The stream of tokens found during lexing, the same as
+     *      {@code lex()} would give.
+     */
+    public final TokenStream lex(int pieces) {
+        if (pieces <= 1)
+            return lex();
+        
+        try (SourceReader whole = new SourceReader(file)) {
+            int size = whole.size();
+            List<Piece> tasks = new ArrayList<>(pieces);
+            int from = 0;
+            
+            for (int i = 1; i <= pieces; i++) {
+                int to = i == pieces ? size : Math.max(from, Math.min(whole.find('\n', (int)((long)size * i / pieces)) + 1, size));
+                
+                if (to > from || i == pieces) {
+                    tasks.add(new Piece(whole, from, to));
+                    from = to;
+                }
+                
+                // the piece which reaches the end of the source is the last.
+                if (from == size && !tasks.isEmpty())
+                    break;
+            }
+            
+            ForkJoinTask.invokeAll(tasks);
+            
+            TokenStream result = new TokenStream(whole.file, size >> 2);
+            int lineBase = 0;
+            int stop = 0;
+            
+            for (Piece piece : tasks) {
+                TokenStream part = piece.join();
+                int lineOffset = lineBase;
+                
+                if (piece.first == stop) {
+                    stop = piece.stop;
+                } else {
+                    // the piece was cut inside of a comment, lex it again from
+                    // where the piece before it really stopped.
+                    Piece again = new Piece(whole, stop, Math.max(stop, piece.to));
+                    part = again.compute();
+                    lineOffset += whole.lines(piece.from, stop);
+                    stop = again.stop;
+                }
+                
+                result.append(part, lineOffset);
+                lineBase += piece.lines;
+            }
+            
+            return result;
+        } catch (Exception ex) {
+            Logger.getLogger(Lexer.class.getName()).log(Level.SEVERE, null, ex);
+            
+            return lex();
+        }
+    }
+    
+    /**
+     * Lexes the lexemes which begin within one piece of a source. The piece
+     * counts its lines from its own start.
+     */
+    static final class Piece extends RecursiveTask<TokenStream> {
+        /** The reader which loaded the whole source. */
+        final SourceReader whole;
+        /** The offset the piece starts at. */
+        final int from,
+        /** The offset the next piece starts at. */
+                  to;
+        /** The offset of the first lexeme in the piece. */
+        int first,
+        /** The offset of the first lexeme past the piece. */
+            stop,
+        /** The amount of newlines from the start of the piece to the next. */
+            lines;
+        
+        /**
+         * @param whole The reader which loaded the whole source.
+         * @param from The offset the piece starts at; the start of a line.
+         * @param to The offset the next piece starts at.
+         */
+        Piece(SourceReader whole, int from, int to) {
+            this.whole = whole;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected TokenStream compute() {
+            SourceReader reader = new SourceReader(whole, from);
+            TokenStream result = new TokenStream(whole.file, (to - from) >> 2);
+            boolean last = to == whole.size();
+            Type type;
+            
+            first = -1;
+            
+            try {
+                do {
+                    type = reader.next();
+                    
+                    if (first < 0)
+                        first = reader.offset;
+                    
+                    // the end of the source belongs to the last piece alone.
+                    if (reader.offset >= to && !last)
+                        break;
+                    
+                    result.add(type, reader.offset, reader.length, reader.symbol, reader.lexemeLine, reader.lexemeColumn);
+                } while (type != Type.eof);
+            } catch (IOException ioe) {
+                // the source is already in memory, reading it cannot fail.
+                throw new UncheckedIOException(ioe);
+            }
+            
+            stop = reader.offset;
+            lines = whole.lines(from, to);
+            
+            return result;
+        }
+    }
+    
+    /**
+     * Applies edits to the source of a stream and lexes again only the tokens
+     * the edits could have changed, leaving the rest of the stream as it was
+     * apart from moving it along.
+     * 
+     * <p>
+     * The edited source replaces the old one in the {@code SourceTable} under
+     * the same id. Lexing starts at the start of the line a token before the
+     * last token which starts before the edits is on, in case the edits
+     * extend it or close a string on that line, and stops at the first
+     * token past the edits which starts where an old token now starts; as the
+     * lexer carries nothing from one lexeme to the next, every token after
+     * that one is the same as before. So the work done depends on the size of
+     * the edits and of the lexemes around them, save for the tokens after them
+     * being moved along, which is a copy.
+     * </p>
+     * 
+     * @param tokens The stream of the file, as given by {@code lex()}; it is
+     *      changed to the stream of the edited source.
+     * @param edits The edits, each against the text left by the one before.
+     * @throws IllegalArgumentException if an edit falls outside the source, or
+     *      the stream is not of this file.
+     * @return The window of tokens lexed again.
+     */
+    public final Damage relex(TokenStream tokens, List<Edit> edits) {
+        ByteBuffer old = SourceTable.source(tokens.file());
+        byte[] bytes = new byte[old.remaining()];
+        int length = bytes.length;
+        old.get(bytes);
+        
+        // the edits are merged into one changed range, from start to oldEnd
+        // before them and to newEnd after them.
+        int start = -1, oldEnd = 0, newEnd = 0;
+        
+        for (Edit edit : edits) {
+            bytes = edit.apply(bytes, length);
+            length = bytes.length;
+            
+            int removedEnd = edit.offset + edit.removed;
+            int insertedEnd = edit.offset + edit.inserted();
+            
+            if (start < 0) {
+                start = edit.offset;
+                oldEnd = removedEnd;
+                newEnd = insertedEnd;
+            } else {
+                start = Math.min(start, edit.offset);
+                
+                if (removedEnd <= newEnd) {
+                    newEnd += insertedEnd - removedEnd;
+                } else {
+                    oldEnd += removedEnd - newEnd;
+                    newEnd = insertedEnd;
+                }
+            }
+        }
+        
+        if (start < 0)
+            return new Damage(0, 0, 0, 0, 0, 0, 0, 0);
+        
+        ByteBuffer source = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        short id = SourceTable.register(file.getPath(), source);
+        
+        if (id != tokens.file())
+            throw new IllegalArgumentException("The tokens are not of " + file.getPath() + ".");
+        
+        int delta = newEnd - oldEnd;
+        int from = Math.max(search(tokens, start) - 2, 0);
+        
+        // a string may not cross a line, so a quote left open earlier on the
+        // line may be closed by the edits.
+        while (from > 0 && tokens.line(from - 1) == tokens.line(from))
+            from--;
+        
+        // a comment left open is lexed as a slash and a star, as no comment
+        // ends after it; the edits may end it.
+        if (closes(bytes, start - 1, newEnd + 1)) {
+            for (int i = 0; i + 1 < from; i++) {
+                if (tokens.type(i) == Type.slash && tokens.type(i + 1) == Type.star
+                        && tokens.offset(i) + 1 == tokens.offset(i + 1)) {
+                    from = i;
+                    break;
+                }
+            }
+        }
+        // the first token kept may start past the edits if they are in a
+        // comment, so reading starts where the token before it ends.
+        int moved = search(tokens, oldEnd);
+        int begin = from == 0 ? 0 : tokens.offset(from - 1) + tokens.length(from - 1);
+        SourceReader reader = new SourceReader(id, source, begin);
+        TokenStream window = new TokenStream(id);
+        int baseLine = from == 0 ? 0 : tokens.line(from - 1);
+        Type type;
+        
+        try {
+            while (true) {
+                type = reader.next();
+                
+                // skip the old tokens which now start before this one.
+                while (moved < tokens.size() && tokens.offset(moved) + delta < reader.offset)
+                    moved++;
+                
+                if (reader.offset >= newEnd && moved < tokens.size() && tokens.offset(moved) + delta == reader.offset)
+                    break;
+                
+                window.add(type, reader.offset, reader.length, reader.symbol, reader.lexemeLine + baseLine,
+                        reader.lexemeColumn);
+                
+                // the end of the new source always starts where the old end
+                // now starts, so this is never reached.
+                if (type == Type.eof)
+                    throw new IllegalStateException("The end of " + file.getPath() + " was lost.");
+            }
+        } catch (IOException ioe) {
+            // the source is already in memory, reading it cannot fail.
+            throw new UncheckedIOException(ioe);
+        }
+        
+        int offset = tokens.offset(moved);
+        int line = tokens.line(moved);
+        int lineDelta = reader.lexemeLine + baseLine - line;
+        int columnDelta = reader.lexemeColumn - tokens.column(moved);
+        
+        tokens.replace(from, moved, window);
+        tokens.shift(from + window.size(), offset, delta, line, lineDelta, columnDelta);
+        
+        return new Damage(from, moved, from + window.size(), offset, delta, line, lineDelta, columnDelta);
+    }
+    
+    /**
+     * @param source A source.
+     * @param from The offset to start looking at.
+     * @param to The offset to stop looking at.
+     * @return {@code true} if the end of a comment is found in the range.
+     */
+    private static boolean closes(byte[] source, int from, int to) {
+        for (int i = Math.max(from, 0); i + 1 < Math.min(to, source.length); i++) {
+            if (source[i] == '*' && source[i + 1] == '/')
+                return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * @param tokens A stream of tokens.
+     * @param offset An offset in their source.
+     * @return The index of the first token which starts at or past the offset.
+     */
+    private static int search(TokenStream tokens, int offset) {
+        int low = 0;
+        int high = tokens.size();
+        
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            
+            if (tokens.offset(middle) < offset)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        
+        return low;
+    }
+    
+    /**
+     * Reads every lexeme of the file into the ring as it is found, waiting for
+     * the parser whenever the ring is full. Like {@code lex()} the last token
+     * is always of {@code Type.eof}, unless the parser closes the ring first.
+     * 
+     * @param ring The ring to put the tokens into.
+     */
+    public final void lex(TokenRing ring) {
+        boolean opened = false;
+        Type type = null;
+        
+        try (SourceReader reader = new SourceReader(file)) {
+            ring.source(reader.file);
+            opened = true;
+            
+            do {
+                type = reader.next();
+                
+                if (!ring.put(type, reader.offset, reader.length, reader.symbol, reader.lexemeLine, reader.lexemeColumn))
+                    return;
+            } while (type != Type.eof);
+        } catch (Exception ex) {
+            Logger.getLogger(Lexer.class.getName()).log(Level.SEVERE, null, ex);
+            
+            if (!opened)
+                ring.source(SourceTable.register(file.getPath(), ByteBuffer.allocate(0)));
+            
+            // closing the reader may fail after the end was already put.
+            if (type != Type.eof)
+                ring.put(Type.eof, 0, 0, -1, 0, 0);
+        }
+    }
 }
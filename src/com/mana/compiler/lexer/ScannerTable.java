@@ -0,0 +1,298 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.lexer;
+
+import com.mana.compiler.grammar.Token.Type;
+import java.util.Arrays;
+
+/**
+ * The tables driving the scanner of the {@code SourceReader}; a deterministic
+ * finite automaton recognizing every token of the language.
+ * 
+ * <p>
+ * Every byte of input is first mapped to one of a handful of character
+ * classes through {@code CLASSES}, a table of 256 entries. The next state is
+ * then found in the flat {@code TRANSITIONS} table at
+ * {@code state * CLASS_COUNT + class}. A state either accepts, giving the
+ * index of the token type it has recognized in {@code ACCEPT}, or does not.
+ * The scanner keeps stepping until it falls into {@code DEAD} and takes the
+ * longest input that was accepted on the way.
+ * </p>
+ * 
+ * <p>
+ * The tables are generated once, when this class is loaded, from the rules in
+ * {@code generate()}; the rules are the only thing to change when the tokens
+ * of the language do.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+final class ScannerTable {
+    // character classes.
+    static final byte OTHER = 0, NEWLINE = 1, ZERO = 2, ONE = 3, DIGIT = 4,
+                      LETTER = 5, HEX = 6, X = 7, B = 8, U = 9, L = 10,
+                      DOT = 11, QUOTE = 12, BACKSLASH = 13, SLASH = 14,
+                      STAR = 15, EQUALS = 16, BANG = 17, LESS = 18,
+                      GREATER = 19, AMPERSAND = 20, PIPE = 21, PLUS = 22,
+                      MINUS = 23, PERCENT = 24, LEFT_PAREN = 25,
+                      RIGHT_PAREN = 26, LEFT_BRACE = 27, RIGHT_BRACE = 28,
+                      COMMA = 29, SEMICOLON = 30, COLON = 31, SPACE = 32;
+    /** The amount of character classes. */
+    static final int CLASS_COUNT = 33;
+    
+    // states.
+    static final byte DEAD = 0, START = 1, IDENTIFIER = 2, ZERO_NUMBER = 3,
+                      DECIMAL = 4, FRACTION_START = 5, FRACTION = 6,
+                      HEX_START = 7, HEX_NUMBER = 8, BINARY_START = 9,
+                      BINARY_NUMBER = 10, UNSIGNED = 11, LONG = 12,
+                      STRING = 13, ESCAPE = 14, STRING_END = 15,
+                      SLASH_OP = 16, LINE_COMMENT = 17, BLOCK_COMMENT = 18,
+                      BLOCK_STAR = 19, BLOCK_END = 20, ASSIGN = 21,
+                      EQUAL = 22, NOT = 23, NOT_EQUAL = 24, LESS_OP = 25,
+                      LESS_EQUAL = 26, GREATER_OP = 27, GREATER_EQUAL = 28,
+                      AMPERSAND_OP = 29, AND = 30, PIPE_OP = 31, OR = 32,
+                      SINGLE = 33;
+    /** The amount of states; one for each single character token follows SINGLE. */
+    static final int STATE_COUNT = SINGLE + 11;
+    
+    /** The accept value of a state which accepts no token. */
+    static final byte NONE = -1;
+    /** The accept value of a comment, which is skipped rather than returned. */
+    static final byte COMMENT = -2;
+    
+    /** The character class of each byte, indexed by the byte as unsigned. */
+    static final byte[] CLASSES = new byte[256];
+    /** The next state, indexed by {@code state * CLASS_COUNT + class}. */
+    static final byte[] TRANSITIONS = new byte[STATE_COUNT * CLASS_COUNT];
+    /** The type index each state accepts, or {@code NONE} or {@code COMMENT}. */
+    static final byte[] ACCEPT = new byte[STATE_COUNT];
+    
+    static {
+        generate();
+    }
+    
+    /** No instances, the tables are shared. */
+    private ScannerTable() {}
+    
+    /** Fills the class, transition and accept tables from the rules. */
+    private static void generate() {
+        Arrays.fill(ACCEPT, NONE);
+        
+        // character classes; every other byte, including all of the non ascii
+        // ones, may only appear in strings and comments.
+        classify(SPACE, " \t\r");
+        classify(NEWLINE, "\n");
+        classify(ZERO, "0");
+        classify(ONE, "1");
+        classify(DIGIT, "23456789");
+        classify(LETTER, "ghijkmnopqrstvwyzGHIJKMNOPQRSTVWYZ_");
+        classify(HEX, "acdefACDEF");
+        classify(X, "xX");
+        classify(B, "bB");
+        classify(U, "uU");
+        classify(L, "lL");
+        classify(DOT, ".");
+        classify(QUOTE, "\"");
+        classify(BACKSLASH, "\\");
+        classify(SLASH, "/");
+        classify(STAR, "*");
+        classify(EQUALS, "=");
+        classify(BANG, "!");
+        classify(LESS, "<");
+        classify(GREATER, ">");
+        classify(AMPERSAND, "&");
+        classify(PIPE, "|");
+        classify(PLUS, "+");
+        classify(MINUS, "-");
+        classify(PERCENT, "%");
+        classify(LEFT_PAREN, "(");
+        classify(RIGHT_PAREN, ")");
+        classify(LEFT_BRACE, "{");
+        classify(RIGHT_BRACE, "}");
+        classify(COMMA, ",");
+        classify(SEMICOLON, ";");
+        classify(COLON, ":");
+        
+        // identifiers; keywords are told apart afterwards by the recognizer.
+        byte[] letters = { LETTER, HEX, X, B, U, L };
+        byte[] digits = { ZERO, ONE, DIGIT };
+        on(START, IDENTIFIER, letters);
+        on(IDENTIFIER, IDENTIFIER, letters);
+        on(IDENTIFIER, IDENTIFIER, digits);
+        accept(IDENTIFIER, Type.identifier);
+        
+        // decimal numbers, with an optional fraction.
+        on(START, ZERO_NUMBER, ZERO);
+        on(START, DECIMAL, ONE, DIGIT);
+        on(ZERO_NUMBER, DECIMAL, digits);
+        on(DECIMAL, DECIMAL, digits);
+        on(ZERO_NUMBER, FRACTION_START, DOT);
+        on(DECIMAL, FRACTION_START, DOT);
+        on(FRACTION_START, FRACTION, digits);
+        on(FRACTION, FRACTION, digits);
+        accept(ZERO_NUMBER, Type.number);
+        accept(DECIMAL, Type.number);
+        accept(FRACTION, Type.number);
+        
+        // hexadecimal and binary numbers.
+        on(ZERO_NUMBER, HEX_START, X);
+        on(HEX_START, HEX_NUMBER, ZERO, ONE, DIGIT, HEX, B);
+        on(HEX_NUMBER, HEX_NUMBER, ZERO, ONE, DIGIT, HEX, B);
+        on(ZERO_NUMBER, BINARY_START, B);
+        on(BINARY_START, BINARY_NUMBER, ZERO, ONE);
+        on(BINARY_NUMBER, BINARY_NUMBER, ZERO, ONE);
+        accept(HEX_NUMBER, Type.number);
+        accept(BINARY_NUMBER, Type.number);
+        
+        // integer suffixes; u, L or uL.
+        for (byte integer : new byte[] { ZERO_NUMBER, DECIMAL, HEX_NUMBER, BINARY_NUMBER }) {
+            on(integer, UNSIGNED, U);
+            on(integer, LONG, L);
+        }
+        
+        on(UNSIGNED, LONG, L);
+        accept(UNSIGNED, Type.number);
+        accept(LONG, Type.number);
+        
+        // strings, which may not run over a line.
+        on(START, STRING, QUOTE);
+        otherwise(STRING, STRING, QUOTE, BACKSLASH, NEWLINE);
+        on(STRING, ESCAPE, BACKSLASH);
+        otherwise(ESCAPE, STRING, NEWLINE);
+        on(STRING, STRING_END, QUOTE);
+        accept(STRING_END, Type.string);
+        
+        // the slash and both kinds of comment.
+        on(START, SLASH_OP, SLASH);
+        accept(SLASH_OP, Type.slash);
+        on(SLASH_OP, LINE_COMMENT, SLASH);
+        otherwise(LINE_COMMENT, LINE_COMMENT, NEWLINE);
+        ACCEPT[LINE_COMMENT] = COMMENT;
+        on(SLASH_OP, BLOCK_COMMENT, STAR);
+        otherwise(BLOCK_COMMENT, BLOCK_COMMENT, STAR);
+        on(BLOCK_COMMENT, BLOCK_STAR, STAR);
+        otherwise(BLOCK_STAR, BLOCK_COMMENT, STAR, SLASH);
+        on(BLOCK_STAR, BLOCK_STAR, STAR);
+        on(BLOCK_STAR, BLOCK_END, SLASH);
+        ACCEPT[BLOCK_END] = COMMENT;
+        
+        // operators of one or two characters.
+        twoCharacter(EQUALS, ASSIGN, Type.assign, EQUALS, EQUAL, Type.equal);
+        twoCharacter(BANG, NOT, Type.not, EQUALS, NOT_EQUAL, Type.notEqual);
+        twoCharacter(LESS, LESS_OP, Type.less, EQUALS, LESS_EQUAL, Type.lessEqual);
+        twoCharacter(GREATER, GREATER_OP, Type.greater, EQUALS, GREATER_EQUAL, Type.greaterEqual);
+        twoCharacter(AMPERSAND, AMPERSAND_OP, null, AMPERSAND, AND, Type.and);
+        twoCharacter(PIPE, PIPE_OP, null, PIPE, OR, Type.or);
+        
+        // tokens of a single character.
+        byte state = SINGLE;
+        single(state++, STAR, Type.star);
+        single(state++, PLUS, Type.plus);
+        single(state++, MINUS, Type.minus);
+        single(state++, PERCENT, Type.percent);
+        single(state++, LEFT_PAREN, Type.leftParen);
+        single(state++, RIGHT_PAREN, Type.rightParen);
+        single(state++, LEFT_BRACE, Type.leftBrace);
+        single(state++, RIGHT_BRACE, Type.rightBrace);
+        single(state++, COMMA, Type.comma);
+        single(state++, SEMICOLON, Type.semicolon);
+        single(state, COLON, Type.colon);
+    }
+    
+    /**
+     * @param type The class to give the characters.
+     * @param characters The characters of the class.
+     */
+    private static void classify(byte type, String characters) {
+        for (int i = 0; i < characters.length(); i++)
+            CLASSES[characters.charAt(i)] = type;
+    }
+    
+    /**
+     * @param from The state to move from.
+     * @param to The state to move to.
+     * @param classes The classes which make the move.
+     */
+    private static void on(byte from, byte to, byte... classes) {
+        for (byte type : classes)
+            TRANSITIONS[from * CLASS_COUNT + type] = to;
+    }
+    
+    /**
+     * @param from The state to move from.
+     * @param to The state to move to.
+     * @param except The classes which do not make the move.
+     */
+    private static void otherwise(byte from, byte to, byte... except) {
+        next:
+        for (byte type = 0; type < CLASS_COUNT; type++) {
+            for (byte excluded : except)
+                if (type == excluded)
+                    continue next;
+            
+            TRANSITIONS[from * CLASS_COUNT + type] = to;
+        }
+    }
+    
+    /**
+     * @param state The state which accepts.
+     * @param type The type of the token it accepts.
+     */
+    private static void accept(byte state, Type type) {
+        ACCEPT[state] = (byte)type.index;
+    }
+    
+    /**
+     * Adds an operator which is either one character or that character
+     * followed by a second.
+     * 
+     * @param first The class of the first character.
+     * @param firstState The state after the first character.
+     * @param firstType The type of the operator of one character, or
+     *      {@code null} if there is no such operator.
+     * @param second The class of the second character.
+     * @param secondState The state after the second character.
+     * @param secondType The type of the operator of two characters.
+     */
+    private static void twoCharacter(byte first, byte firstState, Type firstType,
+                                     byte second, byte secondState, Type secondType) {
+        on(START, firstState, first);
+        on(firstState, secondState, second);
+        accept(secondState, secondType);
+        
+        if (firstType != null)
+            accept(firstState, firstType);
+    }
+    
+    /**
+     * @param state The state of the token.
+     * @param character The class of its character.
+     * @param type The type of the token.
+     */
+    private static void single(byte state, byte character, Type type) {
+        on(START, state, character);
+        accept(state, type);
+    }
+}
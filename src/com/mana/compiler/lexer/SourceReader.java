@@ -23,10 +23,15 @@
  */
 package com.mana.compiler.lexer;
 
+import com.mana.compiler.grammar.SourceTable;
+import com.mana.compiler.grammar.Token.Type;
+import com.mana.compiler.util.structures.SymbolInterner;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 
 /**
@@ -43,126 +48,526 @@ import java.nio.channels.FileChannel;
  * much as possible.
  * </p>
  * 
+ * <p>
+ * The source is never pulled through the stream one byte at a time. Files of
+ * at least {@code MAPPING_THRESHOLD} bytes are memory mapped from the channel
+ * so the operating system pages them in for us without copying them onto the
+ * heap; smaller files, and anything the channel cannot tell us the size of
+ * (such as pipes), are read in bulk through {@code FileChannel.read}.
+ * </p>
+ * 
+ * <p>
+ * Lexemes are never copied out of the source. The reader registers its source
+ * with the {@code SourceTable} and each call to {@code next()} only records
+ * where the lexeme it found starts and how long it is.
+ * </p>
+ * 
+ * <p>
+ * Lexemes are found by running the automaton of the {@code ScannerTable} over
+ * the source; a table lookup for the class of each byte and another for the
+ * next state, which finds the end of the lexeme and its type in one pass.
+ * </p>
+ * 
+ * <p>
+ * Most of a source is spaces, identifiers and comments, so those are not left
+ * to the automaton. They are skipped eight bytes at a time, with the tests of
+ * {@code WordMasks} run over a {@code long} read from the source. The last few
+ * bytes of a source are tested one at a time.
+ * </p>
+ * 
+ * <p>
+ * Identifiers are interned into the shared {@code SymbolInterner} as they are
+ * found, straight from the bytes of the source.
+ * </p>
+ * 
  * @author Mana Technologies
  * @version alpha 0.0.0.1
  */
 public class SourceReader implements AutoCloseable {
     /**
-     * The buffer size of our reader; equal to half of one integer in size or
-     * 32KB - 1b to make it so it fits into a short for data conservation.
+     * The size at which a file is mapped instead of read in bulk; 64KB. Below
+     * this the cost of setting up the mapping outweighs the copy it saves.
      */
-    private static final short BUFFER_SIZE = 0x7fff;
+    private static final int MAPPING_THRESHOLD = 0x10000;
+    /** The size of the first bulk read when the file size is unknown; 4KB. */
+    private static final int DRAIN_SIZE = 0x1000;
+    /** The token types, indexed by their ordinals. */
+    private static final Type[] TYPES = Type.values();
     /** Tells if this reader has reached the end of the file. */
     boolean eof;
     /** Tells if this reader has reached the end of a line. */
     boolean eol;
     /** The current line in the file. */
     int line = 0;
-    /** The current column in the line. */
-    int column = -1;
+    /** The offset of the first byte of the current line. */
+    int lineStart;
+    /** The offset of the lexeme found by the last call to {@code next()}. */
+    int offset;
+    /** The amount of bytes in the lexeme found by the last call to {@code next()}. */
+    int length;
+    /** The interned id of the last lexeme if it was an identifier, or -1. */
+    int symbol = -1;
+    /** The line the lexeme found by the last call to {@code next()} is on. */
+    int lexemeLine;
+    /** The column the lexeme found by the last call to {@code next()} starts at. */
+    int lexemeColumn;
+    /** The id the source was registered under in the {@code SourceTable}. */
+    final short file;
     /** Our input stream to read from. */
     private final FileInputStream fisin;
     /** The channel used to maneuver around the file. */
     private final FileChannel channel;
-    /** Our buffered array for our input. */
-    private final byte[] buffer = new byte[BUFFER_SIZE];
-    /** The amount of bytes we have read. */
-    private short bytesRead;
-    /** A pointer to the byte we will be reading. */
-    private short pointer;
+    /** The entire source, either mapped from the channel or read in bulk. */
+    private final ByteBuffer source;
     
     /**
      * @param source The source file we will be reading.
-     * @throws java.io.FileNotFoundException
+     * @throws java.io.FileNotFoundException if the file cannot be opened.
+     * @throws IOException if the file cannot be mapped or read.
      */
-    public SourceReader(File source) throws FileNotFoundException {
+    public SourceReader(File source) throws FileNotFoundException, IOException {
         fisin = new FileInputStream(source);
         channel = fisin.getChannel();
+        
+        try {
+            this.source = load(channel);
+        } catch (IOException ioe) {
+            fisin.close();
+            throw ioe;
+        }
+        
+        // words are read little endian so their first byte is their lowest.
+        this.source.order(ByteOrder.LITTLE_ENDIAN);
+        file = SourceTable.register(source.getPath(), this.source);
+    }
+    
+    /**
+     * Makes a reader over the same source as another, starting from the given
+     * offset, so that pieces of one source can be lexed at once. Lines are
+     * counted from the line the offset is on.
+     * 
+     * @param whole The reader which loaded the source.
+     * @param from The offset to start reading at.
+     */
+    SourceReader(SourceReader whole, int from) {
+        this(whole.file, whole.source, from);
+    }
+    
+    /**
+     * Makes a reader over a source which is already registered, starting from
+     * the given offset. Lines are counted from the line the offset is on.
+     * 
+     * @param file The id the source was registered under.
+     * @param source The whole source.
+     * @param from The offset to start reading at.
+     */
+    SourceReader(short file, ByteBuffer source, int from) {
+        fisin = null;
+        channel = null;
+        this.source = source.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.source.position(from);
+        this.file = file;
+        
+        // columns are still counted from the real start of the line.
+        lineStart = from;
+        
+        while (lineStart > 0 && this.source.get(lineStart - 1) != '\n')
+            lineStart--;
+    }
+    
+    /**
+     * Maps the channel into memory if it is large enough to be worth it,
+     * otherwise drains it into a heap buffer.
+     * 
+     * @param channel The channel to load.
+     * @throws IOException if the channel cannot be mapped or read.
+     * @return A buffer holding the whole source, positioned at its start.
+     */
+    public static ByteBuffer load(FileChannel channel) throws IOException {
+        long size = channel.size();
+        
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("Source of " + size + " bytes is too large to be read.");
+        
+        if (size >= MAPPING_THRESHOLD)
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        
+        return drain(channel, (int)size);
+    }
+    
+    /**
+     * Reads the channel in bulk until it reports the end of its input. The
+     * size is only a hint, pipes report none and files may grow as we read.
+     * 
+     * @param channel The channel to drain.
+     * @param size The expected size of the input.
+     * @throws IOException if {@code FileChannel.read} throws IOException.
+     * @return A buffer holding everything read, positioned at its start.
+     */
+    static ByteBuffer drain(FileChannel channel, int size) throws IOException {
+        // one extra byte so a file of the expected size ends on a read of -1
+        // instead of a needless grow.
+        ByteBuffer result = ByteBuffer.allocate(size > 0 ? size + 1 : DRAIN_SIZE);
+        
+        while (channel.read(result) != -1) {
+            if (result.hasRemaining())
+                continue;
+            
+            ByteBuffer grown = ByteBuffer.allocate(result.capacity() << 1);
+            result.flip();
+            grown.put(result);
+            result = grown;
+        }
+        
+        result.flip();
+        return result;
     }
 
     /**
-     * Converts the {@code FileInputStream.read()} to a byte to be put into the
-     * buffer.
+     * Takes the next byte of the source, moving the line and column along
+     * with it.
+     * 
+     * @return The next byte of the source from 0 to 255, or -1 when there are
+     *      none left, so a byte of 0xFF is not taken for the end.
+     */
+    int read() {
+        if (!source.hasRemaining())
+            return -1;
+        
+        int input = source.get() & 0xff;
+        
+        if (input == '\n') {
+            eol = true;
+            line++;
+            lineStart = source.position();
+        }
+        
+        return input;
+    }
+    
+    /**
+     * Looks at the next byte of the source without taking it.
      * 
-     * @throws IOException if {@code FileInputStream.read()} throws IOException.
-     * @return The byte value of the {@code FileInputStream.read()}.
+     * @return The next byte of the source from 0 to 255, or -1 when there are
+     *      none left.
      */
-    byte read() throws IOException {
-        bytesRead++;
-        column++;
-        return (byte)fisin.read();
+    int peek() {
+        return source.hasRemaining() ? source.get(source.position()) & 0xff : -1;
     }
     
     /**
-     * Reads an entire piece of input into the buffer based on the type of input.
+     * Finds the next lexeme of the source, skipping over spaces and comments.
+     * Its position is left in {@code offset} and {@code length}, and where it
+     * was found in {@code lexemeLine} and {@code lexemeColumn}.
      * 
-     * @throws IOException
-     * @return The string form of the input being read.
+     * <p>
+     * Identifiers, strings and comments are found a word at a time. Anything
+     * else is found by running the automaton for as long as it can go and
+     * taking the longest lexeme it accepted. If it accepted none, the first
+     * byte is taken on its own as a {@code Type.symbol}.
+     * </p>
+     * 
+     * @throws IOException if the source cannot be read.
+     * @return The type of the lexeme found, {@code Type.eof} if there is none.
      */
-    public String next() throws IOException {
-        byte input;
+    public Type next() throws IOException {
+        final byte[] classes = ScannerTable.CLASSES;
+        final byte[] transitions = ScannerTable.TRANSITIONS;
+        final byte[] accepts = ScannerTable.ACCEPT;
+        final int limit = source.limit();
         
         // make sure to set this to false if it happened to be true last read
         // cycle.
         eol = false;
+        symbol = -1;
         
         while (true) {
-            // add the next peice of input into our buffer.
-            input = buffer[pointer++] = read();
+            // skip anything between the last lexeme and this one.
+            offset = skipSpaces(source.position());
+            source.position(offset);
+            lexemeLine = line;
+            lexemeColumn = offset - lineStart;
             
-            if (Character.isLetter(input)) {
-                while (Character.isLetterOrDigit(input)) {
-                    input = buffer[pointer++] = read();
-                }
-            } else if (Character.isDigit(input)) {
-                while (Character.isDigit(input)) {
-                    input = buffer[pointer++] = read();
-                    
-                    switch (input) {
-                        case 'x':
-                        case 'X':
-                        case 'b':
-                        case 'B':
-                        case 'u':
-                        case 'U':
-                        case 'L':
-                        case '.':
-                            continue;
-                        default:
-                            break;
-                    }
-                    
-                    // If we didn't get an expected character.
-                    break;
+            if (offset == limit) {
+                eof = true;
+                length = 0;
+                return Type.eof;
+            }
+            
+            byte first = source.get(offset);
+            byte type = classes[first & 0xff];
+            
+            if (type >= ScannerTable.LETTER && type <= ScannerTable.L) {
+                int end = identifierEnd(offset + 1);
+                source.position(end);
+                length = end - offset;
+                
+                int keyword = Lexer.KEYWORDTABLE.find(source, offset, length);
+                
+                if (keyword >= 0)
+                    return TYPES[keyword];
+                
+                symbol = SymbolInterner.SHARED.intern(source, offset, length);
+                return Type.identifier;
+            }
+            
+            if (first == '/' && offset + 1 < limit) {
+                byte second = source.get(offset + 1);
+                int end = second == '/' ? find('\n', offset + 2)
+                        : second == '*' ? commentEnd(offset + 2)
+                        : -1;
+                
+                if (end >= 0) {
+                    // comments are the only lexemes which may cross lines.
+                    countLines(offset, end);
+                    source.position(end);
+                    continue;
                 }
-            } else {
-                while (!Character.isLetterOrDigit(input) && !space(input)) {
-                    input = buffer[pointer++] = read();
+            }
+            
+            if (first == '"') {
+                int end = stringEnd(offset + 1);
+                
+                if (end >= 0) {
+                    source.position(end);
+                    length = end - offset;
+                    return Type.string;
                 }
             }
             
-            if (space(input) || input == -1) {
-                // remove that character from the buffer.
-                buffer[pointer--] = 0;
+            int state = ScannerTable.START;
+            int accepted = ScannerTable.NONE;
+            int end = offset + 1;
+            
+            for (int i = offset; i < limit; ) {
+                state = transitions[state * ScannerTable.CLASS_COUNT + classes[source.get(i++) & 0xff]];
                 
-                if (input == -1) eof = true;
+                if (state == ScannerTable.DEAD)
+                    break;
                 
-                // We finished finding what we were going to, time to finish up
-                // and return what we found.
-                break;
+                if (accepts[state] != ScannerTable.NONE) {
+                    accepted = accepts[state];
+                    end = i;
+                }
+            }
+            
+            source.position(end);
+            length = end - offset;
+            
+            // the fast paths above have already taken every comment, string
+            // and identifier the automaton would accept.
+            return accepted == ScannerTable.NONE ? Type.symbol : TYPES[accepted];
+        }
+    }
+    
+    /**
+     * Skips spaces, keeping track of the lines passed over.
+     * 
+     * @param from The offset to start at.
+     * @return The offset of the first byte which is not a space.
+     */
+    int skipSpaces(int from) {
+        final int limit = source.limit();
+        int i = from;
+        
+        for (; i + 8 <= limit; i += 8) {
+            long word = source.getLong(i);
+            long spaces = WordMasks.space(word);
+            long others = ~spaces & WordMasks.HIGHS;
+            int count = WordMasks.first(others);
+            long newlines = WordMasks.equal(word, '\n') & WordMasks.before(count);
+            
+            if (newlines != 0) {
+                eol = true;
+                line += Long.bitCount(newlines);
+                lineStart = i + WordMasks.last(newlines) + 1;
+            }
+            
+            if (others != 0)
+                return i + count;
+        }
+        
+        for (; i < limit && space(source.get(i)); i++) {
+            if (source.get(i) == '\n') {
+                eol = true;
+                line++;
+                lineStart = i + 1;
             }
         }
         
-        // clear any un-overwritten bytes in the buffer.
-        for (int i = pointer; i < buffer.length; i++)
-            // if the buffer is already 0, don't change, otherwise set to 0.
-            buffer[i] = (byte)((buffer[i] == 0) ? 0 : 0);
+        return i;
+    }
+    
+    /**
+     * @param from The offset of a byte which may continue an identifier.
+     * @return The offset of the first byte which cannot.
+     */
+    int identifierEnd(int from) {
+        final int limit = source.limit();
+        int i = from;
+        
+        for (; i + 8 <= limit; i += 8) {
+            long others = ~WordMasks.identifier(source.getLong(i)) & WordMasks.HIGHS;
+            
+            if (others != 0)
+                return i + WordMasks.first(others);
+        }
+        
+        while (i < limit && identifier(source.get(i)))
+            i++;
+        
+        return i;
+    }
+    
+    /**
+     * @param value The byte to look for.
+     * @param from The offset to start looking at.
+     * @return The offset of the first byte equal to {@code value}, or the end
+     *      of the source if there is none.
+     */
+    int find(int value, int from) {
+        final int limit = source.limit();
+        int i = from;
+        
+        for (; i + 8 <= limit; i += 8) {
+            long found = WordMasks.equal(source.getLong(i), value);
+            
+            if (found != 0)
+                return i + WordMasks.first(found);
+        }
         
-        // set pointer back to 0 and bytesRead back to 0.
-        pointer = bytesRead = 0;
+        while (i < limit && source.get(i) != value)
+            i++;
         
-        // return the result.
-        return new String(buffer);
+        return i;
+    }
+    
+    /**
+     * @param from The offset just after the opening of a block comment.
+     * @return The offset just after its closing, or -1 if it is never closed.
+     */
+    int commentEnd(int from) {
+        final int limit = source.limit();
+        
+        for (int star = find('*', from); star + 1 < limit; star = find('*', star + 1))
+            if (source.get(star + 1) == '/')
+                return star + 2;
+        
+        return -1;
+    }
+    
+    /**
+     * @param from The offset just after the opening quote of a string.
+     * @return The offset just after its closing quote, or -1 if the line or
+     *      source ends before it is closed.
+     */
+    int stringEnd(int from) {
+        final int limit = source.limit();
+        int i = from;
+        
+        while (i < limit) {
+            int stop = i;
+            
+            // find the first quote, backslash or newline.
+            for (; stop + 8 <= limit; stop += 8) {
+                long word = source.getLong(stop);
+                long found = WordMasks.equal(word, '"') | WordMasks.equal(word, '\\') | WordMasks.equal(word, '\n');
+                
+                if (found != 0) {
+                    stop += WordMasks.first(found);
+                    break;
+                }
+            }
+            
+            while (stop < limit && source.get(stop) != '"' && source.get(stop) != '\\' && source.get(stop) != '\n')
+                stop++;
+            
+            if (stop == limit || source.get(stop) == '\n')
+                return -1;
+            
+            if (source.get(stop) == '"')
+                return stop + 1;
+            
+            // an escape takes whatever byte follows it, except a newline.
+            if (stop + 1 == limit || source.get(stop + 1) == '\n')
+                return -1;
+            
+            i = stop + 2;
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * Moves the line along past every newline between two offsets.
+     * 
+     * @param from The first offset to count from.
+     * @param to The offset to count up to.
+     */
+    void countLines(int from, int to) {
+        int i = from;
+        
+        for (; i + 8 <= to; i += 8) {
+            long newlines = WordMasks.equal(source.getLong(i), '\n');
+            
+            if (newlines != 0) {
+                eol = true;
+                line += Long.bitCount(newlines);
+                lineStart = i + WordMasks.last(newlines) + 1;
+            }
+        }
+        
+        for (; i < to; i++) {
+            if (source.get(i) == '\n') {
+                eol = true;
+                line++;
+                lineStart = i + 1;
+            }
+        }
+    }
+    
+    /**
+     * Counts the newlines between two offsets without moving this reader.
+     * 
+     * @param from The first offset to count from.
+     * @param to The offset to count up to.
+     * @return The amount of newlines.
+     */
+    int lines(int from, int to) {
+        int result = 0;
+        int i = from;
+        
+        for (; i + 8 <= to; i += 8)
+            result += Long.bitCount(WordMasks.equal(source.getLong(i), '\n'));
+        
+        for (; i < to; i++)
+            if (source.get(i) == '\n')
+                result++;
+        
+        return result;
+    }
+    
+    /**
+     * @return The offset the reader is at.
+     */
+    int position() {
+        return source.position();
+    }
+    
+    /**
+     * @return The amount of bytes in the source.
+     */
+    int size() {
+        return source.limit();
+    }
+    
+    /**
+     * @param input The input to check.
+     * @return {@code true} if the byte may continue an identifier.
+     */
+    static boolean identifier(byte input) {
+        return (input >= 'a' && input <= 'z') || (input >= 'A' && input <= 'Z')
+            || (input >= '0' && input <= '9') || input == '_';
     }
     
     /**
@@ -177,11 +582,11 @@ public class SourceReader implements AutoCloseable {
             case ' ':
             case '\t':
             case '\n':
-                eol = true;
-                line++;
-                column = 0;
             case '\r':
                 isSpace = true;
+                break;
+            default:
+                break;
         }
         
         return isSpace;
@@ -194,7 +599,11 @@ public class SourceReader implements AutoCloseable {
      * @throws IOException if the position is invalid.
      */
     void seek(int position) throws IOException {
-        channel.position(channel.position() + position);
+        try {
+            source.position(source.position() + position);
+        } catch (IllegalArgumentException iae) {
+            throw new IOException("Cannot seek " + position + " from " + source.position() + ".", iae);
+        }
     }
     
     /**
@@ -208,6 +617,10 @@ public class SourceReader implements AutoCloseable {
      */
     @Override
     public void close() throws Exception {
+        // readers over a piece of a source share the stream of the whole.
+        if (fisin == null)
+            return;
+        
         try {
             fisin.close();
         } catch (IOException ioe) {
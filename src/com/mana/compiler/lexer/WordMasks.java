@@ -0,0 +1,128 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.lexer;
+
+/**
+ * Tests eight bytes of source at once, packed into a {@code long}, so that the
+ * {@code SourceReader} can skip over long runs of similar bytes a word at a
+ * time rather than a byte at a time.
+ * 
+ * <p>
+ * Every test returns a mask holding the high bit of each byte which passed
+ * it and nothing else. The words are read little endian, so the first byte of
+ * the source is the lowest byte of the word, and
+ * {@code Long.numberOfTrailingZeros(mask) >>> 3} is the index of the first
+ * byte which passed. The tests are exact; no byte is ever reported because
+ * of a carry out of the byte next to it.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+final class WordMasks {
+    /** The lowest bit of each byte. */
+    static final long ONES = 0x0101010101010101L;
+    /** The highest bit of each byte. */
+    static final long HIGHS = 0x8080808080808080L;
+    /** The lower seven bits of each byte. */
+    static final long LOWS = 0x7f7f7f7f7f7f7f7fL;
+    
+    /** No instances. */
+    private WordMasks() {}
+    
+    /**
+     * @param word The bytes to test.
+     * @param value The byte to look for.
+     * @return The mask of the bytes equal to {@code value}.
+     */
+    static long equal(long word, int value) {
+        long x = word ^ (ONES * (value & 0xff));
+        
+        // a byte of x is zero only if adding 0x7f to its low bits does not
+        // reach its high bit and its high bit was not already set.
+        return ~(((x & LOWS) + LOWS) | x | LOWS);
+    }
+    
+    /**
+     * @param word The bytes to test.
+     * @param low The smallest byte in the range; at most 0x80.
+     * @return The mask of the ascii bytes not less than {@code low}.
+     */
+    static long atLeast(long word, int low) {
+        // setting the high bit first stops a byte from borrowing from the
+        // byte above it, and the high bit survives only if the byte was big
+        // enough. Bytes which already had their high bit set are dropped.
+        return ((word | HIGHS) - ONES * low) & ~word & HIGHS;
+    }
+    
+    /**
+     * @param word The bytes to test.
+     * @param low The smallest byte in the range.
+     * @param high The largest byte in the range; less than 0x7f.
+     * @return The mask of the bytes from {@code low} to {@code high}.
+     */
+    static long range(long word, int low, int high) {
+        return atLeast(word, low) & ~atLeast(word, high + 1);
+    }
+    
+    /**
+     * @param word The bytes to test.
+     * @return The mask of the spaces, tabs, carriage returns and newlines.
+     */
+    static long space(long word) {
+        return equal(word, ' ') | equal(word, '\t') | equal(word, '\r') | equal(word, '\n');
+    }
+    
+    /**
+     * @param word The bytes to test.
+     * @return The mask of the bytes which may appear in an identifier.
+     */
+    static long identifier(long word) {
+        return range(word, 'a', 'z') | range(word, 'A', 'Z') | range(word, '0', '9') | equal(word, '_');
+    }
+    
+    /**
+     * @param mask A mask returned by one of the tests.
+     * @return The index of the first byte which passed, or 8 if none did.
+     */
+    static int first(long mask) {
+        return Long.numberOfTrailingZeros(mask) >>> 3;
+    }
+    
+    /**
+     * @param mask A mask returned by one of the tests.
+     * @return The index of the last byte which passed; the mask must not be 0.
+     */
+    static int last(long mask) {
+        return (63 - Long.numberOfLeadingZeros(mask)) >>> 3;
+    }
+    
+    /**
+     * @param count The amount of low bytes to keep.
+     * @return A mask of the high bits of the first {@code count} bytes.
+     */
+    static long before(int count) {
+        return count >= 8 ? HIGHS : HIGHS & ((1L << (count << 3)) - 1);
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.optimizer;
+
+import com.mana.compiler.generator.Quadruples;
+import com.mana.compiler.generator.Quadruples.Op;
+import com.mana.compiler.util.structures.BitSets;
+
+/**
+ * Replaces each read of a variable which can only hold one constant by the
+ * constant, and each operation whose operands are known by its value.
+ * 
+ * <p>
+ * Which constant a variable holds comes from the definitions reaching the
+ * read: if every one of them copies the same constant into it, the read is
+ * that constant. An operation of constants is folded into a copy of its
+ * value, as is one whose value is plain from one operand, such as
+ * {@code x * 1} or {@code x && false}. A conditional jump on a constant
+ * becomes a jump, or is removed if it is never taken. Numbers are 32 bit
+ * integers which wrap, and booleans are 1 and 0; a division by zero is
+ * left for the program to fail on.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+final class ConstantPropagation implements Pass {
+    @Override
+    public int run(Quadruples code) {
+        FlowGraph graph = new FlowGraph(code);
+        ReachingDefinitions reaching = new ReachingDefinitions(graph);
+        long[] current = new long[reaching.words];
+        long[] removed = BitSets.create(1, code.size());
+        int changes = 0;
+        boolean changed = true;
+        
+        // folding makes constants of definitions the analysis already
+        // found, so the walk is only repeated, never the analysis.
+        while (changed) {
+            changed = false;
+            
+            for (int block = 0; block < graph.blocks; block++) {
+                BitSets.copy(reaching.in, block * reaching.words, current, 0, reaching.words);
+                
+                for (int i = graph.starts[block]; i < graph.starts[block + 1]; i++) {
+                    if (!BitSets.get(removed, 0, i) && (propagate(graph, reaching, current, i) | fold(code, i, removed))) {
+                        changed = true;
+                        changes++;
+                    }
+                    
+                    reaching.step(current, i);
+                }
+            }
+        }
+        
+        code.remove(removed);
+        
+        return changes;
+    }
+    
+    /**
+     * Replaces the reads of an instruction of variables holding constants.
+     * 
+     * @param graph The graph of the code.
+     * @param reaching The definitions of the code.
+     * @param current The definitions reaching the instruction.
+     * @param index The index of the instruction.
+     * @return {@code true} if the instruction changed.
+     */
+    private static boolean propagate(FlowGraph graph, ReachingDefinitions reaching, long[] current, int index) {
+        Quadruples code = graph.code;
+        int first = code.first(index);
+        int second = code.second(index);
+        int variable = graph.variable(graph.read(index, 0));
+        int constant = variable < 0 ? Quadruples.NONE : reaching.constant(current, variable);
+        
+        if (constant != Quadruples.NONE)
+            first = constant;
+        
+        variable = graph.variable(graph.read(index, 1));
+        constant = variable < 0 ? Quadruples.NONE : reaching.constant(current, variable);
+        
+        if (constant != Quadruples.NONE)
+            second = constant;
+        
+        if (first == code.first(index) && second == code.second(index))
+            return false;
+        
+        code.set(index, code.op(index), first, second, code.result(index));
+        
+        return true;
+    }
+    
+    /**
+     * Folds an instruction whose value is known into a copy of it.
+     * 
+     * @param code The code.
+     * @param index The index of the instruction.
+     * @param removed The instructions to remove, with the instruction added
+     *      if it is a jump which is never taken.
+     * @return {@code true} if the instruction changed.
+     */
+    private static boolean fold(Quadruples code, int index, long[] removed) {
+        Op op = code.op(index);
+        int a = code.first(index);
+        int b = code.second(index);
+        int value;
+        
+        switch (op) {
+            case negate:
+                if (!number(a))
+                    return false;
+                
+                return copy(code, index, -Quadruples.value(a));
+            case not:
+                if (!number(a))
+                    return false;
+                
+                return copy(code, index, Quadruples.value(a) == 0 ? 1 : 0);
+            case jumpIfFalse:
+                if (!number(a))
+                    return false;
+                
+                if (Quadruples.value(a) == 0)
+                    code.set(index, Op.jump, b, Quadruples.NONE, Quadruples.NONE);
+                else
+                    BitSets.set(removed, 0, index);
+                
+                return true;
+            case add:
+            case subtract:
+            case multiply:
+            case divide:
+            case remainder:
+            case equal:
+            case notEqual:
+            case less:
+            case lessEqual:
+            case greater:
+            case greaterEqual:
+            case and:
+            case or:
+                break;
+            default:
+                return false;
+        }
+        
+        if (number(a) && number(b)) {
+            int x = Quadruples.value(a);
+            int y = Quadruples.value(b);
+            
+            switch (op) {
+                case add: value = x + y; break;
+                case subtract: value = x - y; break;
+                case multiply: value = x * y; break;
+                case divide:
+                    if (y == 0)
+                        return false;
+                    
+                    value = x / y;
+                    break;
+                case remainder:
+                    if (y == 0)
+                        return false;
+                    
+                    value = x % y;
+                    break;
+                case equal: value = x == y ? 1 : 0; break;
+                case notEqual: value = x != y ? 1 : 0; break;
+                case less: value = x < y ? 1 : 0; break;
+                case lessEqual: value = x <= y ? 1 : 0; break;
+                case greater: value = x > y ? 1 : 0; break;
+                case greaterEqual: value = x >= y ? 1 : 0; break;
+                case and: value = x != 0 && y != 0 ? 1 : 0; break;
+                default: value = x != 0 || y != 0 ? 1 : 0; break;
+            }
+            
+            return copy(code, index, value);
+        }
+        
+        // the value is one operand, or known, whatever the other holds.
+        switch (op) {
+            case add:
+                return is(a, 0) ? move(code, index, b) : is(b, 0) && move(code, index, a);
+            case subtract:
+                return is(b, 0) ? move(code, index, a) : variable(a) && a == b && copy(code, index, 0);
+            case multiply:
+                if (is(a, 0) || is(b, 0))
+                    return copy(code, index, 0);
+                
+                return is(a, 1) ? move(code, index, b) : is(b, 1) && move(code, index, a);
+            case divide:
+                return is(b, 1) && move(code, index, a);
+            case and:
+                if (is(a, 0) || is(b, 0))
+                    return copy(code, index, 0);
+                
+                return is(a, 1) ? move(code, index, b) : is(b, 1) && move(code, index, a);
+            case or:
+                if (is(a, 1) || is(b, 1))
+                    return copy(code, index, 1);
+                
+                return is(a, 0) ? move(code, index, b) : is(b, 0) && move(code, index, a);
+            case equal:
+            case lessEqual:
+            case greaterEqual:
+                return variable(a) && a == b && copy(code, index, 1);
+            case notEqual:
+            case less:
+            case greater:
+                return variable(a) && a == b && copy(code, index, 0);
+            default:
+                return false;
+        }
+    }
+    
+    /**
+     * @param code The code.
+     * @param index The index of an instruction.
+     * @param value The value the instruction gives.
+     * @return {@code true}, once the instruction copies the value.
+     */
+    private static boolean copy(Quadruples code, int index, int value) {
+        int operand = value >= Quadruples.MIN_NUMBER && value <= Quadruples.MAX_NUMBER ? Quadruples.number(value)
+                : code.literal(Integer.toString(value));
+        
+        return move(code, index, operand);
+    }
+    
+    /**
+     * @param code The code.
+     * @param index The index of an instruction.
+     * @param operand The operand whose value the instruction gives.
+     * @return {@code true}, once the instruction copies the operand.
+     */
+    private static boolean move(Quadruples code, int index, int operand) {
+        code.set(index, Op.copy, operand, Quadruples.NONE, code.result(index));
+        
+        return true;
+    }
+    
+    /**
+     * @param operand An operand.
+     * @return {@code true} if the operand is a number held in it.
+     */
+    private static boolean number(int operand) {
+        return operand != Quadruples.NONE && Quadruples.tag(operand) == Quadruples.NUMBER;
+    }
+    
+    /**
+     * @param operand An operand.
+     * @param value A number.
+     * @return {@code true} if the operand is the number.
+     */
+    private static boolean is(int operand, int value) {
+        return number(operand) && Quadruples.value(operand) == value;
+    }
+    
+    /**
+     * @param operand An operand.
+     * @return {@code true} if the operand is a temporary or a name.
+     */
+    private static boolean variable(int operand) {
+        int tag = Quadruples.tag(operand);
+        
+        return tag == Quadruples.TEMPORARY || tag == Quadruples.NAME;
+    }
+    
+    /**
+     * @param operand An operand.
+     * @return {@code true} if the operand is a constant.
+     */
+    static boolean constant(int operand) {
+        return operand != Quadruples.NONE
+                && (Quadruples.tag(operand) == Quadruples.NUMBER || Quadruples.tag(operand) == Quadruples.LITERAL);
+    }
+    
+    /**
+     * @param code The code the constants are in.
+     * @param a A constant.
+     * @param b Another constant.
+     * @return {@code true} if both are the same constant.
+     */
+    static boolean same(Quadruples code, int a, int b) {
+        return a == b || Quadruples.tag(a) == Quadruples.LITERAL && Quadruples.tag(b) == Quadruples.LITERAL
+                && code.literal(a).equals(code.literal(b));
+    }
+}
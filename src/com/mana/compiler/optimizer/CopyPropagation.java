@@ -0,0 +1,240 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.optimizer;
+
+import com.mana.compiler.generator.Quadruples;
+import com.mana.compiler.generator.Quadruples.Op;
+import com.mana.compiler.util.structures.BitSets;
+
+/**
+ * Replaces each read of a variable copied from another by a read of the
+ * other, where the copy is sure to still hold.
+ * 
+ * <p>
+ * A copy {@code x = y} is available at an instruction if every path to it
+ * goes through the copy and writes neither {@code x} nor {@code y} after
+ * it; a call ends the copies of globals. The copies available at the
+ * beginning of each block are found as a row of bits per block, joined over
+ * the predecessors by intersection. Once the reads of {@code x} are gone the
+ * copy itself is dead, and {@code DeadCodeElimination} removes it.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+final class CopyPropagation implements Pass {
+    @Override
+    public int run(Quadruples code) {
+        FlowGraph graph = new FlowGraph(code);
+        int size = graph.size;
+        
+        // the copies between variables, and the variables they involve.
+        int[] copyOf = new int[size];
+        int count = 0;
+        
+        for (int i = 0; i < size; i++) {
+            copyOf[i] = -1;
+            
+            if (code.op(i) == Op.copy && graph.variable(code.first(i)) >= 0 && code.first(i) != code.result(i))
+                copyOf[i] = count++;
+        }
+        
+        if (count == 0)
+            return 0;
+        
+        int[] targets = new int[count];
+        int[] sources = new int[count];
+        int[] touchStarts = new int[graph.variables + 1];
+        int words = BitSets.words(count);
+        long[] globalCopies = new long[words];
+        
+        for (int i = 0; i < size; i++) {
+            int copy = copyOf[i];
+            
+            if (copy < 0)
+                continue;
+            
+            targets[copy] = graph.variable(code.result(i));
+            sources[copy] = graph.variable(code.first(i));
+            touchStarts[targets[copy] + 1]++;
+            touchStarts[sources[copy] + 1]++;
+            
+            if (graph.global(targets[copy]) || graph.global(sources[copy]))
+                BitSets.set(globalCopies, 0, copy);
+        }
+        
+        for (int variable = 0; variable < graph.variables; variable++)
+            touchStarts[variable + 1] += touchStarts[variable];
+        
+        int[] touches = new int[touchStarts[graph.variables]];
+        int[] placed = new int[graph.variables];
+        
+        for (int copy = 0; copy < count; copy++) {
+            touches[touchStarts[targets[copy]] + placed[targets[copy]]++] = copy;
+            touches[touchStarts[sources[copy]] + placed[sources[copy]]++] = copy;
+        }
+        
+        Copies copies = new Copies(graph, copyOf, touchStarts, touches, globalCopies, words);
+        
+        // the copies available at the beginning of each block: none at the
+        // first, and until known every copy elsewhere.
+        int blocks = graph.blocks;
+        long[] in = new long[blocks * words];
+        long[] out = new long[blocks * words];
+        long[] current = new long[words];
+        
+        for (int block = 1; block < blocks; block++)
+            BitSets.fill(in, block * words, words);
+        
+        boolean changed = true;
+        
+        while (changed) {
+            changed = false;
+            
+            for (int block = 0; block < blocks; block++) {
+                int base = block * words;
+                
+                if (block > 0 && graph.predecessorStarts[block] < graph.predecessorStarts[block + 1]) {
+                    BitSets.fill(in, base, words);
+                    
+                    for (int i = graph.predecessorStarts[block]; i < graph.predecessorStarts[block + 1]; i++)
+                        BitSets.intersect(in, base, out, graph.predecessors[i] * words, words);
+                }
+                
+                BitSets.copy(in, base, current, 0, words);
+                
+                for (int i = graph.starts[block]; i < graph.starts[block + 1]; i++)
+                    copies.step(current, i);
+                
+                if (!BitSets.equal(current, 0, out, base, words)) {
+                    BitSets.copy(current, 0, out, base, words);
+                    changed = true;
+                }
+            }
+        }
+        
+        int changes = 0;
+        
+        for (int block = 0; block < blocks; block++) {
+            BitSets.copy(in, block * words, current, 0, words);
+            
+            for (int i = graph.starts[block]; i < graph.starts[block + 1]; i++) {
+                int first = replace(graph, copies, targets, sources, current, graph.read(i, 0), code.first(i));
+                int second = replace(graph, copies, targets, sources, current, graph.read(i, 1), code.second(i));
+                
+                if (first != code.first(i) || second != code.second(i)) {
+                    code.set(i, code.op(i), first, second, code.result(i));
+                    changes++;
+                }
+                
+                copies.step(current, i);
+            }
+        }
+        
+        return changes;
+    }
+    
+    /**
+     * @param graph The graph of the code.
+     * @param copies The copies of the code.
+     * @param targets The variable each copy writes.
+     * @param sources The variable each copy reads, as it was before any read
+     *      was replaced.
+     * @param current The copies available at the read.
+     * @param read The operand read, or {@code NONE}.
+     * @param operand The operand in the slot read.
+     * @return The operand to read instead, or {@code operand}.
+     */
+    private static int replace(FlowGraph graph, Copies copies, int[] targets, int[] sources, long[] current,
+            int read, int operand) {
+        int variable = graph.variable(read);
+        
+        if (variable < 0)
+            return operand;
+        
+        for (int i = copies.touchStarts[variable]; i < copies.touchStarts[variable + 1]; i++) {
+            int copy = copies.touches[i];
+            
+            if (targets[copy] == variable && BitSets.get(current, 0, copy))
+                return graph.operand(sources[copy]);
+        }
+        
+        return operand;
+    }
+    
+    /**
+     * How each instruction changes which copies are available.
+     */
+    private static final class Copies {
+        /** The graph of the code. */
+        final FlowGraph graph;
+        /** The copy each instruction is, or -1. */
+        final int[] copyOf;
+        /** Where the copies of each variable begin in {@code touches}. */
+        final int[] touchStarts;
+        /** The copies which read or write each variable, one after another. */
+        final int[] touches;
+        /** The copies which read or write a global. */
+        final long[] globalCopies;
+        /** The words of a set of copies. */
+        final int words;
+        
+        /**
+         * @param graph The graph of the code.
+         * @param copyOf The copy each instruction is, or -1.
+         * @param touchStarts Where the copies of each variable begin.
+         * @param touches The copies of each variable.
+         * @param globalCopies The copies of globals.
+         * @param words The words of a set of copies.
+         */
+        Copies(FlowGraph graph, int[] copyOf, int[] touchStarts, int[] touches, long[] globalCopies, int words) {
+            this.graph = graph;
+            this.copyOf = copyOf;
+            this.touchStarts = touchStarts;
+            this.touches = touches;
+            this.globalCopies = globalCopies;
+            this.words = words;
+        }
+        
+        /**
+         * @param available The copies available at an instruction, made
+         *      those available after it.
+         * @param index The index of the instruction.
+         */
+        void step(long[] available, int index) {
+            if (graph.writesGlobals(index))
+                BitSets.subtract(available, 0, globalCopies, 0, words);
+            
+            int variable = graph.variable(graph.written(index));
+            
+            if (variable >= 0) {
+                for (int i = touchStarts[variable]; i < touchStarts[variable + 1]; i++)
+                    BitSets.clear(available, 0, touches[i]);
+            }
+            
+            if (copyOf[index] >= 0)
+                BitSets.set(available, 0, copyOf[index]);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.optimizer;
+
+import com.mana.compiler.generator.Quadruples;
+import com.mana.compiler.generator.Quadruples.Op;
+import com.mana.compiler.util.structures.BitSets;
+
+/**
+ * Removes the instructions of a function which cannot change what it does:
+ * those in blocks which cannot be reached, jumps to where the code goes
+ * anyway, labels nothing jumps to, copies of a variable into itself, and
+ * operations whose result is never read.
+ * 
+ * <p>
+ * Whether a result is read comes from {@code Liveness}: each block is walked
+ * from its end with the variables live there, and an operation writing a
+ * variable which is not live is removed without making its operands live,
+ * so the operations only feeding it go too. Calls are kept for what they do,
+ * and divisions unless their divisor is known not to be zero. As removing
+ * code can leave more to remove, the pass is repeated until it removes
+ * nothing.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+final class DeadCodeElimination implements Pass {
+    @Override
+    public int run(Quadruples code) {
+        int changes = 0;
+        int removed;
+        
+        do {
+            removed = code.remove(sweep(new FlowGraph(code)));
+            changes += removed;
+        } while (removed > 0);
+        
+        return changes;
+    }
+    
+    /**
+     * @param graph The graph of the code.
+     * @return The instructions to remove.
+     */
+    private static long[] sweep(FlowGraph graph) {
+        Quadruples code = graph.code;
+        long[] removed = BitSets.create(1, graph.size);
+        boolean[] reachable = graph.reachable();
+        boolean[] targeted = new boolean[code.labels()];
+        
+        for (int block = 0; block < graph.blocks; block++) {
+            if (!reachable[block]) {
+                for (int i = graph.starts[block]; i < graph.starts[block + 1]; i++)
+                    BitSets.set(removed, 0, i);
+            }
+        }
+        
+        for (int i = 0; i < graph.size; i++) {
+            if (BitSets.get(removed, 0, i))
+                continue;
+            
+            Op op = code.op(i);
+            
+            if ((op == Op.jump || op == Op.jumpIfFalse) && lands(graph, removed, i))
+                BitSets.set(removed, 0, i);
+            else if (op == Op.jump)
+                targeted[Quadruples.value(code.first(i))] = true;
+            else if (op == Op.jumpIfFalse)
+                targeted[Quadruples.value(code.second(i))] = true;
+        }
+        
+        for (int i = 0; i < graph.size; i++) {
+            if (code.op(i) == Op.label && !targeted[Quadruples.value(code.first(i))])
+                BitSets.set(removed, 0, i);
+        }
+        
+        Liveness liveness = new Liveness(graph);
+        long[] live = new long[graph.words];
+        
+        for (int block = 0; block < graph.blocks; block++) {
+            if (!reachable[block])
+                continue;
+            
+            BitSets.copy(liveness.out, block * graph.words, live, 0, graph.words);
+            
+            for (int i = graph.starts[block + 1] - 1; i >= graph.starts[block]; i--) {
+                if (BitSets.get(removed, 0, i))
+                    continue;
+                
+                int written = graph.variable(graph.written(i));
+                
+                if (code.op(i) == Op.copy && code.first(i) == code.result(i)
+                        || written >= 0 && graph.pure(i) && !BitSets.get(live, 0, written)) {
+                    BitSets.set(removed, 0, i);
+                    continue;
+                }
+                
+                if (written >= 0)
+                    BitSets.clear(live, 0, written);
+                
+                if (graph.readsGlobals(i))
+                    BitSets.union(live, 0, graph.globals, 0, graph.words);
+                
+                for (int slot = 0; slot < 2; slot++) {
+                    int variable = graph.variable(graph.read(i, slot));
+                    
+                    if (variable >= 0)
+                        BitSets.set(live, 0, variable);
+                }
+            }
+        }
+        
+        return removed;
+    }
+    
+    /**
+     * @param graph The graph of the code.
+     * @param removed The instructions already to be removed.
+     * @param index The index of a jump.
+     * @return {@code true} if the jump goes to a label which the code reaches
+     *      anyway, with only labels between them.
+     */
+    private static boolean lands(FlowGraph graph, long[] removed, int index) {
+        Quadruples code = graph.code;
+        int label = code.op(index) == Op.jump ? code.first(index) : code.second(index);
+        
+        for (int i = index + 1; i < graph.size; i++) {
+            if (BitSets.get(removed, 0, i))
+                continue;
+            
+            if (code.op(i) != Op.label)
+                return false;
+            
+            if (code.first(i) == label)
+                return true;
+        }
+        
+        return false;
+    }
+}
@@ -0,0 +1,398 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.optimizer;
+
+import com.mana.compiler.generator.Quadruples;
+import com.mana.compiler.generator.Quadruples.Op;
+import com.mana.compiler.util.structures.BitSets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The basic blocks of one function and the edges between them, along with a
+ * dense numbering of its variables for the analyses to keep sets of.
+ * 
+ * <p>
+ * A block begins at the first instruction, at each label and after each
+ * jump or return, and runs to the next beginning. Its successors are the
+ * blocks it can go to next, kept one block after another in a single array
+ * as are its predecessors. The variables are the temporaries, numbered as
+ * they are, followed by the names the code reads or writes. A name which is
+ * not a parameter or local of the function is global: a call may read or
+ * change it, and it is still read once the function returns.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+final class FlowGraph {
+    /** The code the graph is of. */
+    final Quadruples code;
+    /** The amount of instructions. */
+    final int size;
+    /** The amount of blocks. */
+    final int blocks;
+    /** The first instruction of each block, and the size of the code last. */
+    final int[] starts;
+    /** The block of each instruction. */
+    final int[] blockOf;
+    /** Where the successors of each block begin in {@code successors}. */
+    final int[] successorStarts;
+    /** The successors of each block, one block after another. */
+    final int[] successors;
+    /** Where the predecessors of each block begin in {@code predecessors}. */
+    final int[] predecessorStarts;
+    /** The predecessors of each block, one block after another. */
+    final int[] predecessors;
+    /** The amount of variables. */
+    final int variables;
+    /** The words of a set of variables. */
+    final int words;
+    /** The variables which are global, as a set. */
+    final long[] globals;
+    /** The variable of each name, by its symbol. */
+    private final Map<Integer, Integer> names = new HashMap<>();
+    /** The operand of each variable. */
+    private final int[] operands;
+    
+    /**
+     * @param code The code of one function, or one run of top level code.
+     */
+    FlowGraph(Quadruples code) {
+        this.code = code;
+        size = code.size();
+        
+        // the blocks.
+        boolean[] leaders = new boolean[size + 1];
+        int[] labelBlocks = new int[code.labels()];
+        int count = 0;
+        
+        leaders[0] = true;
+        
+        for (int i = 0; i < size; i++) {
+            Op op = code.op(i);
+            
+            if (op == Op.label)
+                leaders[i] = true;
+            else if (op == Op.jump || op == Op.jumpIfFalse || op == Op.ret)
+                leaders[i + 1] = true;
+        }
+        
+        blockOf = new int[size];
+        int[] blockStarts = new int[size + 1];
+        
+        for (int i = 0; i < size; i++) {
+            if (leaders[i])
+                blockStarts[count++] = i;
+            
+            blockOf[i] = count - 1;
+            
+            if (code.op(i) == Op.label)
+                labelBlocks[Quadruples.value(code.first(i))] = count - 1;
+        }
+        
+        blocks = Math.max(count, 1);
+        blockStarts[count] = size;
+        starts = Arrays.copyOf(blockStarts, blocks + 1);
+        
+        // the edges, counted first so each list is one array.
+        int[] targets = new int[blocks * 2];
+        int[] targetCounts = new int[blocks];
+        int[] predecessorCounts = new int[blocks];
+        
+        for (int block = 0; block < blocks; block++) {
+            int last = starts[block + 1] - 1;
+            Op op = last < starts[block] ? null : code.op(last);
+            int edges = 0;
+            
+            if (op == Op.jump)
+                targets[block * 2 + edges++] = labelBlocks[Quadruples.value(code.first(last))];
+            else if (op != Op.ret && block + 1 < blocks)
+                targets[block * 2 + edges++] = block + 1;
+            
+            if (op == Op.jumpIfFalse) {
+                int target = labelBlocks[Quadruples.value(code.second(last))];
+                
+                if (edges == 0 || targets[block * 2] != target)
+                    targets[block * 2 + edges++] = target;
+            }
+            
+            targetCounts[block] = edges;
+            
+            for (int i = 0; i < edges; i++)
+                predecessorCounts[targets[block * 2 + i]]++;
+        }
+        
+        successorStarts = new int[blocks + 1];
+        predecessorStarts = new int[blocks + 1];
+        
+        for (int block = 0; block < blocks; block++) {
+            successorStarts[block + 1] = successorStarts[block] + targetCounts[block];
+            predecessorStarts[block + 1] = predecessorStarts[block] + predecessorCounts[block];
+        }
+        
+        successors = new int[successorStarts[blocks]];
+        predecessors = new int[predecessorStarts[blocks]];
+        int[] placed = Arrays.copyOf(predecessorStarts, blocks);
+        
+        for (int block = 0; block < blocks; block++) {
+            for (int i = 0; i < targetCounts[block]; i++) {
+                int target = targets[block * 2 + i];
+                successors[successorStarts[block] + i] = target;
+                predecessors[placed[target]++] = block;
+            }
+        }
+        
+        // the variables: temporaries first, then names as they are met.
+        int temporaries = code.temporaries();
+        int[] found = new int[16];
+        int named = 0;
+        
+        for (int symbol : code.parameters())
+            found = name(symbol, temporaries, named++, found);
+        
+        for (int i = 0; i < size; i++) {
+            int[] operands = {read(i, 0), read(i, 1), written(i)};
+            
+            for (int operand : operands) {
+                if (operand != Quadruples.NONE && Quadruples.tag(operand) == Quadruples.NAME
+                        && !names.containsKey(Quadruples.value(operand)))
+                    found = name(Quadruples.value(operand), temporaries, named++, found);
+            }
+        }
+        
+        variables = temporaries + named;
+        words = BitSets.words(variables);
+        globals = new long[words];
+        operands = new int[variables];
+        
+        for (int i = 0; i < temporaries; i++)
+            operands[i] = Quadruples.temporary(i);
+        
+        for (int i = 0; i < named; i++) {
+            operands[temporaries + i] = Quadruples.name(found[i]);
+            
+            if (!contains(code.parameters(), found[i]) && !contains(code.locals(), found[i]))
+                BitSets.set(globals, 0, temporaries + i);
+        }
+    }
+    
+    /**
+     * @param symbol A name not yet numbered.
+     * @param temporaries The amount of temporaries.
+     * @param index The amount of names already numbered.
+     * @param found The names already numbered.
+     * @return The names numbered, grown if need be.
+     */
+    private int[] name(int symbol, int temporaries, int index, int[] found) {
+        if (index == found.length)
+            found = Arrays.copyOf(found, index << 1);
+        
+        found[index] = symbol;
+        names.put(symbol, temporaries + index);
+        
+        return found;
+    }
+    
+    /**
+     * @param symbols Some symbols.
+     * @param symbol A symbol.
+     * @return {@code true} if the symbol is one of the symbols.
+     */
+    private static boolean contains(int[] symbols, int symbol) {
+        for (int each : symbols) {
+            if (each == symbol)
+                return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * @param operand An operand.
+     * @return The variable of the operand, or -1 if it is not a temporary or
+     *      a name.
+     */
+    int variable(int operand) {
+        if (operand == Quadruples.NONE)
+            return -1;
+        
+        switch (Quadruples.tag(operand)) {
+            case Quadruples.TEMPORARY:
+                return Quadruples.value(operand);
+            case Quadruples.NAME:
+                Integer variable = names.get(Quadruples.value(operand));
+                return variable == null ? -1 : variable;
+            default:
+                return -1;
+        }
+    }
+    
+    /**
+     * @param variable A variable.
+     * @return The operand of the variable.
+     */
+    int operand(int variable) {
+        return operands[variable];
+    }
+    
+    /**
+     * @param variable A variable.
+     * @return {@code true} if a call may read or change the variable.
+     */
+    boolean global(int variable) {
+        return BitSets.get(globals, 0, variable);
+    }
+    
+    /**
+     * @param index The index of an instruction.
+     * @param slot 0 for the first operand, 1 for the second.
+     * @return The operand of the slot if the instruction reads a value from
+     *      it, or {@code NONE}.
+     */
+    int read(int index, int slot) {
+        if (!reads(code.op(index), slot))
+            return Quadruples.NONE;
+        
+        return slot == 0 ? code.first(index) : code.second(index);
+    }
+    
+    /**
+     * @param op An operation.
+     * @param slot 0 for the first operand, 1 for the second.
+     * @return {@code true} if the operation reads a value from the slot.
+     */
+    static boolean reads(Op op, int slot) {
+        switch (op) {
+            case label:
+            case jump:
+            case call:
+                // the first operand of these is a label or a function.
+                return false;
+            case copy:
+            case negate:
+            case not:
+            case jumpIfFalse:
+            case param:
+            case ret:
+                return slot == 0;
+            default:
+                return true;
+        }
+    }
+    
+    /**
+     * @param index The index of an instruction.
+     * @return The operand the instruction writes, or {@code NONE}.
+     */
+    int written(int index) {
+        return code.result(index);
+    }
+    
+    /**
+     * @param index The index of an instruction.
+     * @return {@code true} if the instruction reads every global, being a
+     *      call or a return.
+     */
+    boolean readsGlobals(int index) {
+        Op op = code.op(index);
+        
+        return op == Op.call || op == Op.ret;
+    }
+    
+    /**
+     * @param index The index of an instruction.
+     * @return {@code true} if the instruction may change any global, being a
+     *      call.
+     */
+    boolean writesGlobals(int index) {
+        return code.op(index) == Op.call;
+    }
+    
+    /**
+     * @param index The index of an instruction.
+     * @return {@code true} if the instruction does nothing but write its
+     *      result, so it can go if the result is never read.
+     */
+    boolean pure(int index) {
+        switch (code.op(index)) {
+            case copy:
+            case negate:
+            case not:
+            case add:
+            case subtract:
+            case multiply:
+            case equal:
+            case notEqual:
+            case less:
+            case lessEqual:
+            case greater:
+            case greaterEqual:
+            case and:
+            case or:
+                return true;
+            case divide:
+            case remainder:
+                // dividing by zero fails, so only a known divisor is safe.
+                int divisor = code.second(index);
+                return Quadruples.tag(divisor) == Quadruples.NUMBER && Quadruples.value(divisor) != 0;
+            default:
+                return false;
+        }
+    }
+    
+    /**
+     * @param block A block.
+     * @return {@code true} if the function can end at the end of the block.
+     */
+    boolean exit(int block) {
+        return successorStarts[block] == successorStarts[block + 1];
+    }
+    
+    /**
+     * @return Whether each block can be reached from the first one.
+     */
+    boolean[] reachable() {
+        boolean[] result = new boolean[blocks];
+        int[] stack = new int[blocks];
+        int depth = 0;
+        
+        result[0] = true;
+        stack[depth++] = 0;
+        
+        while (depth > 0) {
+            int block = stack[--depth];
+            
+            for (int i = successorStarts[block]; i < successorStarts[block + 1]; i++) {
+                if (!result[successors[i]]) {
+                    result[successors[i]] = true;
+                    stack[depth++] = successors[i];
+                }
+            }
+        }
+        
+        return result;
+    }
+}
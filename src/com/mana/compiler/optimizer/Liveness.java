@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.optimizer;
+
+import com.mana.compiler.util.structures.BitSets;
+
+/**
+ * Finds the variables live at the end of each block of a function: those a
+ * path from there may read before writing them. Globals are live wherever
+ * the function can end, and are read by every call and return.
+ * 
+ * <p>
+ * Each set is a row of {@code FlowGraph.words} words, one row per block, in
+ * a single array for each of the sets the analysis keeps. The blocks are
+ * worked from last to first until no set changes, as liveness flows back.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+final class Liveness {
+    /** The graph analyzed. */
+    final FlowGraph graph;
+    /** The variables live at the end of each block. */
+    final long[] out;
+    /** The variables live at the beginning of each block. */
+    private final long[] in;
+    
+    /**
+     * @param graph The graph to analyze.
+     */
+    Liveness(FlowGraph graph) {
+        this.graph = graph;
+        int words = graph.words;
+        int blocks = graph.blocks;
+        long[] uses = new long[blocks * words];
+        long[] defs = new long[blocks * words];
+        
+        out = new long[blocks * words];
+        in = new long[blocks * words];
+        
+        for (int block = 0; block < blocks; block++) {
+            int base = block * words;
+            
+            for (int i = graph.starts[block]; i < graph.starts[block + 1]; i++) {
+                for (int slot = 0; slot < 2; slot++) {
+                    int variable = graph.variable(graph.read(i, slot));
+                    
+                    if (variable >= 0 && !BitSets.get(defs, base, variable))
+                        BitSets.set(uses, base, variable);
+                }
+                
+                if (graph.readsGlobals(i)) {
+                    for (int w = 0; w < words; w++)
+                        uses[base + w] |= graph.globals[w] & ~defs[base + w];
+                }
+                
+                int variable = graph.variable(graph.written(i));
+                
+                if (variable >= 0)
+                    BitSets.set(defs, base, variable);
+            }
+            
+            if (graph.exit(block))
+                BitSets.copy(graph.globals, 0, out, base, words);
+            
+            BitSets.copy(uses, base, in, base, words);
+        }
+        
+        boolean changed = true;
+        
+        while (changed) {
+            changed = false;
+            
+            for (int block = blocks - 1; block >= 0; block--) {
+                int base = block * words;
+                
+                for (int i = graph.successorStarts[block]; i < graph.successorStarts[block + 1]; i++)
+                    BitSets.union(out, base, in, graph.successors[i] * words, words);
+                
+                // in = uses + (out - defs)
+                for (int w = 0; w < words; w++) {
+                    long next = uses[base + w] | out[base + w] & ~defs[base + w];
+                    changed |= next != in[base + w];
+                    in[base + w] = next;
+                }
+            }
+        }
+    }
+}
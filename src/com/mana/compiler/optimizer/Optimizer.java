@@ -0,0 +1,216 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.optimizer;
+
+import com.mana.compiler.generator.IntermediateGeneration;
+import com.mana.compiler.generator.Quadruples;
+import com.mana.compiler.generator.ThreeAddressGeneration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.IntStream;
+
+/**
+ * Optimizes the three address code of a build between its generation and
+ * its assembly.
+ * 
+ * <p>
+ * Each function, and each run of top level code, is optimized on its own by
+ * a list of passes chosen by the {@code Level}, so the functions of every
+ * file are optimized at once over the pool it is given. A function is copied
+ * before its first pass; the code of a generation is never changed, as a
+ * cache or a resident compiler may hold it.
+ * </p>
+ * 
+ * <pre>
+ * none   nothing
+ * basic  constants, copies, deadCode
+ * full   constants, numbering, copies, deadCode, until none of them changes
+ *        anything
+ * </pre>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+public final class Optimizer {
+    /** How much to optimize, as given by {@code -O0}, {@code -O1} or {@code -O2}. */
+    public enum Level {
+        /** Leaves the code as it was generated. */
+        none,
+        /** Runs each pass once. */
+        basic,
+        /** Runs the passes, with value numbering, until they find nothing more. */
+        full;
+        
+        public static final int length = values().length;
+        public final int index = ordinal();
+    }
+    
+    /** The passes, in the order they are run. */
+    public enum PassType {
+        /** Propagates and folds constants. */
+        constants,
+        /** Numbers the values of each block, to compute each only once. */
+        numbering,
+        /** Propagates copies. */
+        copies,
+        /** Removes code which does nothing. */
+        deadCode;
+        
+        public static final int length = values().length;
+        public final int index = ordinal();
+    }
+    
+    /** The most times the passes are repeated at the full level. */
+    private static final int MAX_ROUNDS = 8;
+    
+    /** How much this optimizer optimizes. */
+    private final Level level;
+    /** The pool the functions are optimized over. */
+    private final ForkJoinPool pool;
+    /** The amount of instructions each pass changed or removed. */
+    private final AtomicLongArray changes = new AtomicLongArray(PassType.length);
+    
+    /**
+     * @param level How much to optimize.
+     */
+    public Optimizer(Level level) {
+        this(level, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * @param level How much to optimize.
+     * @param pool The pool to optimize the functions over.
+     */
+    public Optimizer(Level level, ForkJoinPool pool) {
+        this.level = level;
+        this.pool = pool;
+    }
+    
+    /**
+     * Optimizes every function of a build in parallel.
+     * 
+     * @param generation The code of the build, which is not changed.
+     * @return The optimized code, in the same order, or the generation itself
+     *      if the level is {@code none}.
+     */
+    public IntermediateGeneration optimize(IntermediateGeneration generation) {
+        if (level == Level.none)
+            return generation;
+        
+        List<ThreeAddressGeneration> units = generation.code();
+        List<Quadruples> functions = new ArrayList<>();
+        int[] firsts = new int[units.size() + 1];
+        
+        for (int unit = 0; unit < units.size(); unit++) {
+            functions.addAll(units.get(unit).functions());
+            firsts[unit + 1] = functions.size();
+        }
+        
+        Quadruples[] optimized = new Quadruples[functions.size()];
+        
+        // a parallel stream started from a task of a pool runs over that pool.
+        pool.submit(() -> IntStream.range(0, optimized.length).parallel()
+                .forEach(function -> optimized[function] = optimize(functions.get(function)))).join();
+        
+        List<ThreeAddressGeneration> result = new ArrayList<>(units.size());
+        
+        for (int unit = 0; unit < units.size(); unit++) {
+            List<Quadruples> code = new ArrayList<>(firsts[unit + 1] - firsts[unit]);
+            
+            for (int function = firsts[unit]; function < firsts[unit + 1]; function++)
+                code.add(optimized[function]);
+            
+            result.add(new ThreeAddressGeneration(code, units.get(unit).tree()));
+        }
+        
+        return IntermediateGeneration.of(result);
+    }
+    
+    /**
+     * @param function The code of one function, which is not changed.
+     * @return The optimized code.
+     */
+    Quadruples optimize(Quadruples function) {
+        Quadruples code = function.copy();
+        int rounds = level == Level.full ? MAX_ROUNDS : 1;
+        
+        for (int round = 0; round < rounds; round++) {
+            int changed = 0;
+            
+            for (PassType type : PassType.values()) {
+                if (type == PassType.numbering && level != Level.full)
+                    continue;
+                
+                int made = pass(type).run(code);
+                
+                if (made > 0)
+                    changes.addAndGet(type.index, made);
+                
+                changed += made;
+            }
+            
+            if (changed == 0)
+                break;
+        }
+        
+        code.trim();
+        
+        return code;
+    }
+    
+    /**
+     * @param type A type of pass.
+     * @return The pass.
+     */
+    private static Pass pass(PassType type) {
+        switch (type) {
+            case constants:
+                return new ConstantPropagation();
+            case numbering:
+                return new ValueNumbering();
+            case copies:
+                return new CopyPropagation();
+            default:
+                return new DeadCodeElimination();
+        }
+    }
+    
+    /**
+     * @param type A type of pass.
+     * @return The amount of instructions the pass changed or removed in every
+     *      build this optimizer optimized.
+     */
+    public long changes(PassType type) {
+        return changes.get(type.index);
+    }
+    
+    /**
+     * @return How much this optimizer optimizes.
+     */
+    public Level level() {
+        return level;
+    }
+}
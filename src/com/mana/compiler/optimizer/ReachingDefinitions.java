@@ -0,0 +1,237 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.optimizer;
+
+import com.mana.compiler.generator.Quadruples;
+import com.mana.compiler.generator.Quadruples.Op;
+import com.mana.compiler.util.structures.BitSets;
+import java.util.Arrays;
+
+/**
+ * Finds the definitions which reach the beginning of each block of a
+ * function: the instructions whose writes may still be in their variables
+ * there.
+ * 
+ * <p>
+ * The sites of the sets are the instructions, and after them one more for
+ * each variable standing for a value the code did not write: the value the
+ * variable had when the function began, or one a call left in a global. A
+ * variable whose own site reaches an instruction may hold anything there.
+ * Each set is a row of {@code words} words, one row per block, in a single
+ * array; the blocks are worked from first to last until no set changes.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+final class ReachingDefinitions {
+    /** The graph analyzed. */
+    final FlowGraph graph;
+    /** The words of a set of sites. */
+    final int words;
+    /** The definitions reaching the beginning of each block. */
+    final long[] in;
+    /** Where the instructions writing each variable begin in {@code sites}. */
+    private final int[] siteStarts;
+    /** The instructions writing each variable, one variable after another. */
+    private final int[] sites;
+    /** The sites a call ends: every write of a global. */
+    private final long[] callKills;
+    /** The sites a call begins: a value it did not write for each global. */
+    private final long[] callGens;
+    
+    /**
+     * @param graph The graph to analyze.
+     */
+    ReachingDefinitions(FlowGraph graph) {
+        this.graph = graph;
+        int size = graph.size;
+        int blocks = graph.blocks;
+        words = BitSets.words(size + graph.variables);
+        
+        // the instructions writing each variable, counted first.
+        siteStarts = new int[graph.variables + 1];
+        
+        for (int i = 0; i < size; i++) {
+            int variable = graph.variable(graph.written(i));
+            
+            if (variable >= 0)
+                siteStarts[variable + 1]++;
+        }
+        
+        for (int variable = 0; variable < graph.variables; variable++)
+            siteStarts[variable + 1] += siteStarts[variable];
+        
+        sites = new int[siteStarts[graph.variables]];
+        int[] placed = new int[graph.variables];
+        
+        for (int i = 0; i < size; i++) {
+            int variable = graph.variable(graph.written(i));
+            
+            if (variable >= 0)
+                sites[siteStarts[variable] + placed[variable]++] = i;
+        }
+        
+        callKills = new long[words];
+        callGens = new long[words];
+        
+        for (int variable = 0; variable < graph.variables; variable++) {
+            if (!graph.global(variable))
+                continue;
+            
+            for (int i = siteStarts[variable]; i < siteStarts[variable + 1]; i++)
+                BitSets.set(callKills, 0, sites[i]);
+            
+            BitSets.set(callGens, 0, size + variable);
+        }
+        
+        // what each block begins and ends on its own.
+        long[] gens = new long[blocks * words];
+        long[] kills = new long[blocks * words];
+        long[] alone = new long[words];
+        long[] killed = new long[words];
+        
+        for (int block = 0; block < blocks; block++) {
+            Arrays.fill(alone, 0);
+            Arrays.fill(killed, 0);
+            
+            for (int i = graph.starts[block]; i < graph.starts[block + 1]; i++) {
+                step(alone, i);
+                kill(killed, i);
+            }
+            
+            BitSets.copy(alone, 0, gens, block * words, words);
+            BitSets.copy(killed, 0, kills, block * words, words);
+        }
+        
+        in = new long[blocks * words];
+        long[] out = new long[blocks * words];
+        
+        // every variable begins with a value the code did not write.
+        for (int variable = 0; variable < graph.variables; variable++)
+            BitSets.set(in, 0, size + variable);
+        
+        for (int block = 0; block < blocks; block++) {
+            int base = block * words;
+            
+            for (int w = 0; w < words; w++)
+                out[base + w] = gens[base + w] | in[base + w] & ~kills[base + w];
+        }
+        
+        boolean changed = true;
+        
+        while (changed) {
+            changed = false;
+            
+            for (int block = 0; block < blocks; block++) {
+                int base = block * words;
+                
+                for (int i = graph.predecessorStarts[block]; i < graph.predecessorStarts[block + 1]; i++)
+                    BitSets.union(in, base, out, graph.predecessors[i] * words, words);
+                
+                for (int w = 0; w < words; w++) {
+                    long next = gens[base + w] | in[base + w] & ~kills[base + w];
+                    changed |= next != out[base + w];
+                    out[base + w] = next;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Moves a set of the definitions reaching an instruction past it.
+     * 
+     * @param reaching The definitions reaching the instruction, made the
+     *      definitions reaching the one after it.
+     * @param index The index of the instruction.
+     */
+    void step(long[] reaching, int index) {
+        if (graph.writesGlobals(index)) {
+            BitSets.subtract(reaching, 0, callKills, 0, words);
+            BitSets.union(reaching, 0, callGens, 0, words);
+        }
+        
+        int variable = graph.variable(graph.written(index));
+        
+        if (variable >= 0) {
+            for (int i = siteStarts[variable]; i < siteStarts[variable + 1]; i++)
+                BitSets.clear(reaching, 0, sites[i]);
+            
+            BitSets.clear(reaching, 0, graph.size + variable);
+            BitSets.set(reaching, 0, index);
+        }
+    }
+    
+    /**
+     * @param killed The sites ended so far in a block, with those the
+     *      instruction ends added.
+     * @param index The index of the instruction.
+     */
+    private void kill(long[] killed, int index) {
+        if (graph.writesGlobals(index))
+            BitSets.union(killed, 0, callKills, 0, words);
+        
+        int variable = graph.variable(graph.written(index));
+        
+        if (variable >= 0) {
+            for (int i = siteStarts[variable]; i < siteStarts[variable + 1]; i++)
+                BitSets.set(killed, 0, sites[i]);
+            
+            BitSets.set(killed, 0, graph.size + variable);
+        }
+    }
+    
+    /**
+     * Finds the one value every definition of a variable reaching an
+     * instruction gives it, if it is a constant.
+     * 
+     * @param reaching The definitions reaching the instruction.
+     * @param variable The variable read.
+     * @return The constant operand, or {@code NONE} if the variable may hold
+     *      anything else.
+     */
+    int constant(long[] reaching, int variable) {
+        if (BitSets.get(reaching, 0, graph.size + variable))
+            return Quadruples.NONE;
+        
+        int result = Quadruples.NONE;
+        
+        for (int i = siteStarts[variable]; i < siteStarts[variable + 1]; i++) {
+            int site = sites[i];
+            
+            if (!BitSets.get(reaching, 0, site))
+                continue;
+            
+            int value = graph.code.op(site) == Op.copy ? graph.code.first(site) : Quadruples.NONE;
+            
+            if (!ConstantPropagation.constant(value)
+                    || result != Quadruples.NONE && !ConstantPropagation.same(graph.code, result, value))
+                return Quadruples.NONE;
+            
+            result = value;
+        }
+        
+        return result;
+    }
+}
@@ -0,0 +1,946 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.optimizer;
+
+import com.mana.compiler.generator.Quadruples;
+import com.mana.compiler.generator.Quadruples.Op;
+import com.mana.compiler.util.structures.BitSets;
+import java.util.Arrays;
+
+/**
+ * The code of one function in static single assignment form, for the back
+ * end to allocate registers over.
+ * 
+ * <p>
+ * The blocks are those of a {@code FlowGraph} which can be reached, laid out
+ * in the order of the code, after a new entry block which copies each
+ * parameter out of the place it was passed in. Labels and jumps are dropped:
+ * a block ends in at most one condition, and goes to its first successor if
+ * the condition holds and to its second if not. An edge from a block with two
+ * successors to one with two predecessors is split by an empty block of its
+ * own, so a copy on any edge has a block to go in.
+ * </p>
+ * 
+ * <p>
+ * Every temporary and every variable of the function is renamed to values
+ * each written exactly once, held in operands tagged {@code TEMPORARY}; a
+ * global stays the name it was. Where the values of a variable meet and the
+ * variable is still live, a phi picks between them by the predecessor the
+ * block was entered from. The phis are placed on the iterated dominance
+ * frontier of the writes of each variable, the dominators being found by the
+ * method of Cooper, Harvey and Kennedy. A variable read before it is ever
+ * written reads the number 0.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+public final class StaticSingleAssignment {
+    /** The operations, indexed by their ordinals. */
+    private static final Op[] OPS = Op.values();
+    
+    /** The code the form is of. */
+    private final Quadruples code;
+    /** The amount of blocks. */
+    private final int blocks;
+    /** The first instruction of each block, and the amount of them last. */
+    private final int[] starts;
+    /** The operations of the instructions. */
+    private final byte[] ops;
+    /** The first operands of the instructions. */
+    private final int[] firsts;
+    /** The second operands of the instructions. */
+    private final int[] seconds;
+    /** The results of the instructions. */
+    private final int[] results;
+    /** The condition each block ends in, or {@code NONE}. */
+    private final int[] conditions;
+    /** Where the successors of each block begin in {@code successors}. */
+    private final int[] successorStarts;
+    /** The successors of each block, one block after another. */
+    private final int[] successors;
+    /** Where the predecessors of each block begin in {@code predecessors}. */
+    private final int[] predecessorStarts;
+    /** The predecessors of each block, one block after another. */
+    private final int[] predecessors;
+    /** The immediate dominator of each block, -1 for the entry. */
+    private final int[] dominators;
+    /** The amount of loops each block is in. */
+    private final int[] loopDepths;
+    /** The first phi of each block, and the amount of them last. */
+    private final int[] phiStarts;
+    /** The value each phi writes. */
+    private final int[] phiResults;
+    /** Where the arguments of each phi begin, and the amount of them last. */
+    private final int[] phiArgumentStarts;
+    /** The argument of each phi from each predecessor, in their order. */
+    private final int[] phiArguments;
+    /** The amount of values. */
+    private int values;
+    
+    /**
+     * @param code The code of one function, or one run of top level code,
+     *      which is not changed.
+     */
+    public StaticSingleAssignment(Quadruples code) {
+        this.code = code;
+        FlowGraph graph = new FlowGraph(code);
+        int original = graph.blocks;
+        int[] labelBlocks = new int[code.labels()];
+        
+        for (int i = 0; i < graph.size; i++) {
+            if (code.op(i) == Op.label)
+                labelBlocks[Quadruples.value(code.first(i))] = graph.blockOf[i] + 1;
+        }
+        
+        // the nodes: the entry, each block of the code, an exit if a branch
+        // can fall off the end, and one for each edge split; two targets each.
+        int capacity = original * 3 + 6;
+        int[] targets = new int[capacity * 2];
+        int[] nodeConditions = new int[capacity];
+        int nodes = original + 1;
+        int exit = -1;
+        
+        Arrays.fill(targets, -1);
+        Arrays.fill(nodeConditions, Quadruples.NONE);
+        targets[0] = 1;
+        
+        for (int block = 0; block < original; block++) {
+            int node = block + 1;
+            int last = graph.starts[block + 1] - 1;
+            Op op = last < graph.starts[block] ? null : code.op(last);
+            int next = block + 1 < original ? node + 1 : -1;
+            
+            if (op == Op.jump)
+                targets[node * 2] = labelBlocks[Quadruples.value(code.first(last))];
+            else if (op == Op.jumpIfFalse) {
+                int target = labelBlocks[Quadruples.value(code.second(last))];
+                
+                if (next < 0) {
+                    if (exit < 0)
+                        exit = nodes++;
+                    
+                    next = exit;
+                }
+                
+                targets[node * 2] = next;
+                
+                if (target != next) {
+                    targets[node * 2 + 1] = target;
+                    nodeConditions[node] = code.first(last);
+                }
+            } else if (op != Op.ret)
+                targets[node * 2] = next;
+        }
+        
+        // only the nodes reached from the entry are kept.
+        boolean[] reached = new boolean[capacity];
+        int[] stack = new int[capacity];
+        int depth = 0;
+        
+        reached[0] = true;
+        stack[depth++] = 0;
+        
+        while (depth > 0) {
+            int node = stack[--depth];
+            
+            for (int k = 0; k < 2; k++) {
+                int target = targets[node * 2 + k];
+                
+                if (target >= 0 && !reached[target]) {
+                    reached[target] = true;
+                    stack[depth++] = target;
+                }
+            }
+        }
+        
+        int[] predecessorCounts = new int[capacity];
+        
+        for (int node = 0; node < nodes; node++) {
+            for (int k = 0; reached[node] && k < 2; k++) {
+                if (targets[node * 2 + k] >= 0)
+                    predecessorCounts[targets[node * 2 + k]]++;
+            }
+        }
+        
+        // critical edges are split; a split on the edge a branch falls
+        // through goes right after it, the others go last.
+        int[] after = new int[capacity];
+        int[] late = new int[capacity];
+        int lates = 0;
+        int splitFrom = nodes;
+        
+        Arrays.fill(after, -1);
+        
+        for (int node = 0; node < splitFrom; node++) {
+            if (!reached[node] || targets[node * 2 + 1] < 0)
+                continue;
+            
+            for (int k = 0; k < 2; k++) {
+                int target = targets[node * 2 + k];
+                
+                if (predecessorCounts[target] < 2)
+                    continue;
+                
+                int split = nodes++;
+                reached[split] = true;
+                targets[split * 2] = target;
+                targets[node * 2 + k] = split;
+                
+                if (k == 0)
+                    after[node] = split;
+                else
+                    late[lates++] = split;
+            }
+        }
+        
+        int[] order = new int[nodes];
+        int[] index = new int[nodes];
+        int count = 0;
+        
+        for (int node = 0; node < splitFrom; node++) {
+            if (!reached[node])
+                continue;
+            
+            order[count++] = node;
+            
+            if (after[node] >= 0)
+                order[count++] = after[node];
+        }
+        
+        for (int i = 0; i < lates; i++)
+            order[count++] = late[i];
+        
+        for (int block = 0; block < count; block++)
+            index[order[block]] = block;
+        
+        blocks = count;
+        
+        // the instructions of the blocks, without their labels and jumps.
+        int size = 0;
+        
+        for (int block = 0; block < blocks; block++) {
+            int node = order[block];
+            
+            if (node == 0)
+                size += code.parameters().length;
+            else if (node <= original)
+                size += graph.starts[node] - graph.starts[node - 1];
+        }
+        
+        starts = new int[blocks + 1];
+        ops = new byte[size];
+        firsts = new int[size];
+        seconds = new int[size];
+        results = new int[size];
+        conditions = new int[blocks];
+        size = 0;
+        
+        for (int block = 0; block < blocks; block++) {
+            int node = order[block];
+            starts[block] = size;
+            conditions[block] = nodeConditions[node];
+            
+            if (node == 0) {
+                for (int parameter : code.parameters()) {
+                    int operand = Quadruples.name(parameter);
+                    
+                    if (graph.variable(operand) < 0)
+                        continue;
+                    
+                    ops[size] = (byte)Op.copy.index;
+                    firsts[size] = operand;
+                    seconds[size] = Quadruples.NONE;
+                    results[size++] = operand;
+                }
+            } else if (node <= original) {
+                for (int i = graph.starts[node - 1]; i < graph.starts[node]; i++) {
+                    Op op = code.op(i);
+                    
+                    if (op == Op.label || op == Op.jump || op == Op.jumpIfFalse)
+                        continue;
+                    
+                    ops[size] = (byte)op.index;
+                    firsts[size] = code.first(i);
+                    seconds[size] = code.second(i);
+                    results[size++] = code.result(i);
+                }
+            }
+        }
+        
+        starts[blocks] = size;
+        
+        // the edges, in the order of the blocks.
+        successorStarts = new int[blocks + 1];
+        predecessorStarts = new int[blocks + 1];
+        int[] counts = new int[blocks];
+        
+        for (int block = 0; block < blocks; block++) {
+            int edges = 0;
+            
+            for (int k = 0; k < 2; k++) {
+                if (targets[order[block] * 2 + k] >= 0) {
+                    edges++;
+                    counts[index[targets[order[block] * 2 + k]]]++;
+                }
+            }
+            
+            successorStarts[block + 1] = successorStarts[block] + edges;
+        }
+        
+        for (int block = 0; block < blocks; block++)
+            predecessorStarts[block + 1] = predecessorStarts[block] + counts[block];
+        
+        successors = new int[successorStarts[blocks]];
+        predecessors = new int[predecessorStarts[blocks]];
+        int[] placed = Arrays.copyOf(predecessorStarts, blocks);
+        
+        for (int block = 0; block < blocks; block++) {
+            for (int k = 0; k < successorStarts[block + 1] - successorStarts[block]; k++) {
+                int target = index[targets[order[block] * 2 + k]];
+                successors[successorStarts[block] + k] = target;
+                predecessors[placed[target]++] = block;
+            }
+        }
+        
+        dominators = dominators();
+        loopDepths = loopDepths();
+        
+        // the variables live at the beginning of each block, so phis are
+        // only placed where their value may still be read.
+        int variables = graph.variables;
+        int words = BitSets.words(variables);
+        long[] uses = new long[blocks * words];
+        long[] defs = new long[blocks * words];
+        long[] in = new long[blocks * words];
+        long[] out = new long[blocks * words];
+        int[] writeCounts = new int[variables + 1];
+        
+        for (int block = 0; block < blocks; block++) {
+            int base = block * words;
+            
+            for (int i = starts[block]; i < starts[block + 1]; i++) {
+                for (int slot = 0; block > 0 && slot < 2; slot++) {
+                    int variable = renamed(graph, read(i, slot));
+                    
+                    if (variable >= 0 && !BitSets.get(defs, base, variable))
+                        BitSets.set(uses, base, variable);
+                }
+                
+                int variable = renamed(graph, results[i]);
+                
+                if (variable >= 0 && !BitSets.get(defs, base, variable)) {
+                    BitSets.set(defs, base, variable);
+                    writeCounts[variable]++;
+                }
+            }
+            
+            int variable = renamed(graph, conditions[block]);
+            
+            if (variable >= 0 && !BitSets.get(defs, base, variable))
+                BitSets.set(uses, base, variable);
+        }
+        
+        int[] postorder = postorder();
+        long[] live = new long[words];
+        boolean changed = true;
+        
+        while (changed) {
+            changed = false;
+            
+            for (int block : postorder) {
+                int base = block * words;
+                
+                for (int i = successorStarts[block]; i < successorStarts[block + 1]; i++)
+                    BitSets.union(out, base, in, successors[i] * words, words);
+                
+                BitSets.copy(out, base, live, 0, words);
+                BitSets.subtract(live, 0, defs, base, words);
+                BitSets.union(live, 0, uses, base, words);
+                
+                if (!BitSets.equal(live, 0, in, base, words)) {
+                    BitSets.copy(live, 0, in, base, words);
+                    changed = true;
+                }
+            }
+        }
+        
+        // the blocks writing each variable, one variable after another.
+        int[] writeStarts = new int[variables + 1];
+        
+        for (int variable = 0; variable < variables; variable++)
+            writeStarts[variable + 1] = writeStarts[variable] + writeCounts[variable];
+        
+        int[] writes = new int[writeStarts[variables]];
+        int[] written = Arrays.copyOf(writeStarts, variables);
+        
+        for (int block = 0; block < blocks; block++) {
+            for (int variable = BitSets.next(defs, block * words, words, 0); variable >= 0;
+                    variable = BitSets.next(defs, block * words, words, variable + 1))
+                writes[written[variable]++] = block;
+        }
+        
+        // the phis, found on the iterated frontiers and kept block by block.
+        int[] frontierStarts = new int[blocks + 1];
+        int[] frontiers = frontiers(frontierStarts);
+        int[] phiBlocks = new int[16];
+        int[] phiVariables = new int[16];
+        int phis = 0;
+        int[] placedFor = new int[blocks];
+        int[] queuedFor = new int[blocks];
+        int[] work = new int[blocks];
+        
+        Arrays.fill(placedFor, -1);
+        Arrays.fill(queuedFor, -1);
+        
+        for (int variable = 0; variable < variables; variable++) {
+            int pending = 0;
+            
+            for (int i = writeStarts[variable]; i < writeStarts[variable + 1]; i++) {
+                queuedFor[writes[i]] = variable;
+                work[pending++] = writes[i];
+            }
+            
+            while (pending > 0) {
+                int block = work[--pending];
+                
+                for (int i = frontierStarts[block]; i < frontierStarts[block + 1]; i++) {
+                    int frontier = frontiers[i];
+                    
+                    if (placedFor[frontier] == variable)
+                        continue;
+                    
+                    placedFor[frontier] = variable;
+                    
+                    if (BitSets.get(in, frontier * words, variable)) {
+                        if (phis == phiBlocks.length) {
+                            phiBlocks = Arrays.copyOf(phiBlocks, phis << 1);
+                            phiVariables = Arrays.copyOf(phiVariables, phis << 1);
+                        }
+                        
+                        phiBlocks[phis] = frontier;
+                        phiVariables[phis++] = variable;
+                    }
+                    
+                    if (queuedFor[frontier] != variable) {
+                        queuedFor[frontier] = variable;
+                        work[pending++] = frontier;
+                    }
+                }
+            }
+        }
+        
+        phiStarts = new int[blocks + 1];
+        
+        for (int i = 0; i < phis; i++)
+            phiStarts[phiBlocks[i] + 1]++;
+        
+        for (int block = 0; block < blocks; block++)
+            phiStarts[block + 1] += phiStarts[block];
+        
+        int[] variableOfPhi = new int[phis];
+        int[] filled = Arrays.copyOf(phiStarts, blocks);
+        
+        for (int i = 0; i < phis; i++)
+            variableOfPhi[filled[phiBlocks[i]]++] = phiVariables[i];
+        
+        phiResults = new int[phis];
+        phiArgumentStarts = new int[phis + 1];
+        
+        for (int block = 0; block < blocks; block++) {
+            for (int phi = phiStarts[block]; phi < phiStarts[block + 1]; phi++)
+                phiArgumentStarts[phi + 1] = phiArgumentStarts[phi]
+                        + predecessorStarts[block + 1] - predecessorStarts[block];
+        }
+        
+        phiArguments = new int[phiArgumentStarts[phis]];
+        rename(graph, variableOfPhi);
+    }
+    
+    /**
+     * Renames each variable to its values, walking the dominator tree so the
+     * value a read sees is the last one written above it.
+     * 
+     * @param graph The graph the variables are numbered by.
+     * @param variableOfPhi The variable each phi is of.
+     */
+    private void rename(FlowGraph graph, int[] variableOfPhi) {
+        int[] childStarts = new int[blocks + 1];
+        
+        for (int block = 1; block < blocks; block++)
+            childStarts[dominators[block] + 1]++;
+        
+        for (int block = 0; block < blocks; block++)
+            childStarts[block + 1] += childStarts[block];
+        
+        int[] children = new int[Math.max(blocks - 1, 0)];
+        int[] filled = Arrays.copyOf(childStarts, blocks);
+        
+        for (int block = 1; block < blocks; block++)
+            children[filled[dominators[block]]++] = block;
+        
+        // the value each variable holds, with the values it held before
+        // kept in a trail to be put back once a block's subtree is done.
+        int[] current = new int[graph.variables];
+        int[] trail = new int[16];
+        int trailed = 0;
+        int[] marks = new int[blocks];
+        int[] stack = new int[blocks * 2];
+        int depth = 0;
+        
+        Arrays.fill(current, Quadruples.NONE);
+        stack[depth++] = 0;
+        
+        while (depth > 0) {
+            int block = stack[--depth];
+            
+            if (block < 0) {
+                for (int kept = marks[~block]; trailed > kept; trailed -= 2)
+                    current[trail[trailed - 2]] = trail[trailed - 1];
+                
+                continue;
+            }
+            
+            marks[block] = trailed;
+            
+            for (int phi = phiStarts[block]; phi < phiStarts[block + 1]; phi++) {
+                int variable = variableOfPhi[phi];
+                
+                if (trailed + 2 > trail.length)
+                    trail = Arrays.copyOf(trail, trail.length << 1);
+                
+                trail[trailed++] = variable;
+                trail[trailed++] = current[variable];
+                phiResults[phi] = current[variable] = Quadruples.temporary(values++);
+            }
+            
+            for (int i = starts[block]; i < starts[block + 1]; i++) {
+                if (block > 0) {
+                    if (FlowGraph.reads(op(i), 0))
+                        firsts[i] = value(graph, current, firsts[i]);
+                    
+                    if (FlowGraph.reads(op(i), 1))
+                        seconds[i] = value(graph, current, seconds[i]);
+                }
+                
+                int variable = renamed(graph, results[i]);
+                
+                if (variable >= 0) {
+                    if (trailed + 2 > trail.length)
+                        trail = Arrays.copyOf(trail, trail.length << 1);
+                    
+                    trail[trailed++] = variable;
+                    trail[trailed++] = current[variable];
+                    results[i] = current[variable] = Quadruples.temporary(values++);
+                }
+            }
+            
+            conditions[block] = value(graph, current, conditions[block]);
+            
+            for (int i = successorStarts[block]; i < successorStarts[block + 1]; i++) {
+                int successor = successors[i];
+                int from = predecessorStarts[successor];
+                
+                while (predecessors[from] != block)
+                    from++;
+                
+                for (int phi = phiStarts[successor]; phi < phiStarts[successor + 1]; phi++) {
+                    int argument = current[variableOfPhi[phi]];
+                    phiArguments[phiArgumentStarts[phi] + from - predecessorStarts[successor]] =
+                            argument == Quadruples.NONE ? Quadruples.number(0) : argument;
+                }
+            }
+            
+            stack[depth++] = ~block;
+            
+            for (int i = childStarts[block + 1] - 1; i >= childStarts[block]; i--)
+                stack[depth++] = children[i];
+        }
+    }
+    
+    /**
+     * @param graph The graph the variables are numbered by.
+     * @param current The value each variable holds.
+     * @param operand An operand read.
+     * @return The value the operand reads, or the operand itself if it is not
+     *      renamed.
+     */
+    private static int value(FlowGraph graph, int[] current, int operand) {
+        int variable = renamed(graph, operand);
+        
+        if (variable < 0)
+            return operand;
+        
+        return current[variable] == Quadruples.NONE ? Quadruples.number(0) : current[variable];
+    }
+    
+    /**
+     * @param graph The graph the variables are numbered by.
+     * @param operand An operand.
+     * @return The variable of the operand if it is renamed to values, being a
+     *      temporary or a variable of the function, or -1.
+     */
+    private static int renamed(FlowGraph graph, int operand) {
+        int variable = graph.variable(operand);
+        
+        return variable < 0 || graph.global(variable) ? -1 : variable;
+    }
+    
+    /**
+     * @param index The index of an instruction.
+     * @param slot 0 for the first operand, 1 for the second.
+     * @return The operand of the slot if the instruction reads a value from
+     *      it, or {@code NONE}.
+     */
+    private int read(int index, int slot) {
+        if (!FlowGraph.reads(op(index), slot))
+            return Quadruples.NONE;
+        
+        return slot == 0 ? firsts[index] : seconds[index];
+    }
+    
+    /**
+     * @return The blocks, each after every block it can go to but those it
+     *      can come back from.
+     */
+    private int[] postorder() {
+        int[] result = new int[blocks];
+        int[] stack = new int[blocks];
+        int[] next = new int[blocks];
+        boolean[] seen = new boolean[blocks];
+        int depth = 0;
+        int count = 0;
+        
+        seen[0] = true;
+        stack[depth++] = 0;
+        
+        while (depth > 0) {
+            int block = stack[depth - 1];
+            
+            if (successorStarts[block] + next[block] < successorStarts[block + 1]) {
+                int successor = successors[successorStarts[block] + next[block]++];
+                
+                if (!seen[successor]) {
+                    seen[successor] = true;
+                    stack[depth++] = successor;
+                }
+            } else {
+                result[count++] = block;
+                depth--;
+            }
+        }
+        
+        return result;
+    }
+    
+    /**
+     * @return The immediate dominator of each block, found by walking up the
+     *      tree from each pair of predecessors until they meet.
+     */
+    private int[] dominators() {
+        int[] postorder = postorder();
+        int[] numbers = new int[blocks];
+        int[] result = new int[blocks];
+        
+        for (int i = 0; i < blocks; i++)
+            numbers[postorder[i]] = i;
+        
+        Arrays.fill(result, -1);
+        result[0] = 0;
+        boolean changed = true;
+        
+        while (changed) {
+            changed = false;
+            
+            for (int i = blocks - 1; i >= 0; i--) {
+                int block = postorder[i];
+                int dominator = -1;
+                
+                if (block == 0)
+                    continue;
+                
+                for (int p = predecessorStarts[block]; p < predecessorStarts[block + 1]; p++) {
+                    int predecessor = predecessors[p];
+                    
+                    if (result[predecessor] < 0)
+                        continue;
+                    
+                    if (dominator < 0) {
+                        dominator = predecessor;
+                        continue;
+                    }
+                    
+                    while (dominator != predecessor) {
+                        while (numbers[dominator] < numbers[predecessor])
+                            dominator = result[dominator];
+                        
+                        while (numbers[predecessor] < numbers[dominator])
+                            predecessor = result[predecessor];
+                    }
+                }
+                
+                if (result[block] != dominator) {
+                    result[block] = dominator;
+                    changed = true;
+                }
+            }
+        }
+        
+        result[0] = -1;
+        
+        return result;
+    }
+    
+    /**
+     * @return The amount of loops each block is in, a loop being the blocks
+     *      which can reach a block dominating them without passing it.
+     */
+    private int[] loopDepths() {
+        int[] result = new int[blocks];
+        int[] marks = new int[blocks];
+        int[] stack = new int[blocks];
+        
+        Arrays.fill(marks, -1);
+        
+        for (int header = 0; header < blocks; header++) {
+            int depth = 0;
+            
+            for (int p = predecessorStarts[header]; p < predecessorStarts[header + 1]; p++) {
+                int latch = predecessors[p];
+                
+                if (!dominates(header, latch))
+                    continue;
+                
+                if (marks[header] != header) {
+                    marks[header] = header;
+                    result[header]++;
+                }
+                
+                if (marks[latch] != header) {
+                    marks[latch] = header;
+                    result[latch]++;
+                    stack[depth++] = latch;
+                }
+            }
+            
+            while (depth > 0) {
+                int block = stack[--depth];
+                
+                for (int p = predecessorStarts[block]; p < predecessorStarts[block + 1]; p++) {
+                    int predecessor = predecessors[p];
+                    
+                    if (marks[predecessor] != header) {
+                        marks[predecessor] = header;
+                        result[predecessor]++;
+                        stack[depth++] = predecessor;
+                    }
+                }
+            }
+        }
+        
+        return result;
+    }
+    
+    /**
+     * @param dominator A block.
+     * @param block Another block.
+     * @return {@code true} if every path from the entry to the block passes
+     *      through the dominator.
+     */
+    private boolean dominates(int dominator, int block) {
+        while (block != dominator && block > 0)
+            block = dominators[block];
+        
+        return block == dominator;
+    }
+    
+    /**
+     * @param frontierStarts Filled with where the frontier of each block
+     *      begins in the result, and the size of the result last.
+     * @return The dominance frontier of each block, one block after another:
+     *      the blocks it does not strictly dominate but dominates a
+     *      predecessor of.
+     */
+    private int[] frontiers(int[] frontierStarts) {
+        int[] owners = new int[16];
+        int[] members = new int[16];
+        int pairs = 0;
+        
+        for (int block = 0; block < blocks; block++) {
+            if (predecessorStarts[block + 1] - predecessorStarts[block] < 2)
+                continue;
+            
+            for (int p = predecessorStarts[block]; p < predecessorStarts[block + 1]; p++) {
+                for (int runner = predecessors[p]; runner != dominators[block]; runner = dominators[runner]) {
+                    if (pairs > 0 && owners[pairs - 1] == runner && members[pairs - 1] == block)
+                        continue;
+                    
+                    if (pairs == owners.length) {
+                        owners = Arrays.copyOf(owners, pairs << 1);
+                        members = Arrays.copyOf(members, pairs << 1);
+                    }
+                    
+                    owners[pairs] = runner;
+                    members[pairs++] = block;
+                }
+            }
+        }
+        
+        for (int i = 0; i < pairs; i++)
+            frontierStarts[owners[i] + 1]++;
+        
+        for (int block = 0; block < blocks; block++)
+            frontierStarts[block + 1] += frontierStarts[block];
+        
+        int[] result = new int[pairs];
+        int[] filled = Arrays.copyOf(frontierStarts, blocks);
+        
+        for (int i = 0; i < pairs; i++)
+            result[filled[owners[i]]++] = members[i];
+        
+        return result;
+    }
+    
+    /**
+     * @return The code the form is of, which holds its name, its parameters
+     *      and the text of its literals.
+     */
+    public Quadruples code() { return code; }
+    
+    /**
+     * @return The amount of blocks.
+     */
+    public int blocks() { return blocks; }
+    
+    /**
+     * @param block A block.
+     * @return The index of the first instruction of the block; the block
+     *      ends where the next begins.
+     */
+    public int start(int block) { return starts[block]; }
+    
+    /**
+     * @return The amount of instructions.
+     */
+    public int size() { return starts[blocks]; }
+    
+    /**
+     * @param index The index of an instruction.
+     * @return The operation of the instruction, never a label or a jump.
+     */
+    public Op op(int index) { return OPS[ops[index]]; }
+    
+    /**
+     * @param index The index of an instruction.
+     * @return The first operand of the instruction, or {@code NONE}.
+     */
+    public int first(int index) { return firsts[index]; }
+    
+    /**
+     * @param index The index of an instruction.
+     * @return The second operand of the instruction, or {@code NONE}.
+     */
+    public int second(int index) { return seconds[index]; }
+    
+    /**
+     * @param index The index of an instruction.
+     * @return The operand the result of the instruction goes to, or
+     *      {@code NONE}.
+     */
+    public int result(int index) { return results[index]; }
+    
+    /**
+     * @param block A block.
+     * @return The condition the block ends in, or {@code NONE} if it has at
+     *      most one successor.
+     */
+    public int condition(int block) { return conditions[block]; }
+    
+    /**
+     * @param block A block.
+     * @return The amount of successors of the block; none if the function
+     *      ends there.
+     */
+    public int successors(int block) { return successorStarts[block + 1] - successorStarts[block]; }
+    
+    /**
+     * @param block A block.
+     * @param k 0 for the block gone to if the condition holds or there is
+     *      none, 1 for the block gone to if it does not.
+     * @return The successor.
+     */
+    public int successor(int block, int k) { return successors[successorStarts[block] + k]; }
+    
+    /**
+     * @param block A block.
+     * @return The amount of predecessors of the block.
+     */
+    public int predecessors(int block) { return predecessorStarts[block + 1] - predecessorStarts[block]; }
+    
+    /**
+     * @param block A block.
+     * @param k The index of the predecessor.
+     * @return The predecessor, whose arguments of the phis of the block are
+     *      the {@code k}th ones.
+     */
+    public int predecessor(int block, int k) { return predecessors[predecessorStarts[block] + k]; }
+    
+    /**
+     * @param block A block.
+     * @return The immediate dominator of the block, or -1 for the entry.
+     */
+    public int dominator(int block) { return dominators[block]; }
+    
+    /**
+     * @param block A block.
+     * @return The amount of loops the block is in.
+     */
+    public int loopDepth(int block) { return loopDepths[block]; }
+    
+    /**
+     * @param block A block.
+     * @return The index of the first phi of the block; the phis of the block
+     *      end where those of the next begin.
+     */
+    public int phiStart(int block) { return phiStarts[block]; }
+    
+    /**
+     * @param phi The index of a phi.
+     * @return The value the phi writes.
+     */
+    public int phiResult(int phi) { return phiResults[phi]; }
+    
+    /**
+     * @param phi The index of a phi.
+     * @param k The index of a predecessor of the block of the phi.
+     * @return The value or constant the phi takes when the block is entered
+     *      from the predecessor.
+     */
+    public int phiArgument(int phi, int k) { return phiArguments[phiArgumentStarts[phi] + k]; }
+    
+    /**
+     * @return The amount of values, numbered from zero.
+     */
+    public int values() { return values; }
+}
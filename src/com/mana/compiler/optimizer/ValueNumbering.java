@@ -0,0 +1,206 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.optimizer;
+
+import com.mana.compiler.generator.Quadruples;
+import com.mana.compiler.generator.Quadruples.Op;
+import java.util.Arrays;
+
+/**
+ * Finds operations in a block which compute a value the block already has in
+ * a variable, and makes each a copy of that variable.
+ * 
+ * <p>
+ * Each variable and constant read in a block is given a value number, and
+ * each operation is known by its operation and the numbers of its operands,
+ * in either order if the operation does not care. The first variable given
+ * the value of an operation holds it until the variable is written again;
+ * a call gives every global a new number. The operations are kept in a table
+ * of {@code long} keys and values which is open addressed, so numbering a
+ * block makes no objects.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+final class ValueNumbering implements Pass {
+    /** The bits of a value number in a key. */
+    private static final int BITS = 29;
+    /** The operation given to constants in keys, past every real one. */
+    private static final int CONSTANT = Op.length;
+    
+    @Override
+    public int run(Quadruples code) {
+        FlowGraph graph = new FlowGraph(code);
+        int largest = 0;
+        
+        for (int block = 0; block < graph.blocks; block++)
+            largest = Math.max(largest, graph.starts[block + 1] - graph.starts[block]);
+        
+        // two entries for each instruction at most, at half load.
+        int capacity = Integer.highestOneBit(Math.max(largest, 1) * 4 + 3) << 1;
+        long[] keys = new long[capacity];
+        long[] values = new long[capacity];
+        int[] numbers = new int[graph.variables];
+        int changes = 0;
+        
+        for (int block = 0; block < graph.blocks; block++) {
+            Arrays.fill(keys, -1L);
+            Arrays.fill(numbers, -1);
+            int next = 0;
+            
+            for (int i = graph.starts[block]; i < graph.starts[block + 1]; i++) {
+                Op op = code.op(i);
+                int result = graph.variable(code.result(i));
+                
+                if (graph.writesGlobals(i)) {
+                    for (int variable = 0; variable < graph.variables; variable++) {
+                        if (graph.global(variable))
+                            numbers[variable] = -1;
+                    }
+                }
+                
+                if (result < 0)
+                    continue;
+                
+                if (op == Op.call || op == Op.copy && code.first(i) == code.result(i)) {
+                    numbers[result] = next++;
+                    continue;
+                }
+                
+                int a = Quadruples.NONE;
+                int b = Quadruples.NONE;
+                
+                // the numbers of the operands, given on first sight.
+                for (int slot = 0; slot < 2; slot++) {
+                    int operand = slot == 0 ? code.first(i) : code.second(i);
+                    
+                    if (graph.read(i, slot) == Quadruples.NONE)
+                        continue;
+                    
+                    int variable = graph.variable(operand);
+                    int number;
+                    
+                    if (variable >= 0) {
+                        if (numbers[variable] < 0)
+                            numbers[variable] = next++;
+                        
+                        number = numbers[variable];
+                    } else if (Quadruples.tag(operand) == Quadruples.NUMBER) {
+                        long key = key(CONSTANT, Quadruples.value(operand) & (1 << BITS) - 1, 0);
+                        int at = find(keys, key);
+                        
+                        if (keys[at] != key) {
+                            keys[at] = key;
+                            values[at] = next++;
+                        }
+                        
+                        number = (int)values[at];
+                    } else
+                        number = next++;
+                    
+                    if (slot == 0)
+                        a = number;
+                    else
+                        b = number;
+                }
+                
+                if (op == Op.copy) {
+                    numbers[result] = a;
+                    continue;
+                }
+                
+                if (b != Quadruples.NONE && commutes(op) && b < a) {
+                    int swap = a;
+                    a = b;
+                    b = swap;
+                }
+                
+                long key = key(op.index, a, b == Quadruples.NONE ? 0 : b);
+                int at = find(keys, key);
+                
+                if (keys[at] == key) {
+                    int holder = (int)values[at];
+                    int number = (int)(values[at] >>> 32);
+                    
+                    if (numbers[holder] == number) {
+                        code.set(i, Op.copy, graph.operand(holder), Quadruples.NONE, code.result(i));
+                        numbers[result] = number;
+                        changes++;
+                        continue;
+                    }
+                }
+                
+                keys[at] = key;
+                values[at] = (long)next << 32 | result;
+                numbers[result] = next++;
+            }
+        }
+        
+        return changes;
+    }
+    
+    /**
+     * @param op The operation, or {@code CONSTANT}.
+     * @param a The number of the first operand.
+     * @param b The number of the second operand.
+     * @return The key of the operation.
+     */
+    private static long key(int op, int a, int b) {
+        return (long)op << 2 * BITS | (long)a << BITS | b;
+    }
+    
+    /**
+     * @param keys The keys of the table.
+     * @param key A key.
+     * @return The slot of the key, or the empty slot it would go in.
+     */
+    private static int find(long[] keys, long key) {
+        int mask = keys.length - 1;
+        int at = (int)(key ^ key >>> 29 ^ key >>> 58) * 0x9e3779b9 & mask;
+        
+        while (keys[at] != -1L && keys[at] != key)
+            at = at + 1 & mask;
+        
+        return at;
+    }
+    
+    /**
+     * @param op A binary operation.
+     * @return {@code true} if the order of its operands does not matter.
+     */
+    private static boolean commutes(Op op) {
+        switch (op) {
+            case add:
+            case multiply:
+            case equal:
+            case notEqual:
+            case and:
+            case or:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
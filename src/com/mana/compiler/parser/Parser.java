@@ -23,22 +23,114 @@
  */
 package com.mana.compiler.parser;
 
-import com.mana.compiler.grammar.Token;
+import com.mana.compiler.grammar.Damage;
+import com.mana.compiler.grammar.SourceTable;
 import com.mana.compiler.grammar.Token.Type;
+import com.mana.compiler.grammar.TokenCursor;
+import com.mana.compiler.grammar.TokenRing;
+import com.mana.compiler.grammar.TokenStream;
 import com.mana.compiler.lexer.Lexer;
+import com.mana.compiler.util.exceptions.UnexpectedTokenException;
 import com.mana.compiler.util.structures.ParseTree;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
- *
+ * Parses the tokens of one file into a {@code ParseTree}, following the
+ * grammar
+ * 
+ * <pre>
+ * file        := (import | function | variable)* eof
+ * import      := "import" string ";"
+ * function    := "func" identifier "(" (parameter ("," parameter)*)? ")" (":" type)? block
+ * parameter   := identifier ":" type
+ * variable    := "var" identifier ":" type ("=" expression)? ";"
+ * block       := "{" statement* "}"
+ * statement   := variable | block | "return" expression? ";"
+ *              | "if" "(" expression ")" block ("else" (if | block))?
+ *              | "while" "(" expression ")" block
+ *              | expression ("=" expression)? ";"
+ * expression  := unary (operator unary)*
+ * unary       := ("-" | "!") unary | "(" expression ")" | literal
+ *              | identifier ("(" (expression ("," expression)*)? ")")?
+ * </pre>
+ * 
+ * <p>
+ * Binary operators bind, from loosest to tightest, as {@code ||}, {@code &&},
+ * equality, comparison, {@code + -}, then {@code * / %}. The choice between
+ * the rules of a file, a block and an operand is made by looking the current
+ * token up in the {@code PARSETABLE}.
+ * </p>
+ * 
+ * <p>
+ * A syntax error is reported and counted in the tree, then the parser skips
+ * to the end of the statement or declaration and carries on, so one run
+ * reports the errors of every statement.
+ * </p>
+ * 
+ * <p>
+ * A tree parsed from a {@code TokenStream} can be parsed again after its
+ * source is edited and relexed by {@code Lexer.relex}. Only the statements,
+ * or declarations, of the innermost block the edit falls in are parsed again,
+ * starting with the first one the edit could have changed and stopping as
+ * soon as the parser is back at the start of a statement it parsed before;
+ * each statement after that parses as it did before, as the parser carries
+ * nothing from one statement to the next. If the parser does not get back in
+ * step before the block ends, the edit changed the block itself, and the
+ * block holding it is parsed again instead.
+ * </p>
+ * 
  * @author Mana Technologies
  * @version alpha 0.0.0.1
  */
 public final class Parser {
-    /***/
+    /**
+     * The states of the parser. Each state parses one non-terminal of the
+     * grammar, and each node of a parse tree is of the kind of the state it
+     * was parsed in.
+     */
     public enum State {
-        start, finished;
+        /** A whole file; the root of every tree. */
+        start,
+        /** Nothing left to parse at this level. */
+        finished,
+        /** An import of another file, holding the string naming it. */
+        importDeclaration,
+        /** A function, holding its name, parameters, type and body. */
+        functionDeclaration,
+        /** A parameter of a function, holding its name and type. */
+        parameter,
+        /** The name of a built in type. */
+        typeName,
+        /** A variable, holding its name, type and value if it has one. */
+        variableDeclaration,
+        /** A block of statements. */
+        block,
+        /** A return, holding its value if it has one. */
+        returnStatement,
+        /** An if, holding its condition, block and else if it has one. */
+        ifStatement,
+        /** A while, holding its condition and block. */
+        whileStatement,
+        /** An assignment, holding its operator, target and value. */
+        assignment,
+        /** An expression whose value is not used. */
+        expressionStatement,
+        /** A binary operation, holding its operator and two operands. */
+        binary,
+        /** A unary operation, holding its operator and operand. */
+        unary,
+        /** A call, holding the name called and its arguments. */
+        call,
+        /** The use of a name. */
+        name,
+        /** A literal number, string or boolean. */
+        literal;
         
         public static int length = values().length;
         public int index = ordinal();
@@ -50,10 +142,25 @@ public final class Parser {
     State state = State.start;
     /** The parsing table. */
     static final State[][] PARSETABLE;
+    /** How tightly each binary operator binds, 0 for tokens which are not. */
+    static final int[] PRECEDENCE;
+    /** The amount of tokens held between the lexer and parser when streaming. */
+    static final int RING_CAPACITY = 4096;
+    /** The tokens being parsed. */
+    private TokenCursor tokens;
+    /** The tree being built. */
+    private ParseTree tree;
+    /** Whether an error was reported since the parser last recovered. */
+    private boolean panic;
+    /** The position the statement or declaration being parsed started at. */
+    private int unit;
+    /** The errors held back while parsing again, or {@code null} if none are. */
+    private List<UnexpectedTokenException> held;
     
     // responsible for filling the parse table.
     static {
         PARSETABLE = fillParseTable();
+        PRECEDENCE = fillPrecedence();
     }
     
     /**
@@ -64,43 +171,810 @@ public final class Parser {
     }
     
     /**
+     * The table gives the state to parse in next from the current state and
+     * token. Only the states which choose between rules have rows filled;
+     * every other entry is {@code finished}.
+     * 
      * @return The filled parse table.
      */
     static final State[][] fillParseTable() {
         State[][] result = new State[State.length][Type.length];
         
-        // fill table here.
+        for (State[] row : result)
+            Arrays.fill(row, State.finished);
+        
+        // the declarations of a file.
+        fill(result, State.start, State.importDeclaration, Type.importKeyword);
+        fill(result, State.start, State.functionDeclaration, Type.funcKeyword);
+        fill(result, State.start, State.variableDeclaration, Type.varKeyword);
+        
+        // the statements of a block.
+        fill(result, State.block, State.variableDeclaration, Type.varKeyword);
+        fill(result, State.block, State.returnStatement, Type.returnKeyword);
+        fill(result, State.block, State.ifStatement, Type.ifKeyword);
+        fill(result, State.block, State.whileStatement, Type.whileKeyword);
+        fill(result, State.block, State.block, Type.leftBrace);
+        fill(result, State.block, State.expressionStatement, Type.identifier, Type.number, Type.string,
+                Type.trueKeyword, Type.falseKeyword, Type.leftParen, Type.minus, Type.not);
+        
+        // the operands of an expression; a parenthesized expression is parsed
+        // as the binary expression inside it.
+        fill(result, State.unary, State.unary, Type.minus, Type.not);
+        fill(result, State.unary, State.name, Type.identifier);
+        fill(result, State.unary, State.literal, Type.number, Type.string, Type.trueKeyword, Type.falseKeyword);
+        fill(result, State.unary, State.binary, Type.leftParen);
+        
+        return result;
+    }
+    
+    /**
+     * @param table The table to fill.
+     * @param from The state the entries are in.
+     * @param to The state to go to.
+     * @param on The tokens which go to that state.
+     */
+    private static void fill(State[][] table, State from, State to, Type... on) {
+        for (Type type : on)
+            table[from.index][type.index] = to;
+    }
+    
+    /**
+     * @return How tightly each token binds as a binary operator.
+     */
+    static final int[] fillPrecedence() {
+        int[] result = new int[Type.length];
+        
+        result[Type.or.index] = 1;
+        result[Type.and.index] = 2;
+        result[Type.equal.index] = result[Type.notEqual.index] = 3;
+        result[Type.less.index] = result[Type.lessEqual.index] = 4;
+        result[Type.greater.index] = result[Type.greaterEqual.index] = 4;
+        result[Type.plus.index] = result[Type.minus.index] = 5;
+        result[Type.star.index] = result[Type.slash.index] = result[Type.percent.index] = 6;
         
         return result;
     }
     
     /**
      * Parses the file constructed by the constructor and returns the Parse Tree
-     * equivalent to that file.
+     * equivalent to that file. The whole file is lexed before parsing begins.
      * 
      * @return The parse tree equivalent to the file constructed by this parser.
      */
     public final ParseTree parse() {
-        ParseTree result = new ParseTree();
+        Lexer lexer = new Lexer(file);
         
+        return parse(lexer.lex());
+    }
+    
+    /**
+     * Parses the file constructed by the constructor after lexing it in
+     * pieces at once. Meant for files large enough to hold up the rest of the
+     * compilation when lexed by one thread.
+     * 
+     * @param pieces The amount of pieces to lex the file in.
+     * @return The parse tree equivalent to the file constructed by this parser.
+     */
+    public final ParseTree parse(int pieces) {
         Lexer lexer = new Lexer(file);
-        List<Token> tokens = lexer.lex();
-        
-        while(state != State.finished) {
-            switch (state) {
-                case start:
-                    // default for now.
-                    state = State.finished;
-                    break;
-                default:
-                    // throw error
-                    break;
+        
+        return parse(lexer.lex(pieces));
+    }
+    
+    /**
+     * Parses the file constructed by the constructor while it is being lexed.
+     * The lexer runs on the given executor and hands its tokens over through a
+     * {@code TokenRing}, so only {@code RING_CAPACITY} tokens are ever held.
+     * 
+     * @param lexers The executor to run the lexer on; it must not run the
+     *      lexer on the calling thread.
+     * @return The parse tree equivalent to the file constructed by this parser.
+     */
+    public final ParseTree parse(Executor lexers) {
+        Lexer lexer = new Lexer(file);
+        TokenRing ring = new TokenRing(RING_CAPACITY);
+        
+        lexers.execute(() -> lexer.lex(ring));
+        
+        try {
+            return parse(ring);
+        } finally {
+            // let the lexer stop if we finished before it did.
+            ring.close();
+        }
+    }
+    
+    /**
+     * Parses tokens which were already lexed, such as those given by
+     * {@code Lexer.lex()}, from the start. The tree can be parsed again by
+     * {@code reparse} once the tokens are relexed.
+     * 
+     * @param tokens The tokens of the file constructed by this parser.
+     * @return The parse tree equivalent to the tokens.
+     */
+    public final ParseTree parse(TokenStream tokens) {
+        tokens.reset(0);
+        
+        return parse((TokenCursor)tokens);
+    }
+    
+    /**
+     * @param tokens The tokens to parse.
+     * @return The parse tree equivalent to the tokens.
+     */
+    private ParseTree parse(TokenCursor tokens) {
+        this.tokens = tokens;
+        tree = new ParseTree(tokens.file(), State.start.index);
+        panic = false;
+        
+        int start = tokens.position();
+        
+        while (declaration(ParseTree.ROOT)) {
+            // each declaration is added as it is parsed.
+        }
+        
+        tree.span(ParseTree.ROOT, start, tokens.position());
+        
+        ParseTree result = tree;
+        this.tokens = null;
+        tree = null;
+        
+        return result;
+    }
+    
+    /**
+     * Parses the next declaration of a file, skipping past it if it went
+     * wrong.
+     * 
+     * @param parent The node to add the declaration to.
+     * @return {@code false} once the end of the file is reached.
+     */
+    private boolean declaration(int parent) {
+        int position = tokens.position();
+        int node = ParseTree.NONE;
+        
+        unit = position;
+        state = PARSETABLE[State.start.index][tokens.typeIndex()];
+        
+        switch (state) {
+            case importDeclaration:
+                node = importDeclaration();
+                break;
+            case functionDeclaration:
+                node = functionDeclaration();
+                break;
+            case variableDeclaration:
+                node = variableDeclaration();
+                break;
+            default:
+                if (tokens.type() != Type.eof) {
+                    unexpected("a declaration");
+                    state = State.start;
+                }
+                break;
+        }
+        
+        // skip to the next declaration if this one went wrong.
+        if (panic) {
+            while (tokens.type() != Type.eof
+                    && PARSETABLE[State.start.index][tokens.typeIndex()] == State.finished)
+                tokens.advance();
+            
+            panic = false;
+        }
+        
+        tree.append(parent, tree.span(node, position, tokens.position()));
+        
+        return state != State.finished;
+    }
+    
+    /**
+     * Parses a tree again after its tokens were relexed, reusing every
+     * statement and declaration the edit could not have changed. The errors of
+     * the statements parsed again are reported again; errors found by checking
+     * the tree are dropped, so it has to be checked again.
+     * 
+     * @param tokens The tokens the tree was parsed from, after relexing.
+     * @param tree The tree parsed from the tokens before relexing, by
+     *      {@code parse(TokenStream)} or an earlier call to this method.
+     * @param damage What relexing changed.
+     * @return The tree, changed in place, or a tree parsed anew from the whole
+     *      of the tokens once most of the old one has been replaced.
+     */
+    public final ParseTree reparse(TokenStream tokens, ParseTree tree, Damage damage) {
+        damage.shift(tree.tokens());
+        
+        if (!damage.changed())
+            return tree;
+        
+        if (tree.garbage() > tree.size() - tree.garbage())
+            return parse(tokens);
+        
+        this.tokens = tokens;
+        this.tree = tree;
+        
+        try {
+            int list = enclosing(tokens, damage);
+            
+            while (!reparse(tokens, list, damage)) {
+                // the edit reached outside of the block, try the one holding
+                // it. As in enclosing, that block has to be closed, or the
+                // errors at the end of the file are not all its own.
+                do {
+                    list = tree.parent(list);
+                } while (list != ParseTree.ROOT && (tree.kind(list) != State.block.index
+                        || tokens.type(tree.end(list) + damage.delta()) == Type.eof));
             }
+        } finally {
+            this.tokens = null;
+            this.tree = null;
+        }
+        
+        return tree;
+    }
+    
+    /**
+     * Finds the innermost block the damage lies within, not counting its
+     * braces.
+     * 
+     * @param tokens The tokens after relexing.
+     * @param damage What relexing changed.
+     * @return The block, or the root if the damage is within no block.
+     */
+    private int enclosing(TokenStream tokens, Damage damage) {
+        int node = ParseTree.ROOT;
+        int result = ParseTree.ROOT;
+        
+        while (true) {
+            int child = tree.first(node);
             
-            // pick new state.
-            state = PARSETABLE[state.index][tokens.get(0).type().index];
+            // only declarations, statements and blocks keep their spans, and
+            // only they may hold blocks.
+            while (child != ParseTree.NONE
+                    && (tree.start(child) == ParseTree.NONE || tree.start(child) > damage.from
+                    || tree.end(child) < damage.oldTo))
+                child = tree.next(child);
+            
+            if (child == ParseTree.NONE)
+                return result;
+            
+            // the block has to be closed; only the end of the file stops one
+            // before its brace, which may be any token skipped on the way.
+            if (tree.kind(child) == State.block.index && tree.start(child) < damage.from
+                    && tree.end(child) > damage.oldTo
+                    && tokens.type(tree.end(child) + damage.delta()) != Type.eof)
+                result = child;
+            
+            node = child;
         }
+    }
+    
+    /**
+     * Parses again the statements of a block, or the declarations of the
+     * root, from the first one the damage could have changed until the parser
+     * is back at the start of one it parsed before, and puts them in place of
+     * the old ones.
+     * 
+     * @param tokens The tokens after relexing.
+     * @param list The block or root.
+     * @param damage What relexing changed.
+     * @return {@code false} if the parser ran past the end of the block, in
+     *      which case nothing is changed.
+     */
+    private boolean reparse(TokenStream tokens, int list, Damage damage) {
+        int delta = damage.delta();
+        int nodes = tree.size();
+        int faults = tree.faults();
+        int table = tree.tokens().size();
+        int previous = ParseTree.NONE;
+        int start = list == ParseTree.ROOT ? tree.start(list) : tree.start(list) + 1;
         
-        return result;
+        // the statements which end before the damage are kept, along with
+        // their last token, which was looked past to end them.
+        for (int child = tree.first(list); child != ParseTree.NONE && tree.end(child) < damage.from;
+                child = tree.next(child)) {
+            previous = child;
+            start = tree.end(child);
+        }
+        
+        // the first statement of a block is parsed on from the header of the
+        // statement holding it; if the header went wrong, the statement's own
+        // error was never reported, so the header has to be parsed again too.
+        if (previous == ParseTree.NONE && list != ParseTree.ROOT && faultedHeader(list))
+            return false;
+        
+        int next = previous == ParseTree.NONE ? tree.first(list) : tree.next(previous);
+        int end = tree.end(list) + delta;
+        int holder = tree.add(tree.kind(list), ParseTree.NONE);
+        boolean more = true;
+        
+        // a statement which ran into the end of the file leaves the parser
+        // panicking, for the blocks around it to end quietly.
+        panic = false;
+        held = new ArrayList<>();
+        tokens.reset(start);
+        
+        while (true) {
+            int position = tokens.position();
+            
+            while (next != ParseTree.NONE
+                    && (tree.start(next) < damage.oldTo || tree.start(next) + delta < position))
+                next = tree.next(next);
+            
+            // the list has to end where it did, or the statements after it
+            // may have moved in or out of it. A block the end of the file
+            // ran into leaves the parser panicking, and the blocks around it
+            // then run into the end of the file too.
+            if (!more && position == end && (!panic || list == ParseTree.ROOT))
+                break;
+            
+            // back in step with a statement which starts past the damage.
+            if (more && next != ParseTree.NONE && tree.start(next) + delta == position)
+                break;
+            
+            if (!more || position > end) {
+                tree.rollback(nodes, table, faults);
+                held = null;
+                
+                return false;
+            }
+            
+            more = list == ParseTree.ROOT ? declaration(holder) : statement(holder);
+        }
+        
+        // everything from the start of the first statement parsed again up to
+        // the statement the parser got back in step with was replaced; when
+        // the list ran to the end of the file, errors there went with it.
+        int to = next != ParseTree.NONE ? tree.start(next)
+                : tokens.type(end) == Type.eof ? tree.end(list) + 1 : tree.end(list);
+        
+        tree.replace(list, previous, next, holder);
+        tree.repair(nodes, faults, start, to, damage.oldTo, delta);
+        
+        for (UnexpectedTokenException ex : held)
+            Logger.getLogger(Parser.class.getName()).log(Level.SEVERE, null, ex);
+        
+        held = null;
+        
+        return true;
+    }
+    
+    /**
+     * A statement which went wrong leaves the parser panicking until it is
+     * skipped past, so a header which went wrong holds back the errors of the
+     * first statement of its block, of the first statement of that one if it
+     * holds a block, and so on.
+     * 
+     * @param block A block.
+     * @return {@code true} if a header the first statement of the block is
+     *      parsed on from went wrong.
+     */
+    private boolean faultedHeader(int block) {
+        int node = owner(block);
+        
+        while (!tree.faulted(tree.start(node))) {
+            int parent = tree.parent(node);
+            
+            if (parent == ParseTree.ROOT || tree.first(parent) != node)
+                return false;
+            
+            node = owner(parent);
+        }
+        
+        return true;
+    }
+    
+    /**
+     * @param block A block.
+     * @return The statement or declaration the block is part of, which is the
+     *      block itself if it is a statement.
+     */
+    private int owner(int block) {
+        int node = block;
+        
+        while (tree.parent(node) != ParseTree.ROOT && tree.kind(tree.parent(node)) != State.block.index)
+            node = tree.parent(node);
+        
+        return node;
+    }
+    
+    /**
+     * @return The import node.
+     */
+    private int importDeclaration() {
+        tokens.advance();
+        
+        if (tokens.type() != Type.string)
+            return unexpected("the name of a file");
+        
+        int node = tree.add(State.importDeclaration.index, tokens);
+        tokens.advance();
+        expect(Type.semicolon, "\";\"");
+        
+        return node;
+    }
+    
+    /**
+     * @return The function node.
+     */
+    private int functionDeclaration() {
+        tokens.advance();
+        
+        if (tokens.type() != Type.identifier)
+            return unexpected("the name of a function");
+        
+        int node = tree.add(State.functionDeclaration.index, tokens);
+        tokens.advance();
+        
+        if (!expect(Type.leftParen, "\"(\""))
+            return node;
+        
+        if (tokens.type() != Type.rightParen) {
+            do {
+                tree.append(node, parameter());
+            } while (!panic && tokens.accept(Type.comma));
+        }
+        
+        if (!expect(Type.rightParen, "\")\""))
+            return node;
+        
+        if (tokens.accept(Type.colon))
+            tree.append(node, typeName());
+        
+        return tree.append(node, block());
+    }
+    
+    /**
+     * @return The parameter node.
+     */
+    private int parameter() {
+        if (tokens.type() != Type.identifier)
+            return unexpected("the name of a parameter");
+        
+        int node = tree.add(State.parameter.index, tokens);
+        tokens.advance();
+        
+        if (expect(Type.colon, "\":\""))
+            tree.append(node, typeName());
+        
+        return node;
+    }
+    
+    /**
+     * @return The type node.
+     */
+    private int typeName() {
+        if (tokens.type() != Type.type)
+            return unexpected("a type");
+        
+        int node = tree.add(State.typeName.index, tokens);
+        tokens.advance();
+        
+        return node;
+    }
+    
+    /**
+     * @return The variable node.
+     */
+    private int variableDeclaration() {
+        tokens.advance();
+        
+        if (tokens.type() != Type.identifier)
+            return unexpected("the name of a variable");
+        
+        int node = tree.add(State.variableDeclaration.index, tokens);
+        tokens.advance();
+        
+        if (!expect(Type.colon, "\":\""))
+            return node;
+        
+        tree.append(node, typeName());
+        
+        if (tokens.accept(Type.assign))
+            tree.append(node, expression());
+        
+        expect(Type.semicolon, "\";\"");
+        
+        return node;
+    }
+    
+    /**
+     * @return The block node.
+     */
+    private int block() {
+        if (tokens.type() != Type.leftBrace)
+            return unexpected("\"{\"");
+        
+        int start = tokens.position();
+        int outer = unit;
+        int node = tree.add(State.block.index, tokens);
+        tokens.advance();
+        
+        while (statement(node)) {
+            // each statement is added as it is parsed.
+        }
+        
+        unit = outer;
+        
+        return tree.span(node, start, tokens.position());
+    }
+    
+    /**
+     * Parses the next statement of a block, skipping past it if it went wrong.
+     * 
+     * @param block The node to add the statement to.
+     * @return {@code false} once the block is closed, or the end of the file is
+     *      reached.
+     */
+    private boolean statement(int block) {
+        int position = tokens.position();
+        int node;
+        
+        unit = position;
+        
+        switch (PARSETABLE[State.block.index][tokens.typeIndex()]) {
+            case variableDeclaration:
+                node = variableDeclaration();
+                break;
+            case returnStatement:
+                node = returnStatement();
+                break;
+            case ifStatement:
+                node = ifStatement();
+                break;
+            case whileStatement:
+                node = whileStatement();
+                break;
+            case block:
+                node = block();
+                break;
+            case expressionStatement:
+                node = expressionStatement();
+                break;
+            default:
+                if (tokens.accept(Type.rightBrace))
+                    return false;
+                
+                unexpected("a statement");
+                
+                if (tokens.type() == Type.eof)
+                    return false;
+                
+                node = ParseTree.NONE;
+                break;
+        }
+        
+        if (panic)
+            recover(position);
+        
+        tree.append(block, tree.span(node, position, tokens.position()));
+        
+        return true;
+    }
+    
+    /**
+     * Skips to the end of the statement that went wrong, so the next one can
+     * be parsed.
+     * 
+     * @param position The position the statement started at.
+     */
+    private void recover(int position) {
+        while (tokens.type() != Type.eof && tokens.type() != Type.rightBrace
+                && PARSETABLE[State.block.index][tokens.typeIndex()] != State.variableDeclaration
+                && PARSETABLE[State.block.index][tokens.typeIndex()] != State.returnStatement
+                && PARSETABLE[State.block.index][tokens.typeIndex()] != State.ifStatement
+                && PARSETABLE[State.block.index][tokens.typeIndex()] != State.whileStatement) {
+            if (tokens.accept(Type.semicolon))
+                break;
+            
+            tokens.advance();
+        }
+        
+        // a statement that took nothing must still be passed over.
+        if (tokens.position() == position && tokens.type() != Type.eof && tokens.type() != Type.rightBrace)
+            tokens.advance();
+        
+        panic = false;
+    }
+    
+    /**
+     * @return The return node.
+     */
+    private int returnStatement() {
+        int node = tree.add(State.returnStatement.index, tokens);
+        tokens.advance();
+        
+        if (tokens.type() != Type.semicolon)
+            tree.append(node, expression());
+        
+        expect(Type.semicolon, "\";\"");
+        
+        return node;
+    }
+    
+    /**
+     * @return The if node.
+     */
+    private int ifStatement() {
+        int start = tokens.position();
+        int node = tree.add(State.ifStatement.index, tokens);
+        tokens.advance();
+        
+        if (condition(node)) {
+            tree.append(node, block());
+            
+            if (tokens.accept(Type.elseKeyword))
+                tree.append(node, tokens.type() == Type.ifKeyword ? ifStatement() : block());
+        }
+        
+        // an else if is not a statement of its own, but may hold blocks.
+        return tree.span(node, start, tokens.position());
+    }
+    
+    /**
+     * @return The while node.
+     */
+    private int whileStatement() {
+        int node = tree.add(State.whileStatement.index, tokens);
+        tokens.advance();
+        
+        if (!condition(node))
+            return node;
+        
+        return tree.append(node, block());
+    }
+    
+    /**
+     * @param node The node to add the parenthesized condition to.
+     * @return {@code true} if the condition was parsed.
+     */
+    private boolean condition(int node) {
+        if (!expect(Type.leftParen, "\"(\""))
+            return false;
+        
+        tree.append(node, expression());
+        
+        return expect(Type.rightParen, "\")\"");
+    }
+    
+    /**
+     * @return The assignment or expression statement node.
+     */
+    private int expressionStatement() {
+        int value = expression();
+        int node;
+        
+        if (tokens.type() == Type.assign) {
+            node = tree.add(State.assignment.index, tokens);
+            tokens.advance();
+            tree.append(node, value);
+            tree.append(node, expression());
+        } else
+            node = tree.append(tree.add(State.expressionStatement.index, ParseTree.NONE), value);
+        
+        expect(Type.semicolon, "\";\"");
+        
+        return node;
+    }
+    
+    /**
+     * @return The node of a whole expression.
+     */
+    private int expression() {
+        return binary(1);
+    }
+    
+    /**
+     * Parses operations by precedence climbing, so each operand is read once
+     * and operators of equal precedence group to the left.
+     * 
+     * @param minimum The loosest operator this expression may take.
+     * @return The node of the expression.
+     */
+    private int binary(int minimum) {
+        int left = unary();
+        
+        while (!panic && PRECEDENCE[tokens.typeIndex()] >= minimum) {
+            int precedence = PRECEDENCE[tokens.typeIndex()];
+            int node = tree.add(State.binary.index, tokens);
+            tokens.advance();
+            
+            tree.append(node, left);
+            left = tree.append(node, binary(precedence + 1));
+        }
+        
+        return left;
+    }
+    
+    /**
+     * @return The node of a single operand.
+     */
+    private int unary() {
+        int node;
+        
+        switch (PARSETABLE[State.unary.index][tokens.typeIndex()]) {
+            case unary:
+                node = tree.add(State.unary.index, tokens);
+                tokens.advance();
+                
+                return tree.append(node, unary());
+            case name:
+                int token = tree.token(tokens);
+                tokens.advance();
+                
+                if (!tokens.accept(Type.leftParen))
+                    return tree.add(State.name.index, token);
+                
+                node = tree.add(State.call.index, token);
+                
+                if (tokens.type() != Type.rightParen) {
+                    do {
+                        tree.append(node, expression());
+                    } while (!panic && tokens.accept(Type.comma));
+                }
+                
+                expect(Type.rightParen, "\")\"");
+                
+                return node;
+            case literal:
+                node = tree.add(State.literal.index, tokens);
+                tokens.advance();
+                
+                return node;
+            case binary:
+                tokens.advance();
+                node = expression();
+                expect(Type.rightParen, "\")\"");
+                
+                return node;
+            default:
+                return unexpected("an expression");
+        }
+    }
+    
+    /**
+     * Takes the current token if it is of the given type, and reports it
+     * otherwise.
+     * 
+     * @param type The type of token expected.
+     * @param expected A description of what was expected.
+     * @return {@code true} if the token was taken.
+     */
+    private boolean expect(Type type, String expected) {
+        if (tokens.accept(type))
+            return true;
+        
+        unexpected(expected);
+        
+        return false;
+    }
+    
+    /**
+     * Reports the current token as a syntax error, unless an error was
+     * already reported for this statement.
+     * 
+     * @param expected A description of what was expected.
+     * @return {@code ParseTree.NONE}, as no node could be parsed.
+     */
+    private int unexpected(String expected) {
+        if (!panic) {
+            panic = true;
+            tree.error(unit);
+            
+            String found = tokens.type() == Type.eof ? "the end of the file"
+                    : SourceTable.lexeme(tokens.file(), tokens.offset(), tokens.length());
+            
+            try {
+                throw new UnexpectedTokenException(expected, found, SourceTable.fileName(tokens.file()),
+                        tokens.line(), tokens.column());
+            } catch (UnexpectedTokenException ex) {
+                if (held != null)
+                    held.add(ex);
+                else
+                    Logger.getLogger(Parser.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+        
+        return ParseTree.NONE;
     }
 }
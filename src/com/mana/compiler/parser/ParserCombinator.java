@@ -23,16 +23,17 @@
  */
 package com.mana.compiler.parser;
 
-import java.util.List;
-import com.mana.compiler.grammar.Token;
+import com.mana.compiler.grammar.TokenCursor;
 import com.mana.compiler.util.structures.ParseTree;
 
 /**
- *
+ * A combinator parses from the current position of the cursor and leaves the
+ * cursor after the last token it used.
+ * 
  * @author Mana Technologies
  * @version alpha 0.0.0.1
  */
 @FunctionalInterface
 interface ParserCombinator {
-    ParseTree parse(List<Token> tokens);
+    ParseTree parse(TokenCursor tokens);
 }
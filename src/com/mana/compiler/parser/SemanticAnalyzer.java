@@ -24,10 +24,25 @@
 package com.mana.compiler.parser;
 
 import com.mana.compiler.generator.IntermediateGeneration;
+import com.mana.compiler.grammar.SourceTable;
+import com.mana.compiler.grammar.Token.Type;
+import com.mana.compiler.grammar.TokenStream;
+import com.mana.compiler.parser.Parser.State;
+import com.mana.compiler.util.exceptions.DuplicateDeclarationException;
+import com.mana.compiler.util.exceptions.TypeMismatchException;
+import com.mana.compiler.util.exceptions.UndeclaredNameException;
+import com.mana.compiler.util.structures.Declaration;
+import com.mana.compiler.util.structures.DeclarationTable;
 import com.mana.compiler.util.structures.ParseTree;
+import com.mana.compiler.util.structures.SymbolInterner;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 /**
  * Responsible for checking the parse trees provided by the parsing process.
@@ -39,6 +54,15 @@ import java.util.concurrent.Future;
  * </p>
  * 
  * <p>
+ * Checking is done in two phases, each run over every file at once. First the
+ * top level declarations of every file are collected into one
+ * {@code DeclarationTable}. Once every file has declared its names, the table
+ * is frozen and the body of every function is checked against it. A file may
+ * use a name declared by any other file, so no file is checked before every
+ * file has been declared.
+ * </p>
+ * 
+ * <p>
  * The semantic analyzer is only responsible for checking the parse trees. It
  * must sent those parse trees to the {@code IntermediateGeneration} class to
  * receive the full three address code representation of the parse trees.
@@ -47,20 +71,527 @@ import java.util.concurrent.Future;
  * @author Mana Technologies
  * @version alpha 0.0.0.1
  */
-
-// NOTE: The check() method has processes that can be threaded.
 public class SemanticAnalyzer {
-    /// PLACEHOLDER
+    /** The symbol of the type {@code int}. */
+    static final int INT = SymbolInterner.SHARED.intern("int");
+    /** The symbol of the type {@code bool}. */
+    static final int BOOL = SymbolInterner.SHARED.intern("bool");
+    /** The type of string literals, which may only name files. */
+    static final int STRING = SymbolInterner.SHARED.intern("string");
+    /** The type of a function which returns nothing. */
+    static final int VOID = -1;
+    /** The type of an expression already reported, so it is not again. */
+    static final int ERROR = -2;
+    /** The parser states, indexed by their ordinals. */
+    private static final State[] STATES = State.values();
+    
+    /**
+     * Checks the parse trees once every one of them is parsed, declaring and
+     * then checking every tree at once.
+     * 
+     * @param returns The parse trees of each file.
+     * @return The intermediate generation of the checked parse trees.
+     */
     public static IntermediateGeneration check(List<Future<ParseTree>> returns) {
         List<ParseTree> parseTrees = new ArrayList<>();
         
-        // collect each parse tree from returns, put check them and then add
-        // them to parseTrees and return the IntermediateGeneration of those
-        // parse trees.
+        for (Future<ParseTree> parsed : returns) {
+            try {
+                parseTrees.add(parsed.get());
+            } catch (InterruptedException | ExecutionException ex) {
+                Logger.getLogger(SemanticAnalyzer.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+        
+        DeclarationTable table = new DeclarationTable();
+        parseTrees.parallelStream().forEach((tree) -> declare(tree, table));
+        
+        DeclarationTable.Snapshot declarations = table.snapshot();
+        
+        return new IntermediateGeneration(parseTrees.parallelStream()
+                .map((tree) -> check(tree, declarations))
+                .collect(Collectors.toList()));
+    }
+    
+    /**
+     * The first phase: collects the top level declarations of a tree. Any
+     * amount of trees may be declared into the same table at once.
+     * 
+     * @param tree The parse tree to collect the declarations of.
+     * @param table The table of every declaration of the compilation.
+     */
+    public static void declare(ParseTree tree, DeclarationTable table) {
+        for (Declaration declaration : declarations(tree))
+            declare(declaration, table);
+    }
+    
+    /**
+     * Declares names collected from a tree before, such as by an earlier run.
+     * 
+     * @param declarations The top level declarations of a tree.
+     * @param table The table of every declaration of the compilation.
+     */
+    public static void declare(List<Declaration> declarations, DeclarationTable table) {
+        for (Declaration declaration : declarations)
+            declare(declaration, table);
+    }
+    
+    /**
+     * @param tree A parse tree.
+     * @return The top level declarations of the tree, none if it has errors.
+     */
+    public static List<Declaration> declarations(ParseTree tree) {
+        List<Declaration> result = new ArrayList<>();
+        
+        if (tree.errors() > 0)
+            return result;
+        
+        for (int node = tree.first(ParseTree.ROOT); node != ParseTree.NONE; node = tree.next(node)) {
+            if (tree.kind(node) == State.functionDeclaration.index) {
+                int type = VOID;
+                int[] parameters = new int[tree.children(node)];
+                int count = 0;
+                
+                for (int child = tree.first(node); child != ParseTree.NONE; child = tree.next(child)) {
+                    if (tree.kind(child) == State.parameter.index)
+                        parameters[count++] = typeOf(tree, tree.first(child));
+                    else if (tree.kind(child) == State.typeName.index)
+                        type = typeOf(tree, child);
+                }
+                
+                result.add(declaration(tree, node, Type.funcKeyword, type, Arrays.copyOf(parameters, count)));
+            } else if (tree.kind(node) == State.variableDeclaration.index)
+                result.add(declaration(tree, node, Type.varKeyword, typeOf(tree, tree.first(node)), null));
+        }
+        
+        return result;
+    }
+    
+    /**
+     * The second phase: checks the bodies of the functions of a single tree,
+     * so that each file may be checked as soon as every file is declared.
+     * 
+     * @param tree The parse tree to check.
+     * @param declarations The declarations of every file.
+     * @return The checked parse tree.
+     */
+    public static ParseTree check(ParseTree tree, DeclarationTable.Snapshot declarations) {
+        if (tree.errors() == 0)
+            tree.walk(ParseTree.ROOT, new Checker(tree, declarations));
+        
+        return tree;
+    }
+    
+    /**
+     * @param tree The tree holding the declaration.
+     * @param node The declaration node.
+     * @param kind What is declared.
+     * @param type The declared type.
+     * @param parameters The types of the parameters of a function.
+     * @return The declaration of the node.
+     */
+    private static Declaration declaration(ParseTree tree, int node, Type kind, int type, int[] parameters) {
+        TokenStream tokens = tree.tokens();
+        int token = tree.token(node);
+        
+        return new Declaration(kind, tokens.symbol(token), type, parameters, tree.file(),
+                tokens.offset(token), tokens.line(token), tokens.column(token));
+    }
+    
+    /**
+     * @param tree The tree holding the type.
+     * @param node The type node.
+     * @return The symbol of the name of the type.
+     */
+    private static int typeOf(ParseTree tree, int node) {
+        TokenStream tokens = tree.tokens();
+        int token = tree.token(node);
+        
+        return SymbolInterner.SHARED.intern(SourceTable.source(tree.file()), tokens.offset(token), tokens.length(token));
+    }
+    
+    /**
+     * @param type The symbol of a type.
+     * @return The name of the type for reports.
+     */
+    private static String typeName(int type) {
+        return type == VOID ? "no value" : SymbolInterner.SHARED.name(type);
+    }
+    
+    /**
+     * Declares a single name, reporting it if the name was already declared.
+     * 
+     * @param declaration The declaration of the name.
+     * @param table The table of every declaration of the compilation.
+     */
+    static void declare(Declaration declaration, DeclarationTable table) {
+        Declaration previous = table.declare(declaration);
+        
+        if (previous != null) {
+            // always report the later of the two, whichever was declared first.
+            Declaration first = previous.before(declaration) ? previous : declaration;
+            Declaration second = first == previous ? declaration : previous;
+            
+            try {
+                throw new DuplicateDeclarationException(SymbolInterner.SHARED.name(second.symbol),
+                        SourceTable.fileName(second.file), second.line, second.column, first.place());
+            } catch (DuplicateDeclarationException ex) {
+                Logger.getLogger(SemanticAnalyzer.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+    
+    /**
+     * Checks the function bodies of one tree, walking it once. The types of
+     * the operands of an expression are kept on a stack, so each node of an
+     * expression takes the types of its children off the stack and puts its
+     * own type back on. Local names are kept in flat arrays, with the start of
+     * each open scope marked.
+     */
+    private static final class Checker implements ParseTree.Visitor {
+        /** The tree being checked. */
+        final ParseTree tree;
+        /** The tokens of the tree. */
+        final TokenStream tokens;
+        /** The declarations of every file. */
+        final DeclarationTable.Snapshot declarations;
+        /** The types of the operands of the expression being checked. */
+        int[] values = new int[16];
+        /** The amount of types on the stack. */
+        int depth;
+        /** The symbols of the local names in scope. */
+        int[] locals = new int[16];
+        /** The types of the local names in scope. */
+        int[] types = new int[16];
+        /** The tokens declaring the local names in scope. */
+        int[] places = new int[16];
+        /** The amount of local names in scope. */
+        int count;
+        /** The amount of local names in scope when each scope opened. */
+        int[] scopes = new int[16];
+        /** The amount of open scopes. */
+        int open;
+        /** The return type of the function being checked. */
+        int returns = VOID;
+        
+        /**
+         * @param tree The tree to check.
+         * @param declarations The declarations of every file.
+         */
+        Checker(ParseTree tree, DeclarationTable.Snapshot declarations) {
+            this.tree = tree;
+            this.tokens = tree.tokens();
+            this.declarations = declarations;
+        }
+        
+        @Override
+        public boolean enter(ParseTree tree, int node) {
+            switch (STATES[tree.kind(node)]) {
+                case functionDeclaration:
+                    global(node);
+                    returns = VOID;
+                    
+                    for (int child = tree.first(node); child != ParseTree.NONE; child = tree.next(child))
+                        if (tree.kind(child) == State.typeName.index)
+                            returns = typeOf(tree, child);
+                    
+                    openScope();
+                    return true;
+                case parameter:
+                    local(node, typeOf(tree, tree.first(node)));
+                    return false;
+                case typeName:
+                    return false;
+                case block:
+                    openScope();
+                    return true;
+                case variableDeclaration:
+                    if (tree.parent(node) == ParseTree.ROOT)
+                        global(node);
+                    return true;
+                default:
+                    return true;
+            }
+        }
+        
+        /**
+         * Counts a top level declaration against the tree if the table kept
+         * another declaration of its name. It was reported when it was
+         * declared, but a tree counts its own errors.
+         * 
+         * @param node The declaration node.
+         */
+        void global(int node) {
+            int token = tree.token(node);
+            Declaration kept = declarations.find(tokens.symbol(token));
+            
+            if (kept != null && (kept.file != tree.file() || kept.offset != tokens.offset(token)))
+                tree.error();
+        }
+        
+        @Override
+        public void exit(ParseTree tree, int node) {
+            int token = tree.token(node);
+            int type;
+            
+            switch (STATES[tree.kind(node)]) {
+                case functionDeclaration:
+                case block:
+                    count = scopes[--open];
+                    break;
+                case variableDeclaration:
+                    type = typeOf(tree, tree.first(node));
+                    
+                    if (tree.next(tree.first(node)) != ParseTree.NONE)
+                        expect(type, pop(), token);
+                    
+                    if (tree.parent(node) != ParseTree.ROOT)
+                        local(node, type);
+                    break;
+                case assignment:
+                    type = pop();
+                    
+                    if (tree.kind(tree.first(node)) != State.name.index) {
+                        pop();
+                        mismatch("a variable", "an expression", token);
+                    } else
+                        expect(pop(), type, token);
+                    break;
+                case returnStatement:
+                    expect(returns, tree.first(node) == ParseTree.NONE ? VOID : pop(), token);
+                    break;
+                case ifStatement:
+                case whileStatement:
+                    // the blocks leave the stack as they found it, so the
+                    // condition is on top.
+                    expect(BOOL, pop(), token);
+                    break;
+                case expressionStatement:
+                    pop();
+                    break;
+                case binary:
+                    push(binary(tokens.type(token), pop(), pop(), token));
+                    break;
+                case unary:
+                    type = tokens.type(token) == Type.not ? BOOL : INT;
+                    expect(type, pop(), token);
+                    push(type);
+                    break;
+                case call:
+                    push(call(node, token));
+                    break;
+                case name:
+                    push(name(token));
+                    break;
+                case literal:
+                    switch (tokens.type(token)) {
+                        case number:
+                            push(INT);
+                            break;
+                        case string:
+                            push(STRING);
+                            break;
+                        default:
+                            push(BOOL);
+                            break;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        
+        /**
+         * @param operator The operator of the operation.
+         * @param right The type of the right operand.
+         * @param left The type of the left operand.
+         * @param token The token of the operator.
+         * @return The type of the operation.
+         */
+        int binary(Type operator, int right, int left, int token) {
+            switch (operator) {
+                case and:
+                case or:
+                    expect(BOOL, left, token);
+                    expect(BOOL, right, token);
+                    return BOOL;
+                case equal:
+                case notEqual:
+                    expect(left, right, token);
+                    return BOOL;
+                case less:
+                case lessEqual:
+                case greater:
+                case greaterEqual:
+                    expect(INT, left, token);
+                    expect(INT, right, token);
+                    return BOOL;
+                default:
+                    expect(INT, left, token);
+                    expect(INT, right, token);
+                    return INT;
+            }
+        }
+        
+        /**
+         * @param node The call node.
+         * @param token The token of the name called.
+         * @return The return type of the function called.
+         */
+        int call(int node, int token) {
+            int arguments = tree.children(node);
+            int[] parameters = null;
+            Declaration called = declarations.find(tokens.symbol(token));
+            
+            if (called == null)
+                undeclared(token);
+            else if (called.kind != Type.funcKeyword)
+                mismatch("a function", "a variable", token);
+            else if (called.parameters.length != arguments)
+                mismatch(called.parameters.length + " arguments", arguments + " arguments", token);
+            else
+                parameters = called.parameters;
+            
+            // the last argument is on top.
+            for (int i = arguments - 1; i >= 0; i--) {
+                int type = pop();
+                
+                if (parameters != null)
+                    expect(parameters[i], type, token);
+            }
+            
+            return parameters == null ? ERROR : called.type;
+        }
+        
+        /**
+         * @param token The token of the name.
+         * @return The type of the variable named.
+         */
+        int name(int token) {
+            int symbol = tokens.symbol(token);
+            
+            for (int i = count - 1; i >= 0; i--)
+                if (locals[i] == symbol)
+                    return types[i];
+            
+            Declaration declared = declarations.find(symbol);
+            
+            if (declared == null) {
+                undeclared(token);
+                return ERROR;
+            }
+            
+            if (declared.kind != Type.varKeyword) {
+                mismatch("a variable", "a function", token);
+                return ERROR;
+            }
+            
+            return declared.type;
+        }
+        
+        /**
+         * Declares a local name in the innermost scope.
+         * 
+         * @param node The node declaring the name.
+         * @param type The type of the name.
+         */
+        void local(int node, int type) {
+            int token = tree.token(node);
+            int symbol = tokens.symbol(token);
+            
+            for (int i = count - 1; i >= scopes[open - 1]; i--) {
+                if (locals[i] == symbol) {
+                    tree.error();
+                    
+                    try {
+                        throw new DuplicateDeclarationException(SymbolInterner.SHARED.name(symbol),
+                                SourceTable.fileName(tree.file()), tokens.line(token), tokens.column(token),
+                                SourceTable.fileName(tree.file()) + "#" + tokens.line(places[i]) + ":" + tokens.column(places[i]));
+                    } catch (DuplicateDeclarationException ex) {
+                        Logger.getLogger(SemanticAnalyzer.class.getName()).log(Level.SEVERE, null, ex);
+                    }
+                    
+                    return;
+                }
+            }
+            
+            if (count == locals.length) {
+                locals = Arrays.copyOf(locals, count << 1);
+                types = Arrays.copyOf(types, count << 1);
+                places = Arrays.copyOf(places, count << 1);
+            }
+            
+            locals[count] = symbol;
+            types[count] = type;
+            places[count++] = token;
+        }
+        
+        /** Opens a scope for local names. */
+        void openScope() {
+            if (open == scopes.length)
+                scopes = Arrays.copyOf(scopes, open << 1);
+            
+            scopes[open++] = count;
+        }
+        
+        /**
+         * @param type The type to put on the stack.
+         */
+        void push(int type) {
+            if (depth == values.length)
+                values = Arrays.copyOf(values, depth << 1);
+            
+            values[depth++] = type;
+        }
+        
+        /**
+         * @return The type taken off the stack.
+         */
+        int pop() {
+            return values[--depth];
+        }
+        
+        /**
+         * Reports the types unless they are the same, or either already had
+         * an error reported.
+         * 
+         * @param expected The type which was expected.
+         * @param found The type which was found.
+         * @param token The token to report at.
+         */
+        void expect(int expected, int found, int token) {
+            if (expected != found && expected != ERROR && found != ERROR)
+                mismatch(typeName(expected), typeName(found), token);
+        }
         
-        // NOTE: The process of checking the parse trees can be threaded, please
-        //      do this in the future.
+        /**
+         * @param expected What was expected.
+         * @param found What was found.
+         * @param token The token to report at.
+         */
+        void mismatch(String expected, String found, int token) {
+            tree.error();
+            
+            try {
+                throw new TypeMismatchException(expected, found, SourceTable.fileName(tree.file()),
+                        tokens.line(token), tokens.column(token));
+            } catch (TypeMismatchException ex) {
+                Logger.getLogger(SemanticAnalyzer.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
         
-        return new IntermediateGeneration(parseTrees);
+        /**
+         * @param token The token of the name which is not declared.
+         */
+        void undeclared(int token) {
+            tree.error();
+            
+            try {
+                throw new UndeclaredNameException(SymbolInterner.SHARED.name(tokens.symbol(token)),
+                        SourceTable.fileName(tree.file()), tokens.line(token), tokens.column(token));
+            } catch (UndeclaredNameException ex) {
+                Logger.getLogger(SemanticAnalyzer.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
     }
 }
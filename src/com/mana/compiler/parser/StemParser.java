@@ -36,7 +36,7 @@ import com.mana.compiler.util.structures.ParseTree;
 class StemParser {    
     static final ParserCombinator PLACEHOLDER = tokens -> {
         synchronized (tokens) {
-            ParseTree parseTree = new ParseTree();
+            ParseTree parseTree = new ParseTree(tokens.file(), Parser.State.start.index);
             // do work.
             return parseTree;
         }
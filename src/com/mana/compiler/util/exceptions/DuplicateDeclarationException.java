@@ -0,0 +1,52 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.util.exceptions;
+
+/**
+ *
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+public class DuplicateDeclarationException extends Exception {
+
+    /**
+     * Constructs a new {@code DuplicateDeclarationException} with no message.
+     */
+    public DuplicateDeclarationException() {}
+
+    /**
+     * Constructs a new {@code DuplicateDeclarationException} with a message
+     * detailing both places the name was declared.
+     *
+     * @param name The name declared twice.
+     * @param fileName The name of the file of the second declaration.
+     * @param line The line of the second declaration.
+     * @param column The column of the second declaration.
+     * @param previous The place of the first declaration, as
+     *      {@code file#line:column}.
+     */
+    public DuplicateDeclarationException(String name, String fileName, int line, int column, String previous) {
+        super("\"" + name + "\" at " + fileName + "#" + line + ":" + column + " is already declared at " + previous + ".");
+    }
+}
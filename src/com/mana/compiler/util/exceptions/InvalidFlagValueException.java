@@ -0,0 +1,49 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.util.exceptions;
+
+/**
+ *
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+public class InvalidFlagValueException extends Exception {
+
+    /**
+     * Constructs a new {@code InvalidFlagValueException} with no message.
+     */
+    public InvalidFlagValueException() {}
+
+    /**
+     * Constructs a new {@code InvalidFlagValueException} with a message
+     * detailing the value the flag was given and what it expects.
+     *
+     * @param flagName The name of the flag.
+     * @param value The value the flag was given.
+     * @param expected A description of the values the flag accepts.
+     */
+    public InvalidFlagValueException(String flagName, String value, String expected) {
+        super("The flag \"" + flagName + "\" was given \"" + value + "\" but expects " + expected + ".");
+    }
+}
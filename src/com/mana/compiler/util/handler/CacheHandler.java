@@ -0,0 +1,541 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.util.handler;
+
+import com.mana.compiler.generator.ThreeAddressGeneration;
+import com.mana.compiler.grammar.SourceTable;
+import com.mana.compiler.grammar.Token.Type;
+import com.mana.compiler.lexer.SourceReader;
+import com.mana.compiler.util.structures.Declaration;
+import com.mana.compiler.util.structures.ParseTree;
+import com.mana.compiler.util.structures.SymbolInterner;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the output of each file on disk between runs, so a file which has not
+ * changed is not lexed, parsed, checked or generated again.
+ * 
+ * <p>
+ * Each entry is named after a hash of the contents of its file and of the
+ * build of the compiler: the jar or class files it was loaded from, so a
+ * compiler built from changed sources never reads the entries of another. It holds, in order, the top level declarations of
+ * the file, the {@code signature} of the declarations of the compilation the
+ * file was checked against, the code generated for it, and its parse tree. A
+ * file whose contents hash to an entry declares its names from the entry
+ * instead of being parsed; if the declarations of the compilation also have
+ * the same signature, its code is taken from the entry and its tree is never
+ * read. Otherwise the tree is read from the entry to be checked again. Only
+ * files without errors are kept.
+ * </p>
+ * 
+ * <p>
+ * An entry is written to a temporary file and then moved over its name, so a
+ * reader never sees half an entry. Entries which are used are touched, and
+ * once the cache holds more than its limit the least recently used entries
+ * are removed.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+public final class CacheHandler {
+    /** The version of the compiler, hashed along with its build. */
+    public static final String VERSION = "alpha 0.0.0.1";
+    /** The first bytes of every entry. */
+    private static final int MAGIC = 0x4d414e41;
+    /** The layout of the entries, raised whenever it changes. */
+    private static final int FORMAT = 5;
+    /** The ending of the names of entries. */
+    private static final String ENDING = ".entry";
+    /** The hash of the build, mixed into the hash of every file. */
+    private static final long VERSION_HASH = build();
+    /** The fraction of the limit eviction brings the cache down to. */
+    private static final double LOW_WATER = 0.75;
+    /** The token types, indexed by their ordinals. */
+    private static final Type[] TYPES = Type.values();
+    
+    /**
+     * What the cache knows of one file: the file itself, and anything an
+     * earlier run left for it.
+     */
+    public static final class Entry {
+        /** The name of the file. */
+        public final String fileName;
+        /** The hash of the contents of the file and the compiler version. */
+        public final long hash;
+        /** The declarations of the file, or {@code null} on a miss. */
+        public final List<Declaration> declarations;
+        /** The signature the code was generated against. */
+        public final long signature;
+        /** The code from the cache, or {@code null} on a miss. */
+        public final ThreeAddressGeneration code;
+        /** The id the source was registered under on a hit. */
+        private final short file;
+        /** The contents of the file. */
+        private final ByteBuffer source;
+        /** The path of the entry. */
+        private final Path path;
+        
+        /**
+         * @param fileName The name of the file.
+         * @param hash The hash of the file and the compiler version.
+         * @param path The path of the entry.
+         * @param source The contents of the file.
+         */
+        Entry(String fileName, long hash, Path path, ByteBuffer source) {
+            this(fileName, hash, path, source, (short)-1, null, 0, null);
+        }
+        
+        /**
+         * @param fileName The name of the file.
+         * @param hash The hash of the file and the compiler version.
+         * @param path The path of the entry.
+         * @param source The contents of the file.
+         * @param file The id the source was registered under.
+         * @param declarations The declarations of the file.
+         * @param signature The signature the code was generated against.
+         * @param code The code from the cache.
+         */
+        Entry(String fileName, long hash, Path path, ByteBuffer source, short file,
+                List<Declaration> declarations, long signature, ThreeAddressGeneration code) {
+            this.fileName = fileName;
+            this.hash = hash;
+            this.path = path;
+            this.source = source;
+            this.file = file;
+            this.declarations = declarations;
+            this.signature = signature;
+            this.code = code;
+        }
+        
+        /**
+         * @return {@code true} if the file has not changed since it was kept.
+         */
+        public boolean hit() {
+            return declarations != null;
+        }
+        
+        /**
+         * Reads the tree of a file which was hit, skipping over everything
+         * before it in the entry.
+         * 
+         * @return The tree of the file, or {@code null} if the entry is gone
+         *      or damaged and the file must be parsed after all.
+         */
+        public ParseTree tree() {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                
+                if (in.getInt() != MAGIC || in.getInt() != FORMAT || in.getLong() != hash
+                        || in.getInt() != source.remaining())
+                    return null;
+                
+                in.getLong();
+                
+                // the declarations and code come before the tree.
+                for (int section = 0; section < 2; section++) {
+                    int length = in.getInt();
+                    in.position(in.position() + length);
+                }
+                
+                return ParseTree.read(in, file, source);
+            } catch (IOException | RuntimeException ex) {
+                Logger.getLogger(CacheHandler.class.getName()).log(Level.WARNING, null, ex);
+                
+                return null;
+            }
+        }
+    }
+    
+    /** The directory holding the entries. */
+    private final Path directory;
+    /** The most bytes the entries may take. */
+    private final long limit;
+    
+    /**
+     * @param directory The directory to keep the entries in; it is made if it
+     *      does not exist.
+     * @param limit The most bytes the entries may take.
+     * @throws IOException if the directory cannot be made.
+     */
+    public CacheHandler(Path directory, long limit) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.limit = limit;
+    }
+    
+    /**
+     * Reads the whole of a file, the same way the lexer would.
+     * 
+     * @param fileName The name of the file.
+     * @return The source of the file in little endian order, or {@code null}
+     *      if the file cannot be read.
+     */
+    public static ByteBuffer read(String fileName) {
+        try (FileChannel channel = FileChannel.open(new File(fileName).toPath(), StandardOpenOption.READ)) {
+            return SourceReader.load(channel).order(ByteOrder.LITTLE_ENDIAN);
+        } catch (IOException ex) {
+            // the lexer reports files which cannot be read.
+            return null;
+        }
+    }
+    
+    /**
+     * Hashes a source and reads the declarations and code of its entry, if it
+     * has one. On a hit the source is registered with the {@code SourceTable},
+     * as lexing it would have.
+     * 
+     * @param fileName The name of the file.
+     * @param source The source of the file, as given by {@code read}.
+     * @return What the cache knows of the file.
+     */
+    public Entry load(String fileName, ByteBuffer source) {
+        long hash = hash(source) ^ VERSION_HASH;
+        Entry miss = new Entry(fileName, hash, path(hash), source);
+        
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(miss.path)))) {
+            if (!header(in, miss))
+                return miss;
+            
+            long signature = in.readLong();
+            short file = SourceTable.register(new File(fileName).getPath(), source);
+            // the length of the declarations, only needed to skip them.
+            in.readInt();
+            List<Declaration> declarations = readDeclarations(in, file);
+            byte[] code = new byte[in.readInt()];
+            in.readFully(code);
+            Files.setLastModifiedTime(miss.path, FileTime.fromMillis(System.currentTimeMillis()));
+            
+            return new Entry(fileName, hash, miss.path, source, file, declarations, signature,
+                    ThreeAddressGeneration.read(ByteBuffer.wrap(code)));
+        } catch (NoSuchFileException ex) {
+            return miss;
+        } catch (IOException | RuntimeException ex) {
+            // a damaged entry is only a miss.
+            Logger.getLogger(CacheHandler.class.getName()).log(Level.WARNING, null, ex);
+            
+            return miss;
+        }
+    }
+    
+    /**
+     * Keeps the output of a file, replacing any entry it had.
+     * 
+     * @param entry What the cache knew of the file when it was loaded.
+     * @param tree The tree of the file.
+     * @param declarations The top level declarations of the file.
+     * @param signature The signature the code was generated against.
+     * @param code The code generated for the file.
+     */
+    public void store(Entry entry, ParseTree tree, List<Declaration> declarations, long signature,
+            ThreeAddressGeneration code) {
+        if (tree.errors() > 0)
+            return;
+        
+        Path temporary = null;
+        
+        try {
+            temporary = Files.createTempFile(directory, "entry", ".tmp");
+            
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                ByteArrayOutputStream declared = new ByteArrayOutputStream();
+                ByteArrayOutputStream generated = new ByteArrayOutputStream();
+                
+                writeDeclarations(new DataOutputStream(declared), declarations);
+                code.write(new DataOutputStream(generated));
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT);
+                out.writeLong(entry.hash);
+                out.writeInt(entry.source.remaining());
+                out.writeLong(signature);
+                out.writeInt(declared.size());
+                declared.writeTo(out);
+                out.writeInt(generated.size());
+                generated.writeTo(out);
+                tree.write(out);
+            }
+            
+            Files.move(temporary, entry.path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            Logger.getLogger(CacheHandler.class.getName()).log(Level.WARNING, null, ex);
+            
+            try {
+                if (temporary != null)
+                    Files.deleteIfExists(temporary);
+            } catch (IOException ioe) {
+                Logger.getLogger(CacheHandler.class.getName()).log(Level.WARNING, null, ioe);
+            }
+        }
+    }
+    
+    /**
+     * Removes the least recently used entries until the cache is well under
+     * its limit, if it is over it.
+     */
+    public void evict() {
+        List<Path> entries = new ArrayList<>();
+        long total = 0;
+        
+        try (Stream<Path> paths = Files.list(directory)) {
+            for (Path path : (Iterable<Path>)paths::iterator) {
+                if (path.getFileName().toString().endsWith(ENDING)) {
+                    entries.add(path);
+                    total += Files.size(path);
+                }
+            }
+            
+            if (total <= limit)
+                return;
+            
+            entries.sort((a, b) -> lastUsed(a).compareTo(lastUsed(b)));
+            
+            for (Path path : entries) {
+                if (total <= limit * LOW_WATER)
+                    break;
+                
+                total -= Files.size(path);
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(CacheHandler.class.getName()).log(Level.WARNING, null, ex);
+        }
+    }
+    
+    /**
+     * Reads the start of an entry, which must match the file.
+     * 
+     * @param in The entry.
+     * @param entry The file the entry should be of.
+     * @return {@code true} if the entry is of the file.
+     * @throws IOException if the entry cannot be read.
+     */
+    private static boolean header(DataInputStream in, Entry entry) throws IOException {
+        return in.readInt() == MAGIC && in.readInt() == FORMAT && in.readLong() == entry.hash
+                && in.readInt() == entry.source.remaining();
+    }
+    
+    /**
+     * Writes declarations by the text of their names, as the ids of names
+     * only hold for one run.
+     * 
+     * @param out The output to write to.
+     * @param declarations The declarations to write.
+     * @throws IOException if the output cannot be written.
+     */
+    private static void writeDeclarations(DataOutputStream out, List<Declaration> declarations) throws IOException {
+        out.writeInt(declarations.size());
+        
+        for (Declaration declaration : declarations) {
+            out.writeShort(declaration.kind.index);
+            writeName(out, declaration.symbol);
+            writeName(out, declaration.type);
+            out.writeInt(declaration.parameters == null ? -1 : declaration.parameters.length);
+            
+            if (declaration.parameters != null)
+                for (int parameter : declaration.parameters)
+                    writeName(out, parameter);
+            
+            out.writeInt(declaration.offset);
+            out.writeInt(declaration.line);
+            out.writeInt(declaration.column);
+        }
+    }
+    
+    /**
+     * @param in The input to read from.
+     * @param file The id the source was registered under.
+     * @return The declarations written by {@code writeDeclarations}.
+     * @throws IOException if the input cannot be read.
+     */
+    private static List<Declaration> readDeclarations(DataInputStream in, short file) throws IOException {
+        int count = in.readInt();
+        List<Declaration> result = new ArrayList<>(count);
+        
+        for (int i = 0; i < count; i++) {
+            Type kind = TYPES[in.readShort()];
+            int symbol = readName(in);
+            int type = readName(in);
+            int[] parameters = null;
+            int length = in.readInt();
+            
+            if (length >= 0) {
+                parameters = new int[length];
+                
+                for (int j = 0; j < length; j++)
+                    parameters[j] = readName(in);
+            }
+            
+            result.add(new Declaration(kind, symbol, type, parameters, file, in.readInt(), in.readInt(), in.readInt()));
+        }
+        
+        return result;
+    }
+    
+    /**
+     * @param out The output to write to.
+     * @param symbol The symbol of a name, or a negative number for none.
+     * @throws IOException if the output cannot be written.
+     */
+    private static void writeName(DataOutputStream out, int symbol) throws IOException {
+        if (symbol < 0) {
+            out.writeInt(symbol);
+            return;
+        }
+        
+        byte[] name = SymbolInterner.SHARED.bytes(symbol);
+        out.writeInt(name.length);
+        out.write(name);
+    }
+    
+    /**
+     * @param in The input to read from.
+     * @return The symbol of the name written by {@code writeName}.
+     * @throws IOException if the input cannot be read.
+     */
+    private static int readName(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        
+        if (length < 0)
+            return length;
+        
+        byte[] name = new byte[length];
+        in.readFully(name);
+        
+        return SymbolInterner.SHARED.intern(ByteBuffer.wrap(name), 0, length);
+    }
+    
+    /**
+     * @param path An entry.
+     * @return When the entry was last used.
+     */
+    private static FileTime lastUsed(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException ex) {
+            return FileTime.fromMillis(0);
+        }
+    }
+    
+    /**
+     * @param hash The hash of a file and the compiler version.
+     * @return The path of the entry of that hash.
+     */
+    private Path path(long hash) {
+        return directory.resolve(String.format("%016x", hash) + ENDING);
+    }
+    
+    /**
+     * Hashes the build of the compiler: the jar it was loaded from, or the
+     * name and contents of every class file in the directory it was loaded
+     * from. A build which cannot be read is known only by its version.
+     * 
+     * @return The hash of the build.
+     */
+    static long build() {
+        long result = hash(ByteBuffer.wrap(VERSION.getBytes(StandardCharsets.UTF_8)));
+        
+        try {
+            CodeSource code = CacheHandler.class.getProtectionDomain().getCodeSource();
+            
+            if (code == null)
+                return result;
+            
+            Path location = Paths.get(code.getLocation().toURI());
+            List<Path> files;
+            
+            if (Files.isDirectory(location))
+                try (Stream<Path> walked = Files.walk(location)) {
+                    files = walked.filter((path) -> path.toString().endsWith(".class"))
+                            .sorted()
+                            .collect(Collectors.toList());
+                }
+            else
+                files = Collections.singletonList(location);
+            
+            for (Path file : files) {
+                String name = location.relativize(file).toString().replace(File.separatorChar, '/');
+                
+                result = Long.rotateLeft(result, 17)
+                        ^ hash(ByteBuffer.wrap(name.getBytes(StandardCharsets.UTF_8)).order(ByteOrder.LITTLE_ENDIAN));
+                result = Long.rotateLeft(result, 17)
+                        ^ hash(ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN));
+            }
+        } catch (IOException | URISyntaxException | IllegalArgumentException | SecurityException ex) {
+            Logger.getLogger(CacheHandler.class.getName()).log(Level.WARNING,
+                    "The build of the compiler could not be read, entries are kept by version alone.", ex);
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Hashes a source eight bytes at a time. The position of the source is
+     * not changed.
+     * 
+     * @param source The source to hash, in little endian order.
+     * @return The hash of the bytes of the source.
+     */
+    public static long hash(ByteBuffer source) {
+        int end = source.limit();
+        int i = source.position();
+        long hash = 0x9e3779b97f4a7c15L ^ (end - i);
+        
+        for (; i + 8 <= end; i += 8)
+            hash = Long.rotateLeft(hash ^ source.getLong(i) * 0x87c37b91114253d5L, 31) * 0x4cf5ad432745937fL;
+        
+        for (; i < end; i++)
+            hash = Long.rotateLeft(hash ^ (source.get(i) & 0xffL) * 0x87c37b91114253d5L, 31) * 0x4cf5ad432745937fL;
+        
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        
+        return hash;
+    }
+}
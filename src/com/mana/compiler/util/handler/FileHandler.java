@@ -0,0 +1,78 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.util.handler;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Makes the temporary files outputs are written to before being moved over
+ * their names. {@code Files.createTempFile} makes files only their owner may
+ * read, so an output written through one would lose the permissions a plain
+ * write gives it.
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+public final class FileHandler {
+    /** Not to be made. */
+    private FileHandler() {}
+    
+    /**
+     * Makes an empty file beside an output, with the permissions of the output
+     * if it exists and the default permissions of a new file otherwise.
+     * 
+     * @param path The output the file is to be moved over.
+     * @param prefix What the name of the file starts with.
+     * @throws IOException if the file cannot be made.
+     * @return The file.
+     */
+    public static Path temporary(Path path, String prefix) throws IOException {
+        Path directory = path.toAbsolutePath().getParent();
+        
+        while (true) {
+            Path result = directory.resolve(prefix + Long.toUnsignedString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+            
+            try {
+                Files.createFile(result);
+            } catch (FileAlreadyExistsException ex) {
+                continue;
+            }
+            
+            try {
+                if (Files.exists(path) && Files.getFileAttributeView(result, PosixFileAttributeView.class) != null)
+                    Files.setPosixFilePermissions(result, Files.getPosixFilePermissions(path));
+            } catch (IOException | RuntimeException ex) {
+                Files.delete(result);
+                throw ex;
+            }
+            
+            return result;
+        }
+    }
+}
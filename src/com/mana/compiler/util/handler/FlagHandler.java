@@ -24,6 +24,8 @@
 package com.mana.compiler.util.handler;
 
 import com.mana.compiler.util.exceptions.FlagDoesNotExistException;
+import com.mana.compiler.util.exceptions.InvalidFlagValueException;
+import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
@@ -31,7 +33,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- *
+ * 
  * @author Mana Technologies
  * @version alpha 0.0.0.1
  */
@@ -41,7 +43,37 @@ public class FlagHandler {
      */
     public enum RuntimeFlag {
         /** Place holder flag. */
-        flag("--flag");
+        flag("--flag"),
+        /** Parses each file while it is still being lexed. */
+        stream("--stream"),
+        /** The amount of threads to compile with, given as {@code --jobs=N}. */
+        jobs("--jobs"),
+        /** Reuses the output of unchanged files, given as {@code --cache=DIR}. */
+        cache("--cache"),
+        /** The most megabytes the cache may hold, given as {@code --cache-size=N}. */
+        cacheSize("--cache-size"),
+        /** Stays resident and compiles for clients, given as {@code --daemon=PORT}. */
+        daemon("--daemon"),
+        /** Has a resident compiler do the build, given as {@code --client=PORT}. */
+        client("--client"),
+        /** Stops the resident compiler a client is sent to. */
+        shutdown("--shutdown"),
+        /** Saves the code of the build as a module, given as {@code --ir=FILE}. */
+        ir("--ir"),
+        /** Leaves the code as it was generated, which is the default. */
+        optimizeNone("-O0"),
+        /** Runs each optimization pass over each function once. */
+        optimize("-O1"),
+        /** Runs the optimization passes until they find nothing more. */
+        optimizeFully("-O2"),
+        /** The amount of registers to allocate, given as {@code --registers=N}. */
+        registers("--registers"),
+        /** Reports the values each function spills out of its registers. */
+        spills("--spills"),
+        /** Reports how many rewrites each peephole rule made. */
+        rewrites("--rewrites"),
+        /** The executable to write, given as {@code --out=FILE}. */
+        output("--out");
         
         /** The command line equivalent to this flag. */
         String flagName;
@@ -62,6 +94,13 @@ public class FlagHandler {
             this.flagName = flagName;
         }
         
+        /**
+         * @return The command line equivalent to this flag.
+         */
+        public String flagName() {
+            return flagName;
+        }
+        
         /**
          * Checks if the flags with this name exists.
          * 
@@ -83,17 +122,26 @@ public class FlagHandler {
     
     /** A place to put all of our raised flags. */
     private static final EnumSet<RuntimeFlag> RAISEDFLAGS = EnumSet.noneOf(RuntimeFlag.class);
+    /** The values given to flags in the form {@code --name=value}. */
+    private static final EnumMap<RuntimeFlag, String> FLAGVALUES = new EnumMap<>(RuntimeFlag.class);
     
     /**
-     * Adds a flag to the {@code raisedFlags} enum set if they exist.
+     * Adds a flag to the {@code raisedFlags} enum set if they exist. A flag
+     * given as {@code --name=value} is raised along with its value.
      * 
      * @param flags The flags to raise.
      */
     public static void raiseFlags(String[] flags) {
         for (String flag : flags) {
-            if (RuntimeFlag.exists(flag))
-                RAISEDFLAGS.add(RuntimeFlag.getFlag(flag));
-            else
+            int equals = flag.indexOf('=');
+            String name = equals < 0 ? flag : flag.substring(0, equals);
+            
+            if (RuntimeFlag.exists(name)) {
+                RAISEDFLAGS.add(RuntimeFlag.getFlag(name));
+                
+                if (equals >= 0)
+                    FLAGVALUES.put(RuntimeFlag.getFlag(name), flag.substring(equals + 1));
+            } else
                 try {
                     throw new FlagDoesNotExistException(flag);
                 } catch (FlagDoesNotExistException ex) {
@@ -101,4 +149,62 @@ public class FlagHandler {
                 }
         }
     }
+    
+    /**
+     * Lowers every flag, so the flags of one build of a resident compiler are
+     * not carried into the next.
+     */
+    public static void lowerFlags() {
+        RAISEDFLAGS.clear();
+        FLAGVALUES.clear();
+    }
+    
+    /**
+     * @param flag The flag to check.
+     * @return The value the flag was given, or {@code null} if it was given
+     *      none.
+     */
+    public static String value(RuntimeFlag flag) {
+        return FLAGVALUES.get(flag);
+    }
+    
+    /**
+     * Reads the value of a flag as a positive number.
+     * 
+     * @param flag The flag to read.
+     * @param otherwise The number to use if the flag was given no value, or a
+     *      value which is not a positive number.
+     * @return The number the flag was given.
+     */
+    public static int positiveValue(RuntimeFlag flag, int otherwise) {
+        String value = FLAGVALUES.get(flag);
+        
+        if (value == null)
+            return otherwise;
+        
+        try {
+            int result = Integer.parseInt(value);
+            
+            if (result > 0)
+                return result;
+        } catch (NumberFormatException nfe) {
+            // reported below along with any other invalid value.
+        }
+        
+        try {
+            throw new InvalidFlagValueException(flag.flagName, value, "a positive number");
+        } catch (InvalidFlagValueException ex) {
+            Logger.getLogger(FlagHandler.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        
+        return otherwise;
+    }
+    
+    /**
+     * @param flag The flag to check.
+     * @return {@code true} if the flag was given on the command line.
+     */
+    public static boolean raised(RuntimeFlag flag) {
+        return RAISEDFLAGS.contains(flag);
+    }
 }
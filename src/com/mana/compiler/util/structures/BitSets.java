@@ -0,0 +1,203 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.util.structures;
+
+import java.util.Arrays;
+
+/**
+ * Works on sets of small numbers kept as bits in a {@code long[]}, sixty four
+ * to a word. A set is a run of words starting at a base index, so the sets of
+ * every block of a function can be kept in one array, one row each, with no
+ * object per set.
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+public final class BitSets {
+    /** Not to be made. */
+    private BitSets() {}
+    
+    /**
+     * @param bits The amount of numbers a set may hold.
+     * @return The amount of words a set takes.
+     */
+    public static int words(int bits) {
+        return (bits + 63) >>> 6;
+    }
+    
+    /**
+     * @param sets The amount of sets.
+     * @param bits The amount of numbers each set may hold.
+     * @return The words of the sets, all empty, one row of {@code words(bits)}
+     *      after another.
+     */
+    public static long[] create(int sets, int bits) {
+        return new long[sets * words(bits)];
+    }
+    
+    /**
+     * @param sets The words of the sets.
+     * @param base The first word of the set.
+     * @param bit A number.
+     * @return {@code true} if the set holds the number.
+     */
+    public static boolean get(long[] sets, int base, int bit) {
+        return (sets[base + (bit >>> 6)] & 1L << bit) != 0;
+    }
+    
+    /**
+     * @param sets The words of the sets.
+     * @param base The first word of the set.
+     * @param bit The number to put in the set.
+     */
+    public static void set(long[] sets, int base, int bit) {
+        sets[base + (bit >>> 6)] |= 1L << bit;
+    }
+    
+    /**
+     * @param sets The words of the sets.
+     * @param base The first word of the set.
+     * @param bit The number to take out of the set.
+     */
+    public static void clear(long[] sets, int base, int bit) {
+        sets[base + (bit >>> 6)] &= ~(1L << bit);
+    }
+    
+    /**
+     * Puts every number a set may hold in it.
+     * 
+     * @param sets The words of the sets.
+     * @param base The first word of the set.
+     * @param words The amount of words in the set.
+     */
+    public static void fill(long[] sets, int base, int words) {
+        Arrays.fill(sets, base, base + words, -1L);
+    }
+    
+    /**
+     * @param from The words of the sets to copy from.
+     * @param fromBase The first word of the set to copy.
+     * @param to The words of the sets to copy to.
+     * @param toBase The first word of the set to replace.
+     * @param words The amount of words in each set.
+     */
+    public static void copy(long[] from, int fromBase, long[] to, int toBase, int words) {
+        System.arraycopy(from, fromBase, to, toBase, words);
+    }
+    
+    /**
+     * Puts the numbers of one set in another.
+     * 
+     * @param to The words of the sets to add to.
+     * @param toBase The first word of the set to add to.
+     * @param from The words of the sets to add from.
+     * @param fromBase The first word of the set to add.
+     * @param words The amount of words in each set.
+     * @return {@code true} if the set added to changed.
+     */
+    public static boolean union(long[] to, int toBase, long[] from, int fromBase, int words) {
+        long changed = 0;
+        
+        for (int i = 0; i < words; i++) {
+            long before = to[toBase + i];
+            long after = before | from[fromBase + i];
+            to[toBase + i] = after;
+            changed |= before ^ after;
+        }
+        
+        return changed != 0;
+    }
+    
+    /**
+     * Keeps only the numbers of one set which another also holds.
+     * 
+     * @param to The words of the sets to keep in.
+     * @param toBase The first word of the set to keep in.
+     * @param from The words of the sets to check against.
+     * @param fromBase The first word of the set to check against.
+     * @param words The amount of words in each set.
+     */
+    public static void intersect(long[] to, int toBase, long[] from, int fromBase, int words) {
+        for (int i = 0; i < words; i++)
+            to[toBase + i] &= from[fromBase + i];
+    }
+    
+    /**
+     * Takes the numbers of one set out of another.
+     * 
+     * @param to The words of the sets to take out of.
+     * @param toBase The first word of the set to take out of.
+     * @param from The words of the sets to take out.
+     * @param fromBase The first word of the set to take out.
+     * @param words The amount of words in each set.
+     */
+    public static void subtract(long[] to, int toBase, long[] from, int fromBase, int words) {
+        for (int i = 0; i < words; i++)
+            to[toBase + i] &= ~from[fromBase + i];
+    }
+    
+    /**
+     * @param a The words of the sets of the first set.
+     * @param aBase The first word of the first set.
+     * @param b The words of the sets of the second set.
+     * @param bBase The first word of the second set.
+     * @param words The amount of words in each set.
+     * @return {@code true} if both sets hold the same numbers.
+     */
+    public static boolean equal(long[] a, int aBase, long[] b, int bBase, int words) {
+        for (int i = 0; i < words; i++) {
+            if (a[aBase + i] != b[bBase + i])
+                return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * @param sets The words of the sets.
+     * @param base The first word of the set.
+     * @param words The amount of words in the set.
+     * @param from The number to look from.
+     * @return The least number in the set from {@code from} on, or -1 if
+     *      there is none.
+     */
+    public static int next(long[] sets, int base, int words, int from) {
+        int word = from >>> 6;
+        
+        if (word >= words)
+            return -1;
+        
+        long bits = sets[base + word] & -1L << from;
+        
+        while (true) {
+            if (bits != 0)
+                return (word << 6) + Long.numberOfTrailingZeros(bits);
+            
+            if (++word == words)
+                return -1;
+            
+            bits = sets[base + word];
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.util.structures;
+
+import com.mana.compiler.grammar.SourceTable;
+import com.mana.compiler.grammar.Token.Type;
+
+/**
+ * A top level declaration of a file, as collected by the semantic analyzer
+ * before any function body is checked.
+ * 
+ * <p>
+ * Names are held as their ids in {@code SymbolInterner.SHARED}, so that
+ * declarations can be compared and looked up without their text.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+public final class Declaration {
+    /** What was declared; {@code funcKeyword} or {@code varKeyword}. */
+    public final Type kind;
+    /** The symbol of the declared name. */
+    public final int symbol;
+    /** The symbol of the declared type, or of the return type of a function. */
+    public final int type;
+    /** The symbols of the types of the parameters of a function. */
+    public final int[] parameters;
+    /** The file the declaration is in. */
+    public final short file;
+    /** The offset of the declared name in its file. */
+    public final int offset;
+    /** The line of the declared name. */
+    public final int line;
+    /** The column of the declared name. */
+    public final int column;
+    
+    /**
+     * @param kind What was declared.
+     * @param symbol The symbol of the declared name.
+     * @param type The symbol of the declared type.
+     * @param parameters The symbols of the types of the parameters.
+     * @param file The file the declaration is in.
+     * @param offset The offset of the declared name in its file.
+     * @param line The line of the declared name.
+     * @param column The column of the declared name.
+     */
+    public Declaration(Type kind, int symbol, int type, int[] parameters, short file, int offset, int line, int column) {
+        this.kind = kind;
+        this.symbol = symbol;
+        this.type = type;
+        this.parameters = parameters;
+        this.file = file;
+        this.offset = offset;
+        this.line = line;
+        this.column = column;
+    }
+    
+    /**
+     * @param other Another declaration.
+     * @return {@code true} if this declaration comes before the other, by
+     *      file and then by offset.
+     */
+    public boolean before(Declaration other) {
+        return file != other.file ? file < other.file : offset < other.offset;
+    }
+    
+    /**
+     * @return The place of this declaration, as {@code file#line:column}.
+     */
+    public String place() {
+        return SourceTable.fileName(file) + "#" + line + ":" + column;
+    }
+}
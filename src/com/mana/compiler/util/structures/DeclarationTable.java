@@ -0,0 +1,280 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.util.structures;
+
+/**
+ * The top level declarations of every file of a compilation, keyed by the
+ * symbol of their name.
+ * 
+ * <p>
+ * The table is filled by every file at once. Symbols are split between a
+ * number of stripes, and each stripe is an open addressed table guarded by its
+ * own lock, so files declaring different names seldom wait on each other.
+ * Once every file has declared its names the table is frozen into a
+ * {@code Snapshot}: a single flat table which never changes again, and which
+ * the checks of every file then read without any lock.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+public final class DeclarationTable {
+    /** The amount of stripes; a power of two. */
+    private static final int STRIPES = 64;
+    /** The amount of slots in the table of a new stripe; a power of two. */
+    private static final int INITIAL_SLOTS = 16;
+    
+    /**
+     * A part of the table with its own slots and lock. A slot holds the
+     * symbol of a name plus one, so that zero marks an empty slot, along with
+     * its declaration.
+     */
+    private static final class Stripe {
+        /** The symbols of the names plus one. */
+        int[] symbols = new int[INITIAL_SLOTS];
+        /** The declarations, by slot. */
+        Declaration[] declarations = new Declaration[INITIAL_SLOTS];
+        /** The amount of names in this stripe. */
+        int count;
+    }
+    
+    /**
+     * The declarations of a table once it is filled. It is never changed, so
+     * any amount of threads may read it at once.
+     */
+    public static final class Snapshot {
+        /** The symbols of the names plus one. */
+        private final int[] symbols;
+        /** The declarations, by slot. */
+        private final Declaration[] declarations;
+        /** The mask taking a hash to a slot. */
+        private final int mask;
+        /** The hash of every declaration, see {@code signature()}. */
+        private long signature;
+        
+        /**
+         * @param slots The amount of slots; a power of two.
+         */
+        private Snapshot(int slots) {
+            symbols = new int[slots];
+            declarations = new Declaration[slots];
+            mask = slots - 1;
+        }
+        
+        /**
+         * @param symbol The symbol of a name.
+         * @return The declaration of the name, or {@code null} if it was not
+         *      declared.
+         */
+        public Declaration find(int symbol) {
+            return declarations[slot(symbols, mask, symbol)];
+        }
+        
+        /**
+         * A hash of the names, kinds and types of every declaration, which
+         * does not depend on the ids the names were given or on where they
+         * were declared. Code checked against two snapshots of the same
+         * signature is checked against the same declarations.
+         * 
+         * @return The signature of this snapshot.
+         */
+        public long signature() {
+            return signature;
+        }
+    }
+    
+    /** The stripes, picked by the low bits of the hash of a symbol. */
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    
+    /** Default constructor. */
+    public DeclarationTable() {
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i] = new Stripe();
+    }
+    
+    /**
+     * Declares a name. When the name was already declared the table keeps
+     * whichever declaration comes first by file and offset, so the same
+     * declaration is kept whatever order the files declare their names in.
+     * 
+     * @param declaration The declaration of the name.
+     * @return The declaration the name already had, or {@code null} if it
+     *      had none.
+     */
+    public Declaration declare(Declaration declaration) {
+        Stripe stripe = stripes[hash(declaration.symbol) & (STRIPES - 1)];
+        
+        synchronized (stripe) {
+            int slot = slot(stripe.symbols, stripe.symbols.length - 1, declaration.symbol);
+            Declaration previous = stripe.declarations[slot];
+            
+            if (previous != null) {
+                if (declaration.before(previous))
+                    stripe.declarations[slot] = declaration;
+                
+                return previous;
+            }
+            
+            stripe.symbols[slot] = declaration.symbol + 1;
+            stripe.declarations[slot] = declaration;
+            
+            if (++stripe.count << 1 > stripe.symbols.length)
+                grow(stripe);
+            
+            return null;
+        }
+    }
+    
+    /**
+     * @return The amount of names declared so far.
+     */
+    public int size() {
+        int result = 0;
+        
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                result += stripe.count;
+            }
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Freezes the declarations made so far. Declarations made afterwards are
+     * not seen by the snapshot.
+     * 
+     * @return The declarations of this table.
+     */
+    public Snapshot snapshot() {
+        int slots = INITIAL_SLOTS;
+        
+        while (slots < size() << 1)
+            slots <<= 1;
+        
+        Snapshot result = new Snapshot(slots);
+        
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (int slot = 0; slot < stripe.symbols.length; slot++) {
+                    if (stripe.symbols[slot] != 0) {
+                        int place = slot(result.symbols, result.mask, stripe.symbols[slot] - 1);
+                        
+                        result.symbols[place] = stripe.symbols[slot];
+                        result.declarations[place] = stripe.declarations[slot];
+                        // added, so the order the stripes are read in does
+                        // not matter.
+                        result.signature += signature(stripe.declarations[slot]);
+                    }
+                }
+            }
+        }
+        
+        return result;
+    }
+    
+    /**
+     * @param declaration A declaration.
+     * @return The hash of the name, kind and types of the declaration.
+     */
+    private static long signature(Declaration declaration) {
+        long hash = mix(0xcbf29ce484222325L, SymbolInterner.SHARED.bytes(declaration.symbol));
+        
+        hash = (hash ^ declaration.kind.index) * 0x100000001b3L;
+        hash = mix(hash, declaration.type < 0 ? new byte[0] : SymbolInterner.SHARED.bytes(declaration.type));
+        
+        if (declaration.parameters != null) {
+            for (int parameter : declaration.parameters)
+                hash = mix((hash ^ ',') * 0x100000001b3L, SymbolInterner.SHARED.bytes(parameter));
+        }
+        
+        // a final mix, so the sum of many hashes keeps its high bits.
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        
+        return hash;
+    }
+    
+    /**
+     * @param hash The hash so far.
+     * @param bytes The bytes to add to it.
+     * @return The hash of the bytes following the hash so far.
+     */
+    private static long mix(long hash, byte[] bytes) {
+        for (byte b : bytes)
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        
+        // the length, so that names running into each other differ.
+        return (hash ^ bytes.length) * 0x100000001b3L;
+    }
+    
+    /**
+     * @param stripe The stripe which is full; its slots are replaced with
+     *      twice as many holding everything the old ones did.
+     */
+    private static void grow(Stripe stripe) {
+        int[] symbols = new int[stripe.symbols.length << 1];
+        Declaration[] declarations = new Declaration[symbols.length];
+        
+        for (int slot = 0; slot < stripe.symbols.length; slot++) {
+            if (stripe.symbols[slot] != 0) {
+                int place = slot(symbols, symbols.length - 1, stripe.symbols[slot] - 1);
+                
+                symbols[place] = stripe.symbols[slot];
+                declarations[place] = stripe.declarations[slot];
+            }
+        }
+        
+        stripe.symbols = symbols;
+        stripe.declarations = declarations;
+    }
+    
+    /**
+     * @param symbols The symbols plus one, by slot.
+     * @param mask The mask taking a hash to a slot.
+     * @param symbol The symbol to look for.
+     * @return The slot holding the symbol, or the empty slot it would go in.
+     */
+    private static int slot(int[] symbols, int mask, int symbol) {
+        // the low bits picked the stripe, so the slot is picked by the rest.
+        int slot = (hash(symbol) >>> 6) & mask;
+        
+        while (symbols[slot] != 0 && symbols[slot] != symbol + 1)
+            slot = (slot + 1) & mask;
+        
+        return slot;
+    }
+    
+    /**
+     * @param symbol A symbol.
+     * @return The hash of the symbol; symbols are dense, so they are spread
+     *      before picking a stripe or slot.
+     */
+    private static int hash(int symbol) {
+        int hash = symbol * 0x9e3779b9;
+        
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.util.structures;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Recognizes a fixed set of keywords straight out of the bytes of a source,
+ * without a {@code String} having to be made for every word checked.
+ * 
+ * <p>
+ * The keywords are placed into a table by a perfect hash: when the recognizer
+ * is built, seeds are tried until one sends every keyword to a slot of its
+ * own. Looking up a word is then one pass over its bytes to hash them, and one
+ * comparison against the only keyword it could be. Words shorter or longer
+ * than every keyword are turned away before they are hashed. Unlike the
+ * {@code Trie} only whole keywords match, never their prefixes, and any byte
+ * may appear in a keyword.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+public final class KeywordRecognizer {
+    /** The multiplier mixing each byte into the hash. */
+    private static final int MIX = 0x01000193;
+    
+    /** The keywords, each in the slot its hash sends it to. */
+    private final byte[][] slots;
+    /** The value given to the keyword in each slot. */
+    private final int[] values;
+    /** The seed which sends every keyword to its own slot. */
+    private final int seed;
+    /** The amount the mixed hash is shifted down by to fit the table. */
+    private final int shift;
+    /** The length of the shortest keyword. */
+    private final int minLength;
+    /** The length of the longest keyword. */
+    private final int maxLength;
+    
+    /**
+     * @param keywords The keywords to recognize.
+     * @param values The value to give each keyword when it is found; must not
+     *      be negative.
+     * @throws IllegalArgumentException if the arrays differ in length, or a
+     *      keyword is given twice.
+     */
+    public KeywordRecognizer(String[] keywords, int[] values) {
+        if (keywords.length != values.length)
+            throw new IllegalArgumentException("Expected a value for each of the " + keywords.length + " keywords.");
+        
+        byte[][] words = new byte[keywords.length][];
+        int min = Integer.MAX_VALUE, max = 0;
+        
+        for (int i = 0; i < keywords.length; i++) {
+            words[i] = keywords[i].getBytes(StandardCharsets.UTF_8);
+            min = Math.min(min, words[i].length);
+            max = Math.max(max, words[i].length);
+        }
+        
+        // twice as many slots as keywords keeps the search for a seed short.
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(keywords.length, 1) << 1);
+        int size = 1 << bits;
+        byte[][] table = new byte[size][];
+        int[] tableValues = new int[size];
+        int tried = 0;
+        
+        search:
+        while (true) {
+            tried++;
+            Arrays.fill(table, null);
+            
+            for (int i = 0; i < words.length; i++) {
+                int slot = slot(words[i], 0, words[i].length, tried, 32 - bits);
+                
+                if (table[slot] != null) {
+                    if (Arrays.equals(table[slot], words[i]))
+                        throw new IllegalArgumentException("The keyword \"" + keywords[i] + "\" is given twice.");
+                    
+                    continue search;
+                }
+                
+                table[slot] = words[i];
+                tableValues[slot] = values[i];
+            }
+            
+            break;
+        }
+        
+        this.slots = table;
+        this.values = tableValues;
+        this.seed = tried;
+        this.shift = 32 - bits;
+        this.minLength = keywords.length == 0 ? 1 : min;
+        this.maxLength = max;
+    }
+    
+    /**
+     * Hashes the bytes of a word down to a slot of the table.
+     * 
+     * @param word The bytes holding the word.
+     * @param offset The offset of the word in those bytes.
+     * @param length The amount of bytes in the word.
+     * @param seed The seed to hash with.
+     * @param shift The amount to shift the hash down by.
+     * @return The slot of the word.
+     */
+    private static int slot(byte[] word, int offset, int length, int seed, int shift) {
+        int hash = length;
+        
+        for (int i = offset; i < offset + length; i++)
+            hash = (hash ^ (word[i] & 0xff)) * MIX;
+        
+        return (hash * (seed * 2 + 1)) >>> shift;
+    }
+    
+    /**
+     * Finds the value of the keyword in the source, if the word there is one.
+     * The position of the source is not changed.
+     * 
+     * @param source The source holding the word.
+     * @param offset The offset of the word in the source.
+     * @param length The amount of bytes in the word.
+     * @return The value of the keyword, or -1 if the word is not a keyword.
+     */
+    public int find(ByteBuffer source, int offset, int length) {
+        if (length < minLength || length > maxLength)
+            return -1;
+        
+        // heap sources are read straight out of their arrays.
+        if (source.hasArray())
+            return find(source.array(), source.arrayOffset() + offset, length);
+        
+        int hash = length;
+        
+        for (int i = offset; i < offset + length; i++)
+            hash = (hash ^ (source.get(i) & 0xff)) * MIX;
+        
+        int slot = (hash * (seed * 2 + 1)) >>> shift;
+        byte[] keyword = slots[slot];
+        
+        if (keyword == null || keyword.length != length)
+            return -1;
+        
+        for (int i = 0; i < length; i++)
+            if (keyword[i] != source.get(offset + i))
+                return -1;
+        
+        return values[slot];
+    }
+    
+    /**
+     * @param source The bytes holding the word.
+     * @param offset The offset of the word in the bytes.
+     * @param length The amount of bytes in the word.
+     * @return The value of the keyword, or -1 if the word is not a keyword.
+     */
+    public int find(byte[] source, int offset, int length) {
+        if (length < minLength || length > maxLength)
+            return -1;
+        
+        int slot = slot(source, offset, length, seed, shift);
+        byte[] keyword = slots[slot];
+        
+        if (keyword == null || keyword.length != length)
+            return -1;
+        
+        for (int i = 0; i < length; i++)
+            if (keyword[i] != source[offset + i])
+                return -1;
+        
+        return values[slot];
+    }
+    
+    /**
+     * @param word The word to check.
+     * @return The value of the keyword, or -1 if the word is not a keyword.
+     */
+    public int find(String word) {
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+        
+        return find(bytes, 0, bytes.length);
+    }
+}
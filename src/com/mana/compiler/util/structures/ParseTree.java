@@ -23,11 +23,686 @@
  */
 package com.mana.compiler.util.structures;
 
+import com.mana.compiler.grammar.Token.Type;
+import com.mana.compiler.grammar.TokenCursor;
+import com.mana.compiler.grammar.TokenStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 /**
- *
+ * The parse tree of one file, stored as a flat arena of nodes rather than one
+ * object per node.
+ * 
+ * <p>
+ * A node is nothing more than an index into parallel {@code int} arrays
+ * holding its kind, its token, its first child, its next sibling and its
+ * parent. The kind of a node is the index of the {@code Parser.State} it was
+ * parsed in. Children are found by following {@code first} and then
+ * {@code next} until {@code NONE}, so going over them makes no objects, and
+ * {@code walk} visits a whole subtree without any stack at all by climbing
+ * back up through the parents.
+ * </p>
+ * 
+ * <p>
+ * The tree keeps its own copy of only the tokens its nodes point at, so it
+ * holds the same data whether the file was lexed before parsing or streamed
+ * through a ring. Both the nodes and tokens can be {@code reset} to parse
+ * another file in the same room.
+ * </p>
+ * 
+ * <p>
+ * The parser gives the declarations, statements and blocks of a tree the
+ * span of tokens they were parsed from, and marks each syntax error with the
+ * position the statement or declaration it was found in started at. Both are
+ * positions in the token stream of the file, so that a run of statements can
+ * be parsed again in place after an edit; the nodes it replaces are left in
+ * the arena as {@code garbage}.
+ * </p>
+ * 
  * @author Mana Technologies
  * @version alpha 0.0.0.1
  */
-public class ParseTree {
+public final class ParseTree {
+    /** Marks a missing node or token. */
+    public static final int NONE = -1;
+    /** The index of the root node of every tree. */
+    public static final int ROOT = 0;
+    /** The amount of nodes of a new tree when none is given. */
+    private static final int DEFAULT_CAPACITY = 64;
+    
+    /**
+     * Visits the nodes of a tree by index. Nodes are entered before their
+     * children and exited after them.
+     */
+    public interface Visitor {
+        /**
+         * @param tree The tree being walked.
+         * @param node The node being entered.
+         * @return {@code true} to walk the children of the node.
+         */
+        boolean enter(ParseTree tree, int node);
+        
+        /**
+         * @param tree The tree being walked.
+         * @param node The node being exited, its children already walked.
+         */
+        void exit(ParseTree tree, int node);
+    }
+    
+    /** The kinds of the nodes. */
+    private int[] kinds;
+    /** The tokens of the nodes, {@code NONE} for nodes without one. */
+    private int[] tokens;
+    /** The first children of the nodes. */
+    private int[] firsts;
+    /** The next siblings of the nodes. */
+    private int[] nexts;
+    /** The last children of the nodes, so children are added in place. */
+    private int[] lasts;
+    /** The parents of the nodes. */
+    private int[] parents;
+    /** The positions of the first tokens of the nodes, {@code NONE} if not kept. */
+    private int[] starts;
+    /** The positions past the last tokens of the nodes, {@code NONE} if not kept. */
+    private int[] ends;
+    /** The positions the syntax errors of this tree were marked at. */
+    private int[] faults = new int[4];
+    /** The amount of syntax errors marked. */
+    private int faultCount;
+    /** The amount of nodes which are no longer part of the tree. */
+    private int garbage;
+    /** The amount of nodes in this tree. */
+    private int size;
+    /** The amount of errors found in this tree. */
+    private int errors;
+    /** The tokens pointed at by the nodes. */
+    private final TokenStream table;
+    
+    /**
+     * @param file The id of the source this tree is parsed from.
+     * @param rootKind The kind of the root node.
+     */
+    public ParseTree(short file, int rootKind) {
+        this(file, rootKind, DEFAULT_CAPACITY);
+    }
+    
+    /**
+     * @param file The id of the source this tree is parsed from.
+     * @param rootKind The kind of the root node.
+     * @param capacity The amount of nodes to make room for up front.
+     */
+    public ParseTree(short file, int rootKind, int capacity) {
+        capacity = Math.max(capacity, 1);
+        kinds = new int[capacity];
+        tokens = new int[capacity];
+        firsts = new int[capacity];
+        nexts = new int[capacity];
+        lasts = new int[capacity];
+        parents = new int[capacity];
+        starts = new int[capacity];
+        ends = new int[capacity];
+        table = new TokenStream(file, capacity);
+        add(rootKind, NONE);
+    }
+    
+    /**
+     * Drops every node and token while keeping the room they took, so the
+     * tree of another file can be parsed into it.
+     * 
+     * @param file The id of the source the next tree is parsed from.
+     * @param rootKind The kind of the root node.
+     */
+    public void reset(short file, int rootKind) {
+        size = 0;
+        errors = 0;
+        faultCount = 0;
+        garbage = 0;
+        table.clear(file);
+        add(rootKind, NONE);
+    }
+    
+    /**
+     * Adds a node without a parent yet; it is given one by {@code append}.
+     * 
+     * @param kind The kind of the node.
+     * @param token The token of the node, as given by {@code token}, or
+     *      {@code NONE}.
+     * @return The new node.
+     */
+    public int add(int kind, int token) {
+        if (size == kinds.length)
+            grow();
+        
+        kinds[size] = kind;
+        tokens[size] = token;
+        firsts[size] = NONE;
+        nexts[size] = NONE;
+        lasts[size] = NONE;
+        parents[size] = NONE;
+        starts[size] = NONE;
+        ends[size] = NONE;
+        
+        return size++;
+    }
+    
+    /**
+     * Adds a node holding the current token of the cursor. The cursor is not
+     * moved.
+     * 
+     * @param kind The kind of the node.
+     * @param cursor The cursor at the token of the node.
+     * @return The new node.
+     */
+    public int add(int kind, TokenCursor cursor) {
+        return add(kind, token(cursor));
+    }
+    
+    /**
+     * Copies the current token of the cursor into this tree. The cursor is
+     * not moved.
+     * 
+     * @param cursor The cursor at the token.
+     * @return The index of the token in this tree.
+     */
+    public int token(TokenCursor cursor) {
+        table.add(cursor.type(), cursor.offset(), cursor.length(), cursor.symbol(), cursor.line(), cursor.column());
+        
+        return table.size() - 1;
+    }
+    
+    /**
+     * Makes a node the last child of another.
+     * 
+     * @param parent The node to add the child to.
+     * @param child A node with no parent yet, or {@code NONE} to add nothing.
+     * @return The parent.
+     */
+    public int append(int parent, int child) {
+        if (child == NONE)
+            return parent;
+        
+        if (firsts[parent] == NONE)
+            firsts[parent] = child;
+        else
+            nexts[lasts[parent]] = child;
+        
+        lasts[parent] = child;
+        parents[child] = parent;
+        
+        return parent;
+    }
+    
+    /**
+     * Keeps the span of tokens a node was parsed from.
+     * 
+     * @param node The node, or {@code NONE} to keep nothing.
+     * @param start The position of the first token of the node.
+     * @param end The position past the last token of the node.
+     * @return The node.
+     */
+    public int span(int node, int start, int end) {
+        if (node != NONE) {
+            starts[node] = start;
+            ends[node] = end;
+        }
+        
+        return node;
+    }
+    
+    /**
+     * Counts an error found in this tree. A tree with syntax errors may be
+     * missing nodes, so it is not checked, and a tree with any errors is not
+     * generated.
+     */
+    public void error() {
+        errors++;
+    }
+    
+    /**
+     * Counts a syntax error found in this tree, marking it with a position.
+     * 
+     * @param position The position the statement or declaration the error was
+     *      found in started at.
+     */
+    public void error(int position) {
+        if (faultCount == faults.length)
+            faults = Arrays.copyOf(faults, faultCount << 1);
+        
+        faults[faultCount++] = position;
+        errors++;
+    }
+    
+    /**
+     * Moves the children of one node in place of a run of children of another.
+     * The children replaced, and the node they are taken from, are left as
+     * garbage.
+     * 
+     * @param parent The node whose children are replaced.
+     * @param previous The child before the run, or {@code NONE} if the run
+     *      starts at the first child.
+     * @param next The child after the run, or {@code NONE} if the run goes on
+     *      to the last child.
+     * @param holder The node whose children take the place of the run.
+     */
+    public void replace(int parent, int previous, int next, int holder) {
+        int head = firsts[holder];
+        int tail = lasts[holder];
+        int child = previous == NONE ? firsts[parent] : nexts[previous];
+        
+        for (; child != next; child = nexts[child])
+            garbage += count(child);
+        
+        garbage++;
+        
+        for (child = head; child != NONE; child = nexts[child])
+            parents[child] = parent;
+        
+        if (head == NONE) {
+            head = next;
+            tail = previous;
+        } else
+            nexts[tail] = next;
+        
+        if (previous == NONE)
+            firsts[parent] = head;
+        else
+            nexts[previous] = head;
+        
+        if (next == NONE)
+            lasts[parent] = tail;
+    }
+    
+    /**
+     * @param node A node.
+     * @return The amount of nodes in the subtree of the node.
+     */
+    private int count(int node) {
+        int[] result = new int[1];
+        
+        walk(node, new Visitor() {
+            @Override
+            public boolean enter(ParseTree tree, int node) {
+                result[0]++;
+                
+                return true;
+            }
+            
+            @Override
+            public void exit(ParseTree tree, int node) {}
+        });
+        
+        return result[0];
+    }
+    
+    /**
+     * Drops the nodes, tokens and syntax errors added since this tree had the
+     * given amounts of each.
+     * 
+     * @param nodes The amount of nodes to keep.
+     * @param tokens The amount of tokens to keep.
+     * @param faults The amount of syntax errors to keep.
+     */
+    public void rollback(int nodes, int tokens, int faults) {
+        errors -= faultCount - faults;
+        size = nodes;
+        faultCount = faults;
+        table.truncate(tokens);
+    }
+    
+    /**
+     * Brings the spans and syntax errors kept before part of this tree was
+     * parsed again in line with the positions of the tokens after the edit
+     * which caused it. The errors of the part parsed again are dropped, as
+     * the parse added them anew; errors which were not syntax errors are all
+     * dropped, as the tree has to be checked again.
+     * 
+     * @param nodes The amount of nodes before the part was parsed again.
+     * @param marked The amount of syntax errors before the part was parsed
+     *      again.
+     * @param from The old position the part parsed again started at.
+     * @param to The old position past the part parsed again.
+     * @param moved The old position of the first token moved by the edit.
+     * @param delta The amount of places the moved tokens moved by.
+     */
+    public void repair(int nodes, int marked, int from, int to, int moved, int delta) {
+        // the root always starts at the first token, and every other node
+        // holding the part starts before it.
+        for (int node = ROOT + 1; node < nodes; node++) {
+            if (starts[node] >= moved)
+                starts[node] += delta;
+            
+            if (ends[node] >= moved)
+                ends[node] += delta;
+        }
+        
+        if (ends[ROOT] >= moved)
+            ends[ROOT] += delta;
+        
+        int kept = 0;
+        
+        for (int i = 0; i < faultCount; i++) {
+            int position = faults[i];
+            
+            if (i < marked) {
+                if (position >= from && position < to)
+                    continue;
+                
+                if (position >= moved)
+                    position += delta;
+            }
+            
+            faults[kept++] = position;
+        }
+        
+        faultCount = kept;
+        errors = kept;
+    }
+    
+    /** Doubles the room in each of the arrays. */
+    private void grow() {
+        int capacity = kinds.length << 1;
+        
+        kinds = Arrays.copyOf(kinds, capacity);
+        tokens = Arrays.copyOf(tokens, capacity);
+        firsts = Arrays.copyOf(firsts, capacity);
+        nexts = Arrays.copyOf(nexts, capacity);
+        lasts = Arrays.copyOf(lasts, capacity);
+        parents = Arrays.copyOf(parents, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+        ends = Arrays.copyOf(ends, capacity);
+    }
+    
+    /**
+     * @return The id of the source this tree is parsed from.
+     */
+    public short file() { return table.file(); }
+    
+    /**
+     * @return The amount of nodes in this tree.
+     */
+    public int size() { return size; }
+    
+    /**
+     * @return The amount of errors found in this tree.
+     */
+    public int errors() { return errors; }
+    
+    /**
+     * @return The amount of syntax errors marked in this tree.
+     */
+    public int faults() { return faultCount; }
+    
+    /**
+     * @param position The position of the first token of a statement or
+     *      declaration.
+     * @return {@code true} if a syntax error was marked for the statement.
+     */
+    public boolean faulted(int position) {
+        for (int i = 0; i < faultCount; i++) {
+            if (faults[i] == position)
+                return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * @return The amount of nodes which are no longer part of this tree.
+     */
+    public int garbage() { return garbage; }
+    
+    /**
+     * @return The tokens pointed at by the nodes of this tree.
+     */
+    public TokenStream tokens() { return table; }
+    
+    /**
+     * @param node A node.
+     * @return The kind of the node.
+     */
+    public int kind(int node) { return kinds[node]; }
+    
+    /**
+     * @param node A node.
+     * @return The index of the token of the node in {@code tokens()}, or
+     *      {@code NONE}.
+     */
+    public int token(int node) { return tokens[node]; }
+    
+    /**
+     * @param node A node.
+     * @return The first child of the node, or {@code NONE}.
+     */
+    public int first(int node) { return firsts[node]; }
+    
+    /**
+     * @param node A node.
+     * @return The next sibling of the node, or {@code NONE}.
+     */
+    public int next(int node) { return nexts[node]; }
+    
+    /**
+     * @param node A node.
+     * @return The parent of the node, or {@code NONE} for the root.
+     */
+    public int parent(int node) { return parents[node]; }
+    
+    /**
+     * @param node A node.
+     * @return The position of the first token the node was parsed from, or
+     *      {@code NONE} if it was not kept.
+     */
+    public int start(int node) { return starts[node]; }
+    
+    /**
+     * @param node A node.
+     * @return The position past the last token the node was parsed from, or
+     *      {@code NONE} if it was not kept.
+     */
+    public int end(int node) { return ends[node]; }
+    
+    /**
+     * @param node A node.
+     * @param index The place of the child among its siblings.
+     * @return The child at that place, or {@code NONE}.
+     */
+    public int child(int node, int index) {
+        int child = firsts[node];
+        
+        while (child != NONE && index-- > 0)
+            child = nexts[child];
+        
+        return child;
+    }
+    
+    /**
+     * @param node A node.
+     * @return The amount of children of the node.
+     */
+    public int children(int node) {
+        int result = 0;
+        
+        for (int child = firsts[node]; child != NONE; child = nexts[child])
+            result++;
+        
+        return result;
+    }
+    
+    /**
+     * Walks a subtree in order, entering each node before its children and
+     * exiting it after them.
+     * 
+     * @param node The root of the subtree.
+     * @param visitor The visitor to hand each node to.
+     */
+    public void walk(int node, Visitor visitor) {
+        int current = node;
+        
+        while (true) {
+            if (visitor.enter(this, current) && firsts[current] != NONE) {
+                current = firsts[current];
+                continue;
+            }
+            
+            // climb until a node has a sibling left, exiting on the way.
+            while (true) {
+                visitor.exit(this, current);
+                
+                if (current == node)
+                    return;
+                
+                if (nexts[current] != NONE) {
+                    current = nexts[current];
+                    break;
+                }
+                
+                current = parents[current];
+            }
+        }
+    }
+    
+    /**
+     * Writes the nodes and tokens of this tree as varints. Links are written
+     * by how far they point from their node, and tokens and spans by how far
+     * they are from the ones before them, so most take one byte. Symbols are
+     * not written, as their ids only hold for this run of the compiler;
+     * {@code read} interns the identifiers again.
+     * 
+     * @param out The output to write to.
+     * @throws IOException if the output cannot be written.
+     */
+    public void write(DataOutput out) throws IOException {
+        Varint.write(out, size);
+        Varint.write(out, errors);
+        Varint.write(out, faultCount);
+        
+        for (int i = 0; i < faultCount; i++)
+            Varint.write(out, faults[i]);
+        
+        int previous = 0;
+        int position = 0;
+        
+        for (int node = 0; node < size; node++) {
+            Varint.write(out, kinds[node]);
+            Varint.write(out, relative(tokens[node], previous));
+            Varint.write(out, relative(firsts[node], node));
+            Varint.write(out, relative(nexts[node], node));
+            Varint.write(out, relative(lasts[node], node));
+            Varint.write(out, relative(parents[node], node));
+            Varint.write(out, relative(starts[node], position));
+            Varint.write(out, relative(ends[node], starts[node] == NONE ? position : starts[node]));
+            
+            if (tokens[node] != NONE)
+                previous = tokens[node];
+            
+            if (starts[node] != NONE)
+                position = starts[node];
+        }
+        
+        int offset = 0;
+        int line = 0;
+        
+        Varint.write(out, table.size());
+        
+        for (int token = 0; token < table.size(); token++) {
+            Varint.write(out, table.type(token).index);
+            Varint.write(out, table.offset(token) - offset);
+            Varint.write(out, table.length(token));
+            Varint.write(out, table.line(token) - line);
+            Varint.write(out, table.column(token));
+            offset = table.offset(token);
+            line = table.line(token);
+        }
+    }
+    
+    /**
+     * Reads a tree written by {@code write} for the same source.
+     * 
+     * @param in The buffer to read from, moved past the tree.
+     * @param file The id the source was registered under in this run.
+     * @param source The source the tree was parsed from.
+     * @return The tree.
+     */
+    public static ParseTree read(ByteBuffer in, short file, ByteBuffer source) {
+        Type[] types = Type.values();
+        int count = Varint.read(in);
+        int errors = Varint.read(in);
+        ParseTree result = new ParseTree(file, 0, count);
+        
+        result.faultCount = Varint.read(in);
+        result.faults = new int[Math.max(result.faultCount, 4)];
+        
+        for (int i = 0; i < result.faultCount; i++)
+            result.faults[i] = Varint.read(in);
+        
+        int previous = 0;
+        int position = 0;
+        
+        for (int node = 0; node < count; node++) {
+            result.kinds[node] = Varint.read(in);
+            result.tokens[node] = absolute(Varint.read(in), previous);
+            result.firsts[node] = absolute(Varint.read(in), node);
+            result.nexts[node] = absolute(Varint.read(in), node);
+            result.lasts[node] = absolute(Varint.read(in), node);
+            result.parents[node] = absolute(Varint.read(in), node);
+            result.starts[node] = absolute(Varint.read(in), position);
+            result.ends[node] = absolute(Varint.read(in), result.starts[node] == NONE ? position : result.starts[node]);
+            
+            if (result.tokens[node] != NONE)
+                previous = result.tokens[node];
+            
+            if (result.starts[node] != NONE)
+                position = result.starts[node];
+        }
+        
+        result.size = count;
+        result.errors = errors;
+        count = Varint.read(in);
+        
+        int offset = 0;
+        int line = 0;
+        
+        for (int token = 0; token < count; token++) {
+            Type type = types[Varint.read(in)];
+            offset += Varint.read(in);
+            int length = Varint.read(in);
+            line += Varint.read(in);
+            int symbol = type == Type.identifier ? SymbolInterner.SHARED.intern(source, offset, length) : -1;
+            
+            result.table.add(type, offset, length, symbol, line, Varint.read(in));
+        }
+        
+        return result;
+    }
+    
+    /**
+     * @param value A node, token or position, or {@code NONE}.
+     * @param base What the value is written relative to.
+     * @return Zero for {@code NONE}, otherwise the distance from the base
+     *      with its sign in the low bit, plus one.
+     */
+    private static int relative(int value, int base) {
+        if (value == NONE)
+            return 0;
+        
+        int distance = value - base;
+        
+        return (distance << 1 ^ distance >> 31) + 1;
+    }
     
+    /**
+     * @param written A value given by {@code relative}.
+     * @param base What the value was written relative to.
+     * @return The node, token or position, or {@code NONE}.
+     */
+    private static int absolute(int written, int base) {
+        if (written == 0)
+            return NONE;
+        
+        int distance = written - 1;
+        
+        return base + (distance >>> 1 ^ -(distance & 1));
+    }
 }
@@ -0,0 +1,332 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.util.structures;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Gives every distinct name seen during compilation a dense {@code int} id, so
+ * that the rest of the compiler can hold and compare names as numbers instead
+ * of as copies of their text.
+ * 
+ * <p>
+ * The interner is shared by every thread. Names are split between a number of
+ * stripes by their hash, and each stripe is an open addressed table of ids.
+ * Finding a name which is already interned takes no lock: the table of the
+ * stripe is read through a volatile reference and its slots through volatile
+ * reads. Only a name which is not found takes the lock of its stripe, looks
+ * again, and inserts it; a stripe which fills up past half is copied into a
+ * table twice its size which is then published in place of the old one.
+ * </p>
+ * 
+ * <p>
+ * The bytes of each name are kept in pages indexed by id, so that an id can be
+ * turned back into its name.
+ * </p>
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+public final class SymbolInterner {
+    /** The interner shared by the whole compiler. */
+    public static final SymbolInterner SHARED = new SymbolInterner();
+    
+    /** The amount of stripes; a power of two. */
+    private static final int STRIPES = 64;
+    /** The amount of slots in the table of a new stripe; a power of two. */
+    private static final int INITIAL_SLOTS = 64;
+    /** The amount of bits of an id which pick its place in a page. */
+    private static final int PAGE_BITS = 12;
+    /** The amount of names held by each page. */
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    /** The amount of pages; enough for 64M names. */
+    private static final int PAGES = 1 << 14;
+    /** The most names an interner can hold. */
+    public static final int CAPACITY = PAGES * PAGE_SIZE;
+    
+    /**
+     * The slots of one stripe. A slot holds the id of a name plus one, so
+     * that zero marks an empty slot, and the hash of that name.
+     */
+    private static final class Table {
+        /** The ids of the names plus one, read and written as volatile. */
+        final AtomicIntegerArray ids;
+        /** The hashes of the names, written before their ids. */
+        final int[] hashes;
+        /** The mask taking a hash to a slot. */
+        final int mask;
+        
+        /**
+         * @param slots The amount of slots; a power of two.
+         */
+        Table(int slots) {
+            ids = new AtomicIntegerArray(slots);
+            hashes = new int[slots];
+            mask = slots - 1;
+        }
+    }
+    
+    /** A part of the interner with its own table and lock. */
+    private static final class Stripe {
+        /** The current table of this stripe. */
+        volatile Table table = new Table(INITIAL_SLOTS);
+        /** The amount of names in this stripe; guarded by the stripe. */
+        int count;
+    }
+    
+    /** The stripes, picked by the low bits of the hash of a name. */
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    /** The next id to hand out. */
+    private final AtomicInteger next = new AtomicInteger();
+    /** The bytes of each name, by page then place in the page. */
+    private final AtomicReferenceArray<byte[][]> pages = new AtomicReferenceArray<>(PAGES);
+    
+    /** Default constructor. */
+    public SymbolInterner() {
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i] = new Stripe();
+    }
+    
+    /**
+     * Interns the name held in the source, giving it an id if it has none yet.
+     * The position of the source is not changed.
+     * 
+     * @param source The source holding the name.
+     * @param offset The offset of the name in the source.
+     * @param length The amount of bytes in the name.
+     * @return The id of the name.
+     */
+    public int intern(ByteBuffer source, int offset, int length) {
+        int hash = hash(source, offset, length);
+        Stripe stripe = stripes[hash & (STRIPES - 1)];
+        int found = find(stripe.table, hash, source, offset, length);
+        
+        return found >= 0 ? found : insert(stripe, hash, source, offset, length);
+    }
+    
+    /**
+     * @param name The name to intern.
+     * @return The id of the name.
+     */
+    public int intern(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        
+        return intern(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+    
+    /**
+     * Looks for the id of a name without interning it.
+     * 
+     * @param name The name to look for.
+     * @return The id of the name, or -1 if it has not been interned.
+     */
+    public int lookup(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer source = ByteBuffer.wrap(bytes);
+        int hash = hash(source, 0, bytes.length);
+        
+        return find(stripes[hash & (STRIPES - 1)].table, hash, source, 0, bytes.length);
+    }
+    
+    /**
+     * @param id The id of a name.
+     * @return The bytes of that name; they must not be changed.
+     */
+    public byte[] bytes(int id) {
+        return pages.get(id >>> PAGE_BITS)[id & (PAGE_SIZE - 1)];
+    }
+    
+    /**
+     * @param id The id of a name.
+     * @return The name, decoded as UTF-8.
+     */
+    public String name(int id) {
+        return new String(bytes(id), StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * @return The amount of names interned so far.
+     */
+    public int size() {
+        return next.get();
+    }
+    
+    /**
+     * Probes the table for the name without taking any lock.
+     * 
+     * @param table The table to probe.
+     * @param hash The hash of the name.
+     * @param source The source holding the name.
+     * @param offset The offset of the name in the source.
+     * @param length The amount of bytes in the name.
+     * @return The id of the name, or -1 if the table does not hold it.
+     */
+    private int find(Table table, int hash, ByteBuffer source, int offset, int length) {
+        // the low bits picked the stripe, so the slot is picked by the rest.
+        for (int slot = (hash >>> 6) & table.mask; ; slot = (slot + 1) & table.mask) {
+            int id = table.ids.get(slot) - 1;
+            
+            if (id < 0)
+                return -1;
+            
+            if (table.hashes[slot] == hash && matches(bytes(id), source, offset, length))
+                return id;
+        }
+    }
+    
+    /**
+     * Looks for the name again under the lock of its stripe, and interns it if
+     * it is still not there.
+     * 
+     * @param stripe The stripe of the name.
+     * @param hash The hash of the name.
+     * @param source The source holding the name.
+     * @param offset The offset of the name in the source.
+     * @param length The amount of bytes in the name.
+     * @return The id of the name.
+     */
+    private int insert(Stripe stripe, int hash, ByteBuffer source, int offset, int length) {
+        synchronized (stripe) {
+            Table table = stripe.table;
+            int found = find(table, hash, source, offset, length);
+            
+            if (found >= 0)
+                return found;
+            
+            byte[] name = new byte[length];
+            
+            for (int i = 0; i < length; i++)
+                name[i] = source.get(offset + i);
+            
+            int id = next.getAndIncrement();
+            
+            if (id >>> PAGE_BITS >= PAGES)
+                throw new IllegalStateException("Cannot intern more than " + CAPACITY + " names.");
+            
+            page(id >>> PAGE_BITS)[id & (PAGE_SIZE - 1)] = name;
+            
+            if (++stripe.count << 1 > table.mask + 1) {
+                table = grow(table);
+                place(table, hash, id);
+                stripe.table = table;
+            } else {
+                // the volatile write of the id publishes the name and hash.
+                place(table, hash, id);
+            }
+            
+            return id;
+        }
+    }
+    
+    /**
+     * @param index The index of the page.
+     * @return The page, made if it did not exist yet.
+     */
+    private byte[][] page(int index) {
+        byte[][] page = pages.get(index);
+        
+        if (page == null && !pages.compareAndSet(index, null, page = new byte[PAGE_SIZE][]))
+            page = pages.get(index);
+        
+        return page;
+    }
+    
+    /**
+     * Places an id in the first free slot for its hash.
+     * 
+     * @param table The table to place the id in.
+     * @param hash The hash of the name.
+     * @param id The id of the name.
+     */
+    private static void place(Table table, int hash, int id) {
+        int slot = (hash >>> 6) & table.mask;
+        
+        while (table.ids.get(slot) != 0)
+            slot = (slot + 1) & table.mask;
+        
+        table.hashes[slot] = hash;
+        table.ids.set(slot, id + 1);
+    }
+    
+    /**
+     * @param table The table that is full.
+     * @return A table twice the size, holding everything the old one did.
+     */
+    private static Table grow(Table table) {
+        Table result = new Table((table.mask + 1) << 1);
+        
+        for (int slot = 0; slot <= table.mask; slot++) {
+            int id = table.ids.get(slot) - 1;
+            
+            if (id >= 0)
+                place(result, table.hashes[slot], id);
+        }
+        
+        return result;
+    }
+    
+    /**
+     * @param name The bytes of an interned name.
+     * @param source The source holding the other name.
+     * @param offset The offset of the other name in the source.
+     * @param length The amount of bytes in the other name.
+     * @return {@code true} if the name is equal to the bytes in the source.
+     */
+    private static boolean matches(byte[] name, ByteBuffer source, int offset, int length) {
+        if (name.length != length)
+            return false;
+        
+        for (int i = 0; i < length; i++)
+            if (name[i] != source.get(offset + i))
+                return false;
+        
+        return true;
+    }
+    
+    /**
+     * @param source The source holding the name.
+     * @param offset The offset of the name in the source.
+     * @param length The amount of bytes in the name.
+     * @return The hash of the bytes, mixed so that its low and high bits are
+     *      both usable.
+     */
+    private static int hash(ByteBuffer source, int offset, int length) {
+        int hash = 0x811c9dc5;
+        
+        for (int i = offset; i < offset + length; i++)
+            hash = (hash ^ (source.get(i) & 0xff)) * 0x01000193;
+        
+        // a final mix, so names differing only in their last byte are spread
+        // across stripes.
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        
+        return hash;
+    }
+}
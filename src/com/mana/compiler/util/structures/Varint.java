@@ -0,0 +1,77 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Mana Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mana.compiler.util.structures;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes and reads {@code int}s in as few bytes as their values need, seven
+ * bits to a byte with the high bit set on every byte but the last. Small
+ * values, which are most of the lengths, positions and ids the compiler
+ * stores, take one or two bytes instead of four; a negative value takes five.
+ * 
+ * @author Mana Technologies
+ * @version alpha 0.0.0.1
+ */
+public final class Varint {
+    /** Not to be made. */
+    private Varint() {}
+    
+    /**
+     * @param out The output to write to.
+     * @param value The value to write, taken as unsigned.
+     * @throws IOException if the output cannot be written.
+     */
+    public static void write(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte(value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        
+        out.writeByte(value);
+    }
+    
+    /**
+     * Reads a value written by {@code write}, moving the buffer past it.
+     * 
+     * @param in The buffer to read from.
+     * @throws IllegalArgumentException if the value runs over five bytes.
+     * @return The value.
+     */
+    public static int read(ByteBuffer in) {
+        int value = 0;
+        
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte next = in.get();
+            value |= (next & 0x7f) << shift;
+            
+            if (next >= 0)
+                return value;
+        }
+        
+        throw new IllegalArgumentException("A varint ran over five bytes.");
+    }
+}